@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeSpecification;
 import com.beanit.iec61850bean.internal.mms.asn1.Unsigned32;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -134,6 +136,24 @@ public final class Array extends FcModelNode {
     }
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.ARRAY, "array");
+    if (reader.countElements(reader.getContentsEnd()) != items.size()) {
+      throw new ServiceError(
+          ServiceError.TYPE_CONFLICT, "expected type: array with " + children.size() + " elements");
+    }
+
+    for (ModelNode child : items) {
+      child.setValueFromBer(reader);
+    }
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeConstructed(reverseOS, MmsDataReader.ARRAY, this, items);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
 
@@ -21,8 +21,8 @@ import java.util.List;
 
 public abstract class BasicDataAttribute extends FcModelNode {
 
-  final List<Urcb> chgRcbs;
-  final List<Urcb> dupdRcbs;
+  final List<Rcb> chgRcbs;
+  final List<Rcb> dupdRcbs;
   BasicDataAttribute mirror;
   /** attribute value type */
   BdaType basicType = null;
@@ -33,6 +33,10 @@ public abstract class BasicDataAttribute extends FcModelNode {
   boolean qchg;
   boolean dupd;
 
+  // incremented whenever the value of the attribute of the server model is set, always while the
+  // model is locked for writing, so that encodings of the value can be reused until then
+  volatile long valueVersion = 0;
+
   protected BasicDataAttribute(
       ObjectReference objectReference, Fc fc, String sAddr, boolean dchg, boolean dupd) {
     this.objectReference = objectReference;
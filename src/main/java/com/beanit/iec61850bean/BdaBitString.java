@@ -13,11 +13,13 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.BerBitString;
 import com.beanit.iec61850bean.internal.HexString;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.Integer32;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 
 public abstract class BdaBitString extends BasicDataAttribute {
 
@@ -89,6 +91,27 @@ public abstract class BdaBitString extends BasicDataAttribute {
     value = data.getBitString().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    int length = reader.readHeader(MmsDataReader.BIT_STRING, "bit_string");
+    int numBits = (length - 1) * 8 - reader.readUnusedBits();
+    if (numBits > maxNumBits) {
+      throw new ServiceError(
+          ServiceError.TYPE_CONFLICT,
+          objectReference
+              + ": bit_string is bigger than type's size: "
+              + numBits
+              + ">"
+              + maxNumBits);
+    }
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeBitString(reverseOS, value, maxNumBits);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
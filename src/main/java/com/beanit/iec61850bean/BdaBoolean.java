@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.BerNull;
 import com.beanit.iec61850bean.internal.BerBoolean;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 
 public final class BdaBoolean extends BasicDataAttribute {
 
@@ -74,6 +76,17 @@ public final class BdaBoolean extends BasicDataAttribute {
     value = data.getBool().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.BOOLEAN, "boolean");
+    value = reader.readBoolean();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeBoolean(reverseOS, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
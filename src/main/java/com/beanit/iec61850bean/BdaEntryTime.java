@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.BerBoolean;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.TimeOfDay;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 
 /**
  * BdaEntryTime stores time in terms of days and ms since 1984.
@@ -123,6 +125,20 @@ public final class BdaEntryTime extends BasicDataAttribute {
     value = data.getBinaryTime().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.BINARY_TIME, "binary_time/EntryTime");
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    if (value == null) {
+      return -1;
+    }
+    return MmsDataWriter.writeBytes(reverseOS, MmsDataReader.BINARY_TIME, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
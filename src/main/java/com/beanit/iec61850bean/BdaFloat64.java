@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.FloatingPoint;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
 import com.beanit.iec61850bean.internal.mms.asn1.Unsigned8;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -108,6 +110,26 @@ public final class BdaFloat64 extends BasicDataAttribute {
     value = data.getFloatingPoint().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    int length =
+        reader.readHeader(
+            MmsDataReader.FLOATING_POINT, "floating_point as an octet string of size 9");
+    if (length != 9) {
+      throw new ServiceError(
+          ServiceError.TYPE_CONFLICT, "expected type: floating_point as an octet string of size 9");
+    }
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    if (value == null) {
+      return -1;
+    }
+    return MmsDataWriter.writeBytes(reverseOS, MmsDataReader.FLOATING_POINT, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription.FloatingPoint floatingPointTypeDescription =
@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.BerInteger;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
 import com.beanit.iec61850bean.internal.mms.asn1.Unsigned8;
+import java.io.IOException;
 
 public final class BdaInt16 extends BasicDataAttribute {
 
@@ -74,6 +76,17 @@ public final class BdaInt16 extends BasicDataAttribute {
     value = data.getInteger().value.shortValue();
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.INTEGER, "integer");
+    value = (short) reader.readInteger();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeInteger(reverseOS, MmsDataReader.INTEGER, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
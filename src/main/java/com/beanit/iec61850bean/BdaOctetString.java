@@ -13,10 +13,12 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.BerOctetString;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.Integer32;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 import java.util.Arrays;
 
 public final class BdaOctetString extends BasicDataAttribute {
@@ -96,6 +98,17 @@ public final class BdaOctetString extends BasicDataAttribute {
     value = data.getOctetString().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.OCTET_STRING, "octet_string");
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeBytes(reverseOS, MmsDataReader.OCTET_STRING, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
@@ -15,10 +15,12 @@ package com.beanit.iec61850bean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.Integer32;
 import com.beanit.iec61850bean.internal.mms.asn1.MMSString;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 
 public final class BdaUnicodeString extends BasicDataAttribute {
 
@@ -98,6 +100,17 @@ public final class BdaUnicodeString extends BasicDataAttribute {
     value = data.getMMSString().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.MMS_STRING, "mms_string/unicode_string");
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeBytes(reverseOS, MmsDataReader.MMS_STRING, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
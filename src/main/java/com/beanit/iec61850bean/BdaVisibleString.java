@@ -15,10 +15,12 @@ package com.beanit.iec61850bean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.string.BerVisibleString;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.Integer32;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
 
 public final class BdaVisibleString extends BasicDataAttribute {
 
@@ -105,6 +107,17 @@ public final class BdaVisibleString extends BasicDataAttribute {
     value = data.getVisibleString().value;
   }
 
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.VISIBLE_STRING, "visible_string");
+    value = reader.readBytes();
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeBytes(reverseOS, MmsDataReader.VISIBLE_STRING, value);
+  }
+
   @Override
   TypeDescription getMmsTypeSpec() {
     TypeDescription typeDescription = new TypeDescription();
@@ -13,11 +13,47 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.asn1bean.ber.types.BerOctetString;
+import com.beanit.iec61850bean.internal.BerBoolean;
+import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
+import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import com.beanit.iec61850bean.internal.mms.asn1.MMSpdu;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * A buffered report control block. On the server side the reports of a BRCB are stored as entries
+ * in a {@link ReportBuffer} before they are sent. Buffering starts when the BRCB is enabled for the
+ * first time and continues while it is disabled, e.g. because the association of the client was
+ * lost. When the client enables the BRCB again, all entries after the one identified by EntryID
+ * are sent. A client can write EntryID before enabling the BRCB to resynchronize to an earlier
+ * entry. If entries are discarded before they were sent, the next report has BufOvfl set.
+ * Writing DatSet, TrgOps, BufTm or IntgPd stops buffering and purges the buffer.
+ *
+ * <p>If the server is configured with a buffer directory, the buffer is stored on disk and
+ * buffering resumes after the server has been restarted.
+ */
 public class Brcb extends Rcb {
 
+  // entries added within this time after an entry are synced to disk together with it
+  private static final long SYNC_DELAY_MILLIS = 100;
+
+  // the state below is only used by the server and is guarded by the BRCB
+  // the association that enabled the BRCB, null while it is disabled
+  ServerAssociation owner = null;
+  private ReportBuffer buffer = null;
+  private ReverseByteArrayOutputStream entryOStream = null;
+  // the entries after this one have not been sent yet
+  private long lastSentEntryId = 0;
+  // whether entries were discarded before they were sent
+  private boolean bufferOverflow = false;
+  private ScheduledFuture<?> syncFuture = null;
+
   public Brcb(ObjectReference objectReference, List<FcModelNode> children) {
     super(objectReference, Fc.BR, children);
   }
@@ -54,4 +90,287 @@ public class Brcb extends Rcb {
     brcb.dataSet = dataSet;
     return brcb;
   }
+
+  /**
+   * Enables reporting to the given association. The entries that have not been sent yet are sent
+   * by the timer of the association.
+   *
+   * @param association the association of the client that enabled the BRCB
+   * @param bufferSize the size of the buffer in bytes, used if no buffer exists yet
+   */
+  void enable(ServerAssociation association, int bufferSize) {
+    owner = association;
+    if (!isMonitoring()) {
+      if (buffer == null) {
+        setBuffer(new MemoryReportBuffer(bufferSize));
+      }
+      startBuffering(association.executor);
+    }
+    association.executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (Brcb.this) {
+              sendEntries();
+            }
+          }
+        });
+  }
+
+  void disable() {
+    owner = null;
+  }
+
+  void setBuffer(ReportBuffer buffer) {
+    this.buffer = buffer;
+    entryOStream = new ReverseByteArrayOutputStream(500, true);
+    lastSentEntryId = buffer.getFirstEntryId() - 1;
+  }
+
+  /**
+   * Starts monitoring the data set. Entries that were buffered with a different data set are
+   * discarded.
+   */
+  void startBuffering(ScheduledExecutorService timer) {
+    StringBuilder configuration = new StringBuilder(dataSet.getReferenceStr());
+    for (FcModelNode member : dataSet.getMembers()) {
+      configuration.append(' ').append(member.getReference()).append(member.getFc());
+    }
+    buffer.setConfiguration(configuration.toString());
+    lastSentEntryId = Math.max(lastSentEntryId, buffer.getFirstEntryId() - 1);
+    startMonitoring(timer);
+  }
+
+  /** Stops buffering and closes the buffer, e.g. because the server is stopped. */
+  void closeBuffer() {
+    if (isMonitoring()) {
+      stopMonitoring();
+    }
+    if (syncFuture != null) {
+      syncFuture.cancel(false);
+      syncFuture = null;
+    }
+    if (buffer != null) {
+      buffer.close();
+      buffer = null;
+    }
+  }
+
+  /** Stops buffering until the BRCB is enabled again and discards all entries. */
+  void stopBuffering() {
+    if (isMonitoring()) {
+      stopMonitoring();
+    }
+    purge();
+  }
+
+  void purge() {
+    if (buffer != null) {
+      buffer.clear();
+      lastSentEntryId = buffer.getFirstEntryId() - 1;
+    }
+    bufferOverflow = false;
+    getEntryId().setValue(new byte[8]);
+  }
+
+  /**
+   * Sets the entry after which the entries are sent when the BRCB is enabled.
+   *
+   * @param entryId the EntryID of an entry in the buffer or zero to send all entries
+   * @return false if the buffer does not contain the entry
+   */
+  boolean setEntryId(byte[] entryId) {
+    long id = 0;
+    for (byte b : entryId) {
+      id = (id << 8) | (b & 0xff);
+    }
+    if (id == 0) {
+      if (buffer != null) {
+        lastSentEntryId = buffer.getFirstEntryId() - 1;
+      }
+    } else if (buffer != null && buffer.contains(id)) {
+      lastSentEntryId = id;
+    } else {
+      return false;
+    }
+    getEntryId().setValue(entryId);
+    return true;
+  }
+
+  @Override
+  void triggerReport(boolean integrity, boolean gi) {
+    List<AccessResult> values = new ArrayList<>();
+    List<AccessResult> reasons = new ArrayList<>();
+    addReportContents(integrity, gi, values, reasons);
+
+    entryOStream.reset();
+    int reasonsLength;
+    int valuesLength;
+    try {
+      reasonsLength = encodeReverse(reasons);
+      valuesLength = encodeReverse(values);
+    } catch (IOException e) {
+      // only happens if a data set member has no value, which the URCBs cannot report either
+      return;
+    }
+
+    long entryId =
+        buffer.add(
+            entryOStream.buffer,
+            entryOStream.index + 1,
+            valuesLength,
+            valuesLength + reasonsLength,
+            System.currentTimeMillis());
+    if (entryId == 0) {
+      bufferOverflow = true;
+    } else if (buffer.getFirstEntryId() > lastSentEntryId + 1) {
+      bufferOverflow = true;
+      lastSentEntryId = buffer.getFirstEntryId() - 1;
+    }
+
+    if (syncFuture == null && buffer.needsSync()) {
+      syncFuture =
+          timer.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  synchronized (Brcb.this) {
+                    syncFuture = null;
+                    if (buffer != null) {
+                      buffer.sync();
+                    }
+                  }
+                }
+              },
+              SYNC_DELAY_MILLIS,
+              TimeUnit.MILLISECONDS);
+    }
+
+    sendEntries();
+  }
+
+  private int encodeReverse(List<AccessResult> accessResults) throws IOException {
+    int length = 0;
+    for (int i = accessResults.size() - 1; i >= 0; i--) {
+      length += accessResults.get(i).encode(entryOStream);
+    }
+    return length;
+  }
+
+  private void sendEntries() {
+    while (owner != null && lastSentEntryId < buffer.getLastEntryId()) {
+      long entryId = lastSentEntryId + 1;
+      // set before the report is sent, so that a client reading the BRCB after it received the
+      // report gets its EntryID
+      byte[] previousEntryId = getEntryId().getValue();
+      byte[] previousTimeOfEntry = getTimeOfEntry().getValue();
+      getEntryId().setValue(toEntryId(entryId));
+      getTimeOfEntry().setTimestamp(buffer.getTimeOfEntry(entryId));
+      if (!sendEntry(entryId)) {
+        // the association is closed, the entry is sent after the BRCB has been enabled again
+        getEntryId().setValue(previousEntryId);
+        getTimeOfEntry().setValue(previousTimeOfEntry);
+        return;
+      }
+      lastSentEntryId = entryId;
+      bufferOverflow = false;
+    }
+  }
+
+  private static byte[] toEntryId(long id) {
+    byte[] entryId = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      entryId[i] = (byte) id;
+      id >>>= 8;
+    }
+    return entryId;
+  }
+
+  private boolean sendEntry(long entryId) {
+    boolean withReasons = getOptFlds().isReasonForInclusion();
+    byte[] entry = buffer.getEntry(entryId, withReasons);
+    List<AccessResult> accessResults = getReportHeader(entryId);
+
+    if (getMaxReportLength(entry.length) <= owner.negotiatedMaxPduSize) {
+      // the inclusion bit string, the values and the reasons for inclusion are already encoded
+      accessResults.add(new AccessResult(entry));
+      return owner.sendAnMmsPdu(createReportPdu(accessResults));
+    }
+
+    List<MMSpdu> segments;
+    try {
+      segments =
+          getReportSegments(
+              accessResults, splitEncoded(entry), withReasons, owner.negotiatedMaxPduSize);
+    } catch (IOException e) {
+      // cannot happen because the entry has been encoded by the BRCB
+      return true;
+    }
+    for (MMSpdu segment : segments) {
+      if (!owner.sendAnMmsPdu(segment)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the access results of the report of the given entry from RptID to ConfRev. */
+  private List<AccessResult> getReportHeader(long entryId) {
+
+    List<AccessResult> accessResults = new ArrayList<>();
+
+    AccessResult accessResult = new AccessResult();
+    accessResult.setSuccess(getRptId().getMmsDataObj());
+    accessResults.add(accessResult);
+
+    accessResult = new AccessResult();
+    accessResult.setSuccess(getOptFlds().getMmsDataObj());
+    accessResults.add(accessResult);
+
+    if (getOptFlds().isSequenceNumber()) {
+      accessResult = new AccessResult();
+      accessResult.setSuccess(getSqNum().getMmsDataObj());
+      accessResults.add(accessResult);
+    }
+    getSqNum().setValue((short) ((getSqNum().getValue() + 1) & 0xff));
+
+    if (getOptFlds().isReportTimestamp()) {
+      BdaEntryTime entryTime = new BdaEntryTime(null, null, null, false, false);
+      entryTime.setTimestamp(buffer.getTimeOfEntry(entryId));
+
+      accessResult = new AccessResult();
+      accessResult.setSuccess(entryTime.getMmsDataObj());
+      accessResults.add(accessResult);
+    }
+
+    if (getOptFlds().isDataSetName()) {
+      accessResult = new AccessResult();
+      accessResult.setSuccess(getDatSet().getMmsDataObj());
+      accessResults.add(accessResult);
+    }
+
+    if (getOptFlds().isBufferOverflow()) {
+      Data data = new Data();
+      data.setBool(new BerBoolean(bufferOverflow));
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      accessResults.add(accessResult);
+    }
+
+    if (getOptFlds().isEntryId()) {
+      Data data = new Data();
+      data.setOctetString(new BerOctetString(toEntryId(entryId)));
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      accessResults.add(accessResult);
+    }
+
+    if (getOptFlds().isConfigRevision()) {
+      accessResult = new AccessResult();
+      accessResult.setSuccess(getConfRev().getMmsDataObj());
+      accessResults.add(accessResult);
+    }
+
+    return accessResults;
+  }
 }
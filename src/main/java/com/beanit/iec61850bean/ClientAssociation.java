@@ -72,21 +72,40 @@ import com.beanit.josistack.AcseAssociation;
 import com.beanit.josistack.ByteBufferInputStream;
 import com.beanit.josistack.ClientAcseSap;
 import com.beanit.josistack.DecodingException;
-import java.io.ByteArrayInputStream;
+import com.beanit.jositransport.ByteBufferPool;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Represents an association/connection to an IEC 61850 MMS server. An instance of <code>
@@ -101,10 +120,23 @@ public final class ClientAssociation {
   private static final Integer16 version = new Integer16(new byte[] {(byte) 0x01, (byte) 0x01});
   private static final ParameterSupportOptions proposedParameterCbbBitString =
       new ParameterSupportOptions(new byte[] {0x03, 0x05, (byte) 0xf1, 0x00});
+  // upper bound of the bytes a read request or response PDU needs in addition to the variable
+  // definitions or access results it contains
+  private static final int READ_PDU_OVERHEAD = 32;
   private final ClientReceiver clientReceiver;
-  private final BlockingQueue<MMSpdu> incomingResponses = new LinkedBlockingQueue<>();
-  private final ReverseByteArrayOutputStream reverseOStream =
-      new ReverseByteArrayOutputStream(500, true);
+  private final InetAddress address;
+  private final int port;
+  // requests that have been sent or are waiting to be sent by their invokeID, also used to guard
+  // the fields below
+  private final Map<Integer, PendingRequest> pendingRequests = new HashMap<>();
+  // requests that wait to be sent because the negotiated number of requests is outstanding
+  private final Queue<PendingRequest> queuedRequests = new ArrayDeque<>();
+  // invokeIDs of sent requests whose response timeout elapsed. The server still counts them as
+  // outstanding, so they keep their place among the outstanding requests until a late response
+  // arrives or the grace period for late responses elapses.
+  private final Set<Integer> timedOutInvokeIds = new HashSet<>();
+  private int numOutstandingRequests = 0;
+  private int maxOutstandingRequests = 1;
   ServerModel serverModel;
   private AcseAssociation acseAssociation = null;
   private int responseTimeout;
@@ -113,9 +145,9 @@ public final class ClientAssociation {
   private byte[] servicesSupported = null;
 
   private int negotiatedMaxPduSize;
-  private ClientEventListener reportListener = null;
+  private final ReportDispatcher reportDispatcher;
 
-  private boolean closed = false;
+  private volatile boolean closed = false;
 
   ClientAssociation(
       InetAddress address,
@@ -131,9 +163,12 @@ public final class ClientAssociation {
       byte[] servicesSupportedCalling,
       int responseTimeout,
       int messageFragmentTimeout,
-      ClientEventListener reportListener)
+      ReportDispatcher reportDispatcher,
+      Executor receiveExecutor)
       throws IOException {
 
+    this.address = address;
+    this.port = port;
     this.responseTimeout = responseTimeout;
 
     acseSap.tSap.setMessageFragmentTimeout(messageFragmentTimeout);
@@ -141,7 +176,7 @@ public final class ClientAssociation {
 
     negotiatedMaxPduSize = proposedMaxMmsPduSize;
 
-    this.reportListener = reportListener;
+    this.reportDispatcher = reportDispatcher;
 
     associate(
         address,
@@ -159,12 +194,20 @@ public final class ClientAssociation {
     acseAssociation.setMessageTimeout(0);
 
     clientReceiver = new ClientReceiver(negotiatedMaxPduSize);
-    clientReceiver.start();
+    if (receiveExecutor != null && acseAssociation.isNonBlocking()) {
+      clientReceiver.start(receiveExecutor);
+    } else {
+      clientReceiver.start();
+    }
   }
 
   private static ServiceError mmsDataAccessErrorToServiceError(BerInteger dataAccessError) {
+    return mmsDataAccessErrorToServiceError(dataAccessError.value.intValue());
+  }
+
+  private static ServiceError mmsDataAccessErrorToServiceError(int dataAccessError) {
 
-    switch (dataAccessError.value.intValue()) {
+    switch (dataAccessError) {
       case 1:
         return new ServiceError(
             ServiceError.FAILED_DUE_TO_SERVER_CONSTRAINT, "MMS DataAccessError: hardware-fault");
@@ -190,7 +233,7 @@ public final class ClientAssociation {
       default:
         return new ServiceError(
             ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
-            "MMS DataAccessError: " + dataAccessError.value);
+            "MMS DataAccessError: " + dataAccessError);
     }
   }
 
@@ -401,10 +444,99 @@ public final class ClientAssociation {
     return servicesSupported;
   }
 
+  /**
+   * Returns the number of received reports that currently wait to be delivered to the report
+   * listener.
+   *
+   * @return the number of queued reports of all report control blocks
+   */
+  public int getQueuedReportCount() {
+    return reportDispatcher == null ? 0 : reportDispatcher.getNumQueuedReports();
+  }
+
+  /**
+   * Returns the highest number of reports that waited to be delivered to the report listener at
+   * the same time since the association was created.
+   *
+   * @return the maximum number of queued reports of all report control blocks
+   */
+  public int getMaxQueuedReportCount() {
+    return reportDispatcher == null ? 0 : reportDispatcher.getMaxNumQueuedReports();
+  }
+
+  /**
+   * Returns the number of reports that were dropped because the report queue of their report
+   * control block was full.
+   *
+   * @return the number of dropped reports
+   */
+  public long getDroppedReportCount() {
+    return reportDispatcher == null ? 0 : reportDispatcher.getNumDroppedReports();
+  }
+
   private ConfirmedServiceResponse encodeWriteReadDecode(ConfirmedServiceRequest serviceRequest)
       throws ServiceError, IOException {
+    return encodeWriteReadDecode(serviceRequest, null);
+  }
+
+  /**
+   * Sends the request and waits for the response. If a streamed read is given and the response is
+   * a read response, the receiver decodes the values directly into the read's target nodes. In this
+   * case the returned service response is empty and the results are stored in the streamed read.
+   */
+  private ConfirmedServiceResponse encodeWriteReadDecode(
+      ConfirmedServiceRequest serviceRequest, StreamedRead streamedRead)
+      throws ServiceError, IOException {
+    return awaitResponse(sendRequest(serviceRequest, streamedRead));
+  }
+
+  /**
+   * Waits for the future of a request to complete and throws the exception the request failed
+   * with. Interrupts are remembered but do not stop the waiting because the request has already
+   * been sent.
+   */
+  private static <T> T awaitResponse(CompletableFuture<T> future) throws ServiceError, IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof ServiceError) {
+            throw (ServiceError) cause;
+          } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
-    int currentInvokeId = getInvokeId();
+  /**
+   * Sends the request without waiting for the response. If the negotiated number of requests
+   * (MaxServOutstandingCalling) is already outstanding, the request is queued and sent as soon as
+   * the response to an earlier request has been received. The response timeout applies from the
+   * moment this method is called.
+   *
+   * @return the future that is completed with the service response
+   */
+  private CompletableFuture<ConfirmedServiceResponse> sendRequest(
+      ConfirmedServiceRequest serviceRequest, StreamedRead streamedRead) {
+
+    int currentInvokeId;
+    synchronized (pendingRequests) {
+      currentInvokeId = getInvokeId();
+    }
 
     ConfirmedRequestPDU confirmedRequestPdu = new ConfirmedRequestPDU();
     confirmedRequestPdu.setInvokeID(new Unsigned32(currentInvokeId));
@@ -413,59 +545,155 @@ public final class ClientAssociation {
     MMSpdu requestPdu = new MMSpdu();
     requestPdu.setConfirmedRequestPDU(confirmedRequestPdu);
 
-    reverseOStream.reset();
+    ReverseByteArrayOutputStream reverseOStream = new ReverseByteArrayOutputStream(500, true);
+    PendingRequest pendingRequest =
+        new PendingRequest(currentInvokeId, streamedRead, reverseOStream);
 
     try {
       requestPdu.encode(reverseOStream);
     } catch (Exception e) {
       IOException e2 = new IOException("Error encoding MmsPdu.", e);
       clientReceiver.close(e2);
-      throw e2;
+      pendingRequest.future.completeExceptionally(e2);
+      return pendingRequest.future;
     }
 
-    clientReceiver.setResponseExpected(currentInvokeId);
-    try {
-      acseAssociation.send(reverseOStream.getByteBuffer());
-    } catch (IOException e) {
-      IOException e2 = new IOException("Error sending packet.", e);
-      clientReceiver.close(e2);
-      throw e2;
+    boolean sendNow;
+    synchronized (pendingRequests) {
+      if (closed) {
+        pendingRequest.future.completeExceptionally(
+            new IOException("connection was closed", clientReceiver.getLastIOException()));
+        return pendingRequest.future;
+      }
+      pendingRequests.put(currentInvokeId, pendingRequest);
+      sendNow = numOutstandingRequests < maxOutstandingRequests;
+      if (sendNow) {
+        numOutstandingRequests++;
+      } else {
+        queuedRequests.add(pendingRequest);
+      }
     }
 
-    MMSpdu decodedResponsePdu = null;
+    if (responseTimeout != 0) {
+      pendingRequest.scheduleTimeout(responseTimeout);
+    }
+    if (sendNow) {
+      send(pendingRequest);
+    }
+    return pendingRequest.future;
+  }
 
+  private void send(PendingRequest pendingRequest) {
     try {
-      if (responseTimeout == 0) {
-        decodedResponsePdu = incomingResponses.take();
-      } else {
-        decodedResponsePdu = incomingResponses.poll(responseTimeout, TimeUnit.MILLISECONDS);
-      }
-    } catch (InterruptedException e) {
-      // TODO can this ever be interrupted?
+      acseAssociation.send(pendingRequest.pduStream);
+    } catch (IOException e) {
+      clientReceiver.close(new IOException("Error sending packet.", e));
     }
+  }
 
-    if (decodedResponsePdu == null) {
-      decodedResponsePdu = clientReceiver.removeExpectedResponse();
-      if (decodedResponsePdu == null) {
-        throw new ServiceError(ServiceError.TIMEOUT);
+  /**
+   * Removes the request with the given invokeID because its response has been received. If the
+   * request had been sent, the next queued request is sent in its place. This also applies to a
+   * late response to a request that has timed out.
+   *
+   * @return the removed request or null if no request with the given invokeID was pending
+   */
+  private PendingRequest removePendingRequest(int invokeId) {
+    PendingRequest pendingRequest;
+    PendingRequest nextRequest = null;
+    synchronized (pendingRequests) {
+      pendingRequest = pendingRequests.remove(invokeId);
+      if (pendingRequest == null) {
+        if (timedOutInvokeIds.remove(invokeId)) {
+          nextRequest = releaseOutstandingRequest();
+        }
+      } else if (!queuedRequests.remove(pendingRequest)) {
+        nextRequest = releaseOutstandingRequest();
       }
     }
-
-    if (decodedResponsePdu.getConfirmedRequestPDU() != null) {
-      incomingResponses.add(decodedResponsePdu);
-      throw new IOException("connection was closed", clientReceiver.getLastIOException());
+    if (pendingRequest != null) {
+      pendingRequest.cancelTimeout();
     }
+    if (nextRequest != null) {
+      send(nextRequest);
+    }
+    return pendingRequest;
+  }
 
-    testForInitiateErrorResponse(decodedResponsePdu);
-    testForErrorResponse(decodedResponsePdu);
-    testForRejectResponse(decodedResponsePdu);
+  /**
+   * Removes the request because its response timeout has elapsed. A request that has been sent
+   * keeps its place among the outstanding requests until the response arrives, so that no more
+   * requests are outstanding than negotiated. Because the response may never arrive, the place is
+   * freed anyway once the response timeout has elapsed a second time.
+   *
+   * @return false if the request is no longer pending
+   */
+  private boolean removeTimedOutRequest(PendingRequest pendingRequest, int timeoutMillis) {
+    synchronized (pendingRequests) {
+      if (pendingRequests.get(pendingRequest.invokeId) != pendingRequest) {
+        return false;
+      }
+      pendingRequests.remove(pendingRequest.invokeId);
+      if (queuedRequests.remove(pendingRequest)) {
+        return true;
+      }
+      timedOutInvokeIds.add(pendingRequest.invokeId);
+    }
+    final int timedOutInvokeId = pendingRequest.invokeId;
+    TimeoutScheduler.instance.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            releaseTimedOutRequest(timedOutInvokeId);
+          }
+        },
+        timeoutMillis,
+        TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  /** Frees the place of a timed out request whose late response has not arrived in time. */
+  private void releaseTimedOutRequest(int invokeId) {
+    PendingRequest nextRequest;
+    synchronized (pendingRequests) {
+      if (!timedOutInvokeIds.remove(invokeId)) {
+        return;
+      }
+      nextRequest = releaseOutstandingRequest();
+    }
+    if (nextRequest != null) {
+      send(nextRequest);
+    }
+  }
 
-    ConfirmedResponsePDU confirmedResponsePdu = decodedResponsePdu.getConfirmedResponsePDU();
-    if (confirmedResponsePdu == null) {
-      throw new IllegalStateException("Response PDU is not a confirmed response pdu");
+  /**
+   * Frees the place of a request that is no longer outstanding. Has to be called while holding the
+   * pendingRequests monitor.
+   *
+   * @return the queued request that takes the place and has to be sent or null
+   */
+  private PendingRequest releaseOutstandingRequest() {
+    PendingRequest nextRequest = queuedRequests.poll();
+    if (nextRequest == null) {
+      numOutstandingRequests--;
     }
+    return nextRequest;
+  }
 
-    return confirmedResponsePdu.getService();
+  private void failPendingRequests(IOException e) {
+    List<PendingRequest> failedRequests;
+    synchronized (pendingRequests) {
+      failedRequests = new ArrayList<>(pendingRequests.values());
+      pendingRequests.clear();
+      queuedRequests.clear();
+      timedOutInvokeIds.clear();
+      numOutstandingRequests = 0;
+    }
+    IOException e2 = new IOException("connection was closed", e);
+    for (PendingRequest failedRequest : failedRequests) {
+      failedRequest.cancelTimeout();
+      failedRequest.future.completeExceptionally(e2);
+    }
   }
 
   private void associate(
@@ -551,6 +779,7 @@ public final class ClientAssociation {
         initiateResponsePdu.getNegotiatedMaxServOutstandingCalling().intValue();
     int negotiatedMaxServOutstandingCalled =
         initiateResponsePdu.getNegotiatedMaxServOutstandingCalled().intValue();
+    maxOutstandingRequests = Math.max(negotiatedMaxServOutstandingCalling, 1);
 
     int negotiatedDataStructureNestingLevel;
     if (initiateResponsePdu.getNegotiatedDataStructureNestingLevel() != null) {
@@ -599,33 +828,131 @@ public final class ClientAssociation {
    * model. Because in MMS SubDataObjects cannot be distinguished from Constructed Data Attributes
    * they will always be represented as Constructed Data Attributes in the returned model.
    *
+   * <p>The directories of all logical devices are retrieved in parallel. The definition of a
+   * logical node is requested as soon as its name has been received, and the data set definitions
+   * are requested while the logical node definitions are still being retrieved. As many requests
+   * as the negotiated MaxServOutstandingCalling allows are outstanding at the same time.
+   *
    * @return the ServerModel that is the root node of the complete server model.
    * @throws ServiceError if a ServiceError occurs while calling any of the ASCI services.
    * @throws IOException if a fatal association error occurs. The association object will be closed
    *     and can no longer be used after this exception is thrown.
    */
   public ServerModel retrieveModel() throws ServiceError, IOException {
+    return retrieveModel(true);
+  }
+
+  /**
+   * Like {@link #retrieveModel()} but the definitions of the data sets can be left out to speed up
+   * the retrieval of large models. In this case data sets are retrieved on demand by {@link
+   * #retrieveDataSet(String)} and by {@link #enableReporting(Rcb)} for the data set of the report
+   * control block. They can also be retrieved all at once later using {@link #updateDataSets()}.
+   *
+   * @param retrieveDataSets whether the definitions of the data sets are retrieved together with
+   *     the model
+   * @return the ServerModel that is the root node of the complete server model.
+   * @throws ServiceError if a ServiceError occurs while calling any of the ASCI services.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
+  public ServerModel retrieveModel(boolean retrieveDataSets) throws ServiceError, IOException {
+    return retrieveModel(retrieveLogicalDevices(), retrieveDataSets);
+  }
 
+  /**
+   * Like {@link #retrieveModel()} but the model is taken from the given cache if the server has not
+   * changed since the model was stored. Whether the server has changed is determined by reading
+   * the software revision (NamPlt.swRev) and configuration revision (NamPlt.configRev) of LLN0 of
+   * every logical device in a single request. If the model is retrieved from the server it is
+   * stored in the cache. If the revisions cannot be read the cache is not used.
+   *
+   * <p>Note that the nodes of a model taken from the cache have their default values until they
+   * are read from the server.
+   *
+   * @param modelCache the cache
+   * @return the ServerModel that is the root node of the complete server model.
+   * @throws ServiceError if a ServiceError occurs while calling any of the ASCI services.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
+  public ServerModel retrieveModel(ModelCache modelCache) throws ServiceError, IOException {
     List<String> ldNames = retrieveLogicalDevices();
-    List<List<String>> lnNames = new ArrayList<>(ldNames.size());
 
-    for (int i = 0; i < ldNames.size(); i++) {
-      lnNames.add(retrieveLogicalNodeNames(ldNames.get(i)));
+    String fingerprint = retrieveModelFingerprint(ldNames);
+    if (fingerprint != null) {
+      ServerModel cachedModel = modelCache.load(address, port, fingerprint);
+      if (cachedModel != null) {
+        serverModel = cachedModel;
+        return serverModel;
+      }
     }
-    List<LogicalDevice> lds = new ArrayList<>();
-    for (int i = 0; i < ldNames.size(); i++) {
-      List<LogicalNode> lns = new ArrayList<>();
-      for (int j = 0; j < lnNames.get(i).size(); j++) {
-        lns.add(
-            retrieveDataDefinitions(
-                new ObjectReference(ldNames.get(i) + "/" + lnNames.get(i).get(j))));
+
+    retrieveModel(ldNames, true);
+
+    if (fingerprint != null) {
+      try {
+        modelCache.store(address, port, fingerprint, serverModel);
+      } catch (IOException e) {
+        // the model is retrieved from the server again next time
+      }
+    }
+    return serverModel;
+  }
+
+  /**
+   * Reads the names of the logical devices and the revisions in the name plates of their LLN0.
+   *
+   * @return the fingerprint or null if any of the revisions could not be read
+   */
+  private String retrieveModelFingerprint(List<String> ldNames) throws IOException {
+    List<BdaVisibleString> revisions = new ArrayList<>(ldNames.size() * 2);
+    for (String ldName : ldNames) {
+      for (String name : new String[] {"swRev", "configRev"}) {
+        revisions.add(
+            new BdaVisibleString(
+                new ObjectReference(ldName + "/LLN0.NamPlt." + name),
+                Fc.DC,
+                null,
+                255,
+                false,
+                false));
+      }
+    }
+    for (ServiceError error : getDataValues(revisions)) {
+      if (error != null) {
+        return null;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (BdaVisibleString revision : revisions) {
+      sb.append(revision.getReference()).append('=').append(revision.getStringValue()).append(';');
+    }
+    return sb.toString();
+  }
+
+  private ServerModel retrieveModel(List<String> ldNames, boolean retrieveDataSets)
+      throws ServiceError, IOException {
+
+    ModelDiscovery discovery = new ModelDiscovery();
+    List<List<LogicalNode>> lns = new ArrayList<>(ldNames.size());
+    for (String ldName : ldNames) {
+      List<LogicalNode> ldLns = new ArrayList<>();
+      lns.add(ldLns);
+      discovery.retrieveLogicalNodes(ldName, ldLns);
+      if (retrieveDataSets) {
+        discovery.retrieveDataSetNames(ldName, "");
       }
-      lds.add(new LogicalDevice(new ObjectReference(ldNames.get(i)), lns));
+    }
+    discovery.run();
+
+    List<LogicalDevice> lds = new ArrayList<>(ldNames.size());
+    for (int i = 0; i < ldNames.size(); i++) {
+      lds.add(new LogicalDevice(new ObjectReference(ldNames.get(i)), lns.get(i)));
     }
 
     serverModel = new ServerModel(lds, null);
 
-    updateDataSets();
+    discovery.decodeDataSetDefinitions();
 
     return serverModel;
   }
@@ -673,19 +1000,6 @@ public final class ClientAssociation {
     return objectRefs;
   }
 
-  private List<String> retrieveLogicalNodeNames(String ld) throws ServiceError, IOException {
-    List<String> lns = new ArrayList<>();
-    String continueAfterRef = "";
-    do {
-      ConfirmedServiceRequest serviceRequest =
-          constructGetDirectoryRequest(ld, continueAfterRef, true);
-      ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-      continueAfterRef = decodeGetDirectoryResponse(confirmedServiceResponse, lns);
-
-    } while (!continueAfterRef.isEmpty());
-    return lns;
-  }
-
   private ConfirmedServiceRequest constructGetDirectoryRequest(
       String ldRef, String continueAfter, boolean logicalDevice) {
 
@@ -759,13 +1073,6 @@ public final class ClientAssociation {
     }
   }
 
-  private LogicalNode retrieveDataDefinitions(ObjectReference lnRef)
-      throws ServiceError, IOException {
-    ConfirmedServiceRequest serviceRequest = constructGetDataDefinitionRequest(lnRef);
-    ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-    return decodeGetDataDefinitionResponse(confirmedServiceResponse, lnRef);
-  }
-
   private ConfirmedServiceRequest constructGetDataDefinitionRequest(ObjectReference lnRef) {
 
     ObjectName.DomainSpecific domainSpec = new ObjectName.DomainSpecific();
@@ -804,9 +1111,189 @@ public final class ClientAssociation {
    *     and can no longer be used after this exception is thrown.
    */
   public void getDataValues(FcModelNode modelNode) throws ServiceError, IOException {
+    awaitResponse(getDataValuesAsync(modelNode));
+  }
+
+  /**
+   * The asynchronous variant of {@link #getDataValues(FcModelNode)}. The request is sent right away
+   * unless the number of requests negotiated as MaxServOutstandingCalling is already outstanding.
+   * In this case it is sent as soon as a response to an earlier request has been received. This way
+   * several requests can be outstanding at the same time which hides the round trip time of slow
+   * links. The returned future is completed by the thread receiving the responses, so dependent
+   * actions should not block. The future fails with a <code>ServiceError</code> if a ServiceError
+   * is returned by the server or if the response timeout elapses and with an
+   * <code>IOException</code> if a fatal association error occurs. The model node must not be
+   * accessed before the future is completed.
+   *
+   * @param modelNode the functionally constrained model node that is to be read.
+   * @return the future that is completed after the values have been written into the model node
+   */
+  public CompletableFuture<Void> getDataValuesAsync(final FcModelNode modelNode) {
     ConfirmedServiceRequest serviceRequest = constructGetDataValuesRequest(modelNode);
-    ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-    decodeGetDataValuesResponse(confirmedServiceResponse, modelNode);
+    final StreamedRead streamedRead = new StreamedRead(Collections.singletonList(modelNode));
+    return sendRequest(serviceRequest, streamedRead)
+        .thenApply(
+            new ResponseDecoder<Void>() {
+              @Override
+              Void decode(ConfirmedServiceResponse confirmedServiceResponse) throws ServiceError {
+                if (!streamedRead.decoded) {
+                  decodeGetDataValuesResponse(confirmedServiceResponse, modelNode);
+                  return null;
+                }
+                if (streamedRead.numResults != 1) {
+                  throw new ServiceError(
+                      ServiceError.PARAMETER_VALUE_INAPPROPRIATE, "Multiple results received.");
+                }
+                ServiceError serviceError = streamedRead.results.get(0);
+                if (serviceError != null) {
+                  throw serviceError;
+                }
+                return null;
+              }
+            });
+  }
+
+  /**
+   * Reads the values of all given model nodes with as few MMS read requests as possible. The nodes
+   * are packed into read requests with multiple variables so that both the request and the
+   * response, whose size is estimated from the types of the nodes, fit into the negotiated maximum
+   * PDU size. The requests are sent without waiting for the responses of the previous ones as far
+   * as the negotiated MaxServOutstandingCalling allows. The returned list has the same size and
+   * order as the given collection. For each node it contains <code>null</code> if reading was
+   * successful and a ServiceError if reading of this node failed.
+   *
+   * @param modelNodes the functionally constrained model nodes that are to be read.
+   * @return a list indicating ServiceErrors that may have occurred.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
+  public List<ServiceError> getDataValues(Collection<? extends FcModelNode> modelNodes)
+      throws IOException {
+    try {
+      return awaitResponse(getDataValuesAsync(modelNodes));
+    } catch (ServiceError e) {
+      // cannot happen because service errors are reported per node
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The asynchronous variant of {@link #getDataValues(Collection)}. The returned future fails with
+   * an <code>IOException</code> if a fatal association error occurs. The model nodes must not be
+   * accessed before the future is completed.
+   *
+   * @param modelNodes the functionally constrained model nodes that are to be read.
+   * @return the future that is completed with the list of ServiceErrors once all responses have
+   *     been received
+   */
+  public CompletableFuture<List<ServiceError>> getDataValuesAsync(
+      Collection<? extends FcModelNode> modelNodes) {
+    final List<ServiceError> serviceErrors =
+        new ArrayList<>(Collections.<ServiceError>nCopies(modelNodes.size(), null));
+    List<CompletableFuture<Void>> readFutures = new ArrayList<>();
+    int maxLength = negotiatedMaxPduSize - READ_PDU_OVERHEAD;
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+
+    List<FcModelNode> readNodes = new ArrayList<>();
+    VariableDefs listOfVariable = new VariableDefs();
+    int requestLength = 0;
+    int responseLength = 0;
+    int firstIndex = 0;
+    for (FcModelNode modelNode : modelNodes) {
+      VariableDefs.SEQUENCE variableDef = modelNode.getMmsVariableDef();
+      int variableDefLength;
+      try {
+        reverseOS.reset();
+        variableDefLength = variableDef.encode(reverseOS);
+      } catch (IOException e) {
+        // cannot happen because the stream grows as needed
+        throw new IllegalStateException(e);
+      }
+      int dataLength = MmsDataWriter.maxLength(modelNode);
+
+      if (!readNodes.isEmpty()
+          && (requestLength + variableDefLength > maxLength
+              || responseLength + dataLength > maxLength)) {
+        readFutures.add(
+            sendGetDataValuesRequest(listOfVariable, readNodes, firstIndex, serviceErrors));
+        firstIndex += readNodes.size();
+        readNodes = new ArrayList<>();
+        listOfVariable = new VariableDefs();
+        requestLength = 0;
+        responseLength = 0;
+      }
+      readNodes.add(modelNode);
+      listOfVariable.getSEQUENCE().add(variableDef);
+      requestLength += variableDefLength;
+      responseLength += dataLength;
+    }
+    if (!readNodes.isEmpty()) {
+      readFutures.add(
+          sendGetDataValuesRequest(listOfVariable, readNodes, firstIndex, serviceErrors));
+    }
+
+    return CompletableFuture.allOf(readFutures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            new Function<Void, List<ServiceError>>() {
+              @Override
+              public List<ServiceError> apply(Void v) {
+                return serviceErrors;
+              }
+            });
+  }
+
+  /**
+   * Sends a single read request of a bulk read. Service errors that concern the whole request are
+   * stored for every node of the request, so the returned future only fails on fatal association
+   * errors.
+   */
+  private CompletableFuture<Void> sendGetDataValuesRequest(
+      VariableDefs listOfVariable,
+      final List<FcModelNode> readNodes,
+      final int firstIndex,
+      final List<ServiceError> serviceErrors) {
+    VariableAccessSpecification varAccessSpec = new VariableAccessSpecification();
+    varAccessSpec.setListOfVariable(listOfVariable);
+
+    ReadRequest readRequest = new ReadRequest();
+    readRequest.setVariableAccessSpecification(varAccessSpec);
+
+    ConfirmedServiceRequest serviceRequest = new ConfirmedServiceRequest();
+    serviceRequest.setRead(readRequest);
+
+    final StreamedRead streamedRead = new StreamedRead(readNodes);
+    return sendRequest(serviceRequest, streamedRead)
+        .handle(
+            new BiFunction<ConfirmedServiceResponse, Throwable, Void>() {
+              @Override
+              public Void apply(ConfirmedServiceResponse confirmedServiceResponse, Throwable t) {
+                List<ServiceError> results;
+                if (t != null) {
+                  Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                  if (!(cause instanceof ServiceError)) {
+                    throw t instanceof CompletionException
+                        ? (CompletionException) t
+                        : new CompletionException(t);
+                  }
+                  results = Collections.nCopies(readNodes.size(), (ServiceError) cause);
+                } else if (!streamedRead.decoded) {
+                  results = decodeReadResponse(confirmedServiceResponse, readNodes);
+                } else if (streamedRead.numResults != readNodes.size()) {
+                  ServiceError serviceError =
+                      new ServiceError(
+                          ServiceError.PARAMETER_VALUE_INAPPROPRIATE,
+                          "Number of AccessResults does not match the number of read variables.");
+                  results = Collections.nCopies(readNodes.size(), serviceError);
+                } else {
+                  results = streamedRead.results;
+                }
+                // every request writes its own range of the list
+                for (int i = 0; i < results.size(); i++) {
+                  serviceErrors.set(firstIndex + i, results.get(i));
+                }
+                return null;
+              }
+            });
   }
 
   private boolean decodeGetFileDirectoryResponse(
@@ -1038,37 +1525,44 @@ public final class ClientAssociation {
 
   /**
    * Will update all data inside the model except for control variables (those that have FC=CO).
-   * Control variables are not meant to be read. Update is done by calling getDataValues on the
-   * FCDOs below the Logical Nodes.
+   * Control variables are not meant to be read. Update is done by reading the FCDOs below the
+   * Logical Nodes with {@link #getDataValues(Collection)}, which reads many FCDOs per request.
    *
-   * @throws ServiceError if a ServiceError is returned by the server.
+   * @throws ServiceError if a ServiceError is returned by the server. All FCDOs that could be read
+   *     have been updated when the first ServiceError is thrown.
    * @throws IOException if a fatal association error occurs. The association object will be closed
    *     and can no longer be used after this exception is thrown.
    */
   public void getAllDataValues() throws ServiceError, IOException {
+    List<FcModelNode> fcdos = new ArrayList<>();
     for (ModelNode logicalDevice : serverModel.getChildren()) {
       for (ModelNode logicalNode : logicalDevice.getChildren()) {
         for (ModelNode dataObject : logicalNode.getChildren()) {
           FcModelNode fcdo = (FcModelNode) dataObject;
           if (fcdo.getFc() != Fc.CO && fcdo.getFc() != Fc.SE) {
-            try {
-              getDataValues(fcdo);
-            } catch (ServiceError e) {
-              throw new ServiceError(
-                  e.getErrorCode(),
-                  "service error retrieving "
-                      + fcdo.getReference()
-                      + "["
-                      + fcdo.getFc()
-                      + "]"
-                      + ", "
-                      + e.getMessage(),
-                  e);
-            }
+            fcdos.add(fcdo);
           }
         }
       }
     }
+
+    List<ServiceError> serviceErrors = getDataValues(fcdos);
+    for (int i = 0; i < fcdos.size(); i++) {
+      ServiceError e = serviceErrors.get(i);
+      if (e != null) {
+        FcModelNode fcdo = fcdos.get(i);
+        throw new ServiceError(
+            e.getErrorCode(),
+            "service error retrieving "
+                + fcdo.getReference()
+                + "["
+                + fcdo.getFc()
+                + "]"
+                + ", "
+                + e.getMessage(),
+            e);
+      }
+    }
   }
 
   private ConfirmedServiceRequest constructGetDataValuesRequest(FcModelNode modelNode) {
@@ -1113,7 +1607,8 @@ public final class ClientAssociation {
    * values of all Basic Data Attributes of the given model node. Will simply return if all values
    * have been successfully written. If one of the Basic Data Attributes could not be written then a
    * <code>ServiceError</code> will be thrown. In this case it is not possible to find out which of
-   * several Basic Data Attributes could not be written.
+   * several Basic Data Attributes could not be written. Use {@link #setDataValues(Collection)} to
+   * write many nodes with a result for each node.
    *
    * @param modelNode the functionally constrained model node that is to be written.
    * @throws ServiceError if a ServiceError is returned by the server.
@@ -1121,9 +1616,197 @@ public final class ClientAssociation {
    *     and can no longer be used after this exception is thrown.
    */
   public void setDataValues(FcModelNode modelNode) throws ServiceError, IOException {
-    ConfirmedServiceRequest serviceRequest = constructSetDataValuesRequest(modelNode);
-    ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-    decodeSetDataValuesResponse(confirmedServiceResponse);
+    awaitResponse(setDataValuesAsync(modelNode));
+  }
+
+  /**
+   * The asynchronous variant of {@link #setDataValues(FcModelNode)}. The values to be written are
+   * encoded before this method returns. Requests are sent and the returned future is completed the
+   * same way as for {@link #getDataValuesAsync(FcModelNode)}.
+   *
+   * @param modelNode the functionally constrained model node that is to be written.
+   * @return the future that is completed after all values have been written successfully
+   */
+  public CompletableFuture<Void> setDataValuesAsync(FcModelNode modelNode) {
+    ConfirmedServiceRequest serviceRequest;
+    try {
+      serviceRequest = constructSetDataValuesRequest(modelNode);
+    } catch (ServiceError e) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    return sendRequest(serviceRequest, null)
+        .thenApply(
+            new ResponseDecoder<Void>() {
+              @Override
+              Void decode(ConfirmedServiceResponse confirmedServiceResponse) throws ServiceError {
+                decodeSetDataValuesResponse(confirmedServiceResponse);
+                return null;
+              }
+            });
+  }
+
+  /**
+   * Writes the values of all given model nodes with as few MMS write requests as possible. The
+   * nodes are packed into write requests with multiple variables so that both the request and the
+   * response fit into the negotiated maximum PDU size. The requests are sent without waiting for
+   * the responses of the previous ones as far as the negotiated MaxServOutstandingCalling allows.
+   * The returned list has the same size and order as the given collection. For each node it
+   * contains <code>null</code> if writing was successful and a ServiceError if writing of this node
+   * failed. Nodes are written in the given order, but a failed node does not stop the following
+   * ones from being written.
+   *
+   * @param modelNodes the functionally constrained model nodes that are to be written.
+   * @return a list indicating ServiceErrors that may have occurred.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
+  public List<ServiceError> setDataValues(Collection<? extends FcModelNode> modelNodes)
+      throws IOException {
+    try {
+      return awaitResponse(setDataValuesAsync(modelNodes));
+    } catch (ServiceError e) {
+      // cannot happen because service errors are reported per node
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The asynchronous variant of {@link #setDataValues(Collection)}. The values to be written are
+   * encoded before this method returns. The returned future fails with an <code>IOException</code>
+   * if a fatal association error occurs.
+   *
+   * @param modelNodes the functionally constrained model nodes that are to be written.
+   * @return the future that is completed with the list of ServiceErrors once all responses have
+   *     been received
+   */
+  public CompletableFuture<List<ServiceError>> setDataValuesAsync(
+      Collection<? extends FcModelNode> modelNodes) {
+    final List<ServiceError> serviceErrors =
+        new ArrayList<>(Collections.<ServiceError>nCopies(modelNodes.size(), null));
+    List<CompletableFuture<Void>> writeFutures = new ArrayList<>();
+    int maxLength = negotiatedMaxPduSize - READ_PDU_OVERHEAD;
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+
+    List<Integer> indices = new ArrayList<>();
+    VariableDefs listOfVariable = new VariableDefs();
+    ListOfData listOfData = new ListOfData();
+    int requestLength = 0;
+    int index = -1;
+    for (FcModelNode modelNode : modelNodes) {
+      index++;
+      VariableDefs.SEQUENCE variableDef = modelNode.getMmsVariableDef();
+      int variableDefLength;
+      byte[] data;
+      try {
+        reverseOS.reset();
+        variableDefLength = variableDef.encode(reverseOS);
+        reverseOS.reset();
+        if (modelNode.encodeMmsData(reverseOS) == -1) {
+          serviceErrors.set(
+              index,
+              new ServiceError(
+                  ServiceError.PARAMETER_VALUE_INAPPROPRIATE,
+                  "Model node " + modelNode.getReference() + " has no value."));
+          continue;
+        }
+        data = reverseOS.getArray();
+      } catch (IOException e) {
+        // cannot happen because the stream grows as needed
+        throw new IllegalStateException(e);
+      } catch (IllegalArgumentException e) {
+        serviceErrors.set(
+            index, new ServiceError(ServiceError.PARAMETER_VALUE_INAPPROPRIATE, e.getMessage()));
+        continue;
+      }
+      int length = variableDefLength + data.length;
+
+      // every write result needs at most 3 bytes in the response
+      if (!indices.isEmpty()
+          && (requestLength + length > maxLength || (indices.size() + 1) * 3 > maxLength)) {
+        writeFutures.add(
+            sendSetDataValuesRequest(listOfVariable, listOfData, indices, serviceErrors));
+        indices = new ArrayList<>();
+        listOfVariable = new VariableDefs();
+        listOfData = new ListOfData();
+        requestLength = 0;
+      }
+      indices.add(index);
+      listOfVariable.getSEQUENCE().add(variableDef);
+      listOfData.getData().add(new Data(data));
+      requestLength += length;
+    }
+    if (!indices.isEmpty()) {
+      writeFutures.add(
+          sendSetDataValuesRequest(listOfVariable, listOfData, indices, serviceErrors));
+    }
+
+    return CompletableFuture.allOf(writeFutures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            new Function<Void, List<ServiceError>>() {
+              @Override
+              public List<ServiceError> apply(Void v) {
+                return serviceErrors;
+              }
+            });
+  }
+
+  /**
+   * Sends a single write request of a bulk write. Service errors that concern the whole request
+   * are stored for every node of the request, so the returned future only fails on fatal
+   * association errors.
+   */
+  private CompletableFuture<Void> sendSetDataValuesRequest(
+      VariableDefs listOfVariable,
+      ListOfData listOfData,
+      final List<Integer> indices,
+      final List<ServiceError> serviceErrors) {
+    VariableAccessSpecification varAccessSpec = new VariableAccessSpecification();
+    varAccessSpec.setListOfVariable(listOfVariable);
+
+    WriteRequest writeRequest = new WriteRequest();
+    writeRequest.setListOfData(listOfData);
+    writeRequest.setVariableAccessSpecification(varAccessSpec);
+
+    ConfirmedServiceRequest serviceRequest = new ConfirmedServiceRequest();
+    serviceRequest.setWrite(writeRequest);
+
+    return sendRequest(serviceRequest, null)
+        .handle(
+            new BiFunction<ConfirmedServiceResponse, Throwable, Void>() {
+              @Override
+              public Void apply(ConfirmedServiceResponse confirmedServiceResponse, Throwable t) {
+                List<ServiceError> results;
+                if (t != null) {
+                  Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                  if (!(cause instanceof ServiceError)) {
+                    throw t instanceof CompletionException
+                        ? (CompletionException) t
+                        : new CompletionException(t);
+                  }
+                  results = Collections.nCopies(indices.size(), (ServiceError) cause);
+                } else {
+                  try {
+                    results = decodeWriteResponse(confirmedServiceResponse);
+                  } catch (ServiceError e) {
+                    results = Collections.nCopies(indices.size(), e);
+                  }
+                  if (results.size() != indices.size()) {
+                    ServiceError serviceError =
+                        new ServiceError(
+                            ServiceError.PARAMETER_VALUE_INAPPROPRIATE,
+                            "Number of write results does not match the number of variables.");
+                    results = Collections.nCopies(indices.size(), serviceError);
+                  }
+                }
+                // every request writes its own elements of the list
+                for (int i = 0; i < results.size(); i++) {
+                  serviceErrors.set(indices.get(i), results.get(i));
+                }
+                return null;
+              }
+            });
   }
 
   private ConfirmedServiceRequest constructSetDataValuesRequest(FcModelNode modelNode)
@@ -1193,56 +1876,59 @@ public final class ClientAssociation {
           "Before calling this function you have to get the ServerModel using the retrieveModel() function");
     }
 
-    Collection<ModelNode> lds = serverModel.getChildren();
-
-    for (ModelNode ld : lds) {
-      ConfirmedServiceRequest serviceRequest =
-          constructGetDirectoryRequest(ld.getName(), "", false);
-      ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-      decodeAndRetrieveDsNamesAndDefinitions(confirmedServiceResponse, (LogicalDevice) ld);
+    ModelDiscovery discovery = new ModelDiscovery();
+    for (ModelNode ld : serverModel.getChildren()) {
+      discovery.retrieveDataSetNames(ld.getName(), "");
     }
+    discovery.run();
+    discovery.decodeDataSetDefinitions();
   }
 
-  private void decodeAndRetrieveDsNamesAndDefinitions(
-      ConfirmedServiceResponse confirmedServiceResponse, LogicalDevice ld)
-      throws ServiceError, IOException {
-
-    if (confirmedServiceResponse.getGetNameList() == null) {
-      throw new ServiceError(
-          ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
-          "decodeGetDataSetResponse: Error decoding server response");
-    }
-
-    GetNameListResponse getNameListResponse = confirmedServiceResponse.getGetNameList();
-
-    List<Identifier> identifiers = getNameListResponse.getListOfIdentifier().getIdentifier();
-
-    if (identifiers.size() == 0) {
-      return;
+  /**
+   * Returns the data set with the given reference. If the data set is not part of the server model
+   * yet, its definition is retrieved from the server and added to the model. This is needed if the
+   * model was retrieved without data sets.
+   *
+   * @param reference the reference of the data set in the form LD/LN.DataSetName
+   * @return the data set or null if it contains members that cannot be represented in the model
+   * @throws ServiceError if a ServiceError is returned by the server.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
+  public DataSet retrieveDataSet(String reference) throws ServiceError, IOException {
+    if (serverModel == null) {
+      throw new IllegalStateException(
+          "Before calling this function you have to get the ServerModel using the retrieveModel() function");
     }
-
-    for (Identifier identifier : identifiers) {
-      // TODO delete DataSets that no longer exist
-      getDataSetDirectory(identifier, ld);
+    DataSet dataSet = serverModel.getDataSet(reference);
+    if (dataSet != null || reference.startsWith("@")) {
+      return dataSet;
     }
-
-    if (getNameListResponse.getMoreFollows() != null
-        && getNameListResponse.getMoreFollows().value == true) {
-      throw new ServiceError(ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT);
+    int slashIndex = reference.indexOf('/');
+    ModelNode ld =
+        slashIndex == -1 ? null : serverModel.getChild(reference.substring(0, slashIndex));
+    if (ld == null) {
+      throw new ServiceError(
+          ServiceError.INSTANCE_NOT_AVAILABLE,
+          "retrieveDataSet: logical device of data set " + reference + " not found");
     }
+    String dsId = reference.substring(slashIndex + 1).replace('.', '$');
+    getDataSetDirectory(new Identifier(dsId.getBytes(UTF_8)), (LogicalDevice) ld);
+    return serverModel.getDataSet(reference);
   }
 
   private void getDataSetDirectory(Identifier dsId, LogicalDevice ld)
       throws ServiceError, IOException {
-    ConfirmedServiceRequest serviceRequest = constructGetDataSetDirectoryRequest(dsId, ld);
+    ConfirmedServiceRequest serviceRequest =
+        constructGetDataSetDirectoryRequest(dsId, ld.getName());
     ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
     decodeGetDataSetDirectoryResponse(confirmedServiceResponse, dsId, ld);
   }
 
   private ConfirmedServiceRequest constructGetDataSetDirectoryRequest(
-      Identifier dsId, LogicalDevice ld) throws ServiceError {
+      Identifier dsId, String ldName) {
     ObjectName.DomainSpecific domainSpecificObjectName = new ObjectName.DomainSpecific();
-    domainSpecificObjectName.setDomainID(new Identifier(ld.getName().getBytes(UTF_8)));
+    domainSpecificObjectName.setDomainID(new Identifier(ldName.getBytes(UTF_8)));
     domainSpecificObjectName.setItemID(dsId);
 
     GetNamedVariableListAttributesRequest dataSetObj = new GetNamedVariableListAttributesRequest();
@@ -1423,9 +2109,10 @@ public final class ClientAssociation {
   public List<ServiceError> getDataSetValues(DataSet dataSet) throws IOException {
 
     ConfirmedServiceResponse confirmedServiceResponse;
+    StreamedRead streamedRead = new StreamedRead(dataSet.getMembers());
     try {
       ConfirmedServiceRequest serviceRequest = constructGetDataSetValuesRequest(dataSet);
-      confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
+      confirmedServiceResponse = encodeWriteReadDecode(serviceRequest, streamedRead);
     } catch (ServiceError e) {
       int dataSetSize = dataSet.getMembers().size();
       List<ServiceError> serviceErrors = new ArrayList<>(dataSetSize);
@@ -1434,7 +2121,22 @@ public final class ClientAssociation {
       }
       return serviceErrors;
     }
-    return decodeGetDataSetValuesResponse(confirmedServiceResponse, dataSet);
+    if (!streamedRead.decoded) {
+      return decodeReadResponse(confirmedServiceResponse, dataSet.getMembers());
+    }
+    if (streamedRead.numResults != dataSet.getMembers().size()) {
+      int dataSetSize = dataSet.getMembers().size();
+      List<ServiceError> serviceErrors = new ArrayList<>(dataSetSize);
+      ServiceError serviceError =
+          new ServiceError(
+              ServiceError.PARAMETER_VALUE_INAPPROPRIATE,
+              "Number of AccessResults does not match the number of DataSet members.");
+      for (int i = 0; i < dataSetSize; i++) {
+        serviceErrors.add(serviceError);
+      }
+      return serviceErrors;
+    }
+    return streamedRead.results;
   }
 
   private ConfirmedServiceRequest constructGetDataSetValuesRequest(DataSet dataSet)
@@ -1453,18 +2155,18 @@ public final class ClientAssociation {
     return confirmedServiceRequest;
   }
 
-  private List<ServiceError> decodeGetDataSetValuesResponse(
-      ConfirmedServiceResponse confirmedServiceResponse, DataSet ds) {
+  private List<ServiceError> decodeReadResponse(
+      ConfirmedServiceResponse confirmedServiceResponse, List<FcModelNode> readNodes) {
 
-    int dataSetSize = ds.getMembers().size();
-    List<ServiceError> serviceErrors = new ArrayList<>(dataSetSize);
+    int numNodes = readNodes.size();
+    List<ServiceError> serviceErrors = new ArrayList<>(numNodes);
 
     if (confirmedServiceResponse.getRead() == null) {
       ServiceError serviceError =
           new ServiceError(
               ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
               "Error decoding GetDataValuesReponsePdu");
-      for (int i = 0; i < dataSetSize; i++) {
+      for (int i = 0; i < numNodes; i++) {
         serviceErrors.add(serviceError);
       }
       return serviceErrors;
@@ -1473,12 +2175,12 @@ public final class ClientAssociation {
     ReadResponse readResponse = confirmedServiceResponse.getRead();
     List<AccessResult> listOfAccessResults = readResponse.getListOfAccessResult().getAccessResult();
 
-    if (listOfAccessResults.size() != ds.getMembers().size()) {
+    if (listOfAccessResults.size() != numNodes) {
       ServiceError serviceError =
           new ServiceError(
               ServiceError.PARAMETER_VALUE_INAPPROPRIATE,
-              "Number of AccessResults does not match the number of DataSet members.");
-      for (int i = 0; i < dataSetSize; i++) {
+              "Number of AccessResults does not match the number of read variables.");
+      for (int i = 0; i < numNodes; i++) {
         serviceErrors.add(serviceError);
       }
       return serviceErrors;
@@ -1486,15 +2188,15 @@ public final class ClientAssociation {
 
     Iterator<AccessResult> accessResultIterator = listOfAccessResults.iterator();
 
-    for (FcModelNode dsMember : ds) {
+    for (FcModelNode readNode : readNodes) {
       AccessResult accessResult = accessResultIterator.next();
       if (accessResult.getSuccess() != null) {
         try {
-          dsMember.setValueFromMmsDataObj(accessResult.getSuccess());
+          readNode.setValueFromMmsDataObj(accessResult.getSuccess());
+          serviceErrors.add(null);
         } catch (ServiceError e) {
           serviceErrors.add(e);
         }
-        serviceErrors.add(null);
       } else {
         serviceErrors.add(mmsDataAccessErrorToServiceError(accessResult.getFailure()));
       }
@@ -1506,7 +2208,7 @@ public final class ClientAssociation {
   public List<ServiceError> setDataSetValues(DataSet dataSet) throws ServiceError, IOException {
     ConfirmedServiceRequest serviceRequest = constructSetDataSetValues(dataSet);
     ConfirmedServiceResponse confirmedServiceResponse = encodeWriteReadDecode(serviceRequest);
-    return decodeSetDataSetValuesResponse(confirmedServiceResponse);
+    return decodeWriteResponse(confirmedServiceResponse);
   }
 
   private ConfirmedServiceRequest constructSetDataSetValues(DataSet dataSet) throws ServiceError {
@@ -1530,7 +2232,7 @@ public final class ClientAssociation {
     return confirmedServiceRequest;
   }
 
-  private List<ServiceError> decodeSetDataSetValuesResponse(
+  private List<ServiceError> decodeWriteResponse(
       ConfirmedServiceResponse confirmedServiceResponse) throws ServiceError {
 
     if (confirmedServiceResponse.getWrite() == null) {
@@ -1575,7 +2277,21 @@ public final class ClientAssociation {
     setDataValues(resvBda);
   }
 
+  /**
+   * Enables reporting of the given report control block. If the model was retrieved without data
+   * sets, the data set of the report control block is retrieved first so that the received reports
+   * can be decoded.
+   *
+   * @param rcb the report control block
+   * @throws ServiceError if a ServiceError is returned by the server.
+   * @throws IOException if a fatal association error occurs. The association object will be closed
+   *     and can no longer be used after this exception is thrown.
+   */
   public void enableReporting(Rcb rcb) throws ServiceError, IOException {
+    String dataSetRef = rcb.getDatSet().getStringValue();
+    if (serverModel != null && dataSetRef != null && !dataSetRef.isEmpty()) {
+      retrieveDataSet(dataSetRef.replace('$', '.'));
+    }
     BdaBoolean rptEnaBda = rcb.getRptEna();
     rptEnaBda.setValue(true);
     setDataValues(rptEnaBda);
@@ -1674,6 +2390,56 @@ public final class ClientAssociation {
     return serviceErrors;
   }
 
+  /**
+   * Merges two segments of a report. Every data set member is included in one segment only.
+   *
+   * @param first the first segments
+   * @param next the segment that follows
+   * @return a report that has the SubSqNum and MoreSegmentsFollow of the next segment
+   */
+  private static Report mergeReportSegments(Report first, Report next) {
+    boolean[] firstInclusion = first.getInclusionBitString();
+    boolean[] nextInclusion = next.getInclusionBitString();
+    boolean[] inclusionBitString = new boolean[firstInclusion.length];
+    List<FcModelNode> values = new ArrayList<>();
+    List<BdaReasonForInclusion> reasonCodes = null;
+    if (first.getReasonCodes() != null && next.getReasonCodes() != null) {
+      reasonCodes = new ArrayList<>();
+    }
+    int firstIndex = 0;
+    int nextIndex = 0;
+    for (int i = 0; i < inclusionBitString.length && i < nextInclusion.length; i++) {
+      if (firstInclusion[i]) {
+        inclusionBitString[i] = true;
+        values.add(first.getValues().get(firstIndex));
+        if (reasonCodes != null) {
+          reasonCodes.add(first.getReasonCodes().get(firstIndex));
+        }
+        firstIndex++;
+      } else if (nextInclusion[i]) {
+        inclusionBitString[i] = true;
+        values.add(next.getValues().get(nextIndex));
+        if (reasonCodes != null) {
+          reasonCodes.add(next.getReasonCodes().get(nextIndex));
+        }
+        nextIndex++;
+      }
+    }
+    return new Report(
+        next.getRptId(),
+        next.getSqNum(),
+        next.getSubSqNum(),
+        next.isMoreSegmentsFollow(),
+        next.getDataSetRef(),
+        first.getBufOvfl(),
+        first.getConfRev(),
+        first.getTimeOfEntry(),
+        first.getEntryId(),
+        inclusionBitString,
+        values,
+        reasonCodes);
+  }
+
   private Report processReport(MMSpdu mmsPdu) throws ServiceError {
 
     if (mmsPdu.getUnconfirmedPDU() == null) {
@@ -1947,132 +2713,607 @@ public final class ClientAssociation {
     clientReceiver.disconnect();
   }
 
-  final class ClientReceiver extends Thread {
+  /** Decodes the service response of an asynchronous request into its result. */
+  private abstract static class ResponseDecoder<T>
+      implements Function<ConfirmedServiceResponse, T> {
 
-    private final ByteBuffer pduBuffer;
-    private Integer expectedResponseId;
-    private IOException lastIOException = null;
+    @Override
+    public T apply(ConfirmedServiceResponse confirmedServiceResponse) {
+      try {
+        return decode(confirmedServiceResponse);
+      } catch (ServiceError e) {
+        throw new CompletionException(e);
+      }
+    }
 
-    public ClientReceiver(int maxMmsPduSize) {
-      pduBuffer = ByteBuffer.allocate(maxMmsPduSize + 400);
+    abstract T decode(ConfirmedServiceResponse confirmedServiceResponse) throws ServiceError;
+  }
+
+  /** Runs the response timeouts of the requests of all associations. */
+  private static final class TimeoutScheduler {
+
+    private static final ScheduledThreadPoolExecutor instance = create();
+
+    private static ScheduledThreadPoolExecutor create() {
+      ScheduledThreadPoolExecutor scheduler =
+          new ScheduledThreadPoolExecutor(
+              1,
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "iec61850bean-client-timeout");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+      // most requests are answered in time, so their timeouts should not pile up
+      scheduler.setRemoveOnCancelPolicy(true);
+      return scheduler;
+    }
+  }
+
+  /** A request that has been sent or is waiting to be sent. */
+  private final class PendingRequest implements Runnable {
+
+    private final int invokeId;
+    private final StreamedRead streamedRead;
+    private final ReverseByteArrayOutputStream pduStream;
+    private final CompletableFuture<ConfirmedServiceResponse> future = new CompletableFuture<>();
+    private volatile ScheduledFuture<?> timeout = null;
+    private volatile int timeoutMillis;
+
+    PendingRequest(
+        int invokeId, StreamedRead streamedRead, ReverseByteArrayOutputStream pduStream) {
+      this.invokeId = invokeId;
+      this.streamedRead = streamedRead;
+      this.pduStream = pduStream;
+    }
+
+    void scheduleTimeout(int timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+      timeout = TimeoutScheduler.instance.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void cancelTimeout() {
+      ScheduledFuture<?> timeout = this.timeout;
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
     }
 
+    /** Called when the response timeout has elapsed. */
     @Override
     public void run() {
+      // a response that is received later is discarded because the request is no longer pending
+      if (removeTimedOutRequest(this, timeoutMillis)) {
+        future.completeExceptionally(new ServiceError(ServiceError.TIMEOUT));
+      }
+    }
+
+    void complete(MMSpdu decodedResponsePdu) {
       try {
-        while (true) {
+        testForInitiateErrorResponse(decodedResponsePdu);
+        testForErrorResponse(decodedResponsePdu);
+        testForRejectResponse(decodedResponsePdu);
+      } catch (ServiceError e) {
+        future.completeExceptionally(e);
+        return;
+      }
+      ConfirmedResponsePDU confirmedResponsePdu = decodedResponsePdu.getConfirmedResponsePDU();
+      if (confirmedResponsePdu == null) {
+        future.completeExceptionally(
+            new IllegalStateException("Response PDU is not a confirmed response pdu"));
+        return;
+      }
+      future.complete(confirmedResponsePdu.getService());
+    }
+  }
 
-          pduBuffer.clear();
-          byte[] buffer;
-          try {
-            buffer = acseAssociation.receive(pduBuffer);
-          } catch (TimeoutException e) {
-            // Illegal state: A timeout exception was thrown.
-            throw new IllegalStateException();
-          } catch (DecodingException e) {
-            // Error decoding the OSI headers of the received packet
-            continue;
+  /**
+   * A read whose response is decoded by the receiver directly from the BER encoding into the target
+   * model nodes instead of creating the generated Data objects first. The results are handed to the
+   * requesting thread through the future of the pending request.
+   */
+  private static final class StreamedRead {
+
+    private final List<FcModelNode> targets;
+    private boolean decoded = false;
+    private int numResults;
+    private List<ServiceError> results;
+
+    StreamedRead(List<FcModelNode> targets) {
+      this.targets = targets;
+    }
+
+    /**
+     * Decodes the PDU if it is a read response with the given invoke ID. The list of access results
+     * is only written into the target nodes if the number of results matches the number of
+     * targets.
+     *
+     * @return false if the PDU is not a read response with the given invoke ID. In this case
+     *     nothing has been changed.
+     */
+    boolean decode(ByteBuffer pdu, int invokeId) {
+      MmsDataReader reader = new MmsDataReader(pdu);
+      try {
+        // confirmed-ResponsePDU [1]
+        if (reader.readHeader() != 0xa1) {
+          return false;
+        }
+        // invokeID
+        if (reader.readHeader() != 0x02 || reader.readInteger() != invokeId) {
+          return false;
+        }
+        // read [4]
+        if (reader.readHeader() != 0xa4) {
+          return false;
+        }
+        int tag = reader.readHeader();
+        // variableAccessSpecification [0]
+        if (tag == 0xa0) {
+          reader.skipContents();
+          tag = reader.readHeader();
+        }
+        // listOfAccessResult [1]
+        if (tag != 0xa1) {
+          return false;
+        }
+        numResults = reader.countElements(reader.getContentsEnd());
+      } catch (ServiceError e) {
+        // leave malformed PDUs to the generic decoder
+        return false;
+      }
+      decoded = true;
+
+      if (numResults != targets.size()) {
+        return true;
+      }
+
+      results = new ArrayList<>(numResults);
+      int limit = reader.limit();
+      for (FcModelNode target : targets) {
+        int start = reader.position();
+        int resultEnd;
+        try {
+          reader.readHeader();
+          resultEnd = reader.getContentsEnd();
+          reader.position(start);
+        } catch (ServiceError e) {
+          // cannot happen because all results have been counted before
+          throw new IllegalStateException(e);
+        }
+        // a malformed result must not affect the following ones
+        reader.limit(resultEnd);
+        try {
+          // failure [0] DataAccessError
+          if (reader.peekTag() == 0x80) {
+            reader.readHeader();
+            results.add(mmsDataAccessErrorToServiceError((int) reader.readInteger()));
+          } else {
+            target.setValueFromBer(reader);
+            results.add(null);
           }
+        } catch (ServiceError e) {
+          results.add(e);
+        }
+        reader.limit(limit);
+        reader.position(resultEnd);
+      }
+      return true;
+    }
+  }
 
-          MMSpdu decodedResponsePdu = new MMSpdu();
+  /**
+   * Retrieves directories and definitions with many requests outstanding at the same time. The
+   * responses are processed by the thread that runs the discovery. Requests that depend on a
+   * response, like the next page of a directory or the definitions of the listed logical nodes,
+   * are sent as soon as that response has been processed.
+   */
+  private final class ModelDiscovery {
+
+    private final BlockingQueue<DiscoveryRequest> completedRequests = new LinkedBlockingQueue<>();
+    private final List<DataSetDefinitionRequest> dataSetDefinitionRequests = new ArrayList<>();
+    private int numPendingRequests = 0;
+
+    /**
+     * Retrieves the names of the logical nodes of the given logical device and their definitions.
+     * The logical nodes are added to the given list in the order of the directory.
+     */
+    void retrieveLogicalNodes(String ldName, List<LogicalNode> lns) {
+      send(
+          constructGetDirectoryRequest(ldName, "", true),
+          new LogicalNodeNamesRequest(ldName, lns));
+    }
+
+    /**
+     * Retrieves the names of the data sets of the given logical device and their definitions. The
+     * definitions are decoded by {@link #decodeDataSetDefinitions()}.
+     */
+    void retrieveDataSetNames(String ldName, String continueAfter) {
+      send(
+          constructGetDirectoryRequest(ldName, continueAfter, false),
+          new DataSetNamesRequest(ldName));
+    }
+
+    /** Processes responses until no request is pending anymore. */
+    void run() throws ServiceError, IOException {
+      boolean interrupted = false;
+      try {
+        while (numPendingRequests > 0) {
+          DiscoveryRequest request;
           try {
-            decodedResponsePdu.decode(new ByteArrayInputStream(buffer), null);
-          } catch (IOException e) {
-            // Error decoding the received MMS PDU
+            request = completedRequests.take();
+          } catch (InterruptedException e) {
+            interrupted = true;
             continue;
           }
+          numPendingRequests--;
+          // the responses to requests that are still pending after a failure are discarded
+          if (request.failure instanceof ServiceError) {
+            throw (ServiceError) request.failure;
+          } else if (request.failure instanceof IOException) {
+            throw (IOException) request.failure;
+          } else if (request.failure instanceof RuntimeException) {
+            throw (RuntimeException) request.failure;
+          } else if (request.failure != null) {
+            throw new IllegalStateException(request.failure);
+          }
+          request.process(request.response);
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
 
-          if (decodedResponsePdu.getUnconfirmedPDU() != null) {
-            if (decodedResponsePdu
-                    .getUnconfirmedPDU()
-                    .getService()
-                    .getInformationReport()
-                    .getVariableAccessSpecification()
-                    .getListOfVariable()
-                != null) {
-              // Discarding LastApplError Report
-            } else {
-              if (reportListener != null) {
-                final Report report = processReport(decodedResponsePdu);
-
-                Thread t1 =
-                    new Thread(
-                        new Runnable() {
-                          @Override
-                          public void run() {
-                            reportListener.newReport(report);
-                          }
-                        });
-                t1.start();
-              } else {
-                // discarding report because no ReportListener was registered.
-              }
-            }
-          } else if (decodedResponsePdu.getRejectPDU() != null) {
-            synchronized (incomingResponses) {
-              if (expectedResponseId == null) {
-                // Discarding Reject MMS PDU because no listener for request was found.
-                continue;
-              } else if (decodedResponsePdu.getRejectPDU().getOriginalInvokeID().value.intValue()
-                  != expectedResponseId) {
-                // Discarding Reject MMS PDU because no listener with fitting invokeID was found.
-                continue;
-              } else {
-                try {
-                  incomingResponses.put(decodedResponsePdu);
-                } catch (InterruptedException e) {
-                  // TODO can this ever be interrupted?
+    /**
+     * Decodes the received data set definitions in the order of the directories. The members of
+     * the data sets are looked up in the server model, so this has to be called after the model
+     * has been created.
+     */
+    void decodeDataSetDefinitions() throws ServiceError {
+      for (DataSetDefinitionRequest request : dataSetDefinitionRequests) {
+        LogicalDevice ld = (LogicalDevice) serverModel.getChild(request.ldName);
+        decodeGetDataSetDirectoryResponse(request.response, request.dsId, ld);
+      }
+    }
+
+    private void send(ConfirmedServiceRequest serviceRequest, final DiscoveryRequest request) {
+      numPendingRequests++;
+      sendRequest(serviceRequest, null)
+          .whenComplete(
+              new BiConsumer<ConfirmedServiceResponse, Throwable>() {
+                @Override
+                public void accept(ConfirmedServiceResponse response, Throwable failure) {
+                  request.response = response;
+                  request.failure = failure;
+                  completedRequests.add(request);
                 }
-              }
-            }
-          } else if (decodedResponsePdu.getConfirmedErrorPDU() != null) {
-            synchronized (incomingResponses) {
-              if (expectedResponseId == null) {
-                // Discarding ConfirmedError MMS PDU because no listener for request was found.
-                continue;
-              } else if (decodedResponsePdu.getConfirmedErrorPDU().getInvokeID().value.intValue()
-                  != expectedResponseId) {
-                // Discarding ConfirmedError MMS PDU because no listener with fitting invokeID was
-                // found.
-                continue;
-              } else {
-                try {
-                  incomingResponses.put(decodedResponsePdu);
-                } catch (InterruptedException e) {
-                  // TODO can this ever be interrupted?
+              });
+    }
+
+    private abstract class DiscoveryRequest {
+
+      ConfirmedServiceResponse response;
+      Throwable failure;
+
+      abstract void process(ConfirmedServiceResponse response) throws ServiceError;
+    }
+
+    private final class LogicalNodeNamesRequest extends DiscoveryRequest {
+
+      private final String ldName;
+      private final List<LogicalNode> lns;
+
+      LogicalNodeNamesRequest(String ldName, List<LogicalNode> lns) {
+        this.ldName = ldName;
+        this.lns = lns;
+      }
+
+      @Override
+      void process(ConfirmedServiceResponse response) throws ServiceError {
+        List<String> lnNames = new ArrayList<>();
+        String continueAfterRef = decodeGetDirectoryResponse(response, lnNames);
+        if (!continueAfterRef.isEmpty()) {
+          send(
+              constructGetDirectoryRequest(ldName, continueAfterRef, true),
+              new LogicalNodeNamesRequest(ldName, lns));
+        }
+        for (String lnName : lnNames) {
+          ObjectReference lnRef = new ObjectReference(ldName + "/" + lnName);
+          // reserve the position of the logical node in the directory order
+          lns.add(null);
+          send(
+              constructGetDataDefinitionRequest(lnRef),
+              new DataDefinitionRequest(lnRef, lns, lns.size() - 1));
+        }
+      }
+    }
+
+    private final class DataDefinitionRequest extends DiscoveryRequest {
+
+      private final ObjectReference lnRef;
+      private final List<LogicalNode> lns;
+      private final int index;
+
+      DataDefinitionRequest(ObjectReference lnRef, List<LogicalNode> lns, int index) {
+        this.lnRef = lnRef;
+        this.lns = lns;
+        this.index = index;
+      }
+
+      @Override
+      void process(ConfirmedServiceResponse response) throws ServiceError {
+        lns.set(index, decodeGetDataDefinitionResponse(response, lnRef));
+      }
+    }
+
+    private final class DataSetNamesRequest extends DiscoveryRequest {
+
+      private final String ldName;
+
+      DataSetNamesRequest(String ldName) {
+        this.ldName = ldName;
+      }
+
+      @Override
+      void process(ConfirmedServiceResponse response) throws ServiceError {
+        if (response.getGetNameList() == null) {
+          throw new ServiceError(
+              ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+              "decodeGetDataSetResponse: Error decoding server response");
+        }
+
+        GetNameListResponse getNameListResponse = response.getGetNameList();
+        List<Identifier> identifiers = getNameListResponse.getListOfIdentifier().getIdentifier();
+        if (identifiers.isEmpty()) {
+          return;
+        }
+
+        for (Identifier identifier : identifiers) {
+          // TODO delete DataSets that no longer exist
+          DataSetDefinitionRequest request = new DataSetDefinitionRequest(identifier, ldName);
+          dataSetDefinitionRequests.add(request);
+          send(constructGetDataSetDirectoryRequest(identifier, ldName), request);
+        }
+
+        if (getNameListResponse.getMoreFollows() == null
+            || getNameListResponse.getMoreFollows().value) {
+          retrieveDataSetNames(ldName, identifiers.get(identifiers.size() - 1).toString());
+        }
+      }
+    }
+
+    private final class DataSetDefinitionRequest extends DiscoveryRequest {
+
+      private final Identifier dsId;
+      private final String ldName;
+
+      DataSetDefinitionRequest(Identifier dsId, String ldName) {
+        this.dsId = dsId;
+        this.ldName = ldName;
+      }
+
+      @Override
+      void process(ConfirmedServiceResponse response) {
+        // decoded once the server model has been created
+      }
+    }
+  }
+
+  final class ClientReceiver extends Thread {
+
+    private final int maxMmsPduSize;
+    private final AtomicBoolean receiveScheduled = new AtomicBoolean(false);
+    private volatile IOException lastIOException = null;
+    // the segments received so far of segmented reports, merged into one report per RptID
+    private final Map<String, Report> reportSegments = new HashMap<>();
+
+    public ClientReceiver(int maxMmsPduSize) {
+      this.maxMmsPduSize = maxMmsPduSize;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          receivePdu();
+        }
+      } catch (IOException e) {
+        close(e);
+      } catch (Exception e) {
+        close(new IOException("unexpected exception while receiving", e));
+      }
+    }
+
+    /**
+     * Serves the association without a dedicated thread. Whenever the non-blocking transport
+     * connection signals that data has been received, a task is handed to the given executor that
+     * processes all PDUs received so far. At most one such task is active per association.
+     */
+    void start(final Executor executor) {
+      final Runnable receiveTask =
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                while (true) {
+                  while (!closed && acseAssociation.isDataAvailable()) {
+                    receivePdu();
+                  }
+                  receiveScheduled.set(false);
+                  // data may have arrived after the last check without scheduling a new task
+                  if (closed
+                      || !acseAssociation.isDataAvailable()
+                      || !receiveScheduled.compareAndSet(false, true)) {
+                    return;
+                  }
                 }
+              } catch (IOException e) {
+                close(e);
+              } catch (Exception e) {
+                close(new IOException("unexpected exception while receiving", e));
               }
             }
-          } else {
-            synchronized (incomingResponses) {
-              if (expectedResponseId == null) {
-                // Discarding ConfirmedResponse MMS PDU because no listener for request was found.
-                continue;
-              } else if (decodedResponsePdu.getConfirmedResponsePDU().getInvokeID().value.intValue()
-                  != expectedResponseId) {
-                // Discarding ConfirmedResponse MMS PDU because no listener with fitting invokeID
-                // was
-                // found.
-                continue;
-              } else {
-                try {
-                  incomingResponses.put(decodedResponsePdu);
-                } catch (InterruptedException e) {
-                  // TODO can this ever be interrupted?
-                }
+          };
+
+      acseAssociation.setDataAvailableCallback(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (receiveScheduled.compareAndSet(false, true)) {
+                executor.execute(receiveTask);
               }
             }
-          }
+          });
+    }
+
+    private void receivePdu() throws IOException, ServiceError {
+      ByteBuffer pdu;
+      try {
+        pdu = acseAssociation.receiveView(ByteBufferPool.getDefault(), maxMmsPduSize + 400);
+      } catch (TimeoutException e) {
+        // Illegal state: A timeout exception was thrown.
+        throw new IllegalStateException();
+      } catch (DecodingException e) {
+        // Error decoding the OSI headers of the received packet
+        return;
+      }
+
+      PendingRequest streamedReadRequest = removeStreamedReadRequest(pdu);
+      MMSpdu decodedResponsePdu = new MMSpdu();
+      try {
+        if (streamedReadRequest != null
+            && streamedReadRequest.streamedRead.decode(
+                pdu.duplicate(), streamedReadRequest.invokeId)) {
+          streamedReadRequest.future.complete(new ConfirmedServiceResponse());
+          return;
         }
+        decodedResponsePdu.decode(new ByteBufferInputStream(pdu), null);
       } catch (IOException e) {
-        close(e);
-      } catch (Exception e) {
-        close(new IOException("unexpected exception while receiving", e));
+        // Error decoding the received MMS PDU
+        if (streamedReadRequest != null) {
+          streamedReadRequest.future.completeExceptionally(
+              new ServiceError(
+                  ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+                  "Error decoding the response PDU"));
+        }
+        return;
+      } finally {
+        acseAssociation.releaseReceiveBuffer();
       }
-    }
 
-    public void setResponseExpected(int invokeId) {
-      expectedResponseId = invokeId;
+      if (decodedResponsePdu.getUnconfirmedPDU() != null) {
+        if (decodedResponsePdu
+                .getUnconfirmedPDU()
+                .getService()
+                .getInformationReport()
+                .getVariableAccessSpecification()
+                .getListOfVariable()
+            != null) {
+          // Discarding LastApplError Report
+        } else {
+          if (reportDispatcher != null) {
+            Report report = reassembleSegments(processReport(decodedResponsePdu));
+            if (report != null) {
+              reportDispatcher.dispatch(report);
+            }
+          } else {
+            // discarding report because no ReportListener was registered.
+          }
+        }
+        return;
+      }
+
+      PendingRequest pendingRequest = streamedReadRequest;
+      if (pendingRequest == null) {
+        int responseId;
+        if (decodedResponsePdu.getRejectPDU() != null) {
+          if (decodedResponsePdu.getRejectPDU().getOriginalInvokeID() == null) {
+            // Discarding Reject MMS PDU because it does not refer to a request.
+            return;
+          }
+          responseId = decodedResponsePdu.getRejectPDU().getOriginalInvokeID().value.intValue();
+        } else if (decodedResponsePdu.getConfirmedErrorPDU() != null) {
+          responseId = decodedResponsePdu.getConfirmedErrorPDU().getInvokeID().value.intValue();
+        } else {
+          responseId = decodedResponsePdu.getConfirmedResponsePDU().getInvokeID().value.intValue();
+        }
+        pendingRequest = removePendingRequest(responseId);
+        if (pendingRequest == null) {
+          // Discarding MMS PDU because no request with fitting invokeID is pending.
+          return;
+        }
+      }
+      pendingRequest.complete(decodedResponsePdu);
+    }
+
+    /**
+     * Collects the segments of a segmented report. If a segment is missing, the segments received
+     * so far are discarded.
+     *
+     * @param report a report or a segment of a report
+     * @return the complete report or null if more segments follow
+     */
+    private Report reassembleSegments(Report report) {
+      if (report.getSubSqNum() == null) {
+        return report;
+      }
+      Report previousSegments = reportSegments.remove(report.getRptId());
+      if (report.getSubSqNum() != 0) {
+        if (previousSegments == null
+            || !Objects.equals(previousSegments.getSqNum(), report.getSqNum())
+            || previousSegments.getSubSqNum() + 1 != report.getSubSqNum()) {
+          return null;
+        }
+        report = mergeReportSegments(previousSegments, report);
+      }
+      if (report.isMoreSegmentsFollow()) {
+        reportSegments.put(report.getRptId(), report);
+        return null;
+      }
+      return new Report(
+          report.getRptId(),
+          report.getSqNum(),
+          null,
+          false,
+          report.getDataSetRef(),
+          report.getBufOvfl(),
+          report.getConfRev(),
+          report.getTimeOfEntry(),
+          report.getEntryId(),
+          report.getInclusionBitString(),
+          report.getValues(),
+          report.getReasonCodes());
+    }
+
+    /**
+     * Removes the pending request if the PDU is a confirmed response to a streamed read. Once
+     * removed, the request can no longer time out, so the target nodes of the read are never
+     * written after the requesting thread has given up waiting.
+     *
+     * @return the removed request or null if the PDU is not a response to a streamed read
+     */
+    private PendingRequest removeStreamedReadRequest(ByteBuffer pdu) {
+      int responseId;
+      MmsDataReader reader = new MmsDataReader(pdu.duplicate());
+      try {
+        // confirmed-ResponsePDU [1] and invokeID
+        if (reader.readHeader() != 0xa1 || reader.readHeader() != 0x02) {
+          return null;
+        }
+        responseId = (int) reader.readInteger();
+      } catch (ServiceError e) {
+        return null;
+      }
+      synchronized (pendingRequests) {
+        PendingRequest pendingRequest = pendingRequests.get(responseId);
+        if (pendingRequest == null || pendingRequest.streamedRead == null) {
+          return null;
+        }
+      }
+      return removePendingRequest(responseId);
     }
 
     private void disconnect() {
@@ -2081,25 +3322,11 @@ public final class ClientAssociation {
           closed = true;
           acseAssociation.disconnect();
           lastIOException = new IOException("Connection disconnected by client");
-          if (reportListener != null) {
-            Thread t1 =
-                new Thread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        reportListener.associationClosed(lastIOException);
-                      }
-                    });
-            t1.start();
+          if (reportDispatcher != null) {
+            reportDispatcher.close(lastIOException);
           }
 
-          MMSpdu mmsPdu = new MMSpdu();
-          mmsPdu.setConfirmedRequestPDU(new ConfirmedRequestPDU());
-          try {
-            incomingResponses.put(mmsPdu);
-          } catch (InterruptedException e1) {
-            // TODO can this ever be interrupted?
-          }
+          failPendingRequests(lastIOException);
         }
       }
     }
@@ -2110,25 +3337,11 @@ public final class ClientAssociation {
           closed = true;
           acseAssociation.close();
           lastIOException = e;
-          if (reportListener != null) {
-            Thread t1 =
-                new Thread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        reportListener.associationClosed(lastIOException);
-                      }
-                    });
-            t1.start();
+          if (reportDispatcher != null) {
+            reportDispatcher.close(lastIOException);
           }
 
-          MMSpdu mmsPdu = new MMSpdu();
-          mmsPdu.setConfirmedRequestPDU(new ConfirmedRequestPDU());
-          try {
-            incomingResponses.put(mmsPdu);
-          } catch (InterruptedException e1) {
-            // TODO can this ever be interrupted?
-          }
+          failPendingRequests(lastIOException);
         }
       }
     }
@@ -2136,12 +3349,5 @@ public final class ClientAssociation {
     IOException getLastIOException() {
       return lastIOException;
     }
-
-    MMSpdu removeExpectedResponse() {
-      synchronized (incomingResponses) {
-        expectedResponseId = null;
-        return incomingResponses.poll();
-      }
-    }
   }
 }
@@ -25,18 +25,30 @@ import java.io.IOException;
 public interface ClientEventListener {
 
   /**
-   * Invoked when a new report arrives. Note that the implementation of this method needs to be
-   * thread safe as it can be called in parallel if a new report arrives while an old one is still
-   * being processed.
+   * Invoked when a new report arrives. Reports of the same report control block are delivered one
+   * after the other in the order they were received. Note that the implementation of this method
+   * needs to be thread safe as reports of different report control blocks can be delivered in
+   * parallel.
    *
    * @param report the report that arrived.
    */
   void newReport(Report report);
 
+  /**
+   * Invoked instead of {@link #newReport(Report)} if the report queue of the report control block
+   * is full and the overflow policy is {@link ReportOverflowPolicy#SIGNAL_LISTENER}. The method is
+   * called by the thread receiving the PDUs of the association and should therefore return
+   * quickly. The default implementation does nothing.
+   *
+   * @param report the report that was dropped.
+   */
+  default void reportDropped(Report report) {}
+
   /**
    * Invoked when an IOException occurred for the association. An IOException implies that the
    * ClientAssociation that feeds this listener was automatically closed and can no longer be used
-   * to receive reports.
+   * to receive reports. The method is invoked after all reports received before have been
+   * delivered.
    *
    * @param e the exception that occured.
    */
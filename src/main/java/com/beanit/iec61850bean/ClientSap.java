@@ -13,9 +13,13 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.iec61850bean.internal.NamedThreadFactory;
 import com.beanit.josistack.ClientAcseSap;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.net.SocketFactory;
 
 /**
@@ -43,6 +47,11 @@ public final class ClientSap {
       new byte[] {(byte) 0xee, 0x1c, 0, 0, 0x04, 0x08, 0, 0, 0x79, (byte) 0xef, 0x18};
   private int messageFragmentTimeout = 10000;
   private int responseTimeout = 20000;
+  private ExecutorService receiveExecutor = null;
+  private Executor reportExecutor = null;
+  private ExecutorService defaultReportExecutor = null;
+  private int reportQueueCapacity = 1000;
+  private ReportOverflowPolicy reportOverflowPolicy = ReportOverflowPolicy.BLOCK;
 
   /** Use this constructor to create a default client SAP. */
   public ClientSap() {
@@ -244,6 +253,58 @@ public final class ClientSap {
     responseTimeout = timeout;
   }
 
+  /**
+   * Sets the executor that delivers received reports to the report listeners of the associations
+   * created using this ClientSap. The reports of a report control block are always delivered one
+   * after the other. By default (null) a cached thread pool of daemon threads is created that is
+   * shared by all associations of this ClientSap.
+   *
+   * @param reportExecutor the executor to deliver reports or null to use the default
+   */
+  public void setReportExecutor(Executor reportExecutor) {
+    this.reportExecutor = reportExecutor;
+  }
+
+  /**
+   * Sets the maximum number of reports per report control block that wait to be delivered to the
+   * report listener. If the queue is full, the overflow policy determines what happens with
+   * further reports.
+   *
+   * @param reportQueueCapacity the capacity of the queues. The default is 1000.
+   */
+  public void setReportQueueCapacity(int reportQueueCapacity) {
+    if (reportQueueCapacity < 1) {
+      throw new IllegalArgumentException("The report queue capacity must be at least 1");
+    }
+    this.reportQueueCapacity = reportQueueCapacity;
+  }
+
+  /**
+   * Sets what happens with a received report if the queue of its report control block is full.
+   *
+   * @param reportOverflowPolicy the policy. The default is {@link ReportOverflowPolicy#BLOCK}.
+   */
+  public void setReportOverflowPolicy(ReportOverflowPolicy reportOverflowPolicy) {
+    if (reportOverflowPolicy == null) {
+      throw new IllegalArgumentException("The report overflow policy must not be null");
+    }
+    this.reportOverflowPolicy = reportOverflowPolicy;
+  }
+
+  /**
+   * Enables non-blocking I/O by setting the number of I/O threads to a value greater than zero. In
+   * this mode the sockets of all associations created by this ClientSap are read by a shared group
+   * of I/O threads. Received PDUs are processed by a shared thread pool instead of one receiver
+   * thread per association. Both use daemon threads. The synchronous API of
+   * <code>ClientAssociation</code> is not affected. Non-blocking I/O cannot be used with a custom
+   * SocketFactory. The default is 0 which disables non-blocking I/O.
+   *
+   * @param numIoThreads the number of I/O threads, 0 to disable non-blocking I/O
+   */
+  public void setNumIoThreads(int numIoThreads) {
+    acseSap.tSap.setNumIoThreads(numIoThreads);
+  }
+
   /**
    * Sets the message fragment timeout. This is the timeout that the socket timeout is set to after
    * the first byte of a message has been received. A request function (e.g. setDataValues()) will
@@ -324,6 +385,13 @@ public final class ClientSap {
       throw new IllegalArgumentException("sSelLocal lenght must be two");
     }
 
+    ReportDispatcher reportDispatcher = null;
+    if (reportListener != null) {
+      reportDispatcher =
+          new ReportDispatcher(
+              reportListener, getReportExecutor(), reportQueueCapacity, reportOverflowPolicy);
+    }
+
     ClientAssociation clientAssociation =
         new ClientAssociation(
             address,
@@ -339,8 +407,34 @@ public final class ClientSap {
             servicesSupportedCalling,
             responseTimeout,
             messageFragmentTimeout,
-            reportListener);
+            reportDispatcher,
+            getReceiveExecutor());
 
     return clientAssociation;
   }
+
+  private synchronized ExecutorService getReceiveExecutor() {
+    if (acseSap.tSap.getNumIoThreads() == 0) {
+      return null;
+    }
+    if (receiveExecutor == null) {
+      // daemon threads like the I/O threads because the pool is shared by all associations of
+      // this ClientSap and is never shut down
+      receiveExecutor =
+          Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-client", true));
+    }
+    return receiveExecutor;
+  }
+
+  private synchronized Executor getReportExecutor() {
+    if (reportExecutor != null) {
+      return reportExecutor;
+    }
+    if (defaultReportExecutor == null) {
+      // daemon threads because the pool is shared by all associations and is never shut down
+      defaultReportExecutor =
+          Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-client-report", true));
+    }
+    return defaultReportExecutor;
+  }
 }
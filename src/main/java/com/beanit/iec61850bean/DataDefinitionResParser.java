@@ -36,7 +36,19 @@ final class DataDefinitionResParser {
 
     GetVariableAccessAttributesResponse varAccAttrs =
         confirmedServiceResponse.getGetVariableAccessAttributes();
-    TypeDescription typeSpec = varAccAttrs.getTypeDescription();
+    return parseLogicalNodeTypeDescription(varAccAttrs.getTypeDescription(), lnRef);
+  }
+
+  /**
+   * Creates a logical node from the MMS type description of the logical node's named variable.
+   *
+   * @param typeSpec the type description
+   * @param lnRef the reference of the logical node
+   * @return the logical node
+   * @throws ServiceError if the type description does not describe a logical node
+   */
+  static LogicalNode parseLogicalNodeTypeDescription(
+      TypeDescription typeSpec, ObjectReference lnRef) throws ServiceError {
     if (typeSpec.getStructure() == null) {
       throw new ServiceError(
           ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
@@ -31,6 +31,7 @@ public final class DataSet implements Iterable<FcModelNode> {
   private final Map<Fc, Map<String, FcModelNode>> membersMap = new EnumMap<>(Fc.class);
   private final boolean deletable;
   private ObjectName mmsObjectName = null;
+  private DataSetValueCache valueCache = null;
 
   public DataSet(String dataSetReference, List<FcModelNode> members) {
     this(dataSetReference, members, true);
@@ -113,6 +114,13 @@ public final class DataSet implements Iterable<FcModelNode> {
     return subBasicDataAttributes;
   }
 
+  synchronized DataSetValueCache getValueCache() {
+    if (valueCache == null) {
+      valueCache = new DataSetValueCache(members);
+    }
+    return valueCache;
+  }
+
   ObjectName getMmsObjectName() {
 
     if (mmsObjectName != null) {
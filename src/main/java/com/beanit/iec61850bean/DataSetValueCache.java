@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The encoded values of the members of a data set, shared by all report control blocks that
+ * monitor the data set. If several RCBs (e.g. one URCB instance per client) report the same change,
+ * each member value is encoded once and the encoding is reused in the reports of the other RCBs.
+ * An encoding is reused as long as none of the basic data attributes of the member has been set
+ * since it was encoded, so a change of one member does not cause the other members to be encoded
+ * again.
+ *
+ * <p>If the data set is monitored by a single RCB only, nothing is cached and the values are
+ * encoded directly into the report. The cache is guarded by its monitor, which is locked after the
+ * monitor of an RCB.
+ */
+final class DataSetValueCache {
+
+  private final List<FcModelNode> members;
+  private final List<List<BasicDataAttribute>> memberBdas;
+  private final byte[][] encodedValues;
+  // the versions of the members at the time they were encoded
+  private final long[] encodedVersions;
+  private final ReverseByteArrayOutputStream reverseOS =
+      new ReverseByteArrayOutputStream(500, true);
+  private int numRcbs = 0;
+
+  DataSetValueCache(List<FcModelNode> members) {
+    this.members = members;
+    memberBdas = new ArrayList<>(members.size());
+    for (FcModelNode member : members) {
+      memberBdas.add(member.getBasicDataAttributes());
+    }
+    encodedValues = new byte[members.size()][];
+    encodedVersions = new long[members.size()];
+  }
+
+  synchronized void addRcb() {
+    numRcbs++;
+  }
+
+  synchronized void removeRcb() {
+    if (--numRcbs < 2) {
+      // the encodings are only used if several RCBs monitor the data set
+      Arrays.fill(encodedValues, null);
+    }
+  }
+
+  /**
+   * Returns the access result of the value of a data set member for a report.
+   *
+   * @param index the index of the member in the data set
+   * @return the access result, which is encoded already if the data set is monitored by several
+   *     RCBs
+   */
+  synchronized AccessResult getAccessResult(int index) {
+    if (numRcbs > 1) {
+      // read before the value is encoded, so that an encoding is not reused after a later change
+      long version = getVersion(index);
+      if (encodedValues[index] == null || encodedVersions[index] != version) {
+        reverseOS.reset();
+        try {
+          new ModelNodeData(members.get(index)).encode(reverseOS);
+          encodedValues[index] = reverseOS.getArray();
+          encodedVersions[index] = version;
+        } catch (IOException e) {
+          // the member has no value, encoding the report will fail the same way
+          encodedValues[index] = null;
+        }
+      }
+      if (encodedValues[index] != null) {
+        return new AccessResult(encodedValues[index]);
+      }
+    }
+    AccessResult accessResult = new AccessResult();
+    accessResult.setSuccess(new ModelNodeData(members.get(index)));
+    return accessResult;
+  }
+
+  /** Returns the version of a member, which changes whenever one of its attributes is set. */
+  private long getVersion(int index) {
+    long version = 0;
+    for (BasicDataAttribute bda : memberBdas.get(index)) {
+      version += bda.valueVersion;
+    }
+    return version;
+  }
+}
@@ -13,7 +13,9 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -92,4 +94,24 @@ public class FcDataObject extends FcModelNode {
       child.setValueFromMmsDataObj(iterator.next());
     }
   }
+
+  @Override
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.readHeader(MmsDataReader.STRUCTURE, "structure");
+    if (reader.countElements(reader.getContentsEnd()) != children.size()) {
+      throw new ServiceError(
+          ServiceError.TYPE_CONFLICT,
+          "expected type: structure with " + children.size() + " elements");
+    }
+
+    for (ModelNode child : children.values()) {
+      child.setValueFromBer(reader);
+    }
+  }
+
+  @Override
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return MmsDataWriter.writeConstructed(
+        reverseOS, MmsDataReader.STRUCTURE, this, children.values());
+  }
 }
@@ -26,21 +26,23 @@ import com.beanit.iec61850bean.internal.mms.asn1.Unsigned32;
 import com.beanit.iec61850bean.internal.mms.asn1.VariableDefs;
 import com.beanit.iec61850bean.internal.mms.asn1.VariableSpecification;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public abstract class FcModelNode extends ModelNode {
 
   Fc fc;
   private VariableDefs.SEQUENCE variableDef = null;
   private ServerAssociation selected = null;
-  private TimerTask task = null;
+  private Runnable task = null;
+  private ScheduledFuture<?> taskFuture = null;
 
   public Fc getFc() {
     return fc;
   }
 
-  boolean select(ServerAssociation association, Timer timer) {
+  boolean select(ServerAssociation association, ScheduledExecutorService timer) {
     if (selected != null) {
       if (selected != association) {
         return false;
@@ -63,7 +65,7 @@ public abstract class FcModelNode extends ModelNode {
       return true;
     }
 
-    class SelectResetTask extends TimerTask {
+    class SelectResetTask implements Runnable {
       ServerAssociation association;
 
       SelectResetTask(ServerAssociation association) {
@@ -72,40 +74,44 @@ public abstract class FcModelNode extends ModelNode {
 
       @Override
       public void run() {
-        synchronized (association.serverModel) {
+        association.serverSap.modelLock.lockExclusively();
+        try {
           if (task == this) {
             task = null;
+            taskFuture = null;
             deselectAndRemove(association);
           }
+        } finally {
+          association.serverSap.modelLock.unlockExclusively();
         }
       }
     }
 
-    if (task != null) {
-      task.cancel();
-    }
+    cancelTask();
 
     task = new SelectResetTask(association);
-    timer.schedule(task, sboTimeout);
+    taskFuture = timer.schedule(task, sboTimeout, TimeUnit.MILLISECONDS);
 
     return true;
   }
 
   void deselectAndRemove(ServerAssociation association) {
     selected = null;
-    if (task != null) {
-      task.cancel();
-      task = null;
-    }
+    cancelTask();
     association.selects.remove(this);
   }
 
   void deselect() {
     selected = null;
-    if (task != null) {
-      task.cancel();
-      task = null;
+    cancelTask();
+  }
+
+  private void cancelTask() {
+    if (taskFuture != null) {
+      taskFuture.cancel(false);
+      taskFuture = null;
     }
+    task = null;
   }
 
   boolean isSelected() {
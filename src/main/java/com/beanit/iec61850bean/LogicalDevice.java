@@ -19,6 +19,8 @@ import java.util.List;
 
 public final class LogicalDevice extends ModelNode {
 
+  private volatile LogicalDeviceDirectory mmsDirectory = null;
+
   public LogicalDevice(ObjectReference objectReference, List<LogicalNode> logicalNodes) {
     children = new LinkedHashMap<>((int) ((logicalNodes.size() / 0.75) + 1));
     this.objectReference = objectReference;
@@ -36,4 +38,14 @@ public final class LogicalDevice extends ModelNode {
     }
     return new LogicalDevice(objectReference, childCopies);
   }
+
+  LogicalDeviceDirectory getMmsDirectory(String[] mmsFcs) {
+    LogicalDeviceDirectory directory = mmsDirectory;
+    if (directory == null) {
+      // the structure of the model is static, so concurrent builds result in equal directories
+      directory = new LogicalDeviceDirectory(this, mmsFcs);
+      mmsDirectory = directory;
+    }
+    return directory;
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beanit.iec61850bean.internal.mms.asn1.Identifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MMS references of all named variables of a logical device as returned by the
+ * GetLogicalDeviceDirectory (MMS GetNameList[NAMED_VARIABLE]) service. The directory is built once
+ * from the static model structure. The position following a continueAfter reference is found
+ * through a hash index so that every page of the directory is returned with a cost proportional to
+ * the page size only.
+ */
+final class LogicalDeviceDirectory {
+
+  private final Identifier[] identifiers;
+  private final Map<String, Integer> positions;
+
+  LogicalDeviceDirectory(LogicalDevice logicalDevice, String[] mmsFcs) {
+    List<String> mmsReferences = new ArrayList<>();
+
+    for (ModelNode logicalNodeMn : logicalDevice) {
+      LogicalNode logicalNode = (LogicalNode) logicalNodeMn;
+      mmsReferences.add(logicalNode.getName());
+
+      for (String mmsFc : mmsFcs) {
+        Fc fc = Fc.fromString(mmsFc);
+        if (fc != null) {
+
+          List<FcDataObject> fcDataObjects = logicalNode.getChildren(fc);
+          if (fcDataObjects != null) {
+            mmsReferences.add(logicalNode.getName() + "$" + mmsFc);
+            for (FcDataObject dataObject : fcDataObjects) {
+              insertMmsRef(dataObject, mmsReferences, logicalNode.getName() + "$" + mmsFc);
+            }
+          }
+        }
+      }
+    }
+
+    identifiers = new Identifier[mmsReferences.size()];
+    positions = new HashMap<>((int) ((mmsReferences.size() / 0.75) + 1));
+    for (int i = 0; i < identifiers.length; i++) {
+      String mmsReference = mmsReferences.get(i);
+      identifiers[i] = new Identifier(mmsReference.getBytes(UTF_8));
+      positions.putIfAbsent(mmsReference, i);
+    }
+  }
+
+  private static void insertMmsRef(ModelNode node, List<String> mmsRefs, String parentRef) {
+    String ref = parentRef + '$' + node.getName();
+    mmsRefs.add(ref);
+    if (!(node instanceof Array)) {
+      for (ModelNode childNode : node) {
+        insertMmsRef(childNode, mmsRefs, ref);
+      }
+    }
+  }
+
+  int size() {
+    return identifiers.length;
+  }
+
+  Identifier get(int index) {
+    return identifiers[index];
+  }
+
+  /**
+   * Returns the position of the entry that follows the given reference.
+   *
+   * @param continueAfter the reference received in the GetNameList request
+   * @return the position of the following entry or size() if the reference is not part of the
+   *     directory
+   */
+  int positionAfter(String continueAfter) {
+    Integer position = positions.get(continueAfter);
+    if (position == null) {
+      return identifiers.length;
+    }
+    return position + 1;
+  }
+}
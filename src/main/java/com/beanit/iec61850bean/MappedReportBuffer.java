@@ -0,0 +1,418 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A report buffer that is stored in memory-mapped files so that the entries survive a restart of
+ * the server. The buffer consists of a fixed number of segment files which are used as a ring.
+ * Entries are only appended to the newest segment. If it is full, the segment after it is reused,
+ * which discards all entries of the oldest segment at once. The disk space used by the buffer is
+ * therefore fixed when it is created.
+ *
+ * <p>Entries are written to the mapped files immediately but only forced to the disk by {@link
+ * #sync()}, so that a burst of entries is synced once. A full segment is synced before the next
+ * segment is used. When the buffer is opened again, the EntryID index is rebuilt from the entry
+ * headers. Only the entries of the newest segment are verified using their checksums as it is the
+ * only segment that can contain incompletely written entries.
+ */
+final class MappedReportBuffer implements ReportBuffer {
+
+  static final int SEGMENT_SIZE = 64 * 1024;
+
+  private static final int MAGIC = 0x49454342;
+  private static final int VERSION = 1;
+  // magic, version, number of segments, configuration hash and EntryID of the first entry
+  private static final int SEGMENT_HEADER_LENGTH = 24;
+  // length, values length, EntryID, time of entry and checksum
+  private static final int ENTRY_HEADER_LENGTH = 28;
+
+  private final Segment[] segments;
+  // the segments from oldest to newest in ring order are in use
+  private int oldest = 0;
+  private int newest = 0;
+  private int configurationHash = 0;
+  private boolean needsSync = false;
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Opens the buffer stored in the given directory or creates a new one.
+   *
+   * @param directory the directory of the segment files
+   * @param capacity the size of the buffer in bytes, rounded up to a multiple of the segment size
+   * @throws IOException if the segment files cannot be created or mapped
+   */
+  MappedReportBuffer(File directory, int capacity) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the report buffer directory " + directory);
+    }
+    int numSegments = Math.max(2, (capacity - 1) / SEGMENT_SIZE + 1);
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(map(new File(directory, "segment" + i + ".dat")));
+    }
+    // segments of a buffer with a larger capacity would be used again if the capacity is increased
+    int index = numSegments;
+    while (new File(directory, "segment" + index + ".dat").delete()) {
+      index++;
+    }
+    rebuildIndex();
+  }
+
+  private static MappedByteBuffer map(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() != SEGMENT_SIZE) {
+        raf.setLength(SEGMENT_SIZE);
+      }
+      // the mapping stays valid after the file has been closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+    }
+  }
+
+  @Override
+  public int getNumEntries() {
+    return (int) (getLastEntryId() - getFirstEntryId() + 1);
+  }
+
+  @Override
+  public long getFirstEntryId() {
+    return segments[oldest].firstEntryId;
+  }
+
+  @Override
+  public long getLastEntryId() {
+    return segments[newest].firstEntryId + segments[newest].numEntries - 1;
+  }
+
+  @Override
+  public boolean contains(long entryId) {
+    return entryId >= getFirstEntryId() && entryId <= getLastEntryId();
+  }
+
+  @Override
+  public void setConfiguration(String configuration) {
+    int hash = configuration.hashCode();
+    if (hash != configurationHash) {
+      configurationHash = hash;
+      clear();
+    }
+  }
+
+  @Override
+  public long add(byte[] src, int offset, int valuesLength, int length, long timeOfEntry) {
+    if (length > SEGMENT_SIZE - SEGMENT_HEADER_LENGTH - ENTRY_HEADER_LENGTH) {
+      return 0;
+    }
+    Segment segment = segments[newest];
+    if (segment.end + ENTRY_HEADER_LENGTH + length > SEGMENT_SIZE) {
+      segment = useNextSegment();
+    }
+
+    long entryId = segment.firstEntryId + segment.numEntries;
+    int position = segment.end;
+    ByteBuffer buffer = segment.buffer;
+    crc.reset();
+    crc.update(src, offset, length);
+    buffer.putInt(position, length);
+    buffer.putInt(position + 4, valuesLength);
+    buffer.putLong(position + 8, entryId);
+    buffer.putLong(position + 16, timeOfEntry);
+    buffer.putInt(position + 24, (int) crc.getValue());
+    buffer.position(position + ENTRY_HEADER_LENGTH);
+    buffer.put(src, offset, length);
+
+    segment.addEntry(position);
+    segment.end = position + ENTRY_HEADER_LENGTH + length;
+    needsSync = true;
+    return entryId;
+  }
+
+  @Override
+  public byte[] getEntry(long entryId, boolean withReasons) {
+    Segment segment = getSegment(entryId);
+    int position = segment.offsets[(int) (entryId - segment.firstEntryId)];
+    ByteBuffer buffer = segment.buffer;
+    byte[] entry = new byte[buffer.getInt(withReasons ? position : position + 4)];
+    buffer.position(position + ENTRY_HEADER_LENGTH);
+    buffer.get(entry);
+    return entry;
+  }
+
+  @Override
+  public long getTimeOfEntry(long entryId) {
+    Segment segment = getSegment(entryId);
+    return segment.buffer.getLong(segment.offsets[(int) (entryId - segment.firstEntryId)] + 16);
+  }
+
+  @Override
+  public void clear() {
+    long nextEntryId = getLastEntryId() + 1;
+    // the older segments are released first, otherwise they would still be linked to the newest
+    // segment if the server stopped in between
+    for (int i = 0; i < segments.length; i++) {
+      if (i != newest) {
+        release(i);
+      }
+    }
+    oldest = newest;
+    initSegment(newest, nextEntryId);
+    sync();
+  }
+
+  @Override
+  public boolean needsSync() {
+    return needsSync;
+  }
+
+  @Override
+  public void sync() {
+    if (needsSync) {
+      segments[newest].buffer.force();
+      needsSync = false;
+    }
+  }
+
+  @Override
+  public void close() {
+    if (segments[0].buffer == null) {
+      return;
+    }
+    sync();
+    for (Segment segment : segments) {
+      unmap(segment.buffer);
+      segment.buffer = null;
+    }
+  }
+
+  /**
+   * Releases the mapping of a buffer right away. Otherwise it is only released when the buffer is
+   * garbage collected, while the server may map the files again every time it is started. The
+   * buffer must not be accessed afterwards.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      // Java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+      return;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8 has no invokeCleaner
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      cleaner.getClass().getMethod("clean").invoke(cleaner);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // the mapping is released when the buffer is garbage collected
+    }
+  }
+
+  private Segment useNextSegment() {
+    long nextEntryId = getLastEntryId() + 1;
+    segments[newest].buffer.force();
+    newest = (newest + 1) % segments.length;
+    if (newest == oldest) {
+      // the entries of the oldest segment are discarded
+      oldest = (oldest + 1) % segments.length;
+    }
+    initSegment(newest, nextEntryId);
+    return segments[newest];
+  }
+
+  private void initSegment(int index, long firstEntryId) {
+    Segment segment = segments[index];
+    ByteBuffer buffer = segment.buffer;
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, segments.length);
+    buffer.putInt(12, configurationHash);
+    buffer.putLong(16, firstEntryId);
+    segment.firstEntryId = firstEntryId;
+    segment.numEntries = 0;
+    segment.end = SEGMENT_HEADER_LENGTH;
+    needsSync = true;
+  }
+
+  /** Marks a segment as unused. */
+  private void release(int index) {
+    Segment segment = segments[index];
+    if (segment.firstEntryId != 0) {
+      segment.buffer.putLong(16, 0);
+      segment.buffer.force();
+      segment.firstEntryId = 0;
+      segment.numEntries = 0;
+    }
+  }
+
+  private Segment getSegment(long entryId) {
+    if (!contains(entryId)) {
+      throw new IllegalArgumentException("entry " + entryId + " is not in the buffer");
+    }
+    // binary search for the last segment in use whose first entry is not after the given one
+    int low = 0;
+    int high = (newest - oldest + segments.length) % segments.length;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (segments[(oldest + middle) % segments.length].firstEntryId <= entryId) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return segments[(oldest + low) % segments.length];
+  }
+
+  private void rebuildIndex() {
+    int newestInUse = -1;
+    for (int i = 0; i < segments.length; i++) {
+      Segment segment = segments[i];
+      ByteBuffer buffer = segment.buffer;
+      if (buffer.getInt(0) == MAGIC
+          && buffer.getInt(4) == VERSION
+          && buffer.getInt(8) == segments.length) {
+        segment.firstEntryId = buffer.getLong(16);
+      }
+      if (segment.firstEntryId != 0
+          && (newestInUse == -1 || segment.firstEntryId > segments[newestInUse].firstEntryId)) {
+        newestInUse = i;
+      }
+    }
+
+    if (newestInUse == -1) {
+      // a new buffer or one that was created with a different capacity, whose segments must not
+      // be used again if the capacity is changed back
+      for (int i = 0; i < segments.length; i++) {
+        clearSegment(i);
+      }
+      initSegment(0, 1);
+      sync();
+      return;
+    }
+
+    newest = newestInUse;
+    oldest = newest;
+    configurationHash = segments[newest].buffer.getInt(12);
+    readEntries(segments[newest], true);
+    clearTail(segments[newest]);
+    while (true) {
+      int previous = (oldest + segments.length - 1) % segments.length;
+      Segment segment = segments[previous];
+      if (previous == newest
+          || segment.firstEntryId == 0
+          || segment.buffer.getInt(12) != configurationHash) {
+        break;
+      }
+      readEntries(segment, false);
+      if (segment.firstEntryId + segment.numEntries != segments[oldest].firstEntryId) {
+        break;
+      }
+      oldest = previous;
+    }
+
+    int numInUse = (newest - oldest + segments.length) % segments.length + 1;
+    for (int i = numInUse; i < segments.length; i++) {
+      clearSegment((oldest + i) % segments.length);
+    }
+  }
+
+  /** Marks a segment as unused, also if its header was written by a buffer of another capacity. */
+  private void clearSegment(int index) {
+    initSegment(index, 0);
+    segments[index].buffer.force();
+  }
+
+  /**
+   * Overwrites the bytes after the last valid entry of a segment. Otherwise the entries after a
+   * corrupted entry would be valid again as soon as the entry is overwritten by one of the same
+   * length.
+   */
+  private void clearTail(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    if (segment.end + ENTRY_HEADER_LENGTH <= SEGMENT_SIZE && buffer.getInt(segment.end) != 0) {
+      buffer.position(segment.end);
+      buffer.put(new byte[SEGMENT_SIZE - segment.end]);
+      buffer.force();
+    }
+  }
+
+  private void readEntries(Segment segment, boolean verify) {
+    ByteBuffer buffer = segment.buffer;
+    segment.numEntries = 0;
+    int position = SEGMENT_HEADER_LENGTH;
+    while (position + ENTRY_HEADER_LENGTH <= SEGMENT_SIZE) {
+      int length = buffer.getInt(position);
+      int valuesLength = buffer.getInt(position + 4);
+      // entries left over from the previous use of the segment have smaller EntryIDs
+      if (length <= 0
+          || length > SEGMENT_SIZE - position - ENTRY_HEADER_LENGTH
+          || valuesLength < 0
+          || valuesLength > length
+          || buffer.getLong(position + 8) != segment.firstEntryId + segment.numEntries) {
+        break;
+      }
+      if (verify
+          && checksum(buffer, position + ENTRY_HEADER_LENGTH, length)
+              != buffer.getInt(position + 24)) {
+        break;
+      }
+      segment.addEntry(position);
+      position += ENTRY_HEADER_LENGTH + length;
+    }
+    segment.end = position;
+  }
+
+  private int checksum(ByteBuffer buffer, int position, int length) {
+    ByteBuffer data = buffer.duplicate();
+    data.position(position);
+    data.limit(position + length);
+    crc.reset();
+    crc.update(data);
+    return (int) crc.getValue();
+  }
+
+  private static final class Segment {
+
+    // null once the buffer has been closed
+    private MappedByteBuffer buffer;
+    // zero if the segment is not in use
+    private long firstEntryId = 0;
+    private int numEntries = 0;
+    private int[] offsets = new int[64];
+    private int end = SEGMENT_HEADER_LENGTH;
+
+    Segment(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void addEntry(int offset) {
+      if (numEntries == offsets.length) {
+        offsets = Arrays.copyOf(offsets, numEntries * 2);
+      }
+      offsets[numEntries++] = offset;
+    }
+  }
+}
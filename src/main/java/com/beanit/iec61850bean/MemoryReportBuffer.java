@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+/**
+ * A report buffer that is held in memory and is lost when the server stops. The entries are stored
+ * in a ring of a fixed number of bytes. If a new entry does not fit, the oldest entries are
+ * discarded.
+ *
+ * <p>An entry is found by its EntryID without searching. Except for the entry table, which grows
+ * with the number of entries until it can hold the largest number of entries that fit into the
+ * buffer, adding and discarding entries does not allocate any memory.
+ */
+final class MemoryReportBuffer implements ReportBuffer {
+
+  private static final int INITIAL_TABLE_SIZE = 64;
+
+  private final byte[] data;
+  // offset of the oldest entry and the number of bytes used by all entries
+  private int start = 0;
+  private int size = 0;
+
+  // the entry table is a ring as well, its first element describes the oldest entry
+  private int[] offsets = new int[INITIAL_TABLE_SIZE];
+  private int[] lengths = new int[INITIAL_TABLE_SIZE];
+  private int[] valuesLengths = new int[INITIAL_TABLE_SIZE];
+  private long[] timesOfEntry = new long[INITIAL_TABLE_SIZE];
+  private int firstEntry = 0;
+  private int numEntries = 0;
+  // the EntryID of the oldest entry or the next EntryID if the buffer is empty
+  private long firstEntryId = 1;
+  private String configuration = null;
+
+  /**
+   * Creates a buffer.
+   *
+   * @param capacity the size of the buffer in bytes
+   */
+  MemoryReportBuffer(int capacity) {
+    data = new byte[capacity];
+  }
+
+  int getCapacity() {
+    return data.length;
+  }
+
+  @Override
+  public int getNumEntries() {
+    return numEntries;
+  }
+
+  @Override
+  public long getFirstEntryId() {
+    return firstEntryId;
+  }
+
+  @Override
+  public long getLastEntryId() {
+    return firstEntryId + numEntries - 1;
+  }
+
+  @Override
+  public boolean contains(long entryId) {
+    return entryId >= firstEntryId && entryId < firstEntryId + numEntries;
+  }
+
+  @Override
+  public void setConfiguration(String configuration) {
+    if (!configuration.equals(this.configuration)) {
+      clear();
+      this.configuration = configuration;
+    }
+  }
+
+  @Override
+  public long add(byte[] src, int offset, int valuesLength, int length, long timeOfEntry) {
+    if (length > data.length) {
+      return 0;
+    }
+    while (data.length - size < length) {
+      discardOldestEntry();
+    }
+    if (numEntries == offsets.length) {
+      growTable();
+    }
+
+    int entryOffset = (start + size) % data.length;
+    int firstPartLength = Math.min(length, data.length - entryOffset);
+    System.arraycopy(src, offset, data, entryOffset, firstPartLength);
+    System.arraycopy(src, offset + firstPartLength, data, 0, length - firstPartLength);
+    size += length;
+
+    int index = (firstEntry + numEntries) % offsets.length;
+    offsets[index] = entryOffset;
+    lengths[index] = length;
+    valuesLengths[index] = valuesLength;
+    timesOfEntry[index] = timeOfEntry;
+    numEntries++;
+    return getLastEntryId();
+  }
+
+  @Override
+  public byte[] getEntry(long entryId, boolean withReasons) {
+    int index = indexOf(entryId);
+    int length = withReasons ? lengths[index] : valuesLengths[index];
+    byte[] entry = new byte[length];
+    int firstPartLength = Math.min(length, data.length - offsets[index]);
+    System.arraycopy(data, offsets[index], entry, 0, firstPartLength);
+    System.arraycopy(data, 0, entry, firstPartLength, length - firstPartLength);
+    return entry;
+  }
+
+  @Override
+  public long getTimeOfEntry(long entryId) {
+    return timesOfEntry[indexOf(entryId)];
+  }
+
+  @Override
+  public void clear() {
+    firstEntryId += numEntries;
+    firstEntry = 0;
+    numEntries = 0;
+    start = 0;
+    size = 0;
+  }
+
+  @Override
+  public boolean needsSync() {
+    return false;
+  }
+
+  @Override
+  public void sync() {}
+
+  @Override
+  public void close() {}
+
+  private int indexOf(long entryId) {
+    if (!contains(entryId)) {
+      throw new IllegalArgumentException("entry " + entryId + " is not in the buffer");
+    }
+    return (int) ((firstEntry + entryId - firstEntryId) % offsets.length);
+  }
+
+  private void discardOldestEntry() {
+    int length = lengths[firstEntry];
+    start = (start + length) % data.length;
+    size -= length;
+    firstEntry = (firstEntry + 1) % offsets.length;
+    numEntries--;
+    firstEntryId++;
+  }
+
+  private void growTable() {
+    int newSize = offsets.length * 2;
+    offsets = copyTable(offsets, new int[newSize]);
+    lengths = copyTable(lengths, new int[newSize]);
+    valuesLengths = copyTable(valuesLengths, new int[newSize]);
+    long[] newTimesOfEntry = new long[newSize];
+    int firstPartLength = timesOfEntry.length - firstEntry;
+    System.arraycopy(timesOfEntry, firstEntry, newTimesOfEntry, 0, firstPartLength);
+    System.arraycopy(timesOfEntry, 0, newTimesOfEntry, firstPartLength, firstEntry);
+    timesOfEntry = newTimesOfEntry;
+    firstEntry = 0;
+  }
+
+  private int[] copyTable(int[] table, int[] newTable) {
+    int firstPartLength = table.length - firstEntry;
+    System.arraycopy(table, firstEntry, newTable, 0, firstPartLength);
+    System.arraycopy(table, 0, newTable, firstPartLength, firstEntry);
+    return newTable;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads BER encoded MMS Data elements directly from a buffer so that values can be written into
+ * model nodes without decoding the generated ASN.1 classes first. Only definite lengths are
+ * supported. Malformed encodings result in a ServiceError with the error code
+ * FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT.
+ */
+final class MmsDataReader {
+
+  // tags of the MMS Data CHOICE
+  static final int ARRAY = 0xa1;
+  static final int STRUCTURE = 0xa2;
+  static final int BOOLEAN = 0x83;
+  static final int BIT_STRING = 0x84;
+  static final int INTEGER = 0x85;
+  static final int UNSIGNED = 0x86;
+  static final int FLOATING_POINT = 0x87;
+  static final int OCTET_STRING = 0x89;
+  static final int VISIBLE_STRING = 0x8a;
+  static final int BINARY_TIME = 0x8c;
+  static final int MMS_STRING = 0x90;
+  static final int UTC_TIME = 0x91;
+
+  private final ByteBuffer buffer;
+  private int contentsEnd;
+
+  MmsDataReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  private static ServiceError decodingError(String message) {
+    return new ServiceError(
+        ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT, "Error decoding BER: " + message);
+  }
+
+  int position() {
+    return buffer.position();
+  }
+
+  void position(int position) {
+    buffer.position(position);
+  }
+
+  int limit() {
+    return buffer.limit();
+  }
+
+  void limit(int limit) {
+    buffer.limit(limit);
+  }
+
+  /**
+   * Returns the tag of the next element without consuming it.
+   *
+   * @return the tag of the next element or -1 if the end of the buffer has been reached
+   */
+  int peekTag() {
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    return buffer.get(buffer.position()) & 0xff;
+  }
+
+  /**
+   * Reads the tag and length of the next element. Afterwards the reader is positioned at the
+   * beginning of the element's contents.
+   *
+   * @return the tag
+   * @throws ServiceError if the encoding is malformed
+   */
+  int readHeader() throws ServiceError {
+    if (buffer.remaining() < 2) {
+      throw decodingError("unexpected end of data");
+    }
+    int tag = buffer.get() & 0xff;
+    if ((tag & 0x1f) == 0x1f) {
+      throw decodingError("multi byte tags are not supported");
+    }
+    int length = buffer.get() & 0xff;
+    if (length > 0x7f) {
+      int numLengthBytes = length & 0x7f;
+      if (numLengthBytes == 0) {
+        throw decodingError("indefinite lengths are not supported");
+      }
+      if (numLengthBytes > 3 || numLengthBytes > buffer.remaining()) {
+        throw decodingError("invalid length");
+      }
+      length = 0;
+      for (int i = 0; i < numLengthBytes; i++) {
+        length = (length << 8) | (buffer.get() & 0xff);
+      }
+    }
+    if (length > buffer.remaining()) {
+      throw decodingError("length exceeds the remaining data");
+    }
+    contentsEnd = buffer.position() + length;
+    return tag;
+  }
+
+  /**
+   * Reads the tag and length of the next Data element and checks its type.
+   *
+   * @param expectedTag the tag of the expected Data CHOICE
+   * @param expectedType the type name used in the error message
+   * @return the length of the contents
+   * @throws ServiceError TYPE_CONFLICT if the tag does not match or if the encoding is malformed
+   */
+  int readHeader(int expectedTag, String expectedType) throws ServiceError {
+    if (readHeader() != expectedTag) {
+      throw new ServiceError(ServiceError.TYPE_CONFLICT, "expected type: " + expectedType);
+    }
+    return contentsEnd - buffer.position();
+  }
+
+  /**
+   * Returns the position right after the contents of the element whose header was read last.
+   *
+   * @return the end position of the contents
+   */
+  int getContentsEnd() {
+    return contentsEnd;
+  }
+
+  /**
+   * Counts the elements from the current position up to the given end position without consuming
+   * them.
+   *
+   * @param end the end position of the enclosing element's contents
+   * @return the number of elements
+   * @throws ServiceError if the encoding is malformed
+   */
+  int countElements(int end) throws ServiceError {
+    int start = buffer.position();
+    int limit = buffer.limit();
+    int currentContentsEnd = contentsEnd;
+    buffer.limit(end);
+    try {
+      int count = 0;
+      while (buffer.hasRemaining()) {
+        readHeader();
+        skipContents();
+        count++;
+      }
+      return count;
+    } finally {
+      buffer.limit(limit);
+      buffer.position(start);
+      contentsEnd = currentContentsEnd;
+    }
+  }
+
+  /**
+   * Skips the next element including its header.
+   *
+   * @throws ServiceError if the encoding is malformed
+   */
+  void skipElement() throws ServiceError {
+    readHeader();
+    skipContents();
+  }
+
+  /** Skips the remaining contents of the element whose header was read last. */
+  void skipContents() {
+    buffer.position(contentsEnd);
+  }
+
+  boolean readBoolean() throws ServiceError {
+    if (contentsEnd - buffer.position() != 1) {
+      throw decodingError("invalid boolean length");
+    }
+    return buffer.get() != 0;
+  }
+
+  /**
+   * Reads the contents as a two's complement integer. Like BigInteger.longValue() only the lowest
+   * 64 bits are returned if the encoded integer is larger.
+   *
+   * @return the integer
+   * @throws ServiceError if the contents are empty
+   */
+  long readInteger() throws ServiceError {
+    if (buffer.position() == contentsEnd) {
+      throw decodingError("empty integer");
+    }
+    long value = buffer.get();
+    while (buffer.position() < contentsEnd) {
+      value = (value << 8) | (buffer.get() & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * Reads the first contents octet of a bit string which holds the number of unused bits in the
+   * last octet.
+   *
+   * @return the number of unused bits
+   * @throws ServiceError if the contents are empty or the number is invalid
+   */
+  int readUnusedBits() throws ServiceError {
+    if (buffer.position() == contentsEnd) {
+      throw decodingError("empty bit string");
+    }
+    int unusedBits = buffer.get() & 0xff;
+    if (unusedBits > 7 || (unusedBits != 0 && buffer.position() == contentsEnd)) {
+      throw decodingError("invalid number of unused bits");
+    }
+    return unusedBits;
+  }
+
+  /**
+   * Reads the remaining contents of the current element.
+   *
+   * @return a new array containing the contents
+   */
+  byte[] readBytes() {
+    byte[] bytes = new byte[contentsEnd - buffer.position()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
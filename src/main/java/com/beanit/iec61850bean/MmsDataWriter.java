@@ -0,0 +1,196 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import com.beanit.asn1bean.ber.BerLength;
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Writes the BER encoding of MMS Data elements directly into a ReverseByteArrayOutputStream so that
+ * the values of model nodes can be encoded without creating the generated ASN.1 classes first. As
+ * the stream is filled from the back, contents have to be written before their header. The
+ * encodings are identical to those created by the generated Data class. All write methods return
+ * the number of bytes written.
+ */
+final class MmsDataWriter {
+
+  private MmsDataWriter() {}
+
+  static int writeHeader(ReverseByteArrayOutputStream reverseOS, int tag, int length)
+      throws IOException {
+    int headerLength = BerLength.encodeLength(reverseOS, length);
+    reverseOS.write(tag);
+    return headerLength + 1;
+  }
+
+  static int writeBoolean(ReverseByteArrayOutputStream reverseOS, boolean value)
+      throws IOException {
+    reverseOS.write(value ? 0x01 : 0);
+    reverseOS.write(1);
+    reverseOS.write(MmsDataReader.BOOLEAN);
+    return 3;
+  }
+
+  /**
+   * Writes the integer in the shortest two's complement form like BigInteger.toByteArray() does.
+   *
+   * @param reverseOS the stream to write to
+   * @param tag either INTEGER or UNSIGNED
+   * @param value the value
+   * @return the number of bytes written
+   * @throws IOException if writing to the stream fails
+   */
+  static int writeInteger(ReverseByteArrayOutputStream reverseOS, int tag, long value)
+      throws IOException {
+    int length = 1;
+    while (length < 8 && (value >> (length * 8 - 1)) != 0 && (value >> (length * 8 - 1)) != -1) {
+      length++;
+    }
+    for (int i = 0; i < length; i++) {
+      reverseOS.write((int) (value >> (i * 8)));
+    }
+    reverseOS.write(length);
+    reverseOS.write(tag);
+    return length + 2;
+  }
+
+  static int writeBitString(ReverseByteArrayOutputStream reverseOS, byte[] value, int numBits)
+      throws IOException {
+    reverseOS.write(value);
+    reverseOS.write(value.length * 8 - numBits);
+    return value.length + 1 + writeHeader(reverseOS, MmsDataReader.BIT_STRING, value.length + 1);
+  }
+
+  static int writeBytes(ReverseByteArrayOutputStream reverseOS, int tag, byte[] value)
+      throws IOException {
+    reverseOS.write(value);
+    return value.length + writeHeader(reverseOS, tag, value.length);
+  }
+
+  /**
+   * Writes the given nodes in reverse order followed by the header of the enclosing structure or
+   * array.
+   *
+   * @param reverseOS the stream to write to
+   * @param tag either STRUCTURE or ARRAY
+   * @param parent the node whose contents are written, used in error messages
+   * @param nodes the nodes in their original order
+   * @return the number of bytes written
+   * @throws IOException if writing to the stream fails
+   */
+  static int writeConstructed(
+      ReverseByteArrayOutputStream reverseOS,
+      int tag,
+      ModelNode parent,
+      Iterable<? extends ModelNode> nodes)
+      throws IOException {
+    Iterator<? extends ModelNode> iterator = nodes.iterator();
+    if (!iterator.hasNext()) {
+      throw new IllegalArgumentException(
+          "Converting ModelNode: "
+              + parent.objectReference
+              + " to MMS Data Object resulted in Sequence of size zero.");
+    }
+    int length = writeReverse(reverseOS, iterator);
+    return length + writeHeader(reverseOS, tag, length);
+  }
+
+  /**
+   * Returns the maximum length of the MMS Data encoding of the given node. The length is derived
+   * from the types of the node and its children only, so it does not depend on the current values.
+   * Integers are assumed to need their full size and strings their maximum length.
+   *
+   * @param node the node
+   * @return the maximum number of bytes that encoding the node can result in
+   */
+  static int maxLength(ModelNode node) {
+    if (!(node instanceof BasicDataAttribute)) {
+      int length = 0;
+      for (ModelNode child : node.getChildren()) {
+        length += maxLength(child);
+      }
+      return length + headerLength(length);
+    }
+    if (node instanceof BdaBitString) {
+      int contentsLength = (((BdaBitString) node).getMaxNumBits() - 1) / 8 + 2;
+      return contentsLength + headerLength(contentsLength);
+    }
+    switch (((BasicDataAttribute) node).getBasicType()) {
+      case BOOLEAN:
+      case INT8:
+        return 3;
+      case INT16:
+      case INT8U:
+        return 4;
+      case INT16U:
+        return 5;
+      case INT32:
+        return 6;
+      case INT32U:
+      case FLOAT32:
+        return 7;
+      case ENTRY_TIME:
+        return 8;
+      case INT64:
+      case INT128:
+      case TIMESTAMP:
+        return 10;
+      case FLOAT64:
+        return 11;
+      case OCTET_STRING:
+        return stringMaxLength(((BdaOctetString) node).getMaxLength());
+      case VISIBLE_STRING:
+        return stringMaxLength(((BdaVisibleString) node).getMaxLength());
+      case UNICODE_STRING:
+        return stringMaxLength(((BdaUnicodeString) node).getMaxLength());
+      default:
+        throw new IllegalArgumentException("unknown basic type: " + node);
+    }
+  }
+
+  private static int stringMaxLength(int maxContentsLength) {
+    return maxContentsLength + headerLength(maxContentsLength);
+  }
+
+  private static int headerLength(int contentsLength) {
+    if (contentsLength < 0x80) {
+      return 2;
+    }
+    if (contentsLength < 0x100) {
+      return 3;
+    }
+    if (contentsLength < 0x10000) {
+      return 4;
+    }
+    return 5;
+  }
+
+  private static int writeReverse(
+      ReverseByteArrayOutputStream reverseOS, Iterator<? extends ModelNode> iterator)
+      throws IOException {
+    ModelNode node = iterator.next();
+    int length = 0;
+    if (iterator.hasNext()) {
+      length = writeReverse(reverseOS, iterator);
+    }
+    int nodeLength = node.encodeMmsData(reverseOS);
+    if (nodeLength == -1) {
+      throw new IllegalArgumentException(
+          "Unable to convert Child: " + node.objectReference + " to MMS Data Object.");
+    }
+    return length + nodeLength;
+  }
+}
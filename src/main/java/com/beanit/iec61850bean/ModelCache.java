@@ -0,0 +1,244 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.Identifier;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription.Structure;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription.Structure.Components;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeSpecification;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores server models retrieved by {@link ClientAssociation#retrieveModel(ModelCache)} in a local
+ * directory so that reconnecting to a server does not require retrieving its model again. There
+ * is one file per server endpoint (address and port). Together with the model the file contains
+ * a fingerprint read from the server. A cached model is only used if the server still returns the
+ * same fingerprint.
+ *
+ * <p>The logical nodes are stored as the MMS type descriptions that the server returns for them,
+ * so a cached model is created the same way as a retrieved one. This includes the report control
+ * blocks. Data sets are stored as lists of member references. Values are not stored.
+ */
+public final class ModelCache {
+
+  private static final int MAGIC = 0x49454331;
+  private static final int VERSION = 1;
+
+  private final File directory;
+
+  /**
+   * Creates a cache that stores its files in the given directory. The directory is created when
+   * the first model is stored.
+   *
+   * @param directory the directory of the cache files
+   */
+  public ModelCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Deletes the cached model of the given server endpoint.
+   *
+   * @param address the address of the server
+   * @param port the port of the server
+   * @return true if a cached model was deleted
+   */
+  public boolean remove(InetAddress address, int port) {
+    return getFile(address, port).delete();
+  }
+
+  /**
+   * Returns the cached model of the given endpoint if it was stored with the given fingerprint.
+   *
+   * @return the model or null if no usable model is cached
+   */
+  ServerModel load(InetAddress address, int port, String fingerprint) {
+    File file = getFile(address, port);
+    try (DataInputStream is =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+      if (is.readInt() != MAGIC || is.readInt() != VERSION || !is.readUTF().equals(fingerprint)) {
+        return null;
+      }
+      return readModel(is);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException | ServiceError | RuntimeException e) {
+      // a damaged or outdated file is replaced once the model has been retrieved again
+      return null;
+    }
+  }
+
+  /**
+   * Stores the model of the given endpoint together with the fingerprint. The file is replaced
+   * atomically so that concurrent readers never see a partially written file.
+   */
+  void store(InetAddress address, int port, String fingerprint, ServerModel model)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the model cache directory " + directory);
+    }
+    File file = getFile(address, port);
+    File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      try (DataOutputStream os =
+          new DataOutputStream(
+              new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeUTF(fingerprint);
+        writeModel(os, model);
+      }
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  private File getFile(InetAddress address, int port) {
+    // IPv6 addresses contain colons which are not allowed in file names on all platforms
+    return new File(directory, address.getHostAddress().replace(':', '-') + "_" + port + ".model");
+  }
+
+  private static void writeModel(DataOutputStream os, ServerModel model) throws IOException {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(1000, true);
+
+    os.writeInt(model.getChildren().size());
+    for (ModelNode ld : model.getChildren()) {
+      os.writeUTF(ld.getName());
+      os.writeInt(ld.getChildren().size());
+      for (ModelNode ln : ld.getChildren()) {
+        os.writeUTF(ln.getName());
+        reverseOS.reset();
+        getTypeDescription((LogicalNode) ln).encode(reverseOS);
+        byte[] code = reverseOS.getArray();
+        os.writeInt(code.length);
+        os.write(code);
+      }
+    }
+
+    os.writeInt(model.getDataSets().size());
+    for (DataSet dataSet : model.getDataSets()) {
+      os.writeUTF(dataSet.getReferenceStr());
+      os.writeBoolean(dataSet.isDeletable());
+      os.writeInt(dataSet.getMembers().size());
+      for (FcModelNode member : dataSet.getMembers()) {
+        os.writeUTF(member.getReference().toString());
+        os.writeUTF(member.getFc().toString());
+      }
+    }
+  }
+
+  private static ServerModel readModel(DataInputStream is) throws IOException, ServiceError {
+    int numLds = is.readInt();
+    List<LogicalDevice> lds = new ArrayList<>(numLds);
+    for (int i = 0; i < numLds; i++) {
+      String ldName = is.readUTF();
+      int numLns = is.readInt();
+      List<LogicalNode> lns = new ArrayList<>(numLns);
+      for (int j = 0; j < numLns; j++) {
+        ObjectReference lnRef = new ObjectReference(ldName + "/" + is.readUTF());
+        byte[] code = new byte[is.readInt()];
+        is.readFully(code);
+        TypeDescription typeDescription = new TypeDescription();
+        typeDescription.decode(new ByteArrayInputStream(code));
+        lns.add(DataDefinitionResParser.parseLogicalNodeTypeDescription(typeDescription, lnRef));
+      }
+      lds.add(new LogicalDevice(new ObjectReference(ldName), lns));
+    }
+    ServerModel model = new ServerModel(lds, null);
+
+    int numDataSets = is.readInt();
+    List<DataSet> dataSets = new ArrayList<>(numDataSets);
+    for (int i = 0; i < numDataSets; i++) {
+      String reference = is.readUTF();
+      boolean deletable = is.readBoolean();
+      int numMembers = is.readInt();
+      List<FcModelNode> members = new ArrayList<>(numMembers);
+      for (int j = 0; j < numMembers; j++) {
+        String memberReference = is.readUTF();
+        Fc fc = Fc.fromString(is.readUTF());
+        ModelNode member = fc == null ? null : model.findModelNode(memberReference, fc);
+        if (!(member instanceof FcModelNode)) {
+          throw new IOException("data set member " + memberReference + " not found");
+        }
+        members.add((FcModelNode) member);
+      }
+      dataSets.add(new DataSet(reference, members, deletable));
+    }
+    model.addDataSets(dataSets);
+    return model;
+  }
+
+  /**
+   * Creates the type description of a logical node like a server does in response to a
+   * GetVariableAccessAttributes request. The functional constraints keep the order in which they
+   * first occur in the logical node.
+   */
+  private static TypeDescription getTypeDescription(LogicalNode ln) {
+    Set<Fc> fcs = new LinkedHashSet<>();
+    for (ModelNode fcdo : ln.getChildren()) {
+      fcs.add(((FcDataObject) fcdo).getFc());
+    }
+
+    Components components = new Components();
+    for (Fc fc : fcs) {
+      Components fcComponents = new Components();
+      for (FcDataObject fcdo : ln.getChildren(fc)) {
+        fcComponents.getSEQUENCE().add(createComponent(fcdo.getName(), fcdo.getMmsTypeSpec()));
+      }
+      components.getSEQUENCE().add(createComponent(fc.toString(), createStructure(fcComponents)));
+    }
+    return createStructure(components);
+  }
+
+  private static TypeDescription createStructure(Components components) {
+    Structure structure = new Structure();
+    structure.setComponents(components);
+    TypeDescription typeDescription = new TypeDescription();
+    typeDescription.setStructure(structure);
+    return typeDescription;
+  }
+
+  private static Components.SEQUENCE createComponent(String name, TypeDescription type) {
+    TypeSpecification typeSpecification = new TypeSpecification();
+    typeSpecification.setTypeDescription(type);
+    Components.SEQUENCE component = new Components.SEQUENCE();
+    component.setComponentName(new Identifier(name.getBytes(UTF_8)));
+    component.setComponentType(typeSpecification);
+    return component;
+  }
+}
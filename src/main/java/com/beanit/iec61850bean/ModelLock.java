@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Guards the server model against concurrent access.
+ *
+ * <p>By default every access to the model is exclusive, so only one request or value update is
+ * processed at a time. In the concurrent mode, value reads and value updates share a model wide
+ * read-write lock and additionally lock one stripe per logical device. Readers lock the stripes of
+ * all logical devices they read in shared mode and writers lock the stripes they update in
+ * exclusive mode. This way many reads run in parallel, an update of one logical device does not
+ * block reads of another one, and every read request still sees a consistent state of all nodes it
+ * reads. Operations that change anything other than values (data sets, selections, control blocks)
+ * always take the model wide lock exclusively.
+ *
+ * <p>Locks are taken in the following order: model wide lock, stripes in ascending order, monitors
+ * of the report control blocks. The methods that lock stripes return the set of locked stripes,
+ * which has to be passed to the corresponding unlock method. A return value of null means that the
+ * model wide lock was taken exclusively instead.
+ */
+final class ModelLock {
+
+  private final ReentrantReadWriteLock modelLock = new ReentrantReadWriteLock();
+  private final ReentrantReadWriteLock[] stripes;
+  private final Map<ModelNode, Integer> stripeIndices = new HashMap<>();
+  private volatile boolean concurrent = false;
+
+  ModelLock(ServerModel serverModel) {
+    stripes = new ReentrantReadWriteLock[serverModel.getChildren().size()];
+    int i = 0;
+    for (ModelNode logicalDevice : serverModel.getChildren()) {
+      stripes[i] = new ReentrantReadWriteLock();
+      stripeIndices.put(logicalDevice, i++);
+    }
+  }
+
+  boolean isConcurrent() {
+    return concurrent;
+  }
+
+  void setConcurrent(boolean concurrent) {
+    this.concurrent = concurrent;
+  }
+
+  void lockExclusively() {
+    modelLock.writeLock().lock();
+  }
+
+  void unlockExclusively() {
+    modelLock.writeLock().unlock();
+  }
+
+  /**
+   * Locks the model so that the values of the given nodes can be read consistently.
+   *
+   * @param nodes the nodes that will be read, may contain null elements
+   * @return the locked stripes or null if the model was locked exclusively
+   */
+  BitSet lockForReading(Iterable<? extends ModelNode> nodes) {
+    if (!concurrent) {
+      lockExclusively();
+      return null;
+    }
+    modelLock.readLock().lock();
+    BitSet stripeSet = getStripes(nodes);
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].readLock().lock();
+    }
+    return stripeSet;
+  }
+
+  void unlockForReading(BitSet stripeSet) {
+    if (stripeSet == null) {
+      unlockExclusively();
+      return;
+    }
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].readLock().unlock();
+    }
+    modelLock.readLock().unlock();
+  }
+
+  /**
+   * Locks the model so that the values of the given nodes can be updated atomically.
+   *
+   * @param nodes the nodes that will be updated
+   * @return the locked stripes or null if the model was locked exclusively
+   */
+  BitSet lockForWriting(Iterable<? extends ModelNode> nodes) {
+    if (!concurrent) {
+      lockExclusively();
+      return null;
+    }
+    modelLock.readLock().lock();
+    BitSet stripeSet = getStripes(nodes);
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].writeLock().lock();
+    }
+    return stripeSet;
+  }
+
+  void unlockForWriting(BitSet stripeSet) {
+    if (stripeSet == null) {
+      unlockExclusively();
+      return;
+    }
+    for (int i = stripeSet.nextSetBit(0); i >= 0; i = stripeSet.nextSetBit(i + 1)) {
+      stripes[i].writeLock().unlock();
+    }
+    modelLock.readLock().unlock();
+  }
+
+  private BitSet getStripes(Iterable<? extends ModelNode> nodes) {
+    BitSet stripeSet = new BitSet(stripes.length);
+    for (ModelNode node : nodes) {
+      while (node != null && !(node instanceof LogicalDevice)) {
+        node = node.parent;
+      }
+      if (node == null) {
+        continue;
+      }
+      Integer index = stripeIndices.get(node);
+      if (index != null) {
+        stripeSet.set(index);
+      }
+    }
+    return stripeSet;
+  }
+}
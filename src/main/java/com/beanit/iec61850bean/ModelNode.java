@@ -15,12 +15,14 @@ package com.beanit.iec61850bean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.iec61850bean.internal.mms.asn1.Data;
 import com.beanit.iec61850bean.internal.mms.asn1.Identifier;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription.Structure;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription.Structure.Components;
 import com.beanit.iec61850bean.internal.mms.asn1.TypeSpecification;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -149,6 +151,22 @@ public abstract class ModelNode implements Iterable<ModelNode> {
 
   void setValueFromMmsDataObj(Data data) throws ServiceError {}
 
+  void setValueFromBer(MmsDataReader reader) throws ServiceError {
+    reader.skipElement();
+  }
+
+  /**
+   * Writes the BER encoding of the MMS Data representation of this node directly into the given
+   * stream. The result is identical to encoding the object returned by getMmsDataObj().
+   *
+   * @param reverseOS the stream to write to
+   * @return the number of bytes written or -1 if the node has no MMS Data representation
+   * @throws IOException if writing to the stream fails
+   */
+  int encodeMmsData(ReverseByteArrayOutputStream reverseOS) throws IOException {
+    return -1;
+  }
+
   TypeDescription getMmsTypeSpec() {
 
     Components componentsSequenceType = new Components();
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A Data element that is encoded straight from the current values of a model node when the
+ * enclosing PDU is encoded. This way a read response or report can be built from the generated
+ * ASN.1 classes without converting the model node subtree to Data objects first. The values are
+ * read at encoding time, so the caller has to hold the lock that protects the model while encoding.
+ */
+final class ModelNodeData extends Data {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient ModelNode modelNode;
+
+  ModelNodeData(ModelNode modelNode) {
+    this.modelNode = modelNode;
+  }
+
+  @Override
+  public int encode(OutputStream reverseOS) throws IOException {
+    if (!(reverseOS instanceof ReverseByteArrayOutputStream)) {
+      Data data = modelNode.getMmsDataObj();
+      if (data == null) {
+        throw new IOException("Model node " + modelNode.objectReference + " has no value.");
+      }
+      return data.encode(reverseOS);
+    }
+    int codeLength = modelNode.encodeMmsData((ReverseByteArrayOutputStream) reverseOS);
+    if (codeLength == -1) {
+      throw new IOException("Model node " + modelNode.objectReference + " has no value.");
+    }
+    return codeLength;
+  }
+}
@@ -13,12 +13,59 @@
  */
 package com.beanit.iec61850bean;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beanit.asn1bean.ber.BerLength;
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.asn1bean.ber.types.BerBitString;
+import com.beanit.asn1bean.ber.types.BerInteger;
+import com.beanit.iec61850bean.internal.BerBoolean;
+import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
+import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import com.beanit.iec61850bean.internal.mms.asn1.Identifier;
+import com.beanit.iec61850bean.internal.mms.asn1.InformationReport;
+import com.beanit.iec61850bean.internal.mms.asn1.MMSpdu;
+import com.beanit.iec61850bean.internal.mms.asn1.ObjectName;
+import com.beanit.iec61850bean.internal.mms.asn1.UnconfirmedPDU;
+import com.beanit.iec61850bean.internal.mms.asn1.UnconfirmedService;
+import com.beanit.iec61850bean.internal.mms.asn1.VariableAccessSpecification;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public abstract class Rcb extends FcDataObject {
 
+  // upper bound of the bytes a report PDU needs in addition to the access results it contains
+  private static final int REPORT_PDU_OVERHEAD = 32;
+  // upper bound of SqNum, TimeOfEntry, BufOvfl, EntryID, ConfRev, SubSqNum and MoreSegmentsFollow
+  private static final int FIXED_HEADER_MAX_LENGTH = 4 + 8 + 3 + 10 + 7 + 5 + 3;
+  private static final int REASON_MAX_LENGTH = 4;
+
   DataSet dataSet;
 
+  // the state below is only used by the server and is guarded by the RCB
+  // the timer used while the data set is monitored, null otherwise
+  ScheduledExecutorService timer = null;
+  // the data set members with changes that have not been reported yet and the first byte of their
+  // reason for inclusion
+  private final BitSet membersToBeReported = new BitSet();
+  private byte[] reasonsForInclusion = null;
+  // the position of the data set member that contains a basic data attribute
+  private Map<BasicDataAttribute, Integer> memberIndices = null;
+  // upper bounds of the encoded values of the data set members
+  private int[] memberMaxLengths = null;
+  private DataSetValueCache valueCache = null;
+  private ScheduledFuture<?> integrityFuture = null;
+  private ScheduledFuture<?> bufTmFuture = null;
+
   protected Rcb(ObjectReference objectReference, Fc fc, List<FcModelNode> children) {
     super(objectReference, fc, children);
   }
@@ -114,4 +161,520 @@ public abstract class Rcb extends FcDataObject {
   public BdaInt32U getIntgPd() {
     return (BdaInt32U) children.get("IntgPd");
   }
+
+  /**
+   * Starts monitoring the data set according to the trigger options. Changes are collected for the
+   * buffer time before {@link #triggerReport} is called. The integrity period is started as well.
+   *
+   * @param timer the timer used for the buffer time and the integrity period
+   */
+  void startMonitoring(ScheduledExecutorService timer) {
+    this.timer = timer;
+    valueCache = dataSet.getValueCache();
+    valueCache.addRcb();
+
+    List<FcModelNode> dataSetMembers = dataSet.getMembers();
+    memberIndices = new IdentityHashMap<>();
+    reasonsForInclusion = new byte[dataSetMembers.size()];
+    memberMaxLengths = new int[dataSetMembers.size()];
+
+    for (int i = 0; i < dataSetMembers.size(); i++) {
+      FcModelNode dataSetMember = dataSetMembers.get(i);
+      memberMaxLengths[i] = MmsDataWriter.maxLength(dataSetMember);
+      for (BasicDataAttribute bda : dataSetMember.getBasicDataAttributes()) {
+        Integer previousIndex = memberIndices.put(bda, i);
+        // if members overlap, changes are reported for the innermost member
+        if (previousIndex != null && isAncestor(dataSetMember, dataSetMembers.get(previousIndex))) {
+          memberIndices.put(bda, previousIndex);
+        }
+        if (bda.dchg) {
+          if (getTrgOps().isDataChange()) {
+            synchronized (bda.chgRcbs) {
+              bda.chgRcbs.add(this);
+            }
+          }
+        } else if (bda.qchg) {
+          if (getTrgOps().isQualityChange()) {
+            synchronized (bda.chgRcbs) {
+              bda.chgRcbs.add(this);
+            }
+          }
+        }
+        if (bda.dupd) {
+          if (getTrgOps().isDataUpdate()) {
+            synchronized (bda.dupdRcbs) {
+              bda.dupdRcbs.add(this);
+            }
+          }
+        }
+      }
+    }
+
+    if (getTrgOps().isIntegrity() && !(getIntgPd().getValue() < 10l)) {
+      integrityFuture =
+          timer.scheduleAtFixedRate(
+              new Runnable() {
+                @Override
+                public void run() {
+                  synchronized (Rcb.this) {
+                    if (!isMonitoring()) {
+                      return;
+                    }
+                    triggerReport(true, false);
+                  }
+                }
+              },
+              getIntgPd().getValue(),
+              getIntgPd().getValue(),
+              TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void stopMonitoring() {
+
+    for (FcModelNode dataSetMember : dataSet) {
+      for (BasicDataAttribute bda : dataSetMember.getBasicDataAttributes()) {
+        if (bda.dchg) {
+          if (getTrgOps().isDataChange()) {
+            synchronized (bda.chgRcbs) {
+              bda.chgRcbs.remove(this);
+            }
+          }
+        } else if (bda.qchg) {
+          if (getTrgOps().isQualityChange()) {
+            synchronized (bda.chgRcbs) {
+              bda.chgRcbs.remove(this);
+            }
+          }
+        }
+        if (bda.dupd) {
+          if (getTrgOps().isDataUpdate()) {
+            synchronized (bda.dupdRcbs) {
+              bda.dupdRcbs.remove(this);
+            }
+          }
+        }
+      }
+    }
+
+    if (integrityFuture != null) {
+      integrityFuture.cancel(false);
+      integrityFuture = null;
+    }
+    // otherwise no buffer time would be started for the data changes after the next start
+    if (bufTmFuture != null) {
+      bufTmFuture.cancel(false);
+      bufTmFuture = null;
+    }
+    membersToBeReported.clear();
+    reasonsForInclusion = null;
+    memberIndices = null;
+    memberMaxLengths = null;
+    valueCache.removeRcb();
+    valueCache = null;
+    timer = null;
+  }
+
+  boolean isMonitoring() {
+    return timer != null;
+  }
+
+  private static boolean isAncestor(ModelNode ancestor, ModelNode node) {
+    for (ModelNode parent = node.parent; parent != null; parent = parent.parent) {
+      if (parent == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void generalInterrogation() {
+    timer.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (Rcb.this) {
+              if (!isMonitoring()) {
+                return;
+              }
+              triggerReport(false, true);
+            }
+          }
+        });
+  }
+
+  void report(BasicDataAttribute bda, boolean dchg, boolean qchg, boolean dupd) {
+
+    synchronized (this) {
+      if (!isMonitoring()) {
+        return;
+      }
+
+      Integer memberIndex = memberIndices.get(bda);
+      if (memberIndex == null) {
+        // Unable to report Basic Data Attribute because it is not part of the referenced data set
+        return;
+      }
+      int index = memberIndex;
+      membersToBeReported.set(index);
+
+      // the bits of the first byte of BdaReasonForInclusion
+      if (dchg) {
+        reasonsForInclusion[index] |= 0x40;
+      }
+      if (dupd) {
+        reasonsForInclusion[index] |= 0x10;
+      } else if (qchg) {
+        reasonsForInclusion[index] |= 0x20;
+      }
+
+      // if bufTmFuture is not null then it is already scheduled and will send the combined report
+      if (bufTmFuture == null) {
+        bufTmFuture =
+            timer.schedule(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    synchronized (Rcb.this) {
+                      if (!isMonitoring()) {
+                        return;
+                      }
+                      triggerReport(false, false);
+                    }
+                  }
+                },
+                getBufTm().getValue(),
+                TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Called while the data set is monitored if the buffer time or the integrity period has elapsed
+   * or a general interrogation was requested. The monitor of the RCB is held by the caller.
+   *
+   * @param integrity whether the report is an integrity report
+   * @param gi whether the report is a general interrogation report
+   */
+  abstract void triggerReport(boolean integrity, boolean gi);
+
+  /**
+   * Adds the inclusion bit string and the values of the included data set members to the given
+   * list. Integrity and general interrogation reports include all members, other reports the
+   * members that have changed since the last report. The pending changes are cleared. Values that
+   * have been encoded for another RCB monitoring the same data set are reused.
+   *
+   * @param integrity whether the report is an integrity report
+   * @param gi whether the report is a general interrogation report
+   * @param values the list the inclusion bit string and the values are added to
+   * @param reasons the list the reasons for inclusion are added to, may be null
+   */
+  void addReportContents(
+      boolean integrity, boolean gi, List<AccessResult> values, List<AccessResult> reasons) {
+
+    List<FcModelNode> dataSetMembers = dataSet.getMembers();
+    int dataSetSize = dataSetMembers.size();
+
+    // inclusion bitstring
+    byte[] inclusionStringArray = new byte[(dataSetSize - 1) / 8 + 1];
+
+    AccessResult accessResult;
+
+    if (integrity || gi) {
+
+      for (int i = 0; i < dataSetSize; i++) {
+        inclusionStringArray[i / 8] = (byte) (inclusionStringArray[i / 8] | 1 << (7 - i % 8));
+      }
+      BerBitString inclusionString = new BerBitString(inclusionStringArray, dataSetSize);
+
+      Data data = new Data();
+      data.setBitString(inclusionString);
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      values.add(accessResult);
+
+      // data reference sending not supported for now
+
+      for (int i = 0; i < dataSetSize; i++) {
+        values.add(valueCache.getAccessResult(i));
+      }
+
+      BdaReasonForInclusion reasonForInclusion = new BdaReasonForInclusion(null);
+      if (integrity) {
+        reasonForInclusion.setIntegrity(true);
+      } else {
+        reasonForInclusion.setGeneralInterrogation(true);
+      }
+
+      if (reasons != null) {
+        for (int i = 0; i < dataSetMembers.size(); i++) {
+          accessResult = new AccessResult();
+          accessResult.setSuccess(reasonForInclusion.getMmsDataObj());
+          reasons.add(accessResult);
+        }
+      }
+
+    } else {
+
+      for (int i = membersToBeReported.nextSetBit(0);
+          i >= 0;
+          i = membersToBeReported.nextSetBit(i + 1)) {
+        inclusionStringArray[i / 8] = (byte) (inclusionStringArray[i / 8] | 1 << (7 - i % 8));
+      }
+      BerBitString inclusionString = new BerBitString(inclusionStringArray, dataSetSize);
+
+      Data data = new Data();
+      data.setBitString(inclusionString);
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      values.add(accessResult);
+
+      // data reference sending not supported for now
+
+      for (int i = membersToBeReported.nextSetBit(0);
+          i >= 0;
+          i = membersToBeReported.nextSetBit(i + 1)) {
+        values.add(valueCache.getAccessResult(i));
+      }
+
+      if (reasons != null) {
+        BdaReasonForInclusion reasonForInclusion = new BdaReasonForInclusion(null);
+        for (int i = membersToBeReported.nextSetBit(0);
+            i >= 0;
+            i = membersToBeReported.nextSetBit(i + 1)) {
+          reasonForInclusion.setValue(new byte[] {reasonsForInclusion[i]});
+          accessResult = new AccessResult();
+          accessResult.setSuccess(reasonForInclusion.getMmsDataObj());
+          reasons.add(accessResult);
+        }
+      }
+
+      for (int i = membersToBeReported.nextSetBit(0);
+          i >= 0;
+          i = membersToBeReported.nextSetBit(i + 1)) {
+        reasonsForInclusion[i] = 0;
+      }
+      membersToBeReported.clear();
+      bufTmFuture = null;
+    }
+  }
+
+  /**
+   * Returns an upper bound of the encoded inclusion bit string, values and reasons for inclusion of
+   * the report that is triggered next.
+   *
+   * @param allMembers whether all members are reported because of an integrity period or GI
+   * @param withReasons whether the reasons for inclusion are reported
+   * @return the maximum length in bytes
+   */
+  int getMaxContentsLength(boolean allMembers, boolean withReasons) {
+    int length = 0;
+    int numMembers = 0;
+    if (allMembers) {
+      for (int memberMaxLength : memberMaxLengths) {
+        length += memberMaxLength;
+      }
+      numMembers = memberMaxLengths.length;
+    } else {
+      for (int i = membersToBeReported.nextSetBit(0);
+          i >= 0;
+          i = membersToBeReported.nextSetBit(i + 1)) {
+        length += memberMaxLengths[i];
+        numMembers++;
+      }
+    }
+    if (withReasons) {
+      length += numMembers * REASON_MAX_LENGTH;
+    }
+    // the inclusion bit string
+    return length + (memberMaxLengths.length - 1) / 8 + 6;
+  }
+
+  /**
+   * Returns an upper bound of the length of a report PDU with the given contents, which holds for
+   * all optional fields and segmentation.
+   *
+   * @param contentsLength the length of the inclusion bit string, values and reasons for inclusion
+   * @return the maximum length in bytes
+   */
+  int getMaxReportLength(int contentsLength) {
+    return REPORT_PDU_OVERHEAD
+        + MmsDataWriter.maxLength(getRptId())
+        + MmsDataWriter.maxLength(getOptFlds())
+        + MmsDataWriter.maxLength(getDatSet())
+        + FIXED_HEADER_MAX_LENGTH
+        + contentsLength;
+  }
+
+  /**
+   * Splits a report into segments that each fit into a PDU of the given size. Every segment has the
+   * header of the report with the segmentation option set, followed by SubSqNum and
+   * MoreSegmentsFollow and the values and reasons for inclusion of as many members as fit. The
+   * inclusion bit string of a segment only contains the members of the segment. A member that does
+   * not fit into a PDU on its own is sent in a segment of its own.
+   *
+   * @param header the access results of the report from RptID to ConfRev
+   * @param contents the encoded inclusion bit string, values and reasons for inclusion
+   * @param withReasons whether the contents include reasons for inclusion
+   * @param maxPduSize the maximum size of a PDU
+   * @return the PDUs of the segments
+   * @throws IOException if decoding the inclusion bit string fails
+   */
+  List<MMSpdu> getReportSegments(
+      List<AccessResult> header, List<byte[]> contents, boolean withReasons, int maxPduSize)
+      throws IOException {
+
+    Data inclusionData = new Data();
+    inclusionData.decode(new ByteArrayInputStream(contents.get(0)));
+    BerBitString inclusionString = inclusionData.getBitString();
+    int dataSetSize = inclusionString.numBits;
+    int numMembers = (contents.size() - 1) / (withReasons ? 2 : 1);
+    int[] members = new int[numMembers];
+    int numFound = 0;
+    for (int i = 0; i < dataSetSize && numFound < numMembers; i++) {
+      if ((inclusionString.value[i / 8] & (1 << (7 - i % 8))) != 0) {
+        members[numFound++] = i;
+      }
+    }
+
+    BdaOptFlds optFlds = (BdaOptFlds) getOptFlds().copy();
+    optFlds.setSegmentation(true);
+    AccessResult optFldsResult = new AccessResult();
+    optFldsResult.setSuccess(optFlds.getMmsDataObj());
+    List<AccessResult> segmentHeader = new ArrayList<>(header);
+    segmentHeader.set(1, optFldsResult);
+
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+    int headerLength = 0;
+    for (AccessResult accessResult : segmentHeader) {
+      headerLength += accessResult.encode(reverseOS);
+    }
+    // SubSqNum, MoreSegmentsFollow and the inclusion bit string are part of every segment
+    int available =
+        maxPduSize - REPORT_PDU_OVERHEAD - headerLength - 5 - 3 - contents.get(0).length;
+
+    List<MMSpdu> segments = new ArrayList<>();
+    int first = 0;
+    do {
+      int end = first;
+      int length = 0;
+      while (end < numMembers) {
+        int memberLength = contents.get(1 + end).length;
+        if (withReasons) {
+          memberLength += contents.get(1 + numMembers + end).length;
+        }
+        if (end > first && length + memberLength > available) {
+          break;
+        }
+        length += memberLength;
+        end++;
+      }
+
+      List<AccessResult> accessResults = new ArrayList<>(segmentHeader);
+
+      Data data = new Data();
+      data.setUnsigned(new BerInteger(segments.size()));
+      AccessResult accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      accessResults.add(accessResult);
+
+      data = new Data();
+      data.setBool(new BerBoolean(end < numMembers));
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      accessResults.add(accessResult);
+
+      byte[] inclusionStringArray = new byte[inclusionString.value.length];
+      for (int i = first; i < end; i++) {
+        inclusionStringArray[members[i] / 8] |= (byte) (1 << (7 - members[i] % 8));
+      }
+      data = new Data();
+      data.setBitString(new BerBitString(inclusionStringArray, dataSetSize));
+      accessResult = new AccessResult();
+      accessResult.setSuccess(data);
+      accessResults.add(accessResult);
+
+      for (int i = first; i < end; i++) {
+        accessResults.add(new AccessResult(contents.get(1 + i)));
+      }
+      if (withReasons) {
+        for (int i = first; i < end; i++) {
+          accessResults.add(new AccessResult(contents.get(1 + numMembers + i)));
+        }
+      }
+
+      segments.add(createReportPdu(accessResults));
+      first = end;
+    } while (first < numMembers);
+
+    return segments;
+  }
+
+  /**
+   * Encodes every access result on its own so that reports can be split into segments.
+   *
+   * @param accessResults the access results
+   * @return the encoded access results
+   * @throws IOException if a data set member has no value
+   */
+  static List<byte[]> encodeEach(List<AccessResult> accessResults) throws IOException {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(500, true);
+    List<byte[]> codes = new ArrayList<>(accessResults.size());
+    for (AccessResult accessResult : accessResults) {
+      reverseOS.reset();
+      accessResult.encode(reverseOS);
+      codes.add(reverseOS.getArray());
+    }
+    return codes;
+  }
+
+  /**
+   * Splits concatenated encoded access results into the single access results.
+   *
+   * @param code the encoded access results
+   * @return the encoded access results
+   * @throws IOException if the code cannot be decoded
+   */
+  static List<byte[]> splitEncoded(byte[] code) throws IOException {
+    List<byte[]> codes = new ArrayList<>();
+    BerLength length = new BerLength();
+    int position = 0;
+    while (position < code.length) {
+      // the tags of the Data choices are encoded in one byte
+      ByteArrayInputStream is =
+          new ByteArrayInputStream(code, position + 1, code.length - position - 1);
+      int end = position + 1 + length.decode(is) + length.val;
+      codes.add(Arrays.copyOfRange(code, position, end));
+      position = end;
+    }
+    return codes;
+  }
+
+  static MMSpdu createReportPdu(List<AccessResult> accessResults) {
+
+    InformationReport.ListOfAccessResult listOfAccessResult =
+        new InformationReport.ListOfAccessResult();
+    listOfAccessResult.getAccessResult().addAll(accessResults);
+
+    ObjectName objectName = new ObjectName();
+    objectName.setVmdSpecific(new Identifier("RPT".getBytes(UTF_8)));
+
+    VariableAccessSpecification varAccSpec = new VariableAccessSpecification();
+    varAccSpec.setVariableListName(objectName);
+
+    InformationReport infoReport = new InformationReport();
+    infoReport.setVariableAccessSpecification(varAccSpec);
+    infoReport.setListOfAccessResult(listOfAccessResult);
+
+    UnconfirmedService unconfirmedService = new UnconfirmedService();
+    unconfirmedService.setInformationReport(infoReport);
+
+    UnconfirmedPDU unconfirmedPDU = new UnconfirmedPDU();
+    unconfirmedPDU.setService(unconfirmedService);
+
+    MMSpdu mmsPdu = new MMSpdu();
+    mmsPdu.setUnconfirmedPDU(unconfirmedPDU);
+
+    return mmsPdu;
+  }
 }
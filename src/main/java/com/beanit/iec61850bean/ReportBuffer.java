@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+/**
+ * The entry buffer of a buffered report control block. Every entry consists of the encoded access
+ * results of the inclusion bit string and the values, followed by the encoded reasons for
+ * inclusion, so that the reasons can be left out when the entry is sent. EntryIDs are consecutive
+ * numbers starting at 1. The buffer has a bounded size, if a new entry does not fit, the oldest
+ * entries are discarded. Buffers are not thread-safe.
+ */
+interface ReportBuffer {
+
+  int getNumEntries();
+
+  /**
+   * Returns the EntryID of the oldest entry. If the buffer is empty, this is the EntryID the next
+   * entry will get.
+   *
+   * @return the EntryID of the oldest entry
+   */
+  long getFirstEntryId();
+
+  /**
+   * Returns the EntryID of the newest entry. If the buffer is empty, this is the EntryID of the
+   * last discarded entry.
+   *
+   * @return the EntryID of the newest entry
+   */
+  long getLastEntryId();
+
+  boolean contains(long entryId);
+
+  /**
+   * Discards all entries if they were created with a different configuration of the BRCB, e.g. a
+   * different data set.
+   *
+   * @param configuration a description of the configuration the entries depend on
+   */
+  void setConfiguration(String configuration);
+
+  /**
+   * Appends an entry. The oldest entries are discarded if there is not enough space left.
+   *
+   * @param src the array containing the encoded entry
+   * @param offset the offset of the entry in the array
+   * @param valuesLength the length of the inclusion bit string and the values
+   * @param length the length of the entry including the reasons for inclusion
+   * @param timeOfEntry the time of the entry in milliseconds since the epoch
+   * @return the EntryID of the new entry or 0 if the entry is larger than the buffer
+   */
+  long add(byte[] src, int offset, int valuesLength, int length, long timeOfEntry);
+
+  /**
+   * Returns a copy of the given entry.
+   *
+   * @param entryId the EntryID of an entry in the buffer
+   * @param withReasons whether the reasons for inclusion are included
+   * @return the encoded entry
+   */
+  byte[] getEntry(long entryId, boolean withReasons);
+
+  long getTimeOfEntry(long entryId);
+
+  /** Discards all entries. The EntryIDs of new entries continue after the last discarded one. */
+  void clear();
+
+  /**
+   * Returns whether entries have been added that are not yet stored durably.
+   *
+   * @return true if {@link #sync()} should be called
+   */
+  boolean needsSync();
+
+  /** Stores the entries durably, if the buffer supports it. */
+  void sync();
+
+  /** Syncs the buffer and releases its resources. */
+  void close();
+}
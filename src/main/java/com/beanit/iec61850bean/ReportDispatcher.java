@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the reports received by a client association to its listener using an executor. Every
+ * report control block (identified by the RptID) gets its own bounded queue. At most one task per
+ * queue is active at a time, so the reports of one report control block are delivered in the order
+ * they were received while reports of different report control blocks can be delivered in
+ * parallel. The association closed event is delivered after all queued reports.
+ */
+final class ReportDispatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReportDispatcher.class);
+
+  private final ClientEventListener listener;
+  private final Executor executor;
+  private final int queueCapacity;
+  private final ReportOverflowPolicy overflowPolicy;
+
+  // the fields below are guarded by the dispatcher
+  private final Map<String, RcbQueue> queues = new HashMap<>();
+  private int numQueuedReports = 0;
+  private int maxNumQueuedReports = 0;
+  private long numDroppedReports = 0;
+  private int numActiveQueues = 0;
+  private IOException closeException = null;
+  private boolean closeDelivered = false;
+
+  ReportDispatcher(
+      ClientEventListener listener,
+      Executor executor,
+      int queueCapacity,
+      ReportOverflowPolicy overflowPolicy) {
+    this.listener = listener;
+    this.executor = executor;
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Queues the report for delivery. Depending on the overflow policy this method blocks while the
+   * queue of the report control block is full.
+   *
+   * @param report the received report
+   */
+  void dispatch(Report report) {
+    RcbQueue queue;
+    synchronized (this) {
+      if (closeException != null) {
+        return;
+      }
+      queue = queues.get(report.getRptId());
+      if (queue == null) {
+        queue = new RcbQueue();
+        queues.put(report.getRptId(), queue);
+      }
+    }
+    queue.add(report);
+  }
+
+  /**
+   * Delivers the association closed event once all queued reports have been delivered. Reports that
+   * are dispatched afterwards are discarded.
+   *
+   * @param e the exception that caused the association to be closed
+   */
+  void close(IOException e) {
+    synchronized (this) {
+      if (closeException != null) {
+        return;
+      }
+      closeException = e;
+      // release a receiving thread that waits for space in a queue
+      notifyAll();
+    }
+    deliverCloseIfIdle();
+  }
+
+  synchronized int getNumQueuedReports() {
+    return numQueuedReports;
+  }
+
+  synchronized int getMaxNumQueuedReports() {
+    return maxNumQueuedReports;
+  }
+
+  synchronized long getNumDroppedReports() {
+    return numDroppedReports;
+  }
+
+  private void deliverCloseIfIdle() {
+    final IOException e;
+    synchronized (this) {
+      if (closeException == null || closeDelivered || numActiveQueues > 0) {
+        return;
+      }
+      closeDelivered = true;
+      e = closeException;
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            listener.associationClosed(e);
+          }
+        });
+  }
+
+  /**
+   * The queue of a single report control block. The queues use the dispatcher as their monitor so
+   * that the counters of the dispatcher can be updated together with the queues.
+   */
+  private final class RcbQueue implements Runnable {
+
+    private final ArrayDeque<Report> reports = new ArrayDeque<>();
+    private boolean active = false;
+
+    void add(Report report) {
+      boolean execute = false;
+      boolean dropped = false;
+      synchronized (ReportDispatcher.this) {
+        while (reports.size() >= queueCapacity && closeException == null) {
+          if (overflowPolicy == ReportOverflowPolicy.DROP_OLDEST) {
+            reports.poll();
+            numQueuedReports--;
+            numDroppedReports++;
+          } else if (overflowPolicy == ReportOverflowPolicy.SIGNAL_LISTENER) {
+            numDroppedReports++;
+            dropped = true;
+            break;
+          } else {
+            try {
+              ReportDispatcher.this.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
+        }
+        if (!dropped) {
+          if (closeException != null) {
+            return;
+          }
+          reports.add(report);
+          numQueuedReports++;
+          maxNumQueuedReports = Math.max(maxNumQueuedReports, numQueuedReports);
+          if (!active) {
+            active = true;
+            numActiveQueues++;
+            execute = true;
+          }
+        }
+      }
+      if (dropped) {
+        listener.reportDropped(report);
+      } else if (execute) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Report report;
+        synchronized (ReportDispatcher.this) {
+          report = reports.poll();
+          if (report == null) {
+            active = false;
+            numActiveQueues--;
+            break;
+          }
+          numQueuedReports--;
+          // a receiving thread may wait for space in this queue
+          ReportDispatcher.this.notifyAll();
+        }
+        try {
+          listener.newReport(report);
+        } catch (RuntimeException e) {
+          // a failing listener must not stop the delivery of later reports
+          logger.error("Unexpected exception in report listener.", e);
+        }
+      }
+      deliverCloseIfIdle();
+    }
+  }
+}
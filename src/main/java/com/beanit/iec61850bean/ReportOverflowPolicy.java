@@ -0,0 +1,38 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+/**
+ * Determines what a client association does with a received report if the queue of reports that
+ * wait to be delivered to the {@link ClientEventListener} is full.
+ */
+public enum ReportOverflowPolicy {
+
+  /**
+   * The thread receiving the PDUs of the association waits until the listener has processed a
+   * report of the same report control block. No report is lost, but responses to requests are not
+   * received in the meantime either. Thus the listener must not wait for the response of a request
+   * of the same association while the queue is full.
+   */
+  BLOCK,
+
+  /** The oldest queued report of the same report control block is discarded. */
+  DROP_OLDEST,
+
+  /**
+   * The received report is not queued but handed to {@link
+   * ClientEventListener#reportDropped(Report)} by the thread receiving the PDUs.
+   */
+  SIGNAL_LISTENER
+}
@@ -20,7 +20,6 @@ import com.beanit.asn1bean.ber.types.BerInteger;
 import com.beanit.asn1bean.ber.types.BerNull;
 import com.beanit.asn1bean.ber.types.string.BerVisibleString;
 import com.beanit.iec61850bean.internal.BerBoolean;
-import com.beanit.iec61850bean.internal.NamedThreadFactory;
 import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
 import com.beanit.iec61850bean.internal.mms.asn1.ConfirmedErrorPDU;
 import com.beanit.iec61850bean.internal.mms.asn1.ConfirmedRequestPDU;
@@ -66,20 +65,27 @@ import com.beanit.iec61850bean.internal.mms.asn1.WriteResponse;
 import com.beanit.josistack.AcseAssociation;
 import com.beanit.josistack.ByteBufferInputStream;
 import com.beanit.josistack.DecodingException;
-import java.io.ByteArrayInputStream;
+import com.beanit.jositransport.ByteBufferPool;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -88,7 +94,9 @@ final class ServerAssociation {
   private static final Logger logger = LoggerFactory.getLogger(ServerAssociation.class);
 
   private static final WriteResponse.CHOICE writeSuccess = new WriteResponse.CHOICE();
-  private static String[] mmsFcs = {
+  // returned by receiveMmsRequest() if the received PDU is ignored
+  private static final MMSpdu ignoredPdu = new MMSpdu();
+  static final String[] mmsFcs = {
     "MX", "ST", "CO", "CF", "DC", "SP", "SG", "RP", "LG", "BR", "GO", "GS", "SV", "SE", "EX", "SR",
     "OR", "BL"
   };
@@ -98,35 +106,35 @@ final class ServerAssociation {
   }
 
   final ServerModel serverModel;
-  private final ServerSap serverSap;
+  final ServerSap serverSap;
   private final ReverseByteArrayOutputStream reverseOStream =
       new ReverseByteArrayOutputStream(500, true);
-  ScheduledExecutorService executor = null;
+  // only used by the thread handling the requests so that responses can be encoded while holding
+  // the model lock without waiting for reports that are being sent
+  private final ReverseByteArrayOutputStream responseOStream =
+      new ReverseByteArrayOutputStream(500, true);
+  // streams of the requests that are handled concurrently in the pipelined mode
+  private final Queue<ReverseByteArrayOutputStream> pipelineOStreams =
+      new ConcurrentLinkedQueue<>();
+  // the timer of the server, used to send reports
+  final ScheduledExecutorService executor;
   HashMap<String, DataSet> nonPersistentDataSets = new HashMap<>();
   List<FcModelNode> selects = new ArrayList<>();
   List<Urcb> rsvdURCBs = new ArrayList<>();
+  List<Brcb> enabledBrcbs = new ArrayList<>();
   private AcseAssociation acseAssociation = null;
-  private int negotiatedMaxPduSize;
-  private ByteBuffer pduBuffer;
-  private boolean insertRef;
-  private String continueAfter;
+  int negotiatedMaxPduSize;
+  private int maxServOutstanding = 1;
+  // only set in the pipelined mode
+  private Executor pipelineExecutor = null;
+  private Semaphore outstandingRequests = null;
+  // only used in the non-blocking mode
+  private final AtomicBoolean receiveScheduled = new AtomicBoolean(false);
 
   public ServerAssociation(ServerSap serverSap) {
     this.serverSap = serverSap;
     serverModel = serverSap.serverModel;
-    executor =
-        Executors.newScheduledThreadPool(
-            2, new NamedThreadFactory("iec61850bean-server-connection"));
-  }
-
-  private static void insertMmsRef(ModelNode node, List<String> mmsRefs, String parentRef) {
-    String ref = parentRef + '$' + node.getName();
-    mmsRefs.add(ref);
-    if (!(node instanceof Array)) {
-      for (ModelNode childNode : node) {
-        insertMmsRef(childNode, mmsRefs, ref);
-      }
-    }
+    executor = serverSap.timer;
   }
 
   private static String convertToDataSetReference(ObjectName mmsObjectName) {
@@ -141,7 +149,16 @@ final class ServerAssociation {
     return null;
   }
 
-  public void handleNewAssociation(AcseAssociation acseAssociation, ByteBuffer associationRequest) {
+  /**
+   * Accepts the association and handles its requests. If the connection uses non-blocking I/O and
+   * the server has a receive executor, the requests are handled by tasks of that executor whenever
+   * data has been received and this method returns immediately. Otherwise the requests are handled
+   * by the calling thread until the connection is closed.
+   *
+   * @return true if the association is still served by the receive executor. It is closed by
+   *     {@link ServerSap#associationClosed(ServerAssociation)} once the connection is closed.
+   */
+  boolean handleNewAssociation(AcseAssociation acseAssociation, ByteBuffer associationRequest) {
 
     this.acseAssociation = acseAssociation;
 
@@ -149,10 +166,22 @@ final class ServerAssociation {
       associate(acseAssociation, associationRequest);
     } catch (IOException e) {
       logger.warn("Error during association build up", e);
-      return;
+      return false;
+    }
+
+    if (serverSap.pipelineExecutor != null && maxServOutstanding > 1) {
+      pipelineExecutor = serverSap.pipelineExecutor;
+      outstandingRequests = new Semaphore(maxServOutstanding);
+    }
+
+    Executor receiveExecutor = serverSap.receiveExecutor;
+    if (receiveExecutor != null && acseAssociation.isNonBlocking()) {
+      startReceiving(receiveExecutor);
+      return true;
     }
 
     handleConnection();
+    return false;
   }
 
   private void associate(AcseAssociation acseAssociation, ByteBuffer associationRequest)
@@ -190,6 +219,8 @@ final class ServerAssociation {
       negotiatedMaxServOutstandingCalling = proposedMaxServOutstandingCalling;
     }
 
+    maxServOutstanding = negotiatedMaxServOutstandingCalling;
+
     int negotiatedMaxServOutstandingCalled = serverSap.getProposedMaxServOutstandingCalled();
     int proposedMaxServOutstandingCalled =
         associationRequestMMSpdu.getProposedMaxServOutstandingCalled().intValue();
@@ -209,8 +240,6 @@ final class ServerAssociation {
       }
     }
 
-    pduBuffer = ByteBuffer.allocate(negotiatedMaxPduSize + 500);
-
     byte[] negotiatedParameterCbbBitString = serverSap.cbbBitString;
 
     byte[] servicesSupportedCalledBitString = serverSap.servicesSupportedCalled;
@@ -242,144 +271,301 @@ final class ServerAssociation {
   }
 
   private void handleConnection() {
+    try {
+      while (handleNextRequest()) {}
+    } finally {
+      awaitOutstandingRequests();
+    }
+  }
+
+  /**
+   * Serves the association without a dedicated thread. Whenever the non-blocking transport
+   * connection signals that data has been received, a task is handed to the given executor that
+   * handles all requests received so far. At most one such task is active per association. The
+   * task that notices the end of the connection closes the association.
+   */
+  private void startReceiving(final Executor receiveExecutor) {
+    final Runnable receiveTask =
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              while (true) {
+                while (acseAssociation.isDataAvailable()) {
+                  if (!handleNextRequest()) {
+                    // receiveScheduled stays set so that no further task is started
+                    closeAssociation();
+                    return;
+                  }
+                }
+                receiveScheduled.set(false);
+                // data may have arrived after the last check without scheduling a new task
+                if (!acseAssociation.isDataAvailable()
+                    || !receiveScheduled.compareAndSet(false, true)) {
+                  return;
+                }
+              }
+            } catch (RuntimeException e) {
+              logger.error("Unexpected exception while handling request. Closing association.", e);
+              closeAssociation();
+            }
+          }
+        };
+
+    acseAssociation.setDataAvailableCallback(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (receiveScheduled.compareAndSet(false, true)) {
+              try {
+                receiveExecutor.execute(receiveTask);
+              } catch (RejectedExecutionException e) {
+                logger.warn("Request could not be handled because the server is stopping.");
+                acseAssociation.disconnect();
+              }
+            }
+          }
+        });
+  }
 
-    while (true) {
+  private void closeAssociation() {
+    try {
+      awaitOutstandingRequests();
+    } finally {
+      serverSap.associationClosed(this);
+    }
+  }
 
-      MMSpdu mmsRequestPdu = listenForMmsRequest(acseAssociation);
-      if (mmsRequestPdu == null) {
-        return;
-      }
+  /**
+   * Receives the next request and handles it. In the pipelined mode requests that only read are
+   * handled concurrently by the pipeline executor and their responses are sent as soon as they are
+   * ready. The client matches them by their invokeID. All other requests are handled by the calling
+   * thread after all outstanding requests have been handled. Thus for example an operate is never
+   * processed before the preceding select.
+   *
+   * @return false if the association should be closed
+   */
+  private boolean handleNextRequest() {
+
+    MMSpdu mmsRequestPdu = receiveMmsRequest();
+    if (mmsRequestPdu == null) {
+      return false;
+    }
+    if (mmsRequestPdu == ignoredPdu) {
+      return true;
+    }
+    // Do not have to check whether the ConfirmedRequestPDU is null because that was already done
+    // by receiveMmsRequest()
+    ConfirmedRequestPDU confirmedRequestPdu = mmsRequestPdu.getConfirmedRequestPDU();
 
-      ConfirmedRequestPDU confirmedRequestPdu = mmsRequestPdu.getConfirmedRequestPDU();
-      // Do not have to check whether confirmedRequestPdu is null because that was already done by
-      // listenForMmsRequest()
+    if (outstandingRequests == null) {
+      return handleRequest(confirmedRequestPdu, responseOStream);
+    }
 
-      if (confirmedRequestPdu.getInvokeID() == null) {
-        // cannot respond with ServiceError because no InvokeID was received
-        logger.warn("Got unexpected MMS PDU or no invokeID");
-        continue;
+    outstandingRequests.acquireUninterruptibly();
+    // the permit is released by the task once it has been handed to the executor, an unexpected
+    // exception must not keep it because the clean up waits for all permits
+    boolean dispatched = false;
+    try {
+      PipelinedRequest pipelinedRequest = createPipelinedRequest(confirmedRequestPdu);
+      if (pipelinedRequest != null) {
+        pipelineExecutor.execute(pipelinedRequest);
+        dispatched = true;
+        return true;
+      }
+    } catch (RejectedExecutionException e) {
+      logger.warn("Request could not be handled because the server is stopping.");
+      return false;
+    } finally {
+      if (!dispatched) {
+        outstandingRequests.release();
       }
-      int invokeId = confirmedRequestPdu.getInvokeID().intValue();
+    }
 
-      try {
-        if (confirmedRequestPdu.getService() == null) {
-          throw new ServiceError(
-              ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
-              "Got an invalid MMS packet: confirmedServiceRequest empty");
-        }
+    // wait until all other outstanding requests have been handled
+    outstandingRequests.acquireUninterruptibly(maxServOutstanding);
+    try {
+      return handleRequest(confirmedRequestPdu, responseOStream);
+    } finally {
+      outstandingRequests.release(maxServOutstanding);
+    }
+  }
 
-        ConfirmedServiceRequest confirmedServiceRequest = confirmedRequestPdu.getService();
+  /** The association must not be cleaned up while pipelined requests are still being handled. */
+  private void awaitOutstandingRequests() {
+    if (outstandingRequests != null) {
+      outstandingRequests.acquireUninterruptibly(maxServOutstanding);
+      outstandingRequests.release(maxServOutstanding);
+    }
+  }
 
-        ConfirmedServiceResponse confirmedServiceResponse = new ConfirmedServiceResponse();
+  /**
+   * Returns a task handling the given request if the request only reads from the model and may
+   * therefore be handled concurrently with other such requests. Reads are resolved here already
+   * because reading an SBO node selects the control object.
+   */
+  private PipelinedRequest createPipelinedRequest(ConfirmedRequestPDU confirmedRequestPdu) {
 
-        if (confirmedServiceRequest.getGetNameList() != null) {
+    ConfirmedServiceRequest confirmedServiceRequest = confirmedRequestPdu.getService();
+    if (confirmedRequestPdu.getInvokeID() == null || confirmedServiceRequest == null) {
+      return null;
+    }
 
-          GetNameListRequest getNameListRequest = confirmedServiceRequest.getGetNameList();
-          GetNameListResponse response = null;
+    if (confirmedServiceRequest.getRead() != null) {
+      List<FcModelNode> modelNodes;
+      try {
+        modelNodes = getNodesToRead(confirmedServiceRequest.getRead());
+      } catch (ServiceError e) {
+        // the error response is sent when the request is handled in order
+        return null;
+      }
+      if (containsSboNode(modelNodes)) {
+        return null;
+      }
+      return new PipelinedRequest(confirmedRequestPdu, modelNodes);
+    }
 
-          if (getNameListRequest.getObjectClass().getBasicObjectClass() == null) {
-            throw new ServiceError(
-                ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
-                "Got an invalid MMS packet: ObjectClass was not selected in GetNameList request");
-          }
+    if (confirmedServiceRequest.getGetNameList() != null
+        || confirmedServiceRequest.getGetVariableAccessAttributes() != null
+        || confirmedServiceRequest.getGetNamedVariableListAttributes() != null) {
+      return new PipelinedRequest(confirmedRequestPdu, null);
+    }
+    return null;
+  }
 
-          long basicObjectClass =
-              getNameListRequest.getObjectClass().getBasicObjectClass().longValue();
-          if (basicObjectClass == 9) {
-            logger.debug("Got a GetServerDirectory (MMS GetNameList[DOMAIN]) request");
-            response = handleGetServerDirectoryRequest();
-          } else if (basicObjectClass == 0) {
-            logger.debug("Got a Get{LD|LN}Directory (MMS GetNameList[NAMED_VARIABLE]) request");
-            response = handleGetDirectoryRequest(getNameListRequest);
-          } else if (basicObjectClass == 2) {
-            logger.debug(
-                "Got a GetLogicalNodeDirectory[DataSet] (MMS GetNameList[NAMED_VARIABLE_LIST]) request");
-            response = handleGetDataSetNamesRequest(getNameListRequest);
-          } else {
-            throw new ServiceError(
-                ServiceError.FAILED_DUE_TO_SERVER_CONSTRAINT,
-                "Unable to handle Get directory request for basic object class: "
-                    + basicObjectClass);
-          }
-          // else if (basicObjectClass == 8) {
-          // logger.debug("Got a GetLogicalNodeDirectory[Log] (MMS GetNameList[JOURNAL]) request");
-          // response =
-          // handleGetNameListJournalRequest(getNameListRequest);
-          // }
+  /**
+   * Handles a single request and sends the response.
+   *
+   * @param confirmedRequestPdu the request
+   * @param responseOStream the stream to encode the response into
+   * @return false if the association should be closed because the response could not be sent
+   */
+  private boolean handleRequest(
+      ConfirmedRequestPDU confirmedRequestPdu, ReverseByteArrayOutputStream responseOStream) {
 
-          confirmedServiceResponse.setGetNameList(response);
+    if (confirmedRequestPdu.getInvokeID() == null) {
+      // cannot respond with ServiceError because no InvokeID was received
+      logger.warn("Got unexpected MMS PDU or no invokeID");
+      return true;
+    }
+    int invokeId = confirmedRequestPdu.getInvokeID().intValue();
 
-        } else if (confirmedServiceRequest.getGetVariableAccessAttributes() != null) {
-          logger.debug(
-              "Got a GetDataDirectory/GetDataDefinition (MMS GetVariableAccessAttributes) request");
-          GetVariableAccessAttributesResponse response =
-              handleGetVariableAccessAttributesRequest(
-                  confirmedServiceRequest.getGetVariableAccessAttributes());
+    try {
+      if (confirmedRequestPdu.getService() == null) {
+        throw new ServiceError(
+            ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+            "Got an invalid MMS packet: confirmedServiceRequest empty");
+      }
 
-          confirmedServiceResponse.setGetVariableAccessAttributes(response);
+      ConfirmedServiceRequest confirmedServiceRequest = confirmedRequestPdu.getService();
 
-        } else if (confirmedServiceRequest.getRead() != null) {
-          // GetDataValues, GetDataSetValues, GetBRCBValues and GetURCBValues map to this
-          ReadResponse response = handleGetDataValuesRequest(confirmedServiceRequest.getRead());
+      ConfirmedServiceResponse confirmedServiceResponse = new ConfirmedServiceResponse();
 
-          confirmedServiceResponse.setRead(response);
-        } else if (confirmedServiceRequest.getWrite() != null) {
-          logger.debug("Got a Write request");
+      if (confirmedServiceRequest.getGetNameList() != null) {
 
-          WriteResponse response = handleSetDataValuesRequest(confirmedServiceRequest.getWrite());
+        GetNameListRequest getNameListRequest = confirmedServiceRequest.getGetNameList();
+        GetNameListResponse response = null;
 
-          confirmedServiceResponse.setWrite(response);
+        if (getNameListRequest.getObjectClass().getBasicObjectClass() == null) {
+          throw new ServiceError(
+              ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+              "Got an invalid MMS packet: ObjectClass was not selected in GetNameList request");
+        }
 
+        long basicObjectClass =
+            getNameListRequest.getObjectClass().getBasicObjectClass().longValue();
+        if (basicObjectClass == 9) {
+          logger.debug("Got a GetServerDirectory (MMS GetNameList[DOMAIN]) request");
+          response = handleGetServerDirectoryRequest();
+        } else if (basicObjectClass == 0) {
+          logger.debug("Got a Get{LD|LN}Directory (MMS GetNameList[NAMED_VARIABLE]) request");
+          response = handleGetDirectoryRequest(getNameListRequest);
+        } else if (basicObjectClass == 2) {
+          logger.debug(
+              "Got a GetLogicalNodeDirectory[DataSet] (MMS GetNameList[NAMED_VARIABLE_LIST]) request");
+          response = handleGetDataSetNamesRequest(getNameListRequest);
+        } else {
+          throw new ServiceError(
+              ServiceError.FAILED_DUE_TO_SERVER_CONSTRAINT,
+              "Unable to handle Get directory request for basic object class: "
+                  + basicObjectClass);
         }
-        // for Data Sets
-        else if (confirmedServiceRequest.getDefineNamedVariableList() != null) {
-          logger.debug("Got a CreateDataSet request");
+        // else if (basicObjectClass == 8) {
+        // logger.debug("Got a GetLogicalNodeDirectory[Log] (MMS GetNameList[JOURNAL]) request");
+        // response =
+        // handleGetNameListJournalRequest(getNameListRequest);
+        // }
 
-          DefineNamedVariableListResponse response =
-              handleCreateDataSetRequest(confirmedServiceRequest.getDefineNamedVariableList());
+        confirmedServiceResponse.setGetNameList(response);
 
-          confirmedServiceResponse.setDefineNamedVariableList(response);
-        } else if (confirmedServiceRequest.getGetNamedVariableListAttributes() != null) {
-          logger.debug("Got a GetDataSetDirectory request");
-          GetNamedVariableListAttributesResponse response =
-              handleGetDataSetDirectoryRequest(
-                  confirmedServiceRequest.getGetNamedVariableListAttributes());
+      } else if (confirmedServiceRequest.getGetVariableAccessAttributes() != null) {
+        logger.debug(
+            "Got a GetDataDirectory/GetDataDefinition (MMS GetVariableAccessAttributes) request");
+        GetVariableAccessAttributesResponse response =
+            handleGetVariableAccessAttributesRequest(
+                confirmedServiceRequest.getGetVariableAccessAttributes());
 
-          confirmedServiceResponse.setGetNamedVariableListAttributes(response);
+        confirmedServiceResponse.setGetVariableAccessAttributes(response);
 
-        } else if (confirmedServiceRequest.getDeleteNamedVariableList() != null) {
-          logger.debug("Got a DeleteDataSet request");
-          DeleteNamedVariableListResponse response =
-              handleDeleteDataSetRequest(confirmedServiceRequest.getDeleteNamedVariableList());
+      } else if (confirmedServiceRequest.getRead() != null) {
+        // GetDataValues, GetDataSetValues, GetBRCBValues and GetURCBValues map to this
+        return handleGetDataValuesRequest(
+            confirmedRequestPdu.getInvokeID(),
+            getNodesToRead(confirmedServiceRequest.getRead()),
+            responseOStream);
+      } else if (confirmedServiceRequest.getWrite() != null) {
+        logger.debug("Got a Write request");
 
-          confirmedServiceResponse.setDeleteNamedVariableList(response);
-        } else {
-          throw new ServiceError(
-              ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
-              "invalid MMS packet: unknown request type.");
-        }
+        WriteResponse response = handleSetDataValuesRequest(confirmedServiceRequest.getWrite());
 
-        ConfirmedResponsePDU confirmedResponsePdu = new ConfirmedResponsePDU();
-        confirmedResponsePdu.setInvokeID(confirmedRequestPdu.getInvokeID());
-        confirmedResponsePdu.setService(confirmedServiceResponse);
+        confirmedServiceResponse.setWrite(response);
 
-        MMSpdu mmsResponsePdu = new MMSpdu();
-        mmsResponsePdu.setConfirmedResponsePDU(confirmedResponsePdu);
+      }
+      // for Data Sets
+      else if (confirmedServiceRequest.getDefineNamedVariableList() != null) {
+        logger.debug("Got a CreateDataSet request");
 
-        if (!sendAnMmsPdu(mmsResponsePdu)) {
-          return;
-        }
-      } catch (ServiceError e) {
-        logger.warn(e.getMessage());
-        if (!sendAnMmsPdu(createServiceErrorResponse(e, invokeId))) {
-          return;
-        }
+        DefineNamedVariableListResponse response =
+            handleCreateDataSetRequest(confirmedServiceRequest.getDefineNamedVariableList());
+
+        confirmedServiceResponse.setDefineNamedVariableList(response);
+      } else if (confirmedServiceRequest.getGetNamedVariableListAttributes() != null) {
+        logger.debug("Got a GetDataSetDirectory request");
+        GetNamedVariableListAttributesResponse response =
+            handleGetDataSetDirectoryRequest(
+                confirmedServiceRequest.getGetNamedVariableListAttributes());
+
+        confirmedServiceResponse.setGetNamedVariableListAttributes(response);
+
+      } else if (confirmedServiceRequest.getDeleteNamedVariableList() != null) {
+        logger.debug("Got a DeleteDataSet request");
+        DeleteNamedVariableListResponse response =
+            handleDeleteDataSetRequest(confirmedServiceRequest.getDeleteNamedVariableList());
+
+        confirmedServiceResponse.setDeleteNamedVariableList(response);
+      } else {
+        throw new ServiceError(
+            ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+            "invalid MMS packet: unknown request type.");
       }
+
+      ConfirmedResponsePDU confirmedResponsePdu = new ConfirmedResponsePDU();
+      confirmedResponsePdu.setInvokeID(confirmedRequestPdu.getInvokeID());
+      confirmedResponsePdu.setService(confirmedServiceResponse);
+
+      MMSpdu mmsResponsePdu = new MMSpdu();
+      mmsResponsePdu.setConfirmedResponsePDU(confirmedResponsePdu);
+
+      return sendResponsePdu(mmsResponsePdu, responseOStream);
+    } catch (ServiceError e) {
+      logger.warn(e.getMessage());
+      return sendResponsePdu(createServiceErrorResponse(e, invokeId), responseOStream);
     }
   }
 
   void cleanUpConnection() {
-    synchronized (serverModel) {
+    serverSap.modelLock.lockExclusively();
+    try {
       for (FcModelNode selectedCdo : selects) {
         selectedCdo.deselect();
       }
@@ -392,6 +578,17 @@ final class ServerAssociation {
           rsvdUrcb.getResv().setValue(false);
         }
       }
+      for (Brcb enabledBrcb : enabledBrcbs) {
+        synchronized (enabledBrcb) {
+          // the BRCB keeps buffering until a client enables it again
+          if (enabledBrcb.owner == this) {
+            enabledBrcb.disable();
+            enabledBrcb.getRptEna().setValue(false);
+          }
+        }
+      }
+    } finally {
+      serverSap.modelLock.unlockExclusively();
     }
   }
 
@@ -406,7 +603,7 @@ final class ServerAssociation {
         return false;
       }
       try {
-        acseAssociation.send(reverseOStream.getByteBuffer());
+        acseAssociation.send(reverseOStream);
       } catch (IOException e) {
         logger.warn("IOException while sending MMS PDU. Closing association.", e);
         return false;
@@ -415,56 +612,84 @@ final class ServerAssociation {
     return true;
   }
 
-  private MMSpdu listenForMmsRequest(AcseAssociation acseAssociation) {
+  private boolean sendResponsePdu(
+      MMSpdu mmsResponsePdu, ReverseByteArrayOutputStream responseOStream) {
 
-    while (true) {
-      MMSpdu mmsRequestPdu;
-      byte[] buffer;
-      pduBuffer.clear();
-      try {
-        buffer = acseAssociation.receive(pduBuffer);
-      } catch (EOFException e) {
-        logger.debug("Connection was closed by client.");
-        return null;
-      } catch (SocketTimeoutException e) {
-        logger.warn(
-            "Message fragment timeout occured while receiving request. Closing association.", e);
-        return null;
-      } catch (IOException e) {
-        logger.warn(
-            "IOException at lower layers while listening for incoming request. Closing association.",
-            e);
-        return null;
-      } catch (DecodingException e) {
-        logger.error("Error decoding request at OSI layers.", e);
-        continue;
-      } catch (TimeoutException e) {
-        logger.error(
-            "Illegal state: message timeout while receiving request though this timeout should 0 and never be thrown",
-            e);
-        return null;
-      }
-      mmsRequestPdu = new MMSpdu();
+    responseOStream.reset();
+    try {
+      mmsResponsePdu.encode(responseOStream);
+    } catch (IOException e1) {
+      logger.error("IOException while encoding MMS PDU. Closing association.", e1);
+      return false;
+    }
+    return sendResponseOStream(responseOStream);
+  }
 
-      try {
-        mmsRequestPdu.decode(new ByteArrayInputStream(buffer), null);
-      } catch (IOException e) {
-        logger.warn("IOException decoding received MMS request PDU.", e);
-        continue;
-      }
+  private boolean sendResponseOStream(ReverseByteArrayOutputStream responseOStream) {
+    try {
+      acseAssociation.send(responseOStream);
+    } catch (IOException e) {
+      logger.warn("IOException while sending MMS PDU. Closing association.", e);
+      return false;
+    }
+    return true;
+  }
 
-      if (mmsRequestPdu.getConfirmedRequestPDU() == null) {
-        if (mmsRequestPdu.getConcludeRequestPDU() != null) {
-          logger.debug("Got Conclude request, will close connection");
-          return null;
-        } else {
-          logger.warn("Got unexpected MMS PDU, will ignore it");
-          continue;
-        }
-      }
+  /**
+   * Receives the next MMS PDU.
+   *
+   * @return the received request, {@link #ignoredPdu} if the PDU was invalid or no request, or
+   *     null if the association should be closed
+   */
+  private MMSpdu receiveMmsRequest() {
+
+    MMSpdu mmsRequestPdu;
+    ByteBuffer pdu;
+    try {
+      pdu = acseAssociation.receiveView(ByteBufferPool.getDefault(), negotiatedMaxPduSize + 500);
+    } catch (EOFException e) {
+      logger.debug("Connection was closed by client.");
+      return null;
+    } catch (SocketTimeoutException e) {
+      logger.warn(
+          "Message fragment timeout occured while receiving request. Closing association.", e);
+      return null;
+    } catch (IOException e) {
+      logger.warn(
+          "IOException at lower layers while listening for incoming request. Closing association.",
+          e);
+      return null;
+    } catch (DecodingException e) {
+      logger.error("Error decoding request at OSI layers.", e);
+      return ignoredPdu;
+    } catch (TimeoutException e) {
+      logger.error(
+          "Illegal state: message timeout while receiving request though this timeout should 0 and never be thrown",
+          e);
+      return null;
+    }
+    mmsRequestPdu = new MMSpdu();
+
+    try {
+      mmsRequestPdu.decode(new ByteBufferInputStream(pdu), null);
+    } catch (IOException e) {
+      logger.warn("IOException decoding received MMS request PDU.", e);
+      return ignoredPdu;
+    } finally {
+      acseAssociation.releaseReceiveBuffer();
+    }
 
-      return mmsRequestPdu;
+    if (mmsRequestPdu.getConfirmedRequestPDU() == null) {
+      if (mmsRequestPdu.getConcludeRequestPDU() != null) {
+        logger.debug("Got Conclude request, will close connection");
+        return null;
+      } else {
+        logger.warn("Got unexpected MMS PDU, will ignore it");
+        return ignoredPdu;
+      }
     }
+
+    return mmsRequestPdu;
   }
 
   private MMSpdu createServiceErrorResponse(ServiceError e, int invokeId) {
@@ -556,33 +781,11 @@ final class ServerAssociation {
     }
 
     LogicalDevice logicalDevice = (LogicalDevice) logicalDeviceMn;
+    LogicalDeviceDirectory directory = logicalDevice.getMmsDirectory(mmsFcs);
 
-    insertRef = true;
-
+    int index = 0;
     if (getNameListRequest.getContinueAfter() != null) {
-      continueAfter = getNameListRequest.getContinueAfter().toString();
-      insertRef = false;
-    }
-
-    List<String> mmsReferences = new ArrayList<>();
-
-    for (ModelNode logicalNodeMn : logicalDevice) {
-      LogicalNode logicalNode = (LogicalNode) logicalNodeMn;
-      mmsReferences.add(logicalNode.getName());
-
-      for (String mmsFC : mmsFcs) {
-        Fc fc = Fc.fromString(mmsFC);
-        if (fc != null) {
-
-          List<FcDataObject> fcDataObjects = logicalNode.getChildren(fc);
-          if (fcDataObjects != null) {
-            mmsReferences.add(logicalNode.getName() + "$" + mmsFC);
-            for (FcDataObject dataObject : fcDataObjects) {
-              insertMmsRef(dataObject, mmsReferences, logicalNode.getName() + "$" + mmsFC);
-            }
-          }
-        }
-      }
+      index = directory.positionAfter(getNameListRequest.getContinueAfter().toString());
     }
 
     ListOfIdentifier listOfIden = new ListOfIdentifier();
@@ -590,25 +793,16 @@ final class ServerAssociation {
 
     int identifierSize = 0;
     boolean moreFollows = false;
-    for (String mmsReference : mmsReferences) {
-      if (insertRef == true) {
-        if (identifierSize > negotiatedMaxPduSize - 200) {
-          moreFollows = true;
-          logger.debug(" ->maxMMSPduSize of " + negotiatedMaxPduSize + " Bytes reached");
-          break;
-        }
-
-        Identifier identifier;
-
-        identifier = new Identifier(mmsReference.getBytes(UTF_8));
-
-        identifiers.add(identifier);
-        identifierSize += mmsReference.length() + 2;
-      } else {
-        if (mmsReference.equals(continueAfter)) {
-          insertRef = true;
-        }
+    for (; index < directory.size(); index++) {
+      if (identifierSize > negotiatedMaxPduSize - 200) {
+        moreFollows = true;
+        logger.debug(" ->maxMMSPduSize of " + negotiatedMaxPduSize + " Bytes reached");
+        break;
       }
+
+      Identifier identifier = directory.get(index);
+      identifiers.add(identifier);
+      identifierSize += identifier.value.length + 2;
     }
 
     GetNameListResponse getNameListResponse = new GetNameListResponse();
@@ -624,6 +818,36 @@ final class ServerAssociation {
    */
   private GetVariableAccessAttributesResponse handleGetVariableAccessAttributesRequest(
       GetVariableAccessAttributesRequest getVariableAccessAttributesRequest) throws ServiceError {
+
+    DomainSpecific domainSpecific = null;
+    if (getVariableAccessAttributesRequest.getName() != null) {
+      domainSpecific = getVariableAccessAttributesRequest.getName().getDomainSpecific();
+    }
+    if (domainSpecific == null) {
+      return createVariableAccessAttributesResponse(getVariableAccessAttributesRequest);
+    }
+
+    String domainId = domainSpecific.getDomainID().toString();
+    String itemId = domainSpecific.getItemID().toString();
+
+    TypeDescription typeDescription = serverSap.typeDescriptionCache.get(domainId, itemId);
+    if (typeDescription != null) {
+      GetVariableAccessAttributesResponse getVariableAccessAttributesResponse =
+          new GetVariableAccessAttributesResponse();
+      getVariableAccessAttributesResponse.setMmsDeletable(new BerBoolean(false));
+      getVariableAccessAttributesResponse.setTypeDescription(typeDescription);
+      return getVariableAccessAttributesResponse;
+    }
+
+    GetVariableAccessAttributesResponse getVariableAccessAttributesResponse =
+        createVariableAccessAttributesResponse(getVariableAccessAttributesRequest);
+    serverSap.typeDescriptionCache.put(
+        domainId, itemId, getVariableAccessAttributesResponse.getTypeDescription());
+    return getVariableAccessAttributesResponse;
+  }
+
+  private GetVariableAccessAttributesResponse createVariableAccessAttributesResponse(
+      GetVariableAccessAttributesRequest getVariableAccessAttributesRequest) throws ServiceError {
     if (getVariableAccessAttributesRequest.getName() == null) {
       throw new ServiceError(
           ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
@@ -863,7 +1087,76 @@ final class ServerAssociation {
     return getVariableAccessAttributesResponse;
   }
 
-  private ReadResponse handleGetDataValuesRequest(ReadRequest mmsReadRequest) throws ServiceError {
+  private boolean handleGetDataValuesRequest(
+      Unsigned32 invokeId,
+      List<FcModelNode> modelNodes,
+      ReverseByteArrayOutputStream responseOStream) {
+
+    ListOfAccessResult listOfAccessResult = new ListOfAccessResult();
+    List<AccessResult> accessResults = listOfAccessResult.getAccessResult();
+
+    ReadResponse readResponse = new ReadResponse();
+    readResponse.setListOfAccessResult(listOfAccessResult);
+
+    ConfirmedServiceResponse confirmedServiceResponse = new ConfirmedServiceResponse();
+    confirmedServiceResponse.setRead(readResponse);
+
+    ConfirmedResponsePDU confirmedResponsePdu = new ConfirmedResponsePDU();
+    confirmedResponsePdu.setInvokeID(invokeId);
+    confirmedResponsePdu.setService(confirmedServiceResponse);
+
+    MMSpdu mmsResponsePdu = new MMSpdu();
+    mmsResponsePdu.setConfirmedResponsePDU(confirmedResponsePdu);
+
+    // Reading an SBO node selects the control object and therefore changes the model. Values are
+    // read while the response is encoded, so the lock is held until the encoding is done.
+    BitSet lockedStripes;
+    if (containsSboNode(modelNodes)) {
+      serverSap.modelLock.lockExclusively();
+      lockedStripes = null;
+    } else {
+      lockedStripes = serverSap.modelLock.lockForReading(modelNodes);
+    }
+    responseOStream.reset();
+    try {
+      for (FcModelNode modelNode : modelNodes) {
+        if (modelNode == null) {
+          // 10 indicates error "object-non-existent"
+          AccessResult accessResult = new AccessResult();
+          accessResult.setFailure(new DataAccessError(10L));
+          accessResults.add(accessResult);
+        } else {
+          accessResults.add(getReadResult(modelNode));
+        }
+      }
+      mmsResponsePdu.encode(responseOStream);
+    } catch (IOException e) {
+      logger.error("IOException while encoding MMS PDU. Closing association.", e);
+      return false;
+    } finally {
+      serverSap.modelLock.unlockForReading(lockedStripes);
+    }
+
+    return sendResponseOStream(responseOStream);
+  }
+
+  private static boolean containsSboNode(List<FcModelNode> modelNodes) {
+    for (FcModelNode modelNode : modelNodes) {
+      if (modelNode != null && modelNode.getFc() == Fc.CO && modelNode.getName().equals("SBO")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the nodes that are read by a GetDataValues or GetDataSetValues request.
+   *
+   * @param mmsReadRequest the request
+   * @return the nodes in the order of the request. Nodes that do not exist are represented by null.
+   * @throws ServiceError if the request is invalid or the data set does not exist
+   */
+  private List<FcModelNode> getNodesToRead(ReadRequest mmsReadRequest) throws ServiceError {
 
     VariableAccessSpecification variableAccessSpecification =
         mmsReadRequest.getVariableAccessSpecification();
@@ -886,37 +1179,24 @@ final class ServerAssociation {
             "handleGetDataValuesRequest: less than one variableAccessSpecification is not allowed");
       }
 
-      ListOfAccessResult listOfAccessResult = new ListOfAccessResult();
-      List<AccessResult> accessResults = listOfAccessResult.getAccessResult();
+      List<FcModelNode> modelNodes = new ArrayList<>(listOfVariable.size());
+      for (VariableDefs.SEQUENCE variableDef : listOfVariable) {
 
-      synchronized (serverModel) {
-        for (VariableDefs.SEQUENCE variableDef : listOfVariable) {
-
-          FcModelNode modelNode = serverModel.getNodeFromVariableDef(variableDef);
+        FcModelNode modelNode = serverModel.getNodeFromVariableDef(variableDef);
 
-          if (modelNode == null) {
-            logger.debug("Got a GetDataValues request for a non existent model node.");
-            // 10 indicates error "object-non-existent"
-            AccessResult accessResult = new AccessResult();
-            accessResult.setFailure(new DataAccessError(10L));
-            accessResults.add(accessResult);
-          } else {
-            if (logger.isDebugEnabled()) {
-              logger.debug("Got a GetDataValues request for node: " + modelNode);
-              if (!(modelNode instanceof BasicDataAttribute)) {
-                for (BasicDataAttribute bda : modelNode.getBasicDataAttributes()) {
-                  logger.debug("sub BDA is:" + bda);
-                }
-              }
+        if (modelNode == null) {
+          logger.debug("Got a GetDataValues request for a non existent model node.");
+        } else if (logger.isDebugEnabled()) {
+          logger.debug("Got a GetDataValues request for node: " + modelNode);
+          if (!(modelNode instanceof BasicDataAttribute)) {
+            for (BasicDataAttribute bda : modelNode.getBasicDataAttributes()) {
+              logger.debug("sub BDA is:" + bda);
             }
-            accessResults.add(getReadResult(modelNode));
           }
         }
+        modelNodes.add(modelNode);
       }
-
-      ReadResponse readResponse = new ReadResponse();
-      readResponse.setListOfAccessResult(listOfAccessResult);
-      return readResponse;
+      return modelNodes;
     } else {
       logger.debug("Got a GetDataSetValues request.");
 
@@ -929,38 +1209,27 @@ final class ServerAssociation {
             "handleGetDataSetValuesRequest: DataSet name incorrect");
       }
 
-      ListOfAccessResult listOfAccessResult = new ListOfAccessResult();
-      List<AccessResult> accessResults = listOfAccessResult.getAccessResult();
-
+      DataSet dataSet;
       if (dataSetReference.startsWith("@")) {
-        DataSet dataSet = nonPersistentDataSets.get(dataSetReference);
-        if (dataSet == null) {
-          throw new ServiceError(
-              ServiceError.PARAMETER_VALUE_INCONSISTENT,
-              "handleGetDataSetValuesRequest: a DataSet with the given reference does not exist");
-        }
-
-        for (FcModelNode dsMember : dataSet) {
-          accessResults.add(getReadResult(dsMember));
-        }
+        dataSet = nonPersistentDataSets.get(dataSetReference);
       } else {
-        synchronized (serverModel) {
-          DataSet dataSet = serverModel.getDataSet(dataSetReference);
-
-          if (dataSet == null) {
-            throw new ServiceError(
-                ServiceError.PARAMETER_VALUE_INCONSISTENT,
-                "handleGetDataSetValuesRequest: a DataSet with the given reference does not exist");
-          }
-
-          for (FcModelNode dsMember : dataSet) {
-            accessResults.add(getReadResult(dsMember));
-          }
+        BitSet lockedStripes =
+            serverSap.modelLock.lockForReading(Collections.<ModelNode>emptyList());
+        try {
+          dataSet = serverModel.getDataSet(dataSetReference);
+        } finally {
+          serverSap.modelLock.unlockForReading(lockedStripes);
         }
       }
-      ReadResponse readResponse = new ReadResponse();
-      readResponse.setListOfAccessResult(listOfAccessResult);
-      return readResponse;
+
+      if (dataSet == null) {
+        throw new ServiceError(
+            ServiceError.PARAMETER_VALUE_INCONSISTENT,
+            "handleGetDataSetValuesRequest: a DataSet with the given reference does not exist");
+      }
+
+      // the member list of a data set never changes
+      return dataSet.getMembers();
     }
   }
 
@@ -1003,15 +1272,21 @@ final class ServerAssociation {
 
     }
 
-    Data data = modelNode.getMmsDataObj();
+    if (modelNode instanceof BasicDataAttribute) {
+      Data data = modelNode.getMmsDataObj();
+
+      if (data == null) {
+        // 11 indicates error "object_value_invalid"
+        accessResult.setFailure(new DataAccessError(11L));
+        return accessResult;
+      }
 
-    if (data == null) {
-      // 11 indicates error "object_value_invalid"
-      accessResult.setFailure(new DataAccessError(11L));
+      accessResult.setSuccess(data);
       return accessResult;
     }
 
-    accessResult.setSuccess(data);
+    // constructed nodes are encoded directly from the model when the response is sent
+    accessResult.setSuccess(new ModelNodeData(modelNode));
     return accessResult;
   }
 
@@ -1046,7 +1321,8 @@ final class ServerAssociation {
       int[] numBdas = new int[listOfData.size()];
 
       int i = -1;
-      synchronized (serverModel) {
+      serverSap.modelLock.lockExclusively();
+      try {
         for (VariableDefs.SEQUENCE variableDef : listOfVariable) {
           i++;
           Data mmsData = mmsDataIterator.next();
@@ -1066,6 +1342,8 @@ final class ServerAssociation {
         }
 
         writeAndFillMissingWriteResults(mmsResponseValues, totalBdasToBeWritten, numBdas);
+      } finally {
+        serverSap.modelLock.unlockExclusively();
       }
 
     } else if (variableAccessSpecification.getVariableListName() != null) {
@@ -1084,7 +1362,8 @@ final class ServerAssociation {
       int[] numBdas = new int[listOfData.size()];
 
       int i = -1;
-      synchronized (serverModel) {
+      serverSap.modelLock.lockExclusively();
+      try {
         for (FcModelNode dataSetMember : dataSet) {
           i++;
           Data mmsData = mmsDataIterator.next();
@@ -1094,6 +1373,8 @@ final class ServerAssociation {
         }
 
         writeAndFillMissingWriteResults(mmsResponseValues, totalBdasToBeWritten, numBdas);
+      } finally {
+        serverSap.modelLock.unlockExclusively();
       }
 
     } else {
@@ -1121,6 +1402,7 @@ final class ServerAssociation {
         }
         for (BasicDataAttribute bda : totalBdasToBeWritten) {
           bda.mirror.setValueFrom(bda);
+          bda.mirror.valueVersion++;
         }
       } else {
         i = -1;
@@ -1139,6 +1421,7 @@ final class ServerAssociation {
                 mmsResponseIterator.set(writeResponseChoice);
               } else {
                 bda.mirror.setValueFrom(bda);
+                bda.mirror.valueVersion++;
               }
             }
           }
@@ -1452,12 +1735,161 @@ final class ServerAssociation {
         }
       }
 
+    } else if (fc == Fc.BR) {
+      return getBrcbWriteResult(modelNode, mmsData);
     } else {
 
       return null;
     }
   }
 
+  private WriteResponse.CHOICE getBrcbWriteResult(FcModelNode modelNode, Data mmsData) {
+
+    WriteResponse.CHOICE writeResponse = new WriteResponse.CHOICE();
+
+    if (modelNode instanceof Rcb) {
+      // 3 indicates error "object_access_denied"
+      writeResponse.setFailure(new DataAccessError(3L));
+      return writeResponse;
+    }
+
+    FcModelNode fcModelNodeCopy = (FcModelNode) modelNode.copy();
+
+    try {
+      fcModelNodeCopy.setValueFromMmsDataObj(mmsData);
+    } catch (ServiceError e) {
+      writeResponse.setFailure(new DataAccessError(serviceErrorToMmsError(e)));
+      return writeResponse;
+    }
+
+    Brcb brcb = (Brcb) modelNode.getParent();
+
+    String nodeName = modelNode.getName();
+
+    synchronized (brcb) {
+      if (nodeName.equals("RptEna")) {
+        if (((BdaBoolean) fcModelNodeCopy).getValue()) {
+          if (brcb.dataSet == null) {
+            logger.info("client tried to enable RCB even though there is no configured data set");
+            // 3 indicates error "object_access_denied"
+            writeResponse.setFailure(new DataAccessError(3L));
+            return writeResponse;
+          }
+          if (brcb.owner == null) {
+            brcb.enable(this, serverSap.getBrcbBufferSize());
+            enabledBrcbs.add(brcb);
+            ((BdaBoolean) modelNode).setValue(true);
+            return writeSuccess;
+          } else if (brcb.owner == this) {
+            return writeSuccess;
+          } else {
+            // 3 indicates error "object_access_denied"
+            writeResponse.setFailure(new DataAccessError(3L));
+            return writeResponse;
+          }
+        } else {
+          if (brcb.owner == this) {
+            brcb.disable();
+            enabledBrcbs.remove(brcb);
+            ((BdaBoolean) modelNode).setValue(false);
+            return writeSuccess;
+          } else if (brcb.owner == null) {
+            return writeSuccess;
+          } else {
+            // 3 indicates error "object_access_denied"
+            writeResponse.setFailure(new DataAccessError(3L));
+            return writeResponse;
+          }
+        }
+
+      } else if (nodeName.equals("GI")) {
+        if (brcb.owner == this && brcb.getTrgOps().isGeneralInterrogation()) {
+          brcb.generalInterrogation();
+          return writeSuccess;
+        } else {
+          logger.info(
+              "Client tried to initiate a general interrogation even though BRCB is not enabled by this client or general interrogation is not enabled in the trigger options.");
+          // 3 indicates error "object_access_denied"
+          writeResponse.setFailure(new DataAccessError(3L));
+          return writeResponse;
+        }
+
+      } else if (brcb.owner != null) {
+        logger.info("Client tried to write BRCB parameter even though BRCB is enabled.");
+        // 3 indicates error "object_access_denied"
+        writeResponse.setFailure(new DataAccessError(3L));
+        return writeResponse;
+
+      } else if (nodeName.equals("PurgeBuf")) {
+        if (((BdaBoolean) fcModelNodeCopy).getValue()) {
+          brcb.purge();
+        }
+        return writeSuccess;
+
+      } else if (nodeName.equals("EntryID")) {
+        if (brcb.setEntryId(((BdaOctetString) fcModelNodeCopy).getValue())) {
+          return writeSuccess;
+        } else {
+          logger.info("Client tried to set EntryID of BRCB to an entry that is not buffered.");
+          // 11 indicates error "object_value_invalid"
+          writeResponse.setFailure(new DataAccessError(11L));
+          return writeResponse;
+        }
+
+      } else if (nodeName.equals("DatSet")) {
+        String dataSetRef = ((BdaVisibleString) fcModelNodeCopy).getStringValue().replace('$', '.');
+        DataSet dataSet = null;
+        if (!dataSetRef.isEmpty()) {
+          // non-persistent data sets are deleted with the association, but buffering continues
+          dataSet = serverModel.getDataSet(dataSetRef);
+          if (dataSet == null) {
+            logger.info("Client tried to set dataSetReference of BRCB to non existant data set.");
+            // 3 indicates error "object_access_denied"
+            writeResponse.setFailure(new DataAccessError(3L));
+            return writeResponse;
+          }
+        }
+        if (!dataSetRef.equals(brcb.getDatSet().getStringValue().replace('$', '.'))) {
+          // tells clients that the reports refer to a different data set
+          brcb.getConfRev().setValue(brcb.getConfRev().getValue() + 1);
+        }
+        brcb.stopBuffering();
+        brcb.dataSet = dataSet;
+        ((BasicDataAttribute) modelNode).setValueFrom((BasicDataAttribute) fcModelNodeCopy);
+        return writeSuccess;
+
+      } else if (nodeName.equals("OptFlds")) {
+        if (!((BdaOptFlds) fcModelNodeCopy).isDataReference()) {
+          ((BasicDataAttribute) modelNode).setValueFrom((BasicDataAttribute) fcModelNodeCopy);
+          return writeSuccess;
+        } else {
+          logger.info("Client tried to write OptFlds with usupported field set to true.");
+          // 3 indicates error "object_access_denied"
+          writeResponse.setFailure(new DataAccessError(3L));
+          return writeResponse;
+        }
+
+      } else if (nodeName.equals("BufTm")
+          || nodeName.equals("TrgOps")
+          || nodeName.equals("IntgPd")) {
+        // the buffered entries were created with the old settings
+        brcb.stopBuffering();
+        ((BasicDataAttribute) modelNode).setValueFrom((BasicDataAttribute) fcModelNodeCopy);
+        return writeSuccess;
+
+      } else if (nodeName.equals("RptID")) {
+        ((BasicDataAttribute) modelNode).setValueFrom((BasicDataAttribute) fcModelNodeCopy);
+        return writeSuccess;
+
+      } else {
+        // nodes SqNum, ConfRev, TimeOfEntry and Owner may not be written
+        // 3 indicates error "object_access_denied"
+        writeResponse.setFailure(new DataAccessError(3L));
+        return writeResponse;
+      }
+    }
+  }
+
   private int serviceErrorToMmsError(ServiceError e) {
 
     switch (e.getErrorCode()) {
@@ -1483,43 +1915,35 @@ final class ServerAssociation {
 
     BerVisibleString domainSpecific = getNameListRequest.getObjectScope().getDomainSpecific();
 
-    List<String> dsList = null;
-    if (domainSpecific == null) {
-      dsList = new ArrayList<>(nonPersistentDataSets.size());
-      for (String dataSet : nonPersistentDataSets.keySet()) {
-        dsList.add(dataSet);
-      }
-    } else {
-      dsList = serverModel.getDataSetNames(domainSpecific.toString());
-    }
-
-    insertRef = true;
+    String continueAfter = null;
     if (getNameListRequest.getContinueAfter() != null) {
       continueAfter = getNameListRequest.getContinueAfter().toString();
-      insertRef = false;
     }
 
     ListOfIdentifier listOf = new ListOfIdentifier();
     List<Identifier> identifiers = listOf.getIdentifier();
 
-    int identifierSize = 0;
-    boolean moreFollows = false;
-
-    if (dsList != null) {
-      for (String dsRef : dsList) {
-        if (insertRef == true) {
-          if (identifierSize > negotiatedMaxPduSize - 200) {
-            moreFollows = true;
-            logger.info("maxMMSPduSize reached");
-            break;
-          }
-          identifiers.add(new Identifier(dsRef.getBytes(UTF_8)));
-          identifierSize += dsRef.length() + 2;
-        } else {
-          if (dsRef.equals(continueAfter)) {
-            insertRef = true;
-          }
-        }
+    boolean moreFollows;
+    if (domainSpecific == null) {
+      List<String> dsList = new ArrayList<>(nonPersistentDataSets.size());
+      for (String dataSet : nonPersistentDataSets.keySet()) {
+        dsList.add(dataSet);
+      }
+      if (continueAfter != null) {
+        int index = dsList.indexOf(continueAfter);
+        dsList = dsList.subList(index == -1 ? dsList.size() : index + 1, dsList.size());
+      }
+      moreFollows = addDataSetNames(dsList, identifiers);
+    } else {
+      BitSet lockedStripes =
+          serverSap.modelLock.lockForReading(Collections.<ModelNode>emptyList());
+      try {
+        moreFollows =
+            addDataSetNames(
+                serverModel.getDataSetNames(domainSpecific.toString(), continueAfter),
+                identifiers);
+      } finally {
+        serverSap.modelLock.unlockForReading(lockedStripes);
       }
     }
 
@@ -1530,6 +1954,19 @@ final class ServerAssociation {
     return getNameListResponse;
   }
 
+  private boolean addDataSetNames(Collection<String> dsList, List<Identifier> identifiers) {
+    int identifierSize = 0;
+    for (String dsRef : dsList) {
+      if (identifierSize > negotiatedMaxPduSize - 200) {
+        logger.info("maxMMSPduSize reached");
+        return true;
+      }
+      identifiers.add(new Identifier(dsRef.getBytes(UTF_8)));
+      identifierSize += dsRef.length() + 2;
+    }
+    return false;
+  }
+
   private GetNamedVariableListAttributesResponse handleGetDataSetDirectoryRequest(
       ObjectName mmsGetNamedVarListAttReq) throws ServiceError {
 
@@ -1593,7 +2030,12 @@ final class ServerAssociation {
       }
       nonPersistentDataSets.put(dataSetReference, dataSet);
     } else {
-      serverModel.addDataSet(dataSet);
+      serverSap.modelLock.lockExclusively();
+      try {
+        serverModel.addDataSet(dataSet);
+      } finally {
+        serverSap.modelLock.unlockExclusively();
+      }
     }
 
     return new DefineNamedVariableListResponse();
@@ -1619,7 +2061,8 @@ final class ServerAssociation {
         return deleteNamedVariableListResponse;
       }
     } else {
-      synchronized (serverModel) {
+      serverSap.modelLock.lockExclusively();
+      try {
         if (serverModel.removeDataSet(dataSetReference) == null) {
           if (serverModel.getDataSet(dataSetReference) == null) {
             // DataSet with the name does not exist.
@@ -1637,15 +2080,56 @@ final class ServerAssociation {
           deleteNamedVariableListResponse.setNumberDeleted(new Unsigned32(1));
           return deleteNamedVariableListResponse;
         }
+      } finally {
+        serverSap.modelLock.unlockExclusively();
       }
     }
   }
 
   void close() {
     cleanUpConnection();
-    executor.shutdown();
     if (acseAssociation != null) {
       acseAssociation.disconnect();
     }
   }
+
+  /** A read-only request that is handled concurrently in the pipelined mode. */
+  private final class PipelinedRequest implements Runnable {
+
+    private final ConfirmedRequestPDU confirmedRequestPdu;
+    private final List<FcModelNode> modelNodes;
+
+    PipelinedRequest(ConfirmedRequestPDU confirmedRequestPdu, List<FcModelNode> modelNodes) {
+      this.confirmedRequestPdu = confirmedRequestPdu;
+      this.modelNodes = modelNodes;
+    }
+
+    @Override
+    public void run() {
+      ReverseByteArrayOutputStream pipelineOStream = pipelineOStreams.poll();
+      if (pipelineOStream == null) {
+        pipelineOStream = new ReverseByteArrayOutputStream(500, true);
+      }
+      try {
+        boolean sent;
+        if (modelNodes != null) {
+          sent =
+              handleGetDataValuesRequest(
+                  confirmedRequestPdu.getInvokeID(), modelNodes, pipelineOStream);
+        } else {
+          sent = handleRequest(confirmedRequestPdu, pipelineOStream);
+        }
+        if (!sent) {
+          // the task reading the requests notices the closed connection and cleans up
+          acseAssociation.disconnect();
+        }
+      } catch (RuntimeException e) {
+        logger.error("Unexpected exception while handling request. Closing association.", e);
+        acseAssociation.disconnect();
+      } finally {
+        pipelineOStreams.add(pipelineOStream);
+        outstandingRequests.release();
+      }
+    }
+  }
 }
@@ -19,15 +19,24 @@ import com.beanit.iec61850bean.internal.mms.asn1.ObjectName.DomainSpecific;
 import com.beanit.iec61850bean.internal.mms.asn1.VariableDefs;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 public final class ServerModel extends ModelNode {
 
   private final Map<String, DataSet> dataSets = new LinkedHashMap<>();
+  // the MMS names (LN$DataSet) of the data sets of each logical device by the position of the
+  // data set in the model, so that the names are listed in model order
+  private final Map<String, NavigableMap<Long, String>> dataSetNames = new HashMap<>();
+  // the positions of the data sets by their references
+  private final Map<String, Long> dataSetPositions = new HashMap<>();
+  private long nextDataSetPosition = 0;
 
   private final Map<String, Urcb> urcbs = new HashMap<>();
   private final Map<String, Brcb> brcbs = new HashMap<>();
@@ -84,7 +93,20 @@ public final class ServerModel extends ModelNode {
   }
 
   void addDataSet(DataSet dataSet) {
-    dataSets.put(dataSet.getReferenceStr().replace('$', '.'), dataSet);
+    String reference = dataSet.getReferenceStr().replace('$', '.');
+    dataSets.put(reference, dataSet);
+    int slashIndex = reference.indexOf('/');
+    if (slashIndex != -1 && !dataSetPositions.containsKey(reference)) {
+      String ldName = reference.substring(0, slashIndex);
+      NavigableMap<Long, String> ldDataSetNames = dataSetNames.get(ldName);
+      if (ldDataSetNames == null) {
+        ldDataSetNames = new TreeMap<>();
+        dataSetNames.put(ldName, ldDataSetNames);
+      }
+      dataSetPositions.put(reference, nextDataSetPosition);
+      ldDataSetNames.put(
+          nextDataSetPosition++, reference.substring(slashIndex + 1).replace('.', '$'));
+    }
     for (ModelNode ld : children.values()) {
       for (ModelNode ln : ld.getChildren()) {
         for (Urcb urcb : ((LogicalNode) ln).getUrcbs()) {
@@ -113,15 +135,29 @@ public final class ServerModel extends ModelNode {
     }
   }
 
-  List<String> getDataSetNames(String ldName) {
-    // TODO make thread save
-    List<String> dataSetNames = new ArrayList<>();
-    for (String dataSetRef : dataSets.keySet()) {
-      if (dataSetRef.startsWith(ldName)) {
-        dataSetNames.add(dataSetRef.substring(dataSetRef.indexOf('/') + 1).replace('.', '$'));
-      }
+  /**
+   * Returns the MMS names of the data sets of the given logical device in the order the data sets
+   * were added to the model. The returned collection is a view that is backed by the model and may
+   * only be accessed while holding the model lock.
+   *
+   * @param ldName the name of the logical device
+   * @param continueAfter if not null only names that follow this name are returned. If no data set
+   *     with this name exists, no names are returned.
+   * @return the names of the data sets
+   */
+  Collection<String> getDataSetNames(String ldName, String continueAfter) {
+    NavigableMap<Long, String> ldDataSetNames = dataSetNames.get(ldName);
+    if (ldDataSetNames == null) {
+      return Collections.emptyList();
+    }
+    if (continueAfter == null) {
+      return ldDataSetNames.values();
     }
-    return dataSetNames;
+    Long position = dataSetPositions.get(ldName + '/' + continueAfter.replace('$', '.'));
+    if (position == null) {
+      return Collections.emptyList();
+    }
+    return ldDataSetNames.tailMap(position, false).values();
   }
 
   /**
@@ -144,6 +180,11 @@ public final class ServerModel extends ModelNode {
       return null;
     }
     DataSet removedDataSet = dataSets.remove(dataSetReference);
+    String reference = removedDataSet.getReferenceStr().replace('$', '.');
+    Long position = dataSetPositions.remove(reference);
+    if (position != null) {
+      dataSetNames.get(reference.substring(0, reference.indexOf('/'))).remove(position);
+    }
     for (ModelNode ld : children.values()) {
       for (ModelNode ln : ld.getChildren()) {
         for (Urcb urcb : ((LogicalNode) ln).getUrcbs()) {
@@ -13,14 +13,22 @@
  */
 package com.beanit.iec61850bean;
 
+import com.beanit.iec61850bean.internal.NamedThreadFactory;
+import com.beanit.iec61850bean.internal.VirtualThreads;
 import com.beanit.josistack.AcseAssociation;
 import com.beanit.josistack.ServerAcseSap;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Timer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.net.ServerSocketFactory;
 
 /**
@@ -36,19 +44,41 @@ public final class ServerSap {
 
   static final int MINIMUM_MMS_PDU_SIZE = 64;
   private static final int MAXIMUM_MMS_PDU_SIZE = 65000;
+  private static final long TIMER_TICK_MILLIS = 10;
+  // with a tick of 10 ms a round of the wheel takes about 5 seconds
+  private static final int TIMER_TICKS = 512;
   final ServerModel serverModel;
+  final ModelLock modelLock;
   final List<ServerAssociation> associations = new ArrayList<>();
+  final TypeDescriptionCache typeDescriptionCache = new TypeDescriptionCache();
   byte[] servicesSupportedCalled =
       new byte[] {(byte) 0xee, 0x1c, 0, 0, 0x04, 0x08, 0, 0, 0x79, (byte) 0xef, 0x18};
   byte[] cbbBitString = {(byte) 0xfb, 0x00};
   ServerEventListener serverEventListener;
-  Timer timer;
+  ScheduledExecutorService timer;
+  ScheduledExecutorService scheduler = null;
+  private boolean ownTimer = false;
   boolean listening = false;
   private int proposedMaxMmsPduSize = 65000;
   private int proposedMaxServOutstandingCalling = 5;
   private int proposedMaxServOutstandingCalled = 5;
   private int proposedDataStructureNestingLevel = 10;
   private int maxAssociations = 100;
+  private int brcbBufferSize = 256 * 1024;
+  private File brcbBufferDirectory = null;
+  private int numIoThreads = 0;
+  private Executor connectionExecutor = null;
+  private boolean useVirtualThreads = false;
+  private ExecutorService virtualThreadExecutor = null;
+  private boolean requestPipelining = false;
+  private Executor requestExecutor = null;
+  private ExecutorService ownRequestExecutor = null;
+  // the executor handling pipelined requests, null if the pipelined mode is disabled
+  Executor pipelineExecutor = null;
+  // the executor handling the requests received by non-blocking connections, null if non-blocking
+  // I/O is disabled
+  Executor receiveExecutor = null;
+  private ExecutorService ownReceiveExecutor = null;
   private ServerAcseSap acseSap;
   private int port = 102;
   private int backlog = 0;
@@ -78,6 +108,7 @@ public final class ServerSap {
     this.bindAddr = bindAddr;
     this.serverSocketFactory = serverSocketFactory;
     this.serverModel = serverModel;
+    modelLock = new ModelLock(serverModel);
   }
 
   public int getPort() {
@@ -166,6 +197,186 @@ public final class ServerSap {
     this.maxAssociations = maxAssociations;
   }
 
+  /**
+   * Gets the size of the entry buffer of a buffered report control block.
+   *
+   * @return the buffer size in bytes
+   */
+  public int getBrcbBufferSize() {
+    return brcbBufferSize;
+  }
+
+  /**
+   * Sets the size in bytes of the entry buffer that every buffered report control block allocates
+   * when it is enabled for the first time. If the buffer is full, the oldest entries are discarded.
+   * Buffers that already exist keep their size. The default size is 256 KiB.
+   *
+   * @param size the buffer size in bytes, must be positive
+   */
+  public void setBrcbBufferSize(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    brcbBufferSize = size;
+  }
+
+  /**
+   * Gets the directory in which the entry buffers of the buffered report control blocks are
+   * stored.
+   *
+   * @return the directory or null if the buffers are held in memory
+   */
+  public File getBrcbBufferDirectory() {
+    return brcbBufferDirectory;
+  }
+
+  /**
+   * Sets a directory in which the entry buffers of the buffered report control blocks are stored,
+   * so that buffered entries are not lost when the server is restarted. Every BRCB gets a
+   * subdirectory containing memory-mapped segment files. Their total size is the BRCB buffer size
+   * rounded up to a multiple of 64 KiB, the buffer size must therefore be the same when the server
+   * is started again. When the server starts, BRCBs whose buffer contains entries resume buffering.
+   * Entries are synced to disk at most 100 ms after they were added. The default is null, which
+   * means that the buffers are held in memory.
+   *
+   * @param directory the directory of the buffers or null to keep the buffers in memory
+   */
+  public void setBrcbBufferDirectory(File directory) {
+    brcbBufferDirectory = directory;
+  }
+
+  /**
+   * Enables non-blocking I/O by setting the number of I/O threads to a value greater than zero. In
+   * this mode the sockets of all associations are read by the given number of threads using
+   * Selectors instead of one blocked thread per association. Once an association has been
+   * accepted, its requests are handled by tasks of the connection executor that are only started
+   * when a request has been received. If no connection executor is set, these tasks run on a pool
+   * of as many threads as there are processors. The default is 0 which disables non-blocking I/O.
+   * Non-blocking I/O cannot be used with a custom ServerSocketFactory.
+   *
+   * @param numIoThreads the number of I/O threads, 0 to disable non-blocking I/O
+   */
+  public void setNumIoThreads(int numIoThreads) {
+    if (numIoThreads < 0) {
+      throw new IllegalArgumentException("numIoThreads is out of bound");
+    }
+    this.numIoThreads = numIoThreads;
+  }
+
+  /**
+   * Sets the executor that runs the associations. Every association occupies a task of this
+   * executor from the moment its connection is accepted until the association is closed. With
+   * non-blocking I/O a task is only occupied until the association has been accepted and
+   * afterwards whenever a received request is handled. By default
+   * (null) a cached thread pool is created when the server starts listening. A caller-supplied
+   * executor is not shut down when the server stops. If an executor is set, the virtual threads
+   * mode is ignored.
+   *
+   * @param connectionExecutor the executor to run the associations or null to use the default
+   */
+  public void setConnectionExecutor(Executor connectionExecutor) {
+    this.connectionExecutor = connectionExecutor;
+  }
+
+  /**
+   * Sets the scheduler that is used for timers (e.g. the SBO timeout) and to send reports (general
+   * interrogation, buffer time and integrity period) of all associations. By default (null) the
+   * server creates a timer based on a hashed timing wheel with a resolution of 10 ms. Its single
+   * timer thread serves the timers of all associations and hands expired timers to a pool of
+   * worker threads that only grows while reports are being sent. A caller-supplied scheduler is
+   * not shut down when the server stops.
+   *
+   * @param scheduler the scheduler or null to use the default
+   */
+  public void setScheduler(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Enables the concurrent model access mode. By default all accesses to the server model are
+   * serialized, so that for example a burst of value updates through <code>setValues</code> blocks
+   * all client reads. In the concurrent mode any number of GetDataValues and GetDataSetValues
+   * requests are processed in parallel and value updates only block the logical devices they
+   * update. Every read request still sees a consistent state of all nodes it reads and every call
+   * of <code>setValues</code> is applied atomically. All other services that change the model
+   * (SetDataValues, data set creation and deletion, select before operate) remain exclusive. The
+   * default is false.
+   *
+   * @param concurrentModelAccess whether reads and value updates may run concurrently
+   */
+  public void setConcurrentModelAccess(boolean concurrentModelAccess) {
+    modelLock.setConcurrent(concurrentModelAccess);
+  }
+
+  /**
+   * Returns whether the concurrent model access mode is enabled.
+   *
+   * @return true if the concurrent model access mode is enabled
+   */
+  public boolean isConcurrentModelAccess() {
+    return modelLock.isConcurrent();
+  }
+
+  /**
+   * Enables the pipelined request processing. By default an association reads a request, handles
+   * it, sends the response and only then reads the next request. In the pipelined mode an
+   * association reads ahead up to the negotiated MaxServOutstandingCalling number of requests.
+   * Requests that only read (e.g. GetDataValues, GetDataSetValues, GetDataDefinition and the
+   * directory services) are handled concurrently by the request executor and every response is
+   * sent as soon as it is ready. All other requests (e.g. SetDataValues, select before operate and
+   * data set creation) are handled in the order they were received after all preceding requests
+   * have been handled. The mode has to be set before the server starts listening. The default is
+   * false.
+   *
+   * @param requestPipelining whether associations should process requests pipelined
+   */
+  public void setRequestPipelining(boolean requestPipelining) {
+    this.requestPipelining = requestPipelining;
+  }
+
+  /**
+   * Returns whether the pipelined request processing is enabled.
+   *
+   * @return true if the pipelined request processing is enabled
+   */
+  public boolean isRequestPipelining() {
+    return requestPipelining;
+  }
+
+  /**
+   * Sets the executor that handles the requests of all associations in the pipelined mode. By
+   * default (null) a cached thread pool is created when the server starts listening. A
+   * caller-supplied executor is not shut down when the server stops. The executor is not used if
+   * the pipelined mode is disabled.
+   *
+   * @param requestExecutor the executor to handle pipelined requests or null to use the default
+   */
+  public void setRequestExecutor(Executor requestExecutor) {
+    this.requestExecutor = requestExecutor;
+  }
+
+  /**
+   * Runs each association on its own virtual thread instead of a platform thread. Virtual threads
+   * are available since Java 21. If the JVM does not support them, platform threads are used as if
+   * the mode was not enabled. The mode has no effect if a connection executor has been set. The
+   * default is false.
+   *
+   * @param useVirtualThreads whether associations should run on virtual threads
+   */
+  public void setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+  }
+
+  /**
+   * Returns whether associations are run on virtual threads. This is only true if the mode has been
+   * enabled and the JVM supports virtual threads.
+   *
+   * @return true if associations are run on virtual threads
+   */
+  public boolean isUsingVirtualThreads() {
+    return useVirtualThreads && VirtualThreads.isSupported();
+  }
+
   /**
    * Sets the message fragment timeout. This is the timeout that the socket timeout is set to after
    * the first byte of a message has been received. If such a timeout is thrown, the
@@ -187,8 +398,8 @@ public final class ServerSap {
   }
 
   /**
-   * Sets the ProposedMaxServOutstandingCalling parameter. The given parameter has no affect on the
-   * functionality of this server.
+   * Sets the ProposedMaxServOutstandingCalling parameter. It limits the number of requests that are
+   * processed concurrently per association if the pipelined request processing is enabled.
    *
    * @param maxCalling the ProposedMaxServOutstandingCalling parameter. The default is 5.
    */
@@ -264,13 +475,60 @@ public final class ServerSap {
    * @throws IOException if an error occurs binding to the port.
    */
   public void startListening(ServerEventListener serverEventListener) throws IOException {
-    timer = new Timer();
+    ownTimer = scheduler == null;
+    if (!ownTimer) {
+      timer = scheduler;
+    } else {
+      timer =
+          new TimerWheel(
+              "iec61850bean-server-timer", TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_TICKS);
+    }
+    Executor executor = connectionExecutor;
+    if (executor == null && useVirtualThreads) {
+      virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      executor = virtualThreadExecutor;
+    }
+    if (requestPipelining) {
+      pipelineExecutor = requestExecutor;
+      if (pipelineExecutor == null) {
+        ownRequestExecutor =
+            Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-server-request"));
+        pipelineExecutor = ownRequestExecutor;
+      }
+    } else {
+      pipelineExecutor = null;
+    }
+    if (numIoThreads > 0) {
+      receiveExecutor = executor;
+      if (receiveExecutor == null) {
+        ownReceiveExecutor =
+            Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new NamedThreadFactory("iec61850bean-server-receive"));
+        receiveExecutor = ownReceiveExecutor;
+      }
+    } else {
+      receiveExecutor = null;
+    }
+    if (brcbBufferDirectory != null) {
+      try {
+        openBrcbBuffers();
+      } catch (IOException e) {
+        closeBrcbBuffers();
+        if (ownTimer) {
+          timer.shutdownNow();
+        }
+        throw e;
+      }
+    }
     if (serverSocketFactory == null) {
       serverSocketFactory = ServerSocketFactory.getDefault();
     }
     acseSap =
         new ServerAcseSap(port, backlog, bindAddr, new AcseListener(this), serverSocketFactory);
     acseSap.serverTSap.setMaxConnections(maxAssociations);
+    acseSap.serverTSap.setNumIoThreads(numIoThreads);
+    acseSap.serverTSap.setConnectionExecutor(executor);
     this.serverEventListener = serverEventListener;
     listening = true;
     acseSap.startListening();
@@ -286,8 +544,50 @@ public final class ServerSap {
       }
       associations.clear();
     }
-    timer.cancel();
-    timer.purge();
+    closeBrcbBuffers();
+    if (ownTimer) {
+      timer.shutdownNow();
+    }
+    if (virtualThreadExecutor != null) {
+      virtualThreadExecutor.shutdown();
+      virtualThreadExecutor = null;
+    }
+    if (ownRequestExecutor != null) {
+      ownRequestExecutor.shutdown();
+      ownRequestExecutor = null;
+    }
+    if (ownReceiveExecutor != null) {
+      ownReceiveExecutor.shutdown();
+      ownReceiveExecutor = null;
+    }
+  }
+
+  private void openBrcbBuffers() throws IOException {
+    for (Brcb brcb : serverModel.getBrcbs()) {
+      File directory =
+          new File(brcbBufferDirectory, brcb.getReference().toString().replace('/', '_'));
+      MappedReportBuffer buffer = new MappedReportBuffer(directory, brcbBufferSize);
+      synchronized (brcb) {
+        brcb.setBuffer(buffer);
+        // the last EntryID is 0 if the BRCB has never buffered an entry
+        if (buffer.getLastEntryId() != 0 && brcb.dataSet != null) {
+          brcb.startBuffering(timer);
+        }
+      }
+    }
+  }
+
+  private void closeBrcbBuffers() {
+    modelLock.lockExclusively();
+    try {
+      for (Brcb brcb : serverModel.getBrcbs()) {
+        synchronized (brcb) {
+          brcb.closeBuffer();
+        }
+      }
+    } finally {
+      modelLock.unlockExclusively();
+    }
   }
 
   void connectionIndication(AcseAssociation acseAssociation, ByteBuffer psdu) {
@@ -304,11 +604,18 @@ public final class ServerSap {
     }
 
     try {
-      association.handleNewAssociation(acseAssociation, psdu);
+      if (association.handleNewAssociation(acseAssociation, psdu)) {
+        // the association is served by the receive executor until the connection is closed
+        return;
+      }
     } catch (Exception e) {
       // Association closed because of an unexpected exception.
     }
 
+    associationClosed(association);
+  }
+
+  void associationClosed(ServerAssociation association) {
     association.close();
     synchronized (associations) {
       associations.remove(association);
@@ -321,12 +628,52 @@ public final class ServerSap {
     }
   }
 
+  /**
+   * Returns how often a GetDataDefinition (MMS GetVariableAccessAttributes) request was answered
+   * with a type description from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getTypeDescriptionCacheHits() {
+    return typeDescriptionCache.getHits();
+  }
+
+  /**
+   * Returns how often the type description for a GetDataDefinition (MMS
+   * GetVariableAccessAttributes) request was not cached yet and had to be built from the model.
+   *
+   * @return the number of cache misses
+   */
+  public long getTypeDescriptionCacheMisses() {
+    return typeDescriptionCache.getMisses();
+  }
+
+  /**
+   * Returns the number of pending timers (SBO timeouts, buffer times and integrity periods) of all
+   * associations. Cancelled timers are not counted. The number is only available if the server
+   * uses its default timer and not a scheduler set by {@link #setScheduler}.
+   *
+   * @return the number of pending timers or -1 if it is not available
+   */
+  public int getNumPendingTimers() {
+    ScheduledExecutorService timer = this.timer;
+    if (!(timer instanceof TimerWheel)) {
+      return -1;
+    }
+    return ((TimerWheel) timer).getNumPendingTasks();
+  }
+
   public ServerModel getModelCopy() {
     return serverModel.copy();
   }
 
   public void setValues(List<BasicDataAttribute> bdas) {
-    synchronized (serverModel) {
+    List<BasicDataAttribute> bdaMirrors = new ArrayList<>(bdas.size());
+    for (BasicDataAttribute bda : bdas) {
+      bdaMirrors.add(bda.mirror);
+    }
+    BitSet lockedStripes = modelLock.lockForWriting(bdaMirrors);
+    try {
       for (BasicDataAttribute bda : bdas) {
         // if (bda.getFunctionalConstraint() != FunctionalConstraint.ST) {
         // logger.debug("fc:" + bda.getFunctionalConstraint());
@@ -338,33 +685,41 @@ public final class ServerSap {
 
         if (bdaMirror.dchg && bdaMirror.chgRcbs.size() != 0 && !bda.equals(bdaMirror)) {
           bdaMirror.setValueFrom(bda);
+          // before the changes are reported, a report sent right away must not reuse an encoding
+          // of the previous value
+          bdaMirror.valueVersion++;
           synchronized (bdaMirror.chgRcbs) {
-            for (Urcb urcb : bdaMirror.chgRcbs) {
-              if (bdaMirror.dupd && urcb.getTrgOps().isDataUpdate()) {
-                urcb.report(bdaMirror, true, false, true);
+            for (Rcb rcb : bdaMirror.chgRcbs) {
+              if (bdaMirror.dupd && rcb.getTrgOps().isDataUpdate()) {
+                rcb.report(bdaMirror, true, false, true);
               } else {
-                urcb.report(bdaMirror, true, false, false);
+                rcb.report(bdaMirror, true, false, false);
               }
             }
           }
         } else if (bdaMirror.dupd && bdaMirror.dupdRcbs.size() != 0) {
           bdaMirror.setValueFrom(bda);
+          bdaMirror.valueVersion++;
           synchronized (bdaMirror.dupdRcbs) {
-            for (Urcb urcb : bdaMirror.dupdRcbs) {
-              urcb.report(bdaMirror, false, false, true);
+            for (Rcb rcb : bdaMirror.dupdRcbs) {
+              rcb.report(bdaMirror, false, false, true);
             }
           }
         } else if (bdaMirror.qchg && bdaMirror.chgRcbs.size() != 0 && !bda.equals(bdaMirror)) {
           bdaMirror.setValueFrom(bda);
+          bdaMirror.valueVersion++;
           synchronized (bdaMirror.chgRcbs) {
-            for (Urcb urcb : bdaMirror.chgRcbs) {
-              urcb.report(bdaMirror, false, true, false);
+            for (Rcb rcb : bdaMirror.chgRcbs) {
+              rcb.report(bdaMirror, false, true, false);
             }
           }
         } else {
           bdaMirror.setValueFrom(bda);
+          bdaMirror.valueVersion++;
         }
       }
+    } finally {
+      modelLock.unlockForWriting(lockedStripes);
     }
   }
 }
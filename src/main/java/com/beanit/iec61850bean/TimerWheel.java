@@ -0,0 +1,390 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import com.beanit.iec61850bean.internal.NamedThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduled executor based on a hashed timing wheel. It is the default timer of the server that
+ * is shared by all associations for SBO timeouts, buffer times and integrity periods.
+ *
+ * <p>The wheel consists of a power of two number of buckets. Every tick the timer thread advances
+ * to the next bucket and hands the expired tasks of that bucket to a pool of worker threads, which
+ * also runs tasks submitted by {@link #execute(Runnable)}. Scheduling and cancelling a task are
+ * constant time operations. A cancelled task is removed from its bucket immediately, so tasks that
+ * are scheduled and cancelled over and over again (e.g. SBO timeouts) do not accumulate. Tasks are
+ * executed up to one tick after their delay has elapsed. While no task is pending the timer thread
+ * waits without ticking.
+ *
+ * <p>Unlike ScheduledThreadPoolExecutor, shutdown() discards all tasks that have not expired yet.
+ */
+final class TimerWheel extends AbstractExecutorService implements ScheduledExecutorService {
+
+  private final long tickNanos;
+  private final Bucket[] buckets;
+  private final int mask;
+  private final ExecutorService workers;
+  private final Thread timerThread;
+  private final long startTime = System.nanoTime();
+
+  // the fields below and the buckets are guarded by the wheel
+  private long tick = 0;
+  private int numPendingTasks = 0;
+  private boolean shutdown = false;
+
+  /**
+   * Creates and starts a timer.
+   *
+   * @param name the name prefix of the timer thread and the worker threads
+   * @param tickDuration the duration of a tick, which is the resolution of the timer
+   * @param unit the unit of the tick duration
+   * @param ticksPerWheel the number of buckets, rounded up to a power of two
+   */
+  TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    tickNanos = unit.toNanos(tickDuration);
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("tick duration must be positive");
+    }
+    int numBuckets = 1;
+    while (numBuckets < ticksPerWheel) {
+      numBuckets <<= 1;
+    }
+    buckets = new Bucket[numBuckets];
+    for (int i = 0; i < numBuckets; i++) {
+      buckets[i] = new Bucket();
+    }
+    mask = numBuckets - 1;
+    workers = Executors.newCachedThreadPool(new NamedThreadFactory(name + "-task"));
+    timerThread =
+        new NamedThreadFactory(name)
+            .newThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    runTimer();
+                  }
+                });
+    timerThread.start();
+  }
+
+  /**
+   * Returns the number of scheduled tasks that have neither expired nor been cancelled. Periodic
+   * tasks count as pending between their executions.
+   *
+   * @return the number of pending tasks
+   */
+  synchronized int getNumPendingTasks() {
+    return numPendingTasks;
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return schedule(new WheelTask<Void>(command, null, deadline(delay, unit), 0));
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return schedule(new WheelTask<>(callable, deadline(delay, unit)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(
+      Runnable command, long initialDelay, long period, TimeUnit unit) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be positive");
+    }
+    return schedule(
+        new WheelTask<Void>(command, null, deadline(initialDelay, unit), unit.toNanos(period)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    if (delay <= 0) {
+      throw new IllegalArgumentException("delay must be positive");
+    }
+    // a negative period denotes a fixed delay like in ScheduledThreadPoolExecutor
+    return schedule(
+        new WheelTask<Void>(command, null, deadline(initialDelay, unit), -unit.toNanos(delay)));
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("timer has been shut down");
+      }
+    }
+    workers.execute(command);
+  }
+
+  @Override
+  public void shutdown() {
+    for (WheelTask<?> task : stop()) {
+      task.cancel(false);
+    }
+    workers.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> tasks = new ArrayList<Runnable>(stop());
+    tasks.addAll(workers.shutdownNow());
+    return tasks;
+  }
+
+  @Override
+  public synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return isShutdown() && !timerThread.isAlive() && workers.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    TimeUnit.NANOSECONDS.timedJoin(timerThread, Math.max(deadline - System.nanoTime(), 1));
+    return !timerThread.isAlive()
+        && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  private static long deadline(long delay, TimeUnit unit) {
+    return System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+  }
+
+  private <V> WheelTask<V> schedule(WheelTask<V> task) {
+    if (task.deadline - System.nanoTime() <= 0) {
+      // there is no reason to wait for the next tick
+      execute(task);
+      return task;
+    }
+    synchronized (this) {
+      if (shutdown) {
+        throw new RejectedExecutionException("timer has been shut down");
+      }
+      add(task);
+    }
+    return task;
+  }
+
+  /** Schedules the next execution of a periodic task. */
+  private void reschedule(WheelTask<?> task) {
+    synchronized (this) {
+      // a task that is cancelled while it runs must not be added again
+      if (task.isCancelled()) {
+        return;
+      }
+      if (!shutdown) {
+        add(task);
+        return;
+      }
+    }
+    task.cancel(false);
+  }
+
+  private void add(WheelTask<?> task) {
+    if (numPendingTasks == 0) {
+      // the timer thread stopped ticking, so the current tick has to be brought up to date
+      tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+      notifyAll();
+    }
+    long elapsed = task.deadline - startTime;
+    long target = elapsed / tickNanos + (elapsed % tickNanos == 0 ? 0 : 1);
+    if (target <= tick) {
+      target = tick + 1;
+    }
+    task.remainingRounds = (target - tick - 1) / buckets.length;
+    buckets[(int) (target & mask)].add(task);
+    numPendingTasks++;
+  }
+
+  private synchronized void remove(WheelTask<?> task) {
+    if (task.bucket != null) {
+      task.bucket.remove(task);
+      numPendingTasks--;
+    }
+  }
+
+  private synchronized List<WheelTask<?>> stop() {
+    List<WheelTask<?>> tasks = new ArrayList<>(numPendingTasks);
+    shutdown = true;
+    for (Bucket bucket : buckets) {
+      while (bucket.head != null) {
+        tasks.add(bucket.head);
+        bucket.remove(bucket.head);
+      }
+    }
+    numPendingTasks = 0;
+    notifyAll();
+    return tasks;
+  }
+
+  private void runTimer() {
+    List<WheelTask<?>> expiredTasks = new ArrayList<>();
+    while (true) {
+      synchronized (this) {
+        while (!shutdown) {
+          if (numPendingTasks == 0) {
+            waitUninterruptibly(0);
+            continue;
+          }
+          long waitTime = startTime + (tick + 1) * tickNanos - System.nanoTime();
+          if (waitTime <= 0) {
+            break;
+          }
+          // round up so that the thread does not wake up shortly before the tick
+          waitUninterruptibly((waitTime + 999_999) / 1_000_000);
+        }
+        if (shutdown) {
+          return;
+        }
+        tick++;
+        Bucket bucket = buckets[(int) (tick & mask)];
+        WheelTask<?> task = bucket.head;
+        while (task != null) {
+          WheelTask<?> next = task.next;
+          if (task.remainingRounds == 0) {
+            bucket.remove(task);
+            numPendingTasks--;
+            expiredTasks.add(task);
+          } else {
+            task.remainingRounds--;
+          }
+          task = next;
+        }
+      }
+      for (WheelTask<?> expiredTask : expiredTasks) {
+        try {
+          workers.execute(expiredTask);
+        } catch (RejectedExecutionException e) {
+          expiredTask.cancel(false);
+        }
+      }
+      expiredTasks.clear();
+    }
+  }
+
+  private void waitUninterruptibly(long millis) {
+    try {
+      wait(millis);
+    } catch (InterruptedException e) {
+      // the timer thread is only stopped by shutdown
+    }
+  }
+
+  /** A doubly linked list of the tasks that expire in the same slot of the wheel. */
+  private static final class Bucket {
+
+    private WheelTask<?> head = null;
+
+    void add(WheelTask<?> task) {
+      task.bucket = this;
+      task.prev = null;
+      task.next = head;
+      if (head != null) {
+        head.prev = task;
+      }
+      head = task;
+    }
+
+    void remove(WheelTask<?> task) {
+      if (task.prev == null) {
+        head = task.next;
+      } else {
+        task.prev.next = task.next;
+      }
+      if (task.next != null) {
+        task.next.prev = task.prev;
+      }
+      task.bucket = null;
+      task.prev = null;
+      task.next = null;
+    }
+  }
+
+  private final class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+    // positive for a fixed rate, negative for a fixed delay and zero for a one-shot task
+    private final long period;
+    private volatile long deadline;
+
+    // the fields below are guarded by the wheel
+    private long remainingRounds;
+    private Bucket bucket = null;
+    private WheelTask<?> prev = null;
+    private WheelTask<?> next = null;
+
+    WheelTask(Runnable runnable, V result, long deadline, long period) {
+      super(runnable, result);
+      this.deadline = deadline;
+      this.period = period;
+    }
+
+    WheelTask(Callable<V> callable, long deadline) {
+      super(callable);
+      this.deadline = deadline;
+      this.period = 0;
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return period != 0;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        remove(this);
+      }
+      return cancelled;
+    }
+
+    @Override
+    public void run() {
+      if (!isPeriodic()) {
+        super.run();
+      } else if (runAndReset()) {
+        deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+        reschedule(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the BER encoded type descriptions returned by GetVariableAccessAttributes
+ * (GetDataDefinition) responses. The structure of the server model never changes once the server
+ * has started, so the type description of a logical node, of all data objects of a logical node
+ * with a given functional constraint or of any sub node only has to be built and encoded once. The
+ * entries are keyed by the requested domain and item ID and are created lazily. Only names that
+ * were resolved successfully are cached, so the size of the cache is bounded by the model.
+ */
+final class TypeDescriptionCache {
+
+  private final ConcurrentHashMap<String, byte[]> encodedTypeDescriptions =
+      new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private static String key(String domainId, String itemId) {
+    // MMS identifiers cannot contain a slash
+    return domainId + '/' + itemId;
+  }
+
+  /**
+   * Returns the cached type description for the given name.
+   *
+   * @param domainId the domain ID of the request
+   * @param itemId the item ID of the request
+   * @return a type description that encodes to the cached bytes or null if none is cached
+   */
+  TypeDescription get(String domainId, String itemId) {
+    byte[] code = encodedTypeDescriptions.get(key(domainId, itemId));
+    if (code == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return new TypeDescription(code);
+  }
+
+  /**
+   * Encodes the given type description and stores it in the cache.
+   *
+   * @param domainId the domain ID of the request
+   * @param itemId the item ID of the request
+   * @param typeDescription the type description that was built for the request
+   */
+  void put(String domainId, String itemId, TypeDescription typeDescription) {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(256, true);
+    try {
+      typeDescription.encode(reverseOS);
+    } catch (IOException e) {
+      // the type description is simply not cached
+      return;
+    }
+    encodedTypeDescriptions.putIfAbsent(key(domainId, itemId), reverseOS.getArray());
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+}
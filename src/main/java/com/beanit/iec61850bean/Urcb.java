@@ -13,35 +13,16 @@
  */
 package com.beanit.iec61850bean;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import com.beanit.asn1bean.ber.types.BerBitString;
 import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
-import com.beanit.iec61850bean.internal.mms.asn1.Data;
-import com.beanit.iec61850bean.internal.mms.asn1.Identifier;
-import com.beanit.iec61850bean.internal.mms.asn1.InformationReport;
 import com.beanit.iec61850bean.internal.mms.asn1.MMSpdu;
-import com.beanit.iec61850bean.internal.mms.asn1.ObjectName;
-import com.beanit.iec61850bean.internal.mms.asn1.UnconfirmedPDU;
-import com.beanit.iec61850bean.internal.mms.asn1.UnconfirmedService;
-import com.beanit.iec61850bean.internal.mms.asn1.VariableAccessSpecification;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 public class Urcb extends Rcb {
 
-  final HashMap<FcModelNode, BdaReasonForInclusion> membersToBeReported = new LinkedHashMap<>();
   ServerAssociation reserved = null;
   boolean enabled = false;
-  private Timer integrityTimer;
-  // private ScheduledFuture<?> integrityFuture = null;
-  private ScheduledFuture<?> bufTmFuture = null;
 
   public Urcb(ObjectReference objectReference, List<FcModelNode> children) {
     super(objectReference, Fc.RP, children);
@@ -59,114 +40,59 @@ public class Urcb extends Rcb {
   }
 
   void enable() {
-
-    for (FcModelNode dataSetMember : dataSet) {
-      for (BasicDataAttribute bda : dataSetMember.getBasicDataAttributes()) {
-        if (bda.dchg) {
-          if (getTrgOps().isDataChange()) {
-            synchronized (bda.chgRcbs) {
-              bda.chgRcbs.add(this);
-            }
-          }
-        } else if (bda.qchg) {
-          if (getTrgOps().isQualityChange()) {
-            synchronized (bda.chgRcbs) {
-              bda.chgRcbs.add(this);
-            }
-          }
-        }
-        if (bda.dupd) {
-          if (getTrgOps().isDataUpdate()) {
-            synchronized (bda.dupdRcbs) {
-              bda.dupdRcbs.add(this);
-            }
-          }
-        }
-      }
-    }
-
-    if (getTrgOps().isIntegrity() && !(getIntgPd().getValue() < 10l)) {
-      integrityTimer = new Timer();
-
-      integrityTimer.schedule(
-          new TimerTask() {
-            // integrityFuture = reserved.executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-              synchronized (Urcb.this) {
-                if (!enabled) {
-                  return;
-                }
-                reserved.sendAnMmsPdu(getMmsReport(true, false));
-              }
-            }
-            // }, getIntgPd().getValue(), getIntgPd().getValue(), TimeUnit.MILLISECONDS);
-          },
-          getIntgPd().getValue(),
-          getIntgPd().getValue());
-    }
-
+    startMonitoring(reserved.executor);
     enabled = true;
   }
 
   void disable() {
+    stopMonitoring();
+    enabled = false;
+  }
 
-    for (FcModelNode dataSetMember : dataSet) {
-      for (BasicDataAttribute bda : dataSetMember.getBasicDataAttributes()) {
-        if (bda.dchg) {
-          if (getTrgOps().isDataChange()) {
-            synchronized (bda.chgRcbs) {
-              bda.chgRcbs.remove(this);
-            }
-          }
-        } else if (bda.qchg) {
-          if (getTrgOps().isQualityChange()) {
-            synchronized (bda.chgRcbs) {
-              bda.chgRcbs.remove(this);
-            }
-          }
-        }
-        if (bda.dupd) {
-          if (getTrgOps().isDataUpdate()) {
-            synchronized (bda.dupdRcbs) {
-              bda.dupdRcbs.remove(this);
-            }
-          }
-        }
-      }
+  @Override
+  void triggerReport(boolean integrity, boolean gi) {
+    boolean withReasons = getOptFlds().isReasonForInclusion();
+    boolean segmented =
+        getMaxReportLength(getMaxContentsLength(integrity || gi, withReasons))
+            > reserved.negotiatedMaxPduSize;
+
+    List<AccessResult> accessResults = getReportHeader();
+    List<AccessResult> contents = new ArrayList<>();
+    List<AccessResult> reasons = null;
+    if (withReasons) {
+      reasons = new ArrayList<>();
     }
-
-    // if (integrityFuture != null) {
-    // integrityFuture.cancel(false);
-    // }
-    if (integrityTimer != null) {
-      integrityTimer.cancel();
+    addReportContents(integrity, gi, contents, reasons);
+    if (reasons != null) {
+      contents.addAll(reasons);
     }
 
-    enabled = false;
-  }
+    if (!segmented) {
+      accessResults.addAll(contents);
+      reserved.sendAnMmsPdu(createReportPdu(accessResults));
+      return;
+    }
 
-  void generalInterrogation() {
-    reserved.executor.execute(
-        new Runnable() {
-          @Override
-          public void run() {
-            synchronized (Urcb.this) {
-              if (!enabled) {
-                return;
-              }
-              reserved.sendAnMmsPdu(getMmsReport(false, true));
-            }
-          }
-        });
+    List<MMSpdu> segments;
+    try {
+      segments =
+          getReportSegments(
+              accessResults, encodeEach(contents), withReasons, reserved.negotiatedMaxPduSize);
+    } catch (IOException e) {
+      // only happens if a data set member has no value
+      return;
+    }
+    for (MMSpdu segment : segments) {
+      if (!reserved.sendAnMmsPdu(segment)) {
+        return;
+      }
+    }
   }
 
-  private MMSpdu getMmsReport(boolean integrity, boolean gi) {
-
-    InformationReport.ListOfAccessResult listOfAccessResult =
-        new InformationReport.ListOfAccessResult();
+  /** Returns the access results of the next report from RptID to ConfRev. */
+  private List<AccessResult> getReportHeader() {
 
-    List<AccessResult> accessResults = listOfAccessResult.getAccessResult();
+    List<AccessResult> accessResults = new ArrayList<>();
 
     AccessResult accessResult = new AccessResult();
     accessResult.setSuccess(getRptId().getMmsDataObj());
@@ -204,113 +130,7 @@ public class Urcb extends Rcb {
       accessResults.add(accessResult);
     }
 
-    // segmentation not supported
-
-    List<FcModelNode> dataSetMembers = dataSet.getMembers();
-    int dataSetSize = dataSetMembers.size();
-
-    // inclusion bitstring
-    byte[] inclusionStringArray = new byte[(dataSetSize - 1) / 8 + 1];
-
-    if (integrity || gi) {
-
-      for (int i = 0; i < dataSetSize; i++) {
-        inclusionStringArray[i / 8] = (byte) (inclusionStringArray[i / 8] | 1 << (7 - i % 8));
-      }
-      BerBitString inclusionString = new BerBitString(inclusionStringArray, dataSetSize);
-
-      Data data = new Data();
-      data.setBitString(inclusionString);
-      accessResult = new AccessResult();
-      accessResult.setSuccess(data);
-      accessResults.add(accessResult);
-
-      // data reference sending not supported for now
-
-      for (FcModelNode dataSetMember : dataSetMembers) {
-        accessResult = new AccessResult();
-        accessResult.setSuccess(dataSetMember.getMmsDataObj());
-        accessResults.add(accessResult);
-      }
-
-      BdaReasonForInclusion reasonForInclusion = new BdaReasonForInclusion(null);
-      if (integrity) {
-        reasonForInclusion.setIntegrity(true);
-      } else {
-        reasonForInclusion.setGeneralInterrogation(true);
-      }
-
-      if (getOptFlds().isReasonForInclusion()) {
-        for (int i = 0; i < dataSetMembers.size(); i++) {
-          accessResult = new AccessResult();
-          accessResult.setSuccess(reasonForInclusion.getMmsDataObj());
-          accessResults.add(accessResult);
-        }
-      }
-
-    } else {
-
-      int index = 0;
-      for (FcModelNode dataSetMember : dataSet) {
-        if (membersToBeReported.get(dataSetMember) != null) {
-          inclusionStringArray[index / 8] =
-              (byte) (inclusionStringArray[index / 8] | 1 << (7 - index % 8));
-        }
-        index++;
-      }
-      BerBitString inclusionString = new BerBitString(inclusionStringArray, dataSetSize);
-
-      Data data = new Data();
-      data.setBitString(inclusionString);
-      accessResult = new AccessResult();
-      accessResult.setSuccess(data);
-      accessResults.add(accessResult);
-
-      // data reference sending not supported for now
-
-      for (FcModelNode dataSetMember : dataSetMembers) {
-        if (membersToBeReported.get(dataSetMember) != null) {
-          accessResult = new AccessResult();
-          accessResult.setSuccess(dataSetMember.getMmsDataObj());
-          accessResults.add(accessResult);
-        }
-      }
-
-      if (getOptFlds().isReasonForInclusion()) {
-        for (FcModelNode dataSetMember : dataSetMembers) {
-          BdaReasonForInclusion reasonForInclusion = membersToBeReported.get(dataSetMember);
-          if (reasonForInclusion != null) {
-            accessResult = new AccessResult();
-            accessResult.setSuccess(reasonForInclusion.getMmsDataObj());
-            accessResults.add(accessResult);
-          }
-        }
-      }
-
-      membersToBeReported.clear();
-      bufTmFuture = null;
-    }
-
-    ObjectName objectName = new ObjectName();
-    objectName.setVmdSpecific(new Identifier("RPT".getBytes(UTF_8)));
-
-    VariableAccessSpecification varAccSpec = new VariableAccessSpecification();
-    varAccSpec.setVariableListName(objectName);
-
-    InformationReport infoReport = new InformationReport();
-    infoReport.setVariableAccessSpecification(varAccSpec);
-    infoReport.setListOfAccessResult(listOfAccessResult);
-
-    UnconfirmedService unconfirmedService = new UnconfirmedService();
-    unconfirmedService.setInformationReport(infoReport);
-
-    UnconfirmedPDU unconfirmedPDU = new UnconfirmedPDU();
-    unconfirmedPDU.setService(unconfirmedService);
-
-    MMSpdu mmsPdu = new MMSpdu();
-    mmsPdu.setUnconfirmedPDU(unconfirmedPDU);
-
-    return mmsPdu;
+    return accessResults;
   }
 
   @Override
@@ -323,66 +143,4 @@ public class Urcb extends Rcb {
     urcb.dataSet = dataSet;
     return urcb;
   }
-
-  void report(BasicDataAttribute bda, boolean dchg, boolean qchg, boolean dupd) {
-
-    synchronized (this) {
-      if (!enabled) {
-        return;
-      }
-
-      FcModelNode memberFound = null;
-      FcModelNode fcModelNode = bda;
-      while (memberFound == null) {
-        for (FcModelNode member : dataSet) {
-          if (member == fcModelNode) {
-            memberFound = fcModelNode;
-            break;
-          }
-        }
-        if (memberFound != null) {
-          break;
-        }
-        if (!(fcModelNode.parent instanceof FcModelNode)) {
-          // Unable to report Basic Data Attribute because it is not part of the referenced data set
-          return;
-        }
-        fcModelNode = (FcModelNode) fcModelNode.parent;
-      }
-
-      BdaReasonForInclusion reasonForInclusion = membersToBeReported.get(fcModelNode);
-      if (reasonForInclusion == null) {
-        reasonForInclusion = new BdaReasonForInclusion(null);
-        membersToBeReported.put(fcModelNode, reasonForInclusion);
-      }
-
-      if (dchg) {
-        reasonForInclusion.setDataChange(true);
-      }
-      if (dupd) {
-        reasonForInclusion.setDataUpdate(true);
-      } else if (qchg) {
-        reasonForInclusion.setQualityChange(true);
-      }
-
-      // if bufTmFuture is not null then it is already scheduled and will send the combined report
-      if (bufTmFuture == null) {
-        bufTmFuture =
-            reserved.executor.schedule(
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    synchronized (Urcb.this) {
-                      if (!enabled) {
-                        return;
-                      }
-                      reserved.sendAnMmsPdu(getMmsReport(false, false));
-                    }
-                  }
-                },
-                getBufTm().getValue(),
-                TimeUnit.MILLISECONDS);
-      }
-    }
-  }
 }
@@ -20,6 +20,7 @@ public class NamedThreadFactory implements ThreadFactory {
 
   private final AtomicInteger threadCounter = new AtomicInteger(1);
   private final String namePrefix;
+  private final boolean daemon;
 
   /**
    * Creates a thread factory with the given pool name as a name prefix. Threads created will have
@@ -29,13 +30,26 @@ public class NamedThreadFactory implements ThreadFactory {
    * @param poolName the thread pool name
    */
   public NamedThreadFactory(String poolName) {
+    this(poolName, false);
+  }
+
+  /**
+   * Creates a thread factory with the given pool name as a name prefix that creates daemon threads
+   * if <code>daemon</code> is true.
+   *
+   * @param poolName the thread pool name
+   * @param daemon whether the threads created are daemon threads
+   */
+  public NamedThreadFactory(String poolName, boolean daemon) {
     this.namePrefix = poolName + "-thread-";
+    this.daemon = daemon;
   }
 
   @Override
   public Thread newThread(Runnable r) {
     Thread thread = new Thread(r);
     thread.setName(namePrefix + threadCounter.getAndIncrement());
+    thread.setDaemon(daemon);
     return thread;
   }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gives access to virtual threads (Java 21 and later) while the library itself is compiled for Java
+ * 8. The factory method is looked up reflectively once.
+ */
+public final class VirtualThreads {
+
+  private static final Method newVirtualThreadPerTaskExecutor = lookupFactoryMethod();
+
+  private VirtualThreads() {}
+
+  /**
+   * Returns whether the running JVM supports virtual threads.
+   *
+   * @return true if virtual threads are supported
+   */
+  public static boolean isSupported() {
+    return newVirtualThreadPerTaskExecutor != null;
+  }
+
+  /**
+   * Creates an executor that starts a new virtual thread for every task.
+   *
+   * @return the executor or null if the running JVM does not support virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (newVirtualThreadPerTaskExecutor == null) {
+      return null;
+    }
+    try {
+      return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static Method lookupFactoryMethod() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -15,6 +15,7 @@ package com.beanit.josistack;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beanit.asn1bean.ber.BerLength;
 import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
 import com.beanit.asn1bean.ber.types.BerAny;
 import com.beanit.asn1bean.ber.types.BerInteger;
@@ -46,6 +47,7 @@ import com.beanit.josistack.internal.presentation.asn1.PresentationContextDefini
 import com.beanit.josistack.internal.presentation.asn1.PresentationContextIdentifier;
 import com.beanit.josistack.internal.presentation.asn1.RespondingPresentationSelector;
 import com.beanit.josistack.internal.presentation.asn1.UserData;
+import com.beanit.jositransport.ByteBufferPool;
 import com.beanit.jositransport.ClientTSap;
 import com.beanit.jositransport.TConnection;
 import java.io.ByteArrayInputStream;
@@ -145,6 +147,11 @@ public final class AcseAssociation {
       new BerObjectIdentifier(new byte[] {(byte) 0x02, (byte) 0x51, (byte) 0x01});
   private static final BerInteger indirectReference =
       new BerInteger(new byte[] {(byte) 0x01, (byte) 0x03});
+  // presentation context identifier 3 encoded as BER INTEGER
+  private static final byte[] PRESENTATION_CONTEXT_ID_TLV = {0x02, 0x01, 0x03};
+  // give tokens SPDU (length 0) followed by the header of the data transfer SPDU (length 0)
+  private static final byte[] SESSION_DATA_TRANSFER_HEADER = {0x01, 0x00, 0x01, 0x00};
+
   private static final MechanismName default_mechanism_name =
       new MechanismName(new byte[] {0x03, 0x52, 0x03, 0x01});
 
@@ -156,6 +163,8 @@ public final class AcseAssociation {
   private boolean connected = false;
   private TConnection tConnection;
   private ByteBuffer associateResponseAPDU = null;
+  private ByteBufferPool receiveBufferPool = null;
+  private ByteBuffer receiveBuffer = null;
 
   AcseAssociation(TConnection tConnection, byte[] pSelLocal) {
     this.tConnection = tConnection;
@@ -457,7 +466,9 @@ public final class AcseAssociation {
     encoding.setSingleASN1Type(
         new BerAny(
             Arrays.copyOfRange(
-                payload.array(), payload.arrayOffset() + payload.position(), payload.limit())));
+                payload.array(),
+                payload.arrayOffset() + payload.position(),
+                payload.arrayOffset() + payload.limit())));
 
     Myexternal myExternal = new Myexternal();
     myExternal.setDirectReference(directReference);
@@ -756,24 +767,42 @@ public final class AcseAssociation {
   }
 
   public void send(ByteBuffer payload) throws IOException {
+    tConnection.send(new ByteBuffer[] {encodeSessionLayer(), encodePresentationLayer(payload)});
+  }
 
-    List<byte[]> ssduList = new ArrayList<>();
-    List<Integer> ssduOffsets = new ArrayList<>();
-    List<Integer> ssduLengths = new ArrayList<>();
-
-    encodePresentationLayer(payload, ssduList, ssduOffsets, ssduLengths);
-
-    encodeSessionLayer(ssduList, ssduOffsets, ssduLengths);
-
-    tConnection.send(ssduList, ssduOffsets, ssduLengths);
+  /**
+   * Sends the PDU that has been encoded into the given stream. Instead of copying the PDU the
+   * presentation and session headers are written in front of it into the same buffer. Because the
+   * presentation context identifier is always 3, the headers only differ in the length fields. The
+   * stream should have been created with automatic resizing enabled or contain enough free space
+   * for the headers (up to 22 bytes).
+   *
+   * @param pduStream the stream containing the encoded PDU and nothing else
+   * @throws IOException if an error occurs sending the PDU
+   */
+  public void send(ReverseByteArrayOutputStream pduStream) throws IOException {
+    int pduLength = pduStream.buffer.length - (pduStream.index + 1);
+
+    // presentation-data-values: single-ASN1-type [0]
+    int length = pduLength + BerLength.encodeLength(pduStream, pduLength);
+    pduStream.write(0xa0);
+    // presentation-context-identifier INTEGER
+    pduStream.write(PRESENTATION_CONTEXT_ID_TLV);
+    length += 1 + PRESENTATION_CONTEXT_ID_TLV.length;
+    // PDV-list SEQUENCE
+    length += BerLength.encodeLength(pduStream, length);
+    pduStream.write(0x30);
+    length++;
+    // fully-encoded-data [APPLICATION 1]
+    BerLength.encodeLength(pduStream, length);
+    pduStream.write(0x61);
+
+    pduStream.write(SESSION_DATA_TRANSFER_HEADER);
+
+    tConnection.send(new ByteBuffer[] {pduStream.getByteBuffer()});
   }
 
-  private void encodePresentationLayer(
-      ByteBuffer payload,
-      List<byte[]> ssduList,
-      List<Integer> ssduOffsets,
-      List<Integer> ssduLengths)
-      throws IOException {
+  private ByteBuffer encodePresentationLayer(ByteBuffer payload) throws IOException {
     PDVList pdv_list = new PDVList();
     pdv_list.setPresentationContextIdentifier(new PresentationContextIdentifier(3L));
 
@@ -781,7 +810,9 @@ public final class AcseAssociation {
     presentationDataValues.setSingleASN1Type(
         new BerAny(
             Arrays.copyOfRange(
-                payload.array(), payload.arrayOffset() + payload.position(), payload.limit())));
+                payload.array(),
+                payload.arrayOffset() + payload.position(),
+                payload.arrayOffset() + payload.limit())));
     pdv_list.setPresentationDataValues(presentationDataValues);
 
     FullyEncodedData fully_encoded_data = new FullyEncodedData();
@@ -794,13 +825,13 @@ public final class AcseAssociation {
     ReverseByteArrayOutputStream reverseOStream = new ReverseByteArrayOutputStream(200, true);
     user_data.encode(reverseOStream);
 
-    ssduList.add(reverseOStream.buffer);
-    ssduOffsets.add(reverseOStream.index + 1);
-    ssduLengths.add(reverseOStream.buffer.length - (reverseOStream.index + 1));
+    return ByteBuffer.wrap(
+        reverseOStream.buffer,
+        reverseOStream.index + 1,
+        reverseOStream.buffer.length - (reverseOStream.index + 1));
   }
 
-  private void encodeSessionLayer(
-      List<byte[]> ssduList, List<Integer> ssduOffsets, List<Integer> ssduLengths) {
+  private ByteBuffer encodeSessionLayer() {
 
     byte[] spduHeader = new byte[4];
     // --write iso 8327-1 Header--
@@ -813,9 +844,7 @@ public final class AcseAssociation {
     // length 0
     spduHeader[3] = 0;
 
-    ssduList.add(0, spduHeader);
-    ssduOffsets.add(0, 0);
-    ssduLengths.add(0, spduHeader.length);
+    return ByteBuffer.wrap(spduHeader);
   }
 
   /**
@@ -842,6 +871,142 @@ public final class AcseAssociation {
     return decodePresentationLayer(pduBuffer);
   }
 
+  /**
+   * Listens for a new PDU and decodes all ACSE and lower layer headers. The PDU is received into a
+   * buffer that is leased from the given pool only once the PDU starts to arrive. The buffer is
+   * released before this function returns.
+   *
+   * @param bufferPool the pool to lease the receive buffer from
+   * @param bufferSize the size of the receive buffer, i.e. the maximum size of the PDU including
+   *     all lower layer headers
+   * @return the received PDU
+   * @throws DecodingException if a decoding error occurs
+   * @throws IOException if a non recoverable error occurs. Afterwards the association should be
+   *     closed by the user
+   * @throws TimeoutException if a timeout occurs
+   */
+  public byte[] receive(ByteBufferPool bufferPool, int bufferSize)
+      throws DecodingException, IOException, TimeoutException {
+    if (!connected) {
+      throw new IllegalStateException("ACSE Association not connected");
+    }
+    ByteBuffer pduBuffer = tConnection.receive(bufferPool, bufferSize);
+    try {
+      decodeSessionLayer(pduBuffer);
+
+      return decodePresentationLayer(pduBuffer);
+    } finally {
+      bufferPool.release(pduBuffer);
+    }
+  }
+
+  /**
+   * Listens for a new PDU and returns a read-only view of the ACSE SDU. Unlike {@link
+   * #receive(ByteBufferPool, int)} the SDU is not copied out of the buffer it was received into.
+   * The fixed session header and the presentation user data header are checked by hand without
+   * creating ASN.1 objects. Presentation headers of an unusual form (e.g. containing a transfer
+   * syntax name) are decoded by the generic decoder instead.
+   *
+   * <p>The receive buffer is leased from the given pool and stays leased until {@link
+   * #releaseReceiveBuffer()} is called or the next PDU is received. The returned view must not be
+   * used afterwards.
+   *
+   * @param bufferPool the pool to lease the receive buffer from
+   * @param bufferSize the size of the receive buffer, i.e. the maximum size of the PDU including
+   *     all lower layer headers
+   * @return a read-only view of the received PDU
+   * @throws DecodingException if a decoding error occurs
+   * @throws IOException if a non recoverable error occurs. Afterwards the association should be
+   *     closed by the user
+   * @throws TimeoutException if a timeout occurs
+   */
+  public ByteBuffer receiveView(ByteBufferPool bufferPool, int bufferSize)
+      throws DecodingException, IOException, TimeoutException {
+    if (!connected) {
+      throw new IllegalStateException("ACSE Association not connected");
+    }
+    releaseReceiveBuffer();
+    ByteBuffer pduBuffer = tConnection.receive(bufferPool, bufferSize);
+    boolean leased = false;
+    try {
+      decodeSessionLayer(pduBuffer);
+
+      ByteBuffer sdu = sliceSingleAsn1Type(pduBuffer);
+      if (sdu == null) {
+        return ByteBuffer.wrap(decodePresentationLayer(pduBuffer)).asReadOnlyBuffer();
+      }
+      receiveBufferPool = bufferPool;
+      receiveBuffer = pduBuffer;
+      leased = true;
+      return sdu;
+    } finally {
+      if (!leased) {
+        bufferPool.release(pduBuffer);
+      }
+    }
+  }
+
+  /**
+   * Releases the buffer of the PDU that was last received using {@link
+   * #receiveView(ByteBufferPool, int)}. Does nothing if no buffer is leased.
+   */
+  public void releaseReceiveBuffer() {
+    if (receiveBuffer != null) {
+      receiveBufferPool.release(receiveBuffer);
+      receiveBuffer = null;
+      receiveBufferPool = null;
+    }
+  }
+
+  /**
+   * Returns a view of the single ASN.1 type of the presentation user data or null if the header
+   * does not have the expected form: fully-encoded-data [APPLICATION 1] containing one PDV-list
+   * SEQUENCE that consists of the presentation-context-identifier INTEGER and the single-ASN1-type
+   * [0] using definite lengths. The position of the given buffer is not changed.
+   */
+  private static ByteBuffer sliceSingleAsn1Type(ByteBuffer pduBuffer) {
+    ByteBuffer buffer = pduBuffer.duplicate();
+    if (readTagAndLength(buffer, 0x61) == -1 || readTagAndLength(buffer, 0x30) == -1) {
+      return null;
+    }
+    int length = readTagAndLength(buffer, 0x02);
+    if (length == -1) {
+      return null;
+    }
+    buffer.position(buffer.position() + length);
+    length = readTagAndLength(buffer, 0xa0);
+    if (length == -1) {
+      return null;
+    }
+    buffer.limit(buffer.position() + length);
+    return buffer.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads the given single byte tag and the following definite length. Returns -1 if the tag does
+   * not match, the length is not definite or larger than the remaining bytes.
+   */
+  private static int readTagAndLength(ByteBuffer buffer, int tag) {
+    if (buffer.remaining() < 2 || (buffer.get() & 0xff) != tag) {
+      return -1;
+    }
+    int length = buffer.get() & 0xff;
+    if (length > 0x7f) {
+      int numLengthBytes = length & 0x7f;
+      if (numLengthBytes == 0 || numLengthBytes > 3 || numLengthBytes > buffer.remaining()) {
+        return -1;
+      }
+      length = 0;
+      for (int i = 0; i < numLengthBytes; i++) {
+        length = (length << 8) | (buffer.get() & 0xff);
+      }
+    }
+    if (length > buffer.remaining()) {
+      return -1;
+    }
+    return length;
+  }
+
   private byte[] decodePresentationLayer(ByteBuffer pduBuffer) throws DecodingException {
     // decode PPDU header
     UserData user_data = new UserData();
@@ -1060,6 +1225,37 @@ public final class AcseAssociation {
     return tConnection.getMessageTimeout();
   }
 
+  /**
+   * Returns true if the underlying transport connection uses non-blocking I/O.
+   *
+   * @return true if the underlying transport connection uses non-blocking I/O
+   */
+  public boolean isNonBlocking() {
+    return tConnection.isNonBlocking();
+  }
+
+  /**
+   * Sets a callback that is called by an I/O thread whenever new data or the closing of the
+   * connection was received. Only supported if the underlying transport connection uses
+   * non-blocking I/O.
+   *
+   * @param callback the callback, null to remove it
+   * @see TConnection#setDataAvailableCallback(Runnable)
+   */
+  public void setDataAvailableCallback(Runnable callback) {
+    tConnection.setDataAvailableCallback(callback);
+  }
+
+  /**
+   * Returns true if received data is available so that a call to receive would not wait for the
+   * message timeout.
+   *
+   * @return true if received data is available
+   */
+  public boolean isDataAvailable() {
+    return tConnection.isDataAvailable();
+  }
+
   public void setMessageTimeout(int i) {
     tConnection.setMessageTimeout(i);
   }
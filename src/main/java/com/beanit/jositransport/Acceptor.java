@@ -0,0 +1,30 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+/**
+ * Common interface of the threads started by ServerTSap to accept new connections. It is
+ * implemented by the classic thread per connection ServerThread and by the selector based
+ * SelectorServerThread.
+ */
+interface Acceptor {
+
+  void start();
+
+  /** Stops listening for new connections. Existing connections are not touched. */
+  void stopServer();
+
+  /** Called by a TConnection that was accepted by this acceptor once it is closed. */
+  void connectionClosedSignal();
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of heap byte buffers that is used to receive TSDUs. Instead of keeping a receive buffer of
+ * the maximum PDU size allocated for every connection, a buffer is leased from the pool only once a
+ * message starts to arrive and is released as soon as the message has been decoded. Buffers are
+ * pooled in power of two capacities between 1 KiB and 128 KiB. Larger buffers are not pooled.
+ */
+public final class ByteBufferPool {
+
+  private static final int MIN_CAPACITY_EXPONENT = 10;
+  private static final int MAX_CAPACITY_EXPONENT = 17;
+
+  private static final ByteBufferPool defaultPool = new ByteBufferPool(64);
+
+  private final ArrayBlockingQueue<ByteBuffer>[] pools;
+
+  /**
+   * Creates a new pool.
+   *
+   * @param maxPooledBuffersPerCapacity the maximum number of idle buffers that are kept for each
+   *     capacity. Buffers released to a full pool are left to the garbage collector.
+   */
+  @SuppressWarnings("unchecked")
+  public ByteBufferPool(int maxPooledBuffersPerCapacity) {
+    if (maxPooledBuffersPerCapacity < 1) {
+      throw new IllegalArgumentException("maxPooledBuffersPerCapacity is out of bound");
+    }
+    pools = new ArrayBlockingQueue[MAX_CAPACITY_EXPONENT - MIN_CAPACITY_EXPONENT + 1];
+    for (int i = 0; i < pools.length; i++) {
+      pools[i] = new ArrayBlockingQueue<>(maxPooledBuffersPerCapacity);
+    }
+  }
+
+  /**
+   * Returns the pool that is shared by all associations of this process.
+   *
+   * @return the default pool
+   */
+  public static ByteBufferPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * Leases a buffer from the pool. The returned buffer's position is zero and its limit is equal to
+   * the requested size. Its capacity may be larger.
+   *
+   * @param size the required size of the buffer in bytes
+   * @return the buffer
+   */
+  public ByteBuffer lease(int size) {
+    int poolIndex = getPoolIndex(size);
+    if (poolIndex == -1) {
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer buffer = pools[poolIndex].poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(1 << (poolIndex + MIN_CAPACITY_EXPONENT));
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer that was leased before. The buffer may not be used by the caller afterwards.
+   *
+   * @param buffer the buffer to release
+   */
+  public void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    int poolIndex = getPoolIndex(capacity);
+    if (poolIndex != -1 && capacity == 1 << (poolIndex + MIN_CAPACITY_EXPONENT)) {
+      pools[poolIndex].offer(buffer);
+    }
+  }
+
+  private static int getPoolIndex(int size) {
+    if (size > 1 << MAX_CAPACITY_EXPONENT) {
+      return -1;
+    }
+    int exponent = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(exponent, MIN_CAPACITY_EXPONENT) - MIN_CAPACITY_EXPONENT;
+  }
+}
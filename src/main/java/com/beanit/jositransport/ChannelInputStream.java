@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Input stream of a TConnection that is served by an IoEventLoop. The event loop feeds the raw
+ * bytes read from the channel into this stream. They are cut into complete RFC 1006 (TPKT) frames
+ * which are queued until they are consumed by the thread reading from the TConnection. Reading from
+ * this stream blocks until a frame is available or the configured timeout expires. The frame
+ * buffers are leased from the default ByteBufferPool and released once they have been read.
+ */
+final class ChannelInputStream extends InputStream {
+
+  /** Number of queued frames at which the event loop stops reading from the channel. */
+  static final int MAX_QUEUED_FRAMES = 32;
+
+  private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+  private final BlockingQueue<ByteBuffer> frames = new LinkedBlockingQueue<>();
+  private final ByteBufferPool bufferPool = ByteBufferPool.getDefault();
+  private final IoEventLoop eventLoop;
+  private final AtomicBoolean readingPaused = new AtomicBoolean(false);
+  private volatile SelectionKey key = null;
+
+  // state of the event loop thread while assembling the next frame
+  private final byte[] header = new byte[4];
+  private int headerIndex = 0;
+  private ByteBuffer frame = null;
+
+  // state of the thread reading from this stream
+  private ByteBuffer current = null;
+
+  private volatile int timeout = 0;
+  private volatile Runnable dataAvailableCallback = null;
+
+  ChannelInputStream(IoEventLoop eventLoop) {
+    this.eventLoop = eventLoop;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  /**
+   * Called by the event loop with the bytes that were read from the channel.
+   *
+   * @param buffer the bytes read, all of them are consumed
+   * @return false if the event loop should stop reading from the channel until the queued frames
+   *     have been consumed
+   */
+  boolean feed(ByteBuffer buffer) {
+    boolean frameAdded = false;
+    while (buffer.hasRemaining()) {
+      if (frame == null) {
+        header[headerIndex++] = buffer.get();
+        if (headerIndex < header.length) {
+          continue;
+        }
+        headerIndex = 0;
+        // the length includes the 4 byte header. Invalid lengths are passed on so that the
+        // TConnection reports the syntax error.
+        int packetLength = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        frame = bufferPool.lease(Math.max(packetLength, header.length));
+        frame.put(header);
+      }
+      int numBytes = Math.min(buffer.remaining(), frame.remaining());
+      int limit = buffer.limit();
+      buffer.limit(buffer.position() + numBytes);
+      frame.put(buffer);
+      buffer.limit(limit);
+      if (!frame.hasRemaining()) {
+        frame.flip();
+        frames.add(frame);
+        frame = null;
+        frameAdded = true;
+      }
+    }
+    if (frameAdded) {
+      notifyDataAvailable();
+    }
+    if (frames.size() < MAX_QUEUED_FRAMES) {
+      return true;
+    }
+    readingPaused.set(true);
+    // the reader may have drained the queue before it could see the pause
+    return frames.size() < MAX_QUEUED_FRAMES / 2 && readingPaused.compareAndSet(true, false);
+  }
+
+  /** Called by the event loop if the remote end closed the connection. */
+  void endOfStream() {
+    frames.add(END_OF_STREAM);
+    notifyDataAvailable();
+  }
+
+  void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Sets the callback that is called by the event loop whenever a new frame was queued or the end
+   * of the stream was reached. If data is already available the callback is called immediately.
+   */
+  void setDataAvailableCallback(Runnable callback) {
+    dataAvailableCallback = callback;
+    if (callback != null && isDataAvailable()) {
+      callback.run();
+    }
+  }
+
+  /**
+   * Returns true if a read would return data or the end of the stream without waiting for the
+   * event loop. May only be called by the thread reading from this stream.
+   */
+  boolean isDataAvailable() {
+    return (current != null && (current.hasRemaining() || current == END_OF_STREAM))
+        || !frames.isEmpty();
+  }
+
+  private void notifyDataAvailable() {
+    Runnable callback = dataAvailableCallback;
+    if (callback != null) {
+      callback.run();
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextFrame()) {
+      return -1;
+    }
+    return current.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextFrame()) {
+      return -1;
+    }
+    int numBytes = Math.min(len, current.remaining());
+    current.get(b, off, numBytes);
+    return numBytes;
+  }
+
+  @Override
+  public int available() {
+    if (current == null) {
+      return 0;
+    }
+    return current.remaining();
+  }
+
+  @Override
+  public void close() {
+    endOfStream();
+  }
+
+  private boolean nextFrame() throws IOException {
+    if (current != null && current.hasRemaining()) {
+      return true;
+    }
+    if (current == END_OF_STREAM) {
+      return false;
+    }
+    if (current != null) {
+      // the frame has been read completely
+      bufferPool.release(current);
+      current = null;
+    }
+    ByteBuffer next;
+    try {
+      if (timeout == 0) {
+        next = frames.take();
+      } else {
+        next = frames.poll(timeout, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (next == null) {
+      throw new SocketTimeoutException("Read timed out");
+    }
+    if (frames.size() < MAX_QUEUED_FRAMES / 2 && readingPaused.compareAndSet(true, false)) {
+      eventLoop.resumeReading(key);
+    }
+    current = next;
+    return current != END_OF_STREAM;
+  }
+}
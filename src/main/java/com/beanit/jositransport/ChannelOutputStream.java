@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Output stream of a TConnection that is served by an IoEventLoop. Data is written directly to the
+ * non-blocking channel by the calling thread. If the socket send buffer is full the calling thread
+ * waits until the event loop signals that the channel is writable again.
+ */
+final class ChannelOutputStream extends OutputStream {
+
+  private final SocketChannel channel;
+  private final IoEventLoop eventLoop;
+  private final Object writableSignal = new Object();
+  private volatile SelectionKey key = null;
+  private boolean writable = false;
+
+  ChannelOutputStream(SocketChannel channel, IoEventLoop eventLoop) {
+    this.channel = channel;
+    this.eventLoop = eventLoop;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    write(new ByteBuffer[] {ByteBuffer.wrap(b, off, len)}, 1);
+  }
+
+  /**
+   * Writes all remaining bytes of the first buffers of the given array using gathering writes.
+   *
+   * @param buffers the buffers to write
+   * @param numBuffers the number of buffers to write starting at index 0
+   * @throws IOException if writing to the channel fails
+   */
+  void write(ByteBuffer[] buffers, int numBuffers) throws IOException {
+    int offset = 0;
+    while (true) {
+      while (!buffers[offset].hasRemaining()) {
+        if (++offset == numBuffers) {
+          return;
+        }
+      }
+      if (channel.write(buffers, offset, numBuffers - offset) == 0) {
+        awaitWritable();
+      }
+    }
+  }
+
+  /** Called by the event loop once the channel is writable again or was closed. */
+  void signalWritable() {
+    synchronized (writableSignal) {
+      writable = true;
+      writableSignal.notifyAll();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    signalWritable();
+  }
+
+  private void awaitWritable() throws IOException {
+    SelectionKey key = this.key;
+    if (key == null) {
+      // not registered yet, simply retry
+      Thread.yield();
+      return;
+    }
+    if (!key.isValid()) {
+      throw new ClosedChannelException();
+    }
+    synchronized (writableSignal) {
+      writable = false;
+      eventLoop.awaitWritable(key);
+      try {
+        while (!writable) {
+          if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+          }
+          writableSignal.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+}
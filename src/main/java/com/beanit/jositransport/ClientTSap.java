@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import javax.net.SocketFactory;
 
 /**
@@ -32,6 +33,8 @@ public final class ClientTSap {
   private SocketFactory socketFactory = null;
   private int messageTimeout = 0;
   private int messageFragmentTimeout = 60000;
+  private int numIoThreads = 0;
+  private IoEventLoopGroup eventLoops = null;
 
   /** Use this constructor to create a client TSAP that will start connections to remote TSAPs. */
   public ClientTSap() {
@@ -85,6 +88,36 @@ public final class ClientTSap {
     this.messageFragmentTimeout = messageFragmentTimeout;
   }
 
+  /**
+   * Get the number of I/O threads used in non-blocking mode.
+   *
+   * @return the number of I/O threads, 0 if non-blocking I/O is disabled
+   */
+  public int getNumIoThreads() {
+    return numIoThreads;
+  }
+
+  /**
+   * Enables the non-blocking I/O mode by setting the number of I/O threads to a value greater than
+   * zero. In non-blocking mode all TConnections created by this TSAP use SocketChannels that are
+   * read by a group of I/O threads shared by all connections. Received data can then be consumed
+   * without a dedicated thread per connection by registering a callback using {@link
+   * TConnection#setDataAvailableCallback(Runnable)}. The non-blocking mode cannot be used together
+   * with a custom SocketFactory. Default is 0 (disabled).
+   *
+   * @param numIoThreads the number of I/O threads, 0 to disable non-blocking I/O
+   */
+  public synchronized void setNumIoThreads(int numIoThreads) {
+    if (numIoThreads < 0) {
+      throw new IllegalArgumentException("numIoThreads is out of bound");
+    }
+    if (eventLoops != null && eventLoops.size() != numIoThreads) {
+      eventLoops.shutdownWhenIdle();
+      eventLoops = null;
+    }
+    this.numIoThreads = numIoThreads;
+  }
+
   /**
    * Get the maximum TPDU size parameter to be used by this TSAP
    *
@@ -133,6 +166,11 @@ public final class ClientTSap {
    */
   public TConnection connectTo(InetAddress address, int port, InetAddress localAddr, int localPort)
       throws IOException {
+    IoEventLoopGroup eventLoops = getEventLoops();
+    if (eventLoops != null) {
+      return connectNonBlocking(eventLoops.next(), address, port, localAddr, localPort);
+    }
+
     Socket socket;
 
     if (localAddr == null) {
@@ -151,6 +189,50 @@ public final class ClientTSap {
     return tConnection;
   }
 
+  private TConnection connectNonBlocking(
+      IoEventLoop eventLoop, InetAddress address, int port, InetAddress localAddr, int localPort)
+      throws IOException {
+    if (socketFactory != SocketFactory.getDefault()) {
+      throw new IOException("Non-blocking I/O cannot be used with a custom SocketFactory");
+    }
+    SocketChannel channel = SocketChannel.open();
+    TConnection tConnection;
+    try {
+      if (localAddr != null) {
+        channel.bind(new InetSocketAddress(localAddr, localPort));
+      }
+      // connect in blocking mode because only the socket adapter supports a connect timeout
+      channel.socket().connect(new InetSocketAddress(address, port), messageTimeout);
+      tConnection =
+          new TConnection(
+              channel, eventLoop, maxTPDUSizeParam, messageTimeout, messageFragmentTimeout, null);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    tConnection.tSelRemote = tSelRemote;
+    tConnection.tSelLocal = tSelLocal;
+    try {
+      tConnection.startConnection();
+    } catch (IOException e) {
+      tConnection.close();
+      throw e;
+    }
+
+    return tConnection;
+  }
+
+  private synchronized IoEventLoopGroup getEventLoops() throws IOException {
+    if (numIoThreads == 0) {
+      return null;
+    }
+    if (eventLoops == null) {
+      eventLoops = new IoEventLoopGroup("iec61850bean-client-io", numIoThreads, true);
+      eventLoops.start();
+    }
+    return eventLoops;
+  }
+
   public void setSocketFactory(SocketFactory socketFactory) {
     this.socketFactory = socketFactory;
   }
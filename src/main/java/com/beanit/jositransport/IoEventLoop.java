@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single I/O thread that serves an arbitrary number of non-blocking channels using a Selector.
+ * All bytes read are passed to the ChannelInputStream of the channel which assembles complete RFC
+ * 1006 frames. Writes are done by the threads sending data. The event loop only notifies them once
+ * a channel whose send buffer was full becomes writable again.
+ */
+final class IoEventLoop extends Thread {
+
+  private static final int READ_BUFFER_SIZE = 65536;
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private volatile boolean shutdown = false;
+
+  IoEventLoop(String name) throws IOException {
+    super(name);
+    selector = Selector.open();
+  }
+
+  void register(
+      final SocketChannel channel, final ChannelInputStream is, final ChannelOutputStream os) {
+    execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              SelectionKey key =
+                  channel.register(selector, SelectionKey.OP_READ, new Streams(is, os));
+              is.setKey(key);
+              os.setKey(key);
+            } catch (ClosedChannelException e) {
+              is.endOfStream();
+              os.signalWritable();
+            }
+          }
+        });
+  }
+
+  void resumeReading(final SelectionKey key) {
+    execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (key.isValid()) {
+              key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+          }
+        });
+  }
+
+  void awaitWritable(final SelectionKey key) {
+    execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (key.isValid()) {
+              key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else {
+              ((Streams) key.attachment()).os.signalWritable();
+            }
+          }
+        });
+  }
+
+  /** Lets the event loop terminate as soon as all of its channels have been closed. */
+  void shutdownWhenIdle() {
+    shutdown = true;
+    selector.wakeup();
+  }
+
+  private void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        selector.select(shutdown ? 1000 : 0);
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (CancelledKeyException e) {
+            // the channel was closed in the meantime
+          }
+        }
+
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+          SelectionKey key = iterator.next();
+          iterator.remove();
+          Streams streams = (Streams) key.attachment();
+          try {
+            if (key.isWritable()) {
+              key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+              streams.os.signalWritable();
+            }
+            if (key.isReadable()) {
+              read(key, streams);
+            }
+          } catch (CancelledKeyException e) {
+            streams.is.endOfStream();
+            streams.os.signalWritable();
+          }
+        }
+
+        if (shutdown && selector.keys().isEmpty()) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      // selector failed, all channels served by this event loop are signaled below
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        Streams streams = (Streams) key.attachment();
+        streams.is.endOfStream();
+        streams.os.signalWritable();
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // there is nothing meaningful to be done if closing fails
+      }
+    }
+  }
+
+  private void read(SelectionKey key, Streams streams) {
+    int numBytes;
+    try {
+      numBytes = ((SocketChannel) key.channel()).read(readBuffer);
+    } catch (IOException e) {
+      numBytes = -1;
+    }
+    if (numBytes == -1) {
+      key.cancel();
+      streams.is.endOfStream();
+      streams.os.signalWritable();
+      return;
+    }
+    readBuffer.flip();
+    if (!streams.is.feed(readBuffer)) {
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+    readBuffer.clear();
+  }
+
+  private static final class Streams {
+    private final ChannelInputStream is;
+    private final ChannelOutputStream os;
+
+    Streams(ChannelInputStream is, ChannelOutputStream os) {
+      this.is = is;
+      this.os = os;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A fixed set of IoEventLoops among which new channels are distributed round robin. */
+final class IoEventLoopGroup {
+
+  private final IoEventLoop[] eventLoops;
+  private final AtomicInteger nextEventLoop = new AtomicInteger(0);
+
+  IoEventLoopGroup(String poolName, int numThreads, boolean daemon) throws IOException {
+    eventLoops = new IoEventLoop[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      eventLoops[i] = new IoEventLoop(poolName + "-thread-" + (i + 1));
+      eventLoops[i].setDaemon(daemon);
+    }
+  }
+
+  int size() {
+    return eventLoops.length;
+  }
+
+  void start() {
+    for (IoEventLoop eventLoop : eventLoops) {
+      eventLoop.start();
+    }
+  }
+
+  IoEventLoop next() {
+    return eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+  }
+
+  /** Lets all event loops terminate as soon as all of their channels have been closed. */
+  void shutdownWhenIdle() {
+    for (IoEventLoop eventLoop : eventLoops) {
+      eventLoop.shutdownWhenIdle();
+    }
+  }
+}
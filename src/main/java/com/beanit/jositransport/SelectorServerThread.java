@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.jositransport;
+
+import com.beanit.iec61850bean.internal.NamedThreadFactory;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Alternative to ServerThread that is used if ServerTSap is configured to use non-blocking I/O. It
+ * accepts connections on a ServerSocketChannel and distributes them among a fixed number of
+ * IoEventLoop threads. All socket reads are done by these event loops, so that no thread is blocked
+ * on a socket. Once the connection is set up, the connection listener can serve it from its
+ * data-available callback instead of occupying a thread of the connection executor.
+ */
+final class SelectorServerThread extends Thread implements Acceptor {
+
+  private final ServerSocketChannel serverChannel;
+  private final IoEventLoopGroup eventLoops;
+  private final int maxTPduSizeParam;
+  private final int messageTimeout;
+  private final int messageFragmentTimeout;
+  private final int maxConnections;
+  private final TConnectionListener connectionListener;
+  private final Executor connectionExecutor;
+
+  private volatile boolean stopServer = false;
+  private int numConnections = 0;
+
+  SelectorServerThread(
+      ServerSocketChannel serverChannel,
+      int numIoThreads,
+      int maxTPduSizeParam,
+      int maxConnections,
+      int messageTimeout,
+      int messageFragmentTimeout,
+      TConnectionListener connectionListener,
+      Executor connectionExecutor)
+      throws IOException {
+    this.serverChannel = serverChannel;
+    this.maxTPduSizeParam = maxTPduSizeParam;
+    this.maxConnections = maxConnections;
+    this.messageTimeout = messageTimeout;
+    this.messageFragmentTimeout = messageFragmentTimeout;
+    this.connectionListener = connectionListener;
+    this.connectionExecutor = connectionExecutor;
+
+    eventLoops = new IoEventLoopGroup("iec61850bean-server-io", numIoThreads, false);
+  }
+
+  @Override
+  public void run() {
+
+    eventLoops.start();
+
+    ExecutorService ownExecutor = null;
+    Executor executor = connectionExecutor;
+    if (executor == null) {
+      ownExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-server"));
+      executor = ownExecutor;
+    }
+    try {
+
+      SocketChannel clientChannel;
+
+      while (true) {
+        try {
+          clientChannel = serverChannel.accept();
+        } catch (IOException e) {
+          if (stopServer == false) {
+            connectionListener.serverStoppedListeningIndication(e);
+          }
+          return;
+        }
+
+        boolean startConnection = false;
+
+        synchronized (this) {
+          if (numConnections < maxConnections) {
+            numConnections++;
+            startConnection = true;
+          }
+        }
+
+        if (startConnection) {
+          try {
+            executor.execute(new ConnectionHandler(clientChannel, eventLoops.next()));
+            continue;
+          } catch (RejectedExecutionException e) {
+            connectionClosedSignal();
+          }
+        }
+        // Maximum number of connections reached or handler rejected. Ignoring connection request.
+        try {
+          clientChannel.close();
+        } catch (IOException e) {
+          // there is nothing meaningful to be done if closing fails
+        }
+      }
+    } finally {
+      if (ownExecutor != null) {
+        ownExecutor.shutdown();
+      }
+      eventLoops.shutdownWhenIdle();
+    }
+  }
+
+  @Override
+  public void connectionClosedSignal() {
+    synchronized (this) {
+      numConnections--;
+    }
+  }
+
+  @Override
+  public void stopServer() {
+    stopServer = true;
+    try {
+      serverChannel.close();
+    } catch (IOException e) {
+      // there is nothing meaningful to be done when closing fails
+    }
+  }
+
+  private final class ConnectionHandler implements Runnable {
+
+    private final SocketChannel channel;
+    private final IoEventLoop eventLoop;
+
+    ConnectionHandler(SocketChannel channel, IoEventLoop eventLoop) {
+      this.channel = channel;
+      this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public void run() {
+
+      TConnection tConnection;
+      try {
+        tConnection =
+            new TConnection(
+                channel,
+                eventLoop,
+                maxTPduSizeParam,
+                messageTimeout,
+                messageFragmentTimeout,
+                SelectorServerThread.this);
+      } catch (IOException e) {
+        try {
+          channel.close();
+        } catch (IOException e2) {
+          // there is nothing meaningful to be done if closing fails
+        }
+        synchronized (SelectorServerThread.this) {
+          numConnections--;
+        }
+        return;
+      }
+      try {
+        tConnection.listenForCR();
+      } catch (IOException e) {
+        tConnection.close();
+        return;
+      }
+      connectionListener.connectionIndication(tConnection);
+    }
+  }
+}
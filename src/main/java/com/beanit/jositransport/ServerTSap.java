@@ -15,6 +15,9 @@ package com.beanit.jositransport;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executor;
 import javax.net.ServerSocketFactory;
 
 /**
@@ -28,8 +31,10 @@ public class ServerTSap {
   private final int backlog;
   private final TConnectionListener connectionListener;
   private final ServerSocketFactory serverSocketFactory;
-  private ServerThread serverThread;
+  private Acceptor serverThread;
   private boolean started = false;
+  private int numIoThreads = 0;
+  private Executor connectionExecutor = null;
   private int maxTPDUSizeParam = 16;
   private int maxConnections = 100;
   private int messageTimeout = 0;
@@ -111,6 +116,30 @@ public class ServerTSap {
    */
   public void startListening() throws IOException {
     started = true;
+    if (numIoThreads > 0) {
+      if (serverSocketFactory != ServerSocketFactory.getDefault()) {
+        throw new IOException("Non-blocking I/O cannot be used with a custom ServerSocketFactory");
+      }
+      ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      try {
+        serverChannel.bind(new InetSocketAddress(bindAddr, port), backlog);
+      } catch (IOException e) {
+        serverChannel.close();
+        throw e;
+      }
+      serverThread =
+          new SelectorServerThread(
+              serverChannel,
+              numIoThreads,
+              maxTPDUSizeParam,
+              maxConnections,
+              messageTimeout,
+              messageFragmentTimeout,
+              connectionListener,
+              connectionExecutor);
+      serverThread.start();
+      return;
+    }
     serverThread =
         new ServerThread(
             serverSocketFactory.createServerSocket(port, backlog, bindAddr),
@@ -118,7 +147,8 @@ public class ServerTSap {
             maxConnections,
             messageTimeout,
             messageFragmentTimeout,
-            connectionListener);
+            connectionListener,
+            connectionExecutor);
     serverThread.start();
   }
 
@@ -146,6 +176,51 @@ public class ServerTSap {
     this.maxConnections = maxConnections;
   }
 
+  /**
+   * Get the number of I/O threads used in non-blocking mode.
+   *
+   * @return the number of I/O threads, 0 if non-blocking I/O is disabled
+   */
+  public int getNumIoThreads() {
+    return numIoThreads;
+  }
+
+  /**
+   * Enables the non-blocking I/O mode by setting the number of I/O threads to a value greater than
+   * zero. By default (0) every connection is served by its own thread that blocks while reading
+   * from the socket. In non-blocking mode connections are accepted on a ServerSocketChannel and all
+   * channels are read by the given number of I/O threads using Selectors. These threads cut the
+   * incoming data into complete RFC 1006 packets that are then handed to the TConnections. The
+   * non-blocking mode cannot be used together with a custom ServerSocketFactory.
+   *
+   * @param numIoThreads the number of I/O threads, 0 to disable non-blocking I/O (default)
+   */
+  public void setNumIoThreads(int numIoThreads) {
+    if (started == true) {
+      throw new RuntimeException("Trying to set parameter although server has started.");
+    }
+    if (numIoThreads < 0) {
+      throw new IllegalArgumentException("numIoThreads is out of bound");
+    }
+    this.numIoThreads = numIoThreads;
+  }
+
+  /**
+   * Sets the executor that runs the handler of every new connection. The handler waits for the
+   * connection request and then calls the TConnectionListener in the same thread. In blocking mode
+   * this thread is occupied for the whole lifetime of the connection. By default (null) a cached
+   * thread pool is created when the server starts listening and shut down when it stops. A
+   * caller-supplied executor is never shut down by the server TSAP.
+   *
+   * @param connectionExecutor the executor to run connection handlers or null to use the default
+   */
+  public void setConnectionExecutor(Executor connectionExecutor) {
+    if (started == true) {
+      throw new RuntimeException("Trying to set parameter although server has started.");
+    }
+    this.connectionExecutor = connectionExecutor;
+  }
+
   /**
    * Set the TConnection timeout for waiting for the first byte of a new message. Default is 0
    * (unlimited)
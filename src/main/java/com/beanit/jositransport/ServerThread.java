@@ -17,8 +17,10 @@ import com.beanit.iec61850bean.internal.NamedThreadFactory;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class extends Thread. It is started by ServerTSAP and listens on a socket for connections
@@ -27,7 +29,7 @@ import java.util.concurrent.Executors;
  *
  * @author Stefan Feuerhahn
  */
-final class ServerThread extends Thread {
+final class ServerThread extends Thread implements Acceptor {
 
   private final ServerSocket serverSocket;
   private final int maxTPduSizeParam;
@@ -35,6 +37,7 @@ final class ServerThread extends Thread {
   private final int messageFragmentTimeout;
   private final int maxConnections;
   private final TConnectionListener connectionListener;
+  private final Executor connectionExecutor;
 
   private boolean stopServer = false;
   private int numConnections = 0;
@@ -45,20 +48,26 @@ final class ServerThread extends Thread {
       int maxConnections,
       int messageTimeout,
       int messageFragmentTimeout,
-      TConnectionListener connectionListener) {
+      TConnectionListener connectionListener,
+      Executor connectionExecutor) {
     serverSocket = socket;
     this.maxTPduSizeParam = maxTPduSizeParam;
     this.maxConnections = maxConnections;
     this.messageTimeout = messageTimeout;
     this.messageFragmentTimeout = messageFragmentTimeout;
     this.connectionListener = connectionListener;
+    this.connectionExecutor = connectionExecutor;
   }
 
   @Override
   public void run() {
 
-    ExecutorService executor =
-        Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-server"));
+    ExecutorService ownExecutor = null;
+    Executor executor = connectionExecutor;
+    if (executor == null) {
+      ownExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("iec61850bean-server"));
+      executor = ownExecutor;
+    }
     try {
 
       Socket clientSocket = null;
@@ -83,24 +92,36 @@ final class ServerThread extends Thread {
         }
 
         if (startConnection) {
-          executor.execute(new ConnectionHandler(clientSocket, this));
+          try {
+            executor.execute(new ConnectionHandler(clientSocket, this));
+          } catch (RejectedExecutionException e) {
+            try {
+              clientSocket.close();
+            } catch (IOException e2) {
+              // there is nothing meaningful to be done if closing fails
+            }
+            connectionClosedSignal();
+          }
         } else {
           // Maximum number of connections reached. Ignoring connection request.
         }
       }
     } finally {
-      executor.shutdown();
+      if (ownExecutor != null) {
+        ownExecutor.shutdown();
+      }
     }
   }
 
-  void connectionClosedSignal() {
+  @Override
+  public void connectionClosedSignal() {
     synchronized (this) {
       numConnections--;
     }
   }
 
-  /** Stops listening for new connections. Existing connections are not touched. */
-  void stopServer() {
+  @Override
+  public void stopServer() {
     stopServer = true;
     if (serverSocket.isBound()) {
       try {
@@ -20,10 +20,12 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 
@@ -34,7 +36,15 @@ public final class TConnection {
   private final Socket socket;
   private final DataOutputStream os;
   private final DataInputStream is;
-  private final ServerThread serverThread;
+  private final SocketInputStream bufferedInputStream;
+  private final ChannelInputStream channelInputStream;
+  private final ChannelOutputStream channelOutputStream;
+  // header of a data transfer (DT) TPDU including the RFC 1006 header, reused for every TPDU
+  private final byte[] dataHeader = new byte[] {0x03, 0x00, 0x00, 0x00, 0x02, (byte) 0xf0, 0x00};
+  private final ByteBuffer dataHeaderBuffer = ByteBuffer.wrap(dataHeader);
+  // fixed part of a received TPDU including the RFC 1006 header
+  private final byte[] tpduHeader = new byte[7];
+  private final Acceptor serverThread;
   public byte[] tSelRemote = null;
   public byte[] tSelLocal = null;
   private int srcRef;
@@ -44,20 +54,62 @@ public final class TConnection {
   private int messageTimeout;
   private int messageFragmentTimeout;
   private boolean closed = false;
+  private ByteBuffer[] gatherBuffers = new ByteBuffer[4];
+  private int readTimeout = -1;
 
   TConnection(
       Socket socket,
       int maxTPduSizeParam,
       int messageTimeout,
       int messageFragmentTimeout,
-      ServerThread serverThread)
+      Acceptor serverThread)
       throws IOException {
     if (maxTPduSizeParam < 7 || maxTPduSizeParam > 16) {
       throw new RuntimeException("maxTPduSizeParam is incorrect");
     }
     this.socket = socket;
     os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-    is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    bufferedInputStream = new SocketInputStream(socket.getInputStream());
+    is = new DataInputStream(bufferedInputStream);
+    channelInputStream = null;
+    channelOutputStream = null;
+
+    synchronized (connectionCounter) {
+      srcRef = connectionCounter.getAndIncrement();
+    }
+
+    this.messageTimeout = messageTimeout;
+    this.messageFragmentTimeout = messageFragmentTimeout;
+    this.maxTPduSizeParam = maxTPduSizeParam;
+    maxTPduSize = ClientTSap.getMaxTPDUSize(maxTPduSizeParam);
+
+    this.serverThread = serverThread;
+  }
+
+  /**
+   * Creates a connection whose non-blocking channel is read by the given event loop instead of a
+   * dedicated thread.
+   */
+  TConnection(
+      SocketChannel channel,
+      IoEventLoop eventLoop,
+      int maxTPduSizeParam,
+      int messageTimeout,
+      int messageFragmentTimeout,
+      Acceptor serverThread)
+      throws IOException {
+    if (maxTPduSizeParam < 7 || maxTPduSizeParam > 16) {
+      throw new RuntimeException("maxTPduSizeParam is incorrect");
+    }
+    channel.configureBlocking(false);
+    socket = channel.socket();
+    socket.setTcpNoDelay(true);
+    bufferedInputStream = null;
+    channelInputStream = new ChannelInputStream(eventLoop);
+    channelOutputStream = new ChannelOutputStream(channel, eventLoop);
+    os = new DataOutputStream(new BufferedOutputStream(channelOutputStream));
+    is = new DataInputStream(channelInputStream);
+    eventLoop.register(channel, channelInputStream, channelOutputStream);
 
     synchronized (connectionCounter) {
       srcRef = connectionCounter.getAndIncrement();
@@ -81,7 +133,7 @@ public final class TConnection {
    */
   void listenForCR() throws IOException {
 
-    socket.setSoTimeout(messageFragmentTimeout);
+    setReadTimeout(messageFragmentTimeout);
 
     byte myByte;
     int lengthIndicator;
@@ -284,7 +336,7 @@ public final class TConnection {
 
     os.flush();
 
-    socket.setSoTimeout(messageTimeout);
+    setReadTimeout(messageTimeout);
 
     byte myByte;
     int lengthIndicator;
@@ -364,85 +416,132 @@ public final class TConnection {
 
   public void send(List<byte[]> tsdus, List<Integer> offsets, List<Integer> lengths)
       throws IOException {
+    ByteBuffer[] tsduSegments = new ByteBuffer[tsdus.size()];
+    for (int i = 0; i < tsduSegments.length; i++) {
+      tsduSegments[i] = ByteBuffer.wrap(tsdus.get(i), offsets.get(i), lengths.get(i));
+    }
+    send(tsduSegments);
+  }
+
+  public void send(byte[] tsdu, int offset, int length) throws IOException {
+    send(new ByteBuffer[] {ByteBuffer.wrap(tsdu, offset, length)});
+  }
+
+  /**
+   * Sends the remaining bytes of the given buffers as a single TSDU. The TSDU is split into as many
+   * data transfer (DT) TPDUs as needed for the negotiated maximum TPDU size. The header of every
+   * TPDU is written together with the slices of the given buffers that make up its user data. For
+   * non-blocking connections this is done using a single gathering write per TPDU so that the
+   * payload is never copied. The positions of the given buffers are advanced to their limits.
+   *
+   * @param tsduSegments the buffers whose remaining bytes form the TSDU
+   * @throws IOException if writing to the socket fails
+   */
+  public synchronized void send(ByteBuffer[] tsduSegments) throws IOException {
 
     int bytesLeft = 0;
-    // for (byte[] tsdu : tsdus) {
-    // bytesLeft += tsdu.length;
-    // }
-    for (int length : lengths) {
-      bytesLeft += length;
-    }
-    int tsduOffset = 0;
-    int byteArrayListIndex = 0;
-    int numBytesToWrite;
-    boolean lastPacket = false;
+    for (ByteBuffer tsduSegment : tsduSegments) {
+      bytesLeft += tsduSegment.remaining();
+    }
+    if (gatherBuffers.length < tsduSegments.length + 1) {
+      gatherBuffers = new ByteBuffer[tsduSegments.length + 1];
+    }
+
+    int segmentIndex = 0;
     int maxTSDUSize = maxTPduSize - 3;
     while (bytesLeft > 0) {
 
-      if (bytesLeft > maxTSDUSize) {
-        numBytesToWrite = maxTSDUSize;
-      } else {
-        numBytesToWrite = bytesLeft;
-        lastPacket = true;
-      }
+      int numBytesToWrite = Math.min(bytesLeft, maxTSDUSize);
+      bytesLeft -= numBytesToWrite;
 
       // --write RFC 1006 Header--
-      // write Version
-      os.write(0x03);
-      // write reserved bits
-      os.write(0);
-      // write packet Length
-      os.writeShort(numBytesToWrite + 7);
-
+      // packet Length
+      dataHeader[2] = (byte) ((numBytesToWrite + 7) >> 8);
+      dataHeader[3] = (byte) (numBytesToWrite + 7);
       // --write 8073 Header--
-      // write Length Indicator of header
-      os.write(0x02);
-      // write TPDU Code for DT Data
-      os.write(0xf0);
-      // write TPDU-NR and EOT, TPDU-NR is always 0 for class 0
-      if (lastPacket) {
-        os.write(0x80);
-      } else {
-        os.write(0x00);
-      }
+      // TPDU-NR and EOT, TPDU-NR is always 0 for class 0
+      dataHeader[6] = bytesLeft == 0 ? (byte) 0x80 : 0x00;
+      dataHeaderBuffer.clear();
+      gatherBuffers[0] = dataHeaderBuffer;
 
-      bytesLeft -= numBytesToWrite;
+      int numGatherBuffers = 1;
       while (numBytesToWrite > 0) {
-        byte[] tsdu = tsdus.get(byteArrayListIndex);
-        int length = lengths.get(byteArrayListIndex);
-        int offset = offsets.get(byteArrayListIndex);
+        ByteBuffer tsduSegment = tsduSegments[segmentIndex];
+        int numSegmentBytes = Math.min(tsduSegment.remaining(), numBytesToWrite);
+        if (numSegmentBytes == tsduSegment.remaining()) {
+          gatherBuffers[numGatherBuffers++] = tsduSegment;
+          segmentIndex++;
+        } else {
+          ByteBuffer slice = tsduSegment.duplicate();
+          slice.limit(slice.position() + numSegmentBytes);
+          tsduSegment.position(tsduSegment.position() + numSegmentBytes);
+          gatherBuffers[numGatherBuffers++] = slice;
+        }
+        numBytesToWrite -= numSegmentBytes;
+      }
 
-        int tsduWriteLength = length - tsduOffset;
+      write(gatherBuffers, numGatherBuffers);
+    }
+  }
 
-        if (numBytesToWrite > tsduWriteLength) {
-          os.write(tsdu, offset + tsduOffset, tsduWriteLength);
-          numBytesToWrite -= tsduWriteLength;
-          tsduOffset = 0;
-          byteArrayListIndex++;
-        } else {
-          os.write(tsdu, offset + tsduOffset, numBytesToWrite);
-          if (numBytesToWrite == tsduWriteLength) {
-            tsduOffset = 0;
-            byteArrayListIndex++;
-          } else {
-            tsduOffset += numBytesToWrite;
-          }
-          numBytesToWrite = 0;
+  private void write(ByteBuffer[] buffers, int numBuffers) throws IOException {
+    if (channelOutputStream != null) {
+      channelOutputStream.write(buffers, numBuffers);
+      Arrays.fill(buffers, 0, numBuffers, null);
+      return;
+    }
+    for (int i = 0; i < numBuffers; i++) {
+      ByteBuffer buffer = buffers[i];
+      if (buffer.hasArray()) {
+        os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+      } else {
+        while (buffer.hasRemaining()) {
+          os.write(buffer.get());
         }
       }
+      buffers[i] = null;
+    }
+    os.flush();
+  }
 
-      os.flush();
+  /**
+   * Returns true if this connection uses non-blocking I/O. Only connections created by a ServerTSap
+   * or ClientTSap with I/O threads configured are non-blocking.
+   *
+   * @return true if this connection uses non-blocking I/O
+   */
+  public boolean isNonBlocking() {
+    return channelInputStream != null;
+  }
+
+  /**
+   * Sets a callback that is called whenever new data or the closing of the connection was received.
+   * This way a non-blocking connection can be served without a thread that waits in {@link
+   * #receive(ByteBuffer)}. The callback is called by an I/O thread and should therefore only hand
+   * over the work to another thread. After the callback was called the next call of receive will
+   * not wait for the message timeout but it may still wait for the remaining fragments of the
+   * message.
+   *
+   * @param callback the callback, null to remove it
+   * @throws IllegalStateException if this connection does not use non-blocking I/O
+   */
+  public void setDataAvailableCallback(Runnable callback) {
+    if (channelInputStream == null) {
+      throw new IllegalStateException("Connection does not use non-blocking I/O");
     }
+    channelInputStream.setDataAvailableCallback(callback);
   }
 
-  public void send(byte[] tsdu, int offset, int length) throws IOException {
-    List<byte[]> tsdus = new ArrayList<>();
-    tsdus.add(tsdu);
-    List<Integer> offsets = new ArrayList<>();
-    offsets.add(offset);
-    List<Integer> lengths = new ArrayList<>();
-    lengths.add(length);
-    send(tsdus, offsets, lengths);
+  /**
+   * Returns true if received data is available so that a call to receive would not wait for the
+   * message timeout. Always returns false for connections that do not use non-blocking I/O. May
+   * only be called by the thread that also calls receive.
+   *
+   * @return true if received data is available
+   */
+  public boolean isDataAvailable() {
+    return channelInputStream != null && channelInputStream.isDataAvailable();
   }
 
   public int getMessageTimeout() {
@@ -487,47 +586,96 @@ public final class TConnection {
    */
   public void receive(ByteBuffer tSduBuffer)
       throws EOFException, SocketTimeoutException, IOException, TimeoutException {
+    receive(awaitMessage(), tSduBuffer);
+  }
+
+  /**
+   * Listens for a new TPDU and writes the extracted TSDU into a buffer leased from the given pool.
+   * The buffer is leased only once the first byte of the message has been received, so no buffer
+   * is held while the connection is idle. The caller has to release the returned buffer to the pool
+   * once the TSDU has been decoded.
+   *
+   * @param bufferPool the pool to lease the buffer from
+   * @param bufferSize the size of the buffer to lease, i.e. the maximum TSDU size
+   * @return the leased buffer containing the TSDU between its position and limit
+   * @throws EOFException if a Disconnect Request (DR) was received or the socket was simply closed
+   * @throws SocketTimeoutException if a messageFragmentTimeout is thrown by the socket while
+   *     receiving the remainder of a message
+   * @throws IOException if an ErrorPDU (ER) was received, any syntax error in the received message
+   *     header was detected or the TSDU is larger than the given buffer size.
+   * @throws TimeoutException this exception is thrown if the first byte of new message is not
+   *     received within the message timeout.
+   */
+  public ByteBuffer receive(ByteBufferPool bufferPool, int bufferSize)
+      throws EOFException, SocketTimeoutException, IOException, TimeoutException {
+    int version = awaitMessage();
+    ByteBuffer tSduBuffer = bufferPool.lease(bufferSize);
+    try {
+      receive(version, tSduBuffer);
+    } catch (IOException | RuntimeException e) {
+      bufferPool.release(tSduBuffer);
+      throw e;
+    }
+    return tSduBuffer;
+  }
+
+  /** Waits for the first byte of a new message using the message timeout and returns it. */
+  private int awaitMessage() throws IOException, TimeoutException {
+    if (getNumBufferedBytes() == 0) {
+      setReadTimeout(messageTimeout);
+    }
+    int version;
+    try {
+      version = is.read();
+    } catch (SocketTimeoutException e) {
+      throw (new TimeoutException());
+    }
+    if (version == -1) {
+      throw new EOFException();
+    }
+    return version;
+  }
+
+  /**
+   * Reads the remainder of a message whose first byte has already been read. Every TPDU is read
+   * using one bulk read for its fixed header and one for its user data.
+   */
+  private void receive(int version, ByteBuffer tSduBuffer) throws IOException {
 
     tSduBuffer.mark();
 
     int packetLength;
     int eot = 0;
-    int li = 0;
+    int li;
     int tPduCode;
 
-    socket.setSoTimeout(messageTimeout);
-    byte version;
-    try {
-      version = is.readByte();
-    } catch (SocketTimeoutException e) {
-      throw (new TimeoutException());
-    }
-    socket.setSoTimeout(messageFragmentTimeout);
+    tpduHeader[0] = (byte) version;
+    readFully(tpduHeader, 1, tpduHeader.length - 1);
 
-    do {
+    while (true) {
       // read version
-      if (version != 3) {
+      if (tpduHeader[0] != 3) {
         throw new IOException(
             "Syntax error at beginning of RFC1006 header: version not equal to 3");
       }
 
       // read reserved
-      if (is.readByte() != 0) {
+      if (tpduHeader[1] != 0) {
         throw new IOException(
             "Syntax errorat beginning of RFC1006 header: reserved not equal to 0");
       }
 
       // read packet length
-      packetLength = is.readShort() & 0xffff;
+      packetLength = ((tpduHeader[2] & 0xff) << 8) | (tpduHeader[3] & 0xff);
       if (packetLength <= 7) {
         throw new IOException("Syntax error: packet length parameter < 7");
       }
 
       // read length indicator
-      li = is.readByte() & 0xff;
+      li = tpduHeader[4] & 0xff;
 
       // read TPDU code
-      tPduCode = is.readByte() & 0xff;
+      tPduCode = tpduHeader[5] & 0xff;
 
       if (tPduCode == 0xf0) {
         // Data Transfer (DT) Code
@@ -537,7 +685,7 @@ public final class TConnection {
         }
 
         // read EOT
-        eot = is.readByte() & 0xff;
+        eot = tpduHeader[6] & 0xff;
         if (eot != 0 && eot != 0x80) {
           throw new IOException("Syntax error: eot wrong");
         }
@@ -545,7 +693,7 @@ public final class TConnection {
         if (packetLength - 7 > tSduBuffer.limit() - tSduBuffer.position()) {
           throw new IOException("tSduBuffer size is too small to hold the complete TSDU");
         }
-        is.readFully(
+        readFully(
             tSduBuffer.array(), tSduBuffer.arrayOffset() + tSduBuffer.position(), packetLength - 7);
         tSduBuffer.position(tSduBuffer.position() + packetLength - 7);
       } else if (tPduCode == 0x80) {
@@ -555,20 +703,24 @@ public final class TConnection {
           throw new IOException("Syntax error: LI field does not equal 6");
         }
 
+        // the first byte of the DST-REF has already been read as part of the fixed header
+        int dstRefHighByte = tpduHeader[6] & 0xff;
+        readFully(tpduHeader, 0, 4);
+
         // check if the DST-REF field is set to the reference of the
         // receiving entity -> srcRef
-        if (is.readShort() != srcRef) {
+        if (((dstRefHighByte << 8) | (tpduHeader[0] & 0xff)) != srcRef) {
           throw new IOException("Syntax error: srcRef wrong");
         }
 
         // check if the SRC-REF field is that of the entity sending
         // the DR
-        if (is.readShort() != dstRef) {
+        if ((((tpduHeader[1] & 0xff) << 8) | (tpduHeader[2] & 0xff)) != dstRef) {
           throw new IOException("Syntax error: dstRef wrong");
         }
 
         // check the reason field, for class 0 only between 1 and 4
-        int reason = is.readByte() & 0xff;
+        int reason = tpduHeader[3] & 0xff;
         if (reason > 4) {
           throw new IOException("Syntax error: reason out of bound");
         }
@@ -582,16 +734,46 @@ public final class TConnection {
         throw new IOException("Syntax error: unknown TPDU code");
       }
 
-      if (eot != 0x80) {
-        version = is.readByte();
+      if (eot == 0x80) {
+        break;
       }
-
-    } while (eot != 0x80);
+      readFully(tpduHeader, 0, tpduHeader.length);
+    }
 
     tSduBuffer.limit(tSduBuffer.position());
     tSduBuffer.reset();
   }
 
+  /**
+   * Reads from the input stream and switches to the message fragment timeout only if the read
+   * cannot be served from the data that has already been buffered.
+   */
+  private void readFully(byte[] b, int off, int len) throws IOException {
+    if (getNumBufferedBytes() < len) {
+      setReadTimeout(messageFragmentTimeout);
+    }
+    is.readFully(b, off, len);
+  }
+
+  private int getNumBufferedBytes() {
+    if (channelInputStream != null) {
+      return channelInputStream.available();
+    }
+    return bufferedInputStream.getNumBufferedBytes();
+  }
+
+  private void setReadTimeout(int timeout) throws IOException {
+    if (timeout == readTimeout) {
+      return;
+    }
+    if (channelInputStream != null) {
+      channelInputStream.setTimeout(timeout);
+    } else {
+      socket.setSoTimeout(timeout);
+    }
+    readTimeout = timeout;
+  }
+
   /** This function sends a Disconnect Request but does not wait for a Disconnect Confirm. */
   public void disconnect() {
 
@@ -654,4 +836,16 @@ public final class TConnection {
       }
     }
   }
+
+  /** Buffered input stream that reveals how many bytes can be read without accessing the socket. */
+  private static final class SocketInputStream extends BufferedInputStream {
+
+    SocketInputStream(InputStream in) {
+      super(in);
+    }
+
+    int getNumBufferedBytes() {
+      return count - pos;
+    }
+  }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DataSetValueCacheTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  // the members of dataset1 are TotW and W.phsA.cVal.mag.f of MMXU1
+  private static final String CHANGING_MEMBER_REFERENCE = "ied1lDevice1/MMXU1.W.phsA.cVal.mag.f";
+
+  private ServerModel serverModel;
+  private ServerSap serverSap;
+  private ScheduledExecutorService timer;
+  private Urcb urcb1;
+  private Urcb urcb2;
+
+  /** Returns the bytes of an access result that was encoded already, without copying them. */
+  private static byte[] getCode(AccessResult accessResult) throws IOException {
+    final byte[][] code = new byte[1][];
+    accessResult.encode(
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            throw new AssertionError("the value has not been encoded before");
+          }
+
+          @Override
+          public void write(byte[] b) {
+            code[0] = b;
+          }
+        });
+    return code[0];
+  }
+
+  private static List<AccessResult> getGiContents(Urcb urcb) {
+    List<AccessResult> contents = new ArrayList<>();
+    synchronized (urcb) {
+      urcb.addReportContents(false, true, contents, null);
+    }
+    // the inclusion bit string is followed by the values of the two members
+    assertEquals(3, contents.size());
+    return contents;
+  }
+
+  @BeforeEach
+  public void startMonitoring() throws Exception {
+    serverModel = SclParser.parse(ICD_FILE).get(0);
+    serverSap = new ServerSap(0, 0, null, serverModel, null);
+    timer = Executors.newSingleThreadScheduledExecutor();
+
+    // two instances of the same URCB monitor dataset1
+    urcb1 = serverModel.getUrcb("ied1lDevice1/LLN0.urcb101");
+    urcb2 = serverModel.getUrcb("ied1lDevice1/LLN0.urcb102");
+    for (Urcb urcb : new Urcb[] {urcb1, urcb2}) {
+      // no reports are triggered by the timer while the test runs
+      urcb.getBufTm().setValue(3_600_000L);
+      urcb.getIntgPd().setValue(0L);
+      urcb.startMonitoring(timer);
+    }
+  }
+
+  @AfterEach
+  public void stopMonitoring() {
+    urcb1.stopMonitoring();
+    urcb2.stopMonitoring();
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void encodingsAreSharedByTheRcbsOfADataSet() throws Exception {
+    List<AccessResult> contents1 = getGiContents(urcb1);
+    List<AccessResult> contents2 = getGiContents(urcb2);
+
+    for (int i = 1; i < 3; i++) {
+      assertTrue(getCode(contents1.get(i)) == getCode(contents2.get(i)), "value " + i);
+    }
+  }
+
+  @Test
+  public void changedMemberIsEncodedAgain() throws Exception {
+    List<AccessResult> contents = getGiContents(urcb1);
+
+    ServerModel modelCopy = serverSap.getModelCopy();
+    BdaFloat32 mag = (BdaFloat32) modelCopy.findModelNode(CHANGING_MEMBER_REFERENCE, Fc.MX);
+    mag.setFloat(12.5f);
+    serverSap.setValues(Collections.<BasicDataAttribute>singletonList(mag));
+
+    List<AccessResult> changedContents1 = getGiContents(urcb1);
+    List<AccessResult> changedContents2 = getGiContents(urcb2);
+
+    // only the changed member is encoded again, and only once
+    assertTrue(getCode(contents.get(1)) == getCode(changedContents1.get(1)));
+    assertFalse(Arrays.equals(getCode(contents.get(2)), getCode(changedContents1.get(2))));
+    assertTrue(getCode(changedContents1.get(2)) == getCode(changedContents2.get(2)));
+  }
+
+  @Test
+  public void changeReportedRightAwayIsEncodedAgain() throws Exception {
+    // runs tasks without delay in the calling thread, so the report is created within setValues
+    ScheduledExecutorService immediateTimer =
+        new ScheduledThreadPoolExecutor(1) {
+          @Override
+          public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            if (delay != 0) {
+              return super.schedule(command, delay, unit);
+            }
+            FutureTask<Void> task = new FutureTask<>(command, null);
+            task.run();
+            // the task has completed, so running it again has no effect
+            return super.schedule(task, 0, unit);
+          }
+        };
+    Brcb brcb = serverModel.getBrcb("ied1lDevice1/LLN0.brcb1");
+    assertEquals(0, brcb.getBufTm().getValue());
+    MemoryReportBuffer buffer = new MemoryReportBuffer(1000);
+    brcb.setBuffer(buffer);
+    brcb.startBuffering(immediateTimer);
+    try {
+      // the value before the change is cached
+      getGiContents(urcb1);
+
+      ServerModel modelCopy = serverSap.getModelCopy();
+      BdaFloat32 mag = (BdaFloat32) modelCopy.findModelNode(CHANGING_MEMBER_REFERENCE, Fc.MX);
+      mag.setFloat(12.5f);
+      serverSap.setValues(Collections.<BasicDataAttribute>singletonList(mag));
+
+      long entryId = buffer.getLastEntryId();
+      assertEquals(1, buffer.getNumEntries());
+      // the inclusion bit string and the value of the changed member
+      List<byte[]> values = Rcb.splitEncoded(buffer.getEntry(entryId, false));
+      assertEquals(2, values.size());
+      FcModelNode member = serverModel.getDataSet("ied1lDevice1/LLN0.dataset1").getMember(1);
+      AccessResult expected = new AccessResult();
+      expected.setSuccess(new ModelNodeData(member));
+      ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+      expected.encode(reverseOS);
+      assertTrue(Arrays.equals(reverseOS.getArray(), values.get(1)));
+    } finally {
+      brcb.closeBuffer();
+      immediateTimer.shutdownNow();
+    }
+  }
+}
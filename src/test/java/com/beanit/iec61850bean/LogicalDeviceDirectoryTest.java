@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LogicalDeviceDirectoryTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+
+  private LogicalDevice logicalDevice;
+
+  private static List<String> getEntries(LogicalDeviceDirectory directory) {
+    List<String> entries = new ArrayList<>();
+    for (int i = 0; i < directory.size(); i++) {
+      entries.add(directory.get(i).toString());
+    }
+    return entries;
+  }
+
+  /** Pages through the directory the way GetNameList requests with continueAfter do. */
+  private static List<String> getEntriesByPage(LogicalDeviceDirectory directory, int pageSize) {
+    List<String> entries = new ArrayList<>();
+    int index = 0;
+    while (index < directory.size()) {
+      for (int i = 0; i < pageSize && index < directory.size(); i++) {
+        entries.add(directory.get(index++).toString());
+      }
+      // the next page starts right after the last entry of this page
+      assertEquals(index, directory.positionAfter(entries.get(entries.size() - 1)));
+    }
+    return entries;
+  }
+
+  @BeforeEach
+  public void parseModel() throws Exception {
+    ServerModel serverModel = SclParser.parse(ICD_FILE).get(0);
+    logicalDevice = (LogicalDevice) serverModel.getChild("ied1lDevice1");
+  }
+
+  @Test
+  public void entriesAreInModelOrder() {
+    List<String> entries = getEntries(logicalDevice.getMmsDirectory(ServerAssociation.mmsFcs));
+
+    assertEquals(entries.size(), new HashSet<>(entries).size());
+    int previousIndex = -1;
+    for (ModelNode logicalNode : logicalDevice) {
+      int index = entries.indexOf(logicalNode.getName());
+      assertTrue(index > previousIndex, logicalNode.getName());
+      previousIndex = index;
+    }
+    // a node is followed by its children
+    int index = entries.indexOf("MMXU1$MX$TotW");
+    assertEquals(index - 1, entries.indexOf("MMXU1$MX"));
+    assertEquals(index + 1, entries.indexOf("MMXU1$MX$TotW$mag"));
+    assertEquals(index + 2, entries.indexOf("MMXU1$MX$TotW$mag$f"));
+  }
+
+  @Test
+  public void pagesContinueAfterTheLastEntry() {
+    LogicalDeviceDirectory directory = logicalDevice.getMmsDirectory(ServerAssociation.mmsFcs);
+    List<String> entries = getEntries(directory);
+
+    for (int pageSize = 1; pageSize <= 10; pageSize++) {
+      assertEquals(entries, getEntriesByPage(directory, pageSize));
+    }
+    assertEquals(directory.size(), directory.positionAfter("MMXU1$MX$missing"));
+    assertEquals(1, directory.positionAfter(entries.get(0)));
+  }
+
+  @Test
+  public void concurrentRequestsGetTheSameDirectory() throws Exception {
+    final List<String> expectedEntries =
+        getEntries(new LogicalDeviceDirectory(logicalDevice, ServerAssociation.mmsFcs));
+
+    // the directory is built lazily by the first requests, which may run at the same time
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final int pageSize = i + 1;
+        results.add(
+            executor.submit(
+                new Callable<List<String>>() {
+                  @Override
+                  public List<String> call() {
+                    return getEntriesByPage(
+                        logicalDevice.getMmsDirectory(ServerAssociation.mmsFcs), pageSize);
+                  }
+                }));
+      }
+      for (Future<List<String>> result : results) {
+        assertEquals(expectedEntries, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MappedReportBufferTest {
+
+  private static final int SEGMENT_SIZE = MappedReportBuffer.SEGMENT_SIZE;
+  // the lengths of the segment and entry headers
+  private static final int SEGMENT_HEADER_LENGTH = 24;
+  private static final int ENTRY_HEADER_LENGTH = 28;
+  // 63 entries of this length fit into a segment
+  private static final int ENTRY_LENGTH = 1000;
+
+  private File directory;
+  private MappedReportBuffer buffer;
+
+  /** Returns an entry whose bytes are set to the EntryID, so that entries can be told apart. */
+  private static byte[] createEntry(long entryId, int length) {
+    byte[] entry = new byte[length];
+    Arrays.fill(entry, (byte) entryId);
+    return entry;
+  }
+
+  private static void add(MappedReportBuffer buffer, long entryId, int length) {
+    // the last two bytes stand for the reasons for inclusion
+    assertEquals(entryId, buffer.add(createEntry(entryId, length), 0, length - 2, length, entryId));
+  }
+
+  private static void assertEntries(
+      MappedReportBuffer buffer, long firstEntryId, long lastEntryId, int length) {
+    assertEquals(firstEntryId, buffer.getFirstEntryId());
+    assertEquals(lastEntryId, buffer.getLastEntryId());
+    assertEquals(lastEntryId - firstEntryId + 1, buffer.getNumEntries());
+    for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+      assertTrue(Arrays.equals(createEntry(entryId, length), buffer.getEntry(entryId, true)));
+      assertTrue(Arrays.equals(createEntry(entryId, length - 2), buffer.getEntry(entryId, false)));
+      assertEquals(entryId, buffer.getTimeOfEntry(entryId));
+    }
+  }
+
+  private MappedReportBuffer reopen(int numSegments) throws Exception {
+    buffer.close();
+    buffer = new MappedReportBuffer(directory, numSegments * SEGMENT_SIZE);
+    return buffer;
+  }
+
+  @BeforeEach
+  public void createBuffer() throws Exception {
+    directory = Files.createTempDirectory("iec61850bean-report-buffer").toFile();
+    buffer = new MappedReportBuffer(directory, 3 * SEGMENT_SIZE);
+    buffer.setConfiguration("dataset1");
+  }
+
+  @AfterEach
+  public void deleteBuffer() {
+    buffer.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void entriesSurviveReopening() throws Exception {
+    // the entries span all three segments
+    for (long entryId = 1; entryId <= 150; entryId++) {
+      add(buffer, entryId, ENTRY_LENGTH);
+    }
+
+    reopen(3);
+
+    assertEntries(buffer, 1, 150, ENTRY_LENGTH);
+    add(buffer, 151, ENTRY_LENGTH);
+    // the configuration was restored, so the entries are kept
+    buffer.setConfiguration("dataset1");
+    assertEquals(151, buffer.getNumEntries());
+  }
+
+  @Test
+  public void discardedSegmentsStayDiscardedAfterReopening() throws Exception {
+    // the oldest segments have been reused twice
+    for (long entryId = 1; entryId <= 300; entryId++) {
+      add(buffer, entryId, ENTRY_LENGTH);
+    }
+    long firstEntryId = buffer.getFirstEntryId();
+    assertTrue(firstEntryId > 1);
+
+    reopen(3);
+
+    assertEntries(buffer, firstEntryId, 300, ENTRY_LENGTH);
+    add(buffer, 301, ENTRY_LENGTH);
+  }
+
+  @Test
+  public void entriesAreCutAtTheFirstCorruptedEntry() throws Exception {
+    for (long entryId = 1; entryId <= 10; entryId++) {
+      add(buffer, entryId, 100);
+    }
+    buffer.close();
+
+    // entry 8 of the newest segment was only written partially
+    try (RandomAccessFile raf = new RandomAccessFile(new File(directory, "segment0.dat"), "rw")) {
+      raf.seek(SEGMENT_HEADER_LENGTH + 7 * (ENTRY_HEADER_LENGTH + 100) + ENTRY_HEADER_LENGTH + 50);
+      raf.write(0);
+    }
+    buffer = new MappedReportBuffer(directory, 3 * SEGMENT_SIZE);
+
+    assertEntries(buffer, 1, 7, 100);
+    assertFalse(buffer.contains(8));
+    // the corrupted entry and the entries after it are overwritten
+    add(buffer, 8, 100);
+    reopen(3);
+    assertEntries(buffer, 1, 8, 100);
+  }
+
+  @Test
+  public void segmentsOfAnotherCapacityAreNotUsedAgain() throws Exception {
+    reopen(4);
+    for (long entryId = 1; entryId <= 200; entryId++) {
+      add(buffer, entryId, ENTRY_LENGTH);
+    }
+
+    reopen(2);
+    assertEquals(0, buffer.getNumEntries());
+    reopen(4);
+    assertEquals(0, buffer.getNumEntries());
+    reopen(3);
+    assertEquals(0, buffer.getNumEntries());
+    assertEquals(1, buffer.getFirstEntryId());
+  }
+
+  @Test
+  public void closeReleasesTheMapping() throws Exception {
+    File maps = new File("/proc/self/maps");
+    if (!maps.exists()) {
+      // the mappings of the process can only be listed on Linux
+      return;
+    }
+    add(buffer, 1, 100);
+    assertTrue(mapsDirectory(maps));
+
+    buffer.close();
+
+    assertFalse(mapsDirectory(maps));
+    // closing the buffer again has no effect
+    buffer.close();
+  }
+
+  private boolean mapsDirectory(File maps) throws Exception {
+    for (String line : Files.readAllLines(maps.toPath())) {
+      if (line.contains(directory.getPath())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class MemoryReportBufferTest {
+
+  /** Returns an entry whose bytes are set to the EntryID, so that entries can be told apart. */
+  private static byte[] createEntry(long entryId, int length) {
+    byte[] entry = new byte[length];
+    Arrays.fill(entry, (byte) entryId);
+    return entry;
+  }
+
+  private static long add(MemoryReportBuffer buffer, long entryId, int length) {
+    // the last two bytes stand for the reasons for inclusion
+    return buffer.add(createEntry(entryId, length), 0, length - 2, length, entryId * 1000);
+  }
+
+  private static void assertEntry(MemoryReportBuffer buffer, long entryId, int length) {
+    assertTrue(buffer.contains(entryId));
+    assertTrue(Arrays.equals(createEntry(entryId, length), buffer.getEntry(entryId, true)));
+    assertTrue(Arrays.equals(createEntry(entryId, length - 2), buffer.getEntry(entryId, false)));
+    assertEquals(entryId * 1000, buffer.getTimeOfEntry(entryId));
+  }
+
+  @Test
+  public void entriesWrapAroundTheEndOfTheBuffer() {
+    MemoryReportBuffer buffer = new MemoryReportBuffer(100);
+    for (long entryId = 1; entryId <= 3; entryId++) {
+      assertEquals(entryId, add(buffer, entryId, 30));
+    }
+
+    // 10 bytes of the entry are stored at the end and 20 at the start of the buffer
+    assertEquals(4, add(buffer, 4, 30));
+
+    assertFalse(buffer.contains(1));
+    assertEquals(2, buffer.getFirstEntryId());
+    assertEquals(4, buffer.getLastEntryId());
+    assertEquals(3, buffer.getNumEntries());
+    for (long entryId = 2; entryId <= 4; entryId++) {
+      assertEntry(buffer, entryId, 30);
+    }
+  }
+
+  @Test
+  public void oldestEntriesAreDiscardedUntilTheNewEntryFits() {
+    MemoryReportBuffer buffer = new MemoryReportBuffer(100);
+    for (long entryId = 1; entryId <= 5; entryId++) {
+      add(buffer, entryId, 20);
+    }
+
+    assertEquals(6, add(buffer, 6, 70));
+
+    assertEquals(5, buffer.getFirstEntryId());
+    assertEquals(2, buffer.getNumEntries());
+    assertEntry(buffer, 5, 20);
+    assertEntry(buffer, 6, 70);
+
+    // an entry larger than the buffer is not added
+    assertEquals(0, add(buffer, 7, 101));
+    assertEquals(6, buffer.getLastEntryId());
+    assertEntry(buffer, 6, 70);
+  }
+
+  @Test
+  public void entryTableGrowsWhileItWrapsAround() {
+    MemoryReportBuffer buffer = new MemoryReportBuffer(400);
+    // the large entries are discarded later, so the oldest entry is not the first of the table
+    for (long entryId = 1; entryId <= 5; entryId++) {
+      add(buffer, entryId, 60);
+    }
+    for (long entryId = 6; entryId <= 69; entryId++) {
+      assertEquals(entryId, add(buffer, entryId, 5));
+    }
+
+    // the table has grown from 64 to 128 entries
+    assertEquals(65, buffer.getNumEntries());
+    assertEntry(buffer, 5, 60);
+    for (long entryId = 6; entryId <= 69; entryId++) {
+      assertEntry(buffer, entryId, 5);
+    }
+
+    long lastEntryId = 69;
+    for (int i = 0; i < 200; i++) {
+      lastEntryId++;
+      assertEquals(lastEntryId, add(buffer, lastEntryId, 5));
+    }
+    // 80 entries of 5 bytes fit into the buffer
+    assertEquals(80, buffer.getNumEntries());
+    assertEquals(lastEntryId - 79, buffer.getFirstEntryId());
+    for (long entryId = lastEntryId - 79; entryId <= lastEntryId; entryId++) {
+      assertEntry(buffer, entryId, 5);
+    }
+  }
+
+  @Test
+  public void entryIdsContinueAfterClear() {
+    MemoryReportBuffer buffer = new MemoryReportBuffer(100);
+    buffer.setConfiguration("dataset1");
+    add(buffer, 1, 10);
+    add(buffer, 2, 10);
+
+    buffer.setConfiguration("dataset1");
+    assertEquals(2, buffer.getNumEntries());
+
+    buffer.setConfiguration("dataset2");
+    assertEquals(0, buffer.getNumEntries());
+    assertEquals(3, buffer.getFirstEntryId());
+    assertEquals(2, buffer.getLastEntryId());
+    assertFalse(buffer.contains(2));
+
+    assertEquals(3, add(buffer, 3, 10));
+    assertEntry(buffer, 3, 10);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the direct BER encoder and decoder of model nodes are interchangeable with encoding
+ * and decoding the generated Data objects.
+ */
+public class MmsDataCodingTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+
+  private ServerModel serverModel;
+
+  /** Sets a value that differs from the default value and depends on the given seed. */
+  private static void setTestValue(BasicDataAttribute bda, int seed) {
+    if (bda instanceof BdaFloat32) {
+      ((BdaFloat32) bda).setFloat(-1.5f * seed);
+    } else if (bda instanceof BdaFloat64) {
+      ((BdaFloat64) bda).setDouble(-2.25 * seed);
+    } else if (bda instanceof BdaInt8) {
+      ((BdaInt8) bda).setValue((byte) -seed);
+    } else if (bda instanceof BdaInt8U) {
+      ((BdaInt8U) bda).setValue((short) (200 + seed % 50));
+    } else if (bda instanceof BdaInt16) {
+      ((BdaInt16) bda).setValue((short) (-300 * (seed % 100)));
+    } else if (bda instanceof BdaInt16U) {
+      ((BdaInt16U) bda).setValue(60000 - seed);
+    } else if (bda instanceof BdaInt32) {
+      ((BdaInt32) bda).setValue(-70000 * seed);
+    } else if (bda instanceof BdaInt32U) {
+      ((BdaInt32U) bda).setValue(4000000000L - seed);
+    } else if (bda instanceof BdaInt64) {
+      ((BdaInt64) bda).setValue(Long.MIN_VALUE + seed);
+    } else if (bda instanceof BdaInt128) {
+      ((BdaInt128) bda).setValue(-1000000007L * seed);
+    } else if (bda instanceof BdaBoolean) {
+      ((BdaBoolean) bda).setValue(true);
+    } else if (bda instanceof BdaVisibleString) {
+      ((BdaVisibleString) bda).setValue("v" + seed);
+    } else if (bda instanceof BdaUnicodeString) {
+      ((BdaUnicodeString) bda).setValue(new byte[] {(byte) 0xc3, (byte) 0xa4, (byte) seed});
+    } else if (bda instanceof BdaOctetString) {
+      ((BdaOctetString) bda).setValue(new byte[] {(byte) seed, (byte) 0xff});
+    } else if (bda instanceof BdaTimestamp) {
+      byte[] value = new byte[8];
+      Arrays.fill(value, (byte) (seed | 0x81));
+      ((BdaTimestamp) bda).setValue(value);
+    } else if (bda instanceof BdaEntryTime) {
+      byte[] value = new byte[6];
+      Arrays.fill(value, (byte) (seed | 0x42));
+      ((BdaEntryTime) bda).setValue(value);
+    } else if (bda instanceof BdaBitString) {
+      BdaBitString bitString = (BdaBitString) bda;
+      byte[] value = new byte[bitString.getValue().length];
+      Arrays.fill(value, (byte) (0xa5 ^ seed));
+      // the unused bits of the last octet are not transmitted
+      value[value.length - 1] &= (byte) (0xff << (value.length * 8 - bitString.getMaxNumBits()));
+      bitString.setValue(value);
+    }
+  }
+
+  private static List<FcModelNode> getDataObjects(ServerModel serverModel) {
+    List<FcModelNode> dataObjects = new ArrayList<>();
+    for (ModelNode ld : serverModel) {
+      for (ModelNode ln : ld) {
+        for (ModelNode dataObject : ln) {
+          dataObjects.add((FcModelNode) dataObject);
+        }
+      }
+    }
+    return dataObjects;
+  }
+
+  private static byte[] encodeDirectly(ModelNode modelNode) throws Exception {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+    int codeLength = modelNode.encodeMmsData(reverseOS);
+    byte[] code = reverseOS.getArray();
+    assertEquals(code.length, codeLength);
+    return code;
+  }
+
+  private static byte[] encode(Data data) throws Exception {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(100, true);
+    data.encode(reverseOS);
+    return reverseOS.getArray();
+  }
+
+  private static int getErrorCode(ModelNode target, byte[] code) {
+    try {
+      target.setValueFromBer(new MmsDataReader(ByteBuffer.wrap(code)));
+    } catch (ServiceError e) {
+      return e.getErrorCode();
+    }
+    return -1;
+  }
+
+  private FcModelNode findInNewModel(FcModelNode node) throws Exception {
+    return (FcModelNode)
+        SclParser.parse(ICD_FILE).get(0).findModelNode(node.getReference(), node.getFc());
+  }
+
+  @BeforeEach
+  public void setTestValues() throws Exception {
+    serverModel = SclParser.parse(ICD_FILE).get(0);
+    int seed = 1;
+    for (BasicDataAttribute bda : serverModel.getBasicDataAttributes()) {
+      setTestValue(bda, seed++);
+    }
+  }
+
+  @Test
+  public void directEncodingEqualsEncodingOfData() throws Exception {
+    for (FcModelNode dataObject : getDataObjects(serverModel)) {
+      byte[] code = encode(dataObject.getMmsDataObj());
+      assertTrue(
+          Arrays.equals(code, encodeDirectly(dataObject)), dataObject.getReference().toString());
+      // the Data element that read responses and reports encode the node with
+      assertTrue(Arrays.equals(code, encode(new ModelNodeData(dataObject))));
+    }
+  }
+
+  @Test
+  public void directDecodingEqualsDecodingOfData() throws Exception {
+    ServerModel directlyDecoded = SclParser.parse(ICD_FILE).get(0);
+    ServerModel decodedFromData = SclParser.parse(ICD_FILE).get(0);
+
+    for (FcModelNode dataObject : getDataObjects(serverModel)) {
+      byte[] code = encode(dataObject.getMmsDataObj());
+
+      ModelNode target =
+          directlyDecoded.findModelNode(dataObject.getReference(), dataObject.getFc());
+      ByteBuffer buffer = ByteBuffer.wrap(code);
+      target.setValueFromBer(new MmsDataReader(buffer));
+      assertEquals(code.length, buffer.position());
+
+      Data decodedData = new Data();
+      decodedData.decode(new ByteArrayInputStream(code));
+      decodedFromData
+          .findModelNode(dataObject.getReference(), dataObject.getFc())
+          .setValueFromMmsDataObj(decodedData);
+
+      // the values survive the round trip
+      assertTrue(
+          Arrays.equals(code, encode(target.getMmsDataObj())),
+          dataObject.getReference().toString());
+    }
+
+    List<BasicDataAttribute> bdas = serverModel.getBasicDataAttributes();
+    List<BasicDataAttribute> directlyDecodedBdas = directlyDecoded.getBasicDataAttributes();
+    List<BasicDataAttribute> bdasDecodedFromData = decodedFromData.getBasicDataAttributes();
+    for (int i = 0; i < bdas.size(); i++) {
+      assertEquals(bdas.get(i).getValueString(), directlyDecodedBdas.get(i).getValueString());
+      assertEquals(
+          bdasDecodedFromData.get(i).getValueString(), directlyDecodedBdas.get(i).getValueString());
+    }
+  }
+
+  @Test
+  public void mismatchingTypeIsRejectedLikeData() throws Exception {
+    FcModelNode namePlate =
+        (FcModelNode) serverModel.findModelNode("ied1lDevice1/LLN0.NamPlt", Fc.DC);
+    FcModelNode totW = (FcModelNode) serverModel.findModelNode("ied1lDevice1/MMXU1.TotW", Fc.MX);
+    byte[] code = encode(namePlate.getMmsDataObj());
+
+    Data data = new Data();
+    data.decode(new ByteArrayInputStream(code));
+    int expectedErrorCode = -1;
+    try {
+      findInNewModel(totW).setValueFromMmsDataObj(data);
+    } catch (ServiceError e) {
+      expectedErrorCode = e.getErrorCode();
+    }
+
+    assertEquals(ServiceError.TYPE_CONFLICT, expectedErrorCode);
+    assertEquals(expectedErrorCode, getErrorCode(findInNewModel(totW), code));
+  }
+
+  @Test
+  public void truncatedEncodingIsRejected() throws Exception {
+    FcModelNode totW = (FcModelNode) serverModel.findModelNode("ied1lDevice1/MMXU1.TotW", Fc.MX);
+    byte[] code = encode(totW.getMmsDataObj());
+
+    for (int length = 0; length < code.length; length++) {
+      assertEquals(
+          ServiceError.FAILED_DUE_TO_COMMUNICATIONS_CONSTRAINT,
+          getErrorCode(findInNewModel(totW), Arrays.copyOf(code, length)),
+          "length " + length);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ModelCacheTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  private static final int PORT = 54326;
+
+  private File directory;
+  private ModelCache modelCache;
+  private InetAddress address;
+  private ServerSap serverSap;
+  private ClientAssociation association;
+
+  @BeforeEach
+  public void createCache() throws Exception {
+    directory = Files.createTempDirectory("iec61850bean-model-cache").toFile();
+    modelCache = new ModelCache(directory);
+    address = InetAddress.getByName("127.0.0.1");
+
+    serverSap = new ServerSap(PORT, 0, null, SclParser.parse(ICD_FILE).get(0), null);
+    serverSap.startListening(
+        new ServerEventListener() {
+          @Override
+          public List<ServiceError> write(List<BasicDataAttribute> bdas) {
+            return null;
+          }
+
+          @Override
+          public void serverStoppedListening(ServerSap serverSap) {}
+        });
+    association = new ClientSap().associate(address, PORT, null, null);
+  }
+
+  @AfterEach
+  public void deleteCache() {
+    association.close();
+    serverSap.stop();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void storedModelEqualsRetrievedModel() throws Exception {
+    ServerModel retrievedModel = association.retrieveModel();
+
+    modelCache.store(address, PORT, "fingerprint", retrievedModel);
+    ServerModel cachedModel = modelCache.load(address, PORT, "fingerprint");
+
+    assertNotNull(cachedModel);
+    assertEquals(retrievedModel.toString(), cachedModel.toString());
+  }
+
+  @Test
+  public void modelIsRetrievedOnceAndThenTakenFromCache() throws Exception {
+    ServerModel retrievedModel = association.retrieveModel(modelCache);
+    assertEquals(1, directory.listFiles().length);
+    // the file is not replaced if the model is taken from the cache
+    File file = directory.listFiles()[0];
+    assertTrue(file.setLastModified(0));
+
+    ClientAssociation association2 = new ClientSap().associate(address, PORT, null, null);
+    try {
+      ServerModel cachedModel = association2.retrieveModel(modelCache);
+      assertEquals(retrievedModel.toString(), cachedModel.toString());
+      assertEquals(0, file.lastModified());
+      // the cached model is used for reading
+      association2.getDataValues(
+          (FcModelNode) cachedModel.findModelNode("ied1lDevice1/LLN0.NamPlt.vendor", Fc.DC));
+    } finally {
+      association2.close();
+    }
+  }
+
+  @Test
+  public void changedFingerprintIsCacheMiss() throws Exception {
+    modelCache.store(address, PORT, "fingerprint", association.retrieveModel());
+
+    assertNull(modelCache.load(address, PORT, "changed fingerprint"));
+    assertNotNull(modelCache.load(address, PORT, "fingerprint"));
+  }
+
+  @Test
+  public void damagedFileIsCacheMiss() throws Exception {
+    ServerModel retrievedModel = association.retrieveModel();
+    modelCache.store(address, PORT, "fingerprint", retrievedModel);
+    File file = directory.listFiles()[0];
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() / 2);
+    }
+    assertNull(modelCache.load(address, PORT, "fingerprint"));
+
+    modelCache.store(address, PORT, "fingerprint", retrievedModel);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(raf.length() / 2);
+      int b = raf.read();
+      raf.seek(raf.length() / 2);
+      raf.write(~b);
+    }
+    assertNull(modelCache.load(address, PORT, "fingerprint"));
+
+    // the model is retrieved from the server instead
+    assertEquals(retrievedModel.toString(), association.retrieveModel(modelCache).toString());
+    assertEquals(1, directory.listFiles().length);
+  }
+}
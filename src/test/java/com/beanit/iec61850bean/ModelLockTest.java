@@ -0,0 +1,261 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ModelLockTest {
+
+  private ModelNode ld1;
+  private ModelNode ld2;
+  private ModelLock modelLock;
+
+  private static LogicalDevice createLogicalDevice(String name) {
+    LogicalNode lln0 =
+        new LogicalNode(new ObjectReference(name + "/LLN0"), Collections.<FcDataObject>emptyList());
+    return new LogicalDevice(new ObjectReference(name), Arrays.asList(lln0));
+  }
+
+  /**
+   * Locks the given nodes in a new thread. The returned latch is counted down once the lock has
+   * been acquired. The lock is held until <code>release</code> has been counted down.
+   */
+  private static CountDownLatch lockInThread(
+      final ModelLock modelLock,
+      final List<ModelNode> nodes,
+      final boolean forWriting,
+      final CountDownLatch release) {
+    final CountDownLatch locked = new CountDownLatch(1);
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                BitSet stripes =
+                    forWriting ? modelLock.lockForWriting(nodes) : modelLock.lockForReading(nodes);
+                locked.countDown();
+                try {
+                  release.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                } finally {
+                  if (forWriting) {
+                    modelLock.unlockForWriting(stripes);
+                  } else {
+                    modelLock.unlockForReading(stripes);
+                  }
+                }
+              }
+            });
+    thread.setDaemon(true);
+    thread.start();
+    return locked;
+  }
+
+  @BeforeEach
+  public void createModelLock() {
+    ServerModel serverModel =
+        new ServerModel(
+            Arrays.asList(createLogicalDevice("ld1"), createLogicalDevice("ld2")), null);
+    ld1 = serverModel.getChild("ld1");
+    ld2 = serverModel.getChild("ld2");
+    modelLock = new ModelLock(serverModel);
+  }
+
+  @Test
+  public void concurrentReadersAreNotSerialized() throws Exception {
+    modelLock.setConcurrent(true);
+
+    BitSet stripes = modelLock.lockForReading(Arrays.asList(ld1, ld2));
+    assertNotNull(stripes);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      CountDownLatch locked = lockInThread(modelLock, Arrays.asList(ld1, ld2), false, release);
+      assertTrue(locked.await(5, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      modelLock.unlockForReading(stripes);
+    }
+  }
+
+  @Test
+  public void writerOnlyBlocksReadersOfItsLogicalDevice() throws Exception {
+    modelLock.setConcurrent(true);
+
+    BitSet stripes = modelLock.lockForWriting(Collections.singletonList(ld1));
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch ld1Locked;
+    try {
+      CountDownLatch ld2Locked =
+          lockInThread(modelLock, Collections.singletonList(ld2), false, release);
+      assertTrue(ld2Locked.await(5, TimeUnit.SECONDS));
+
+      // readers lock the logical device of the nodes they read
+      ld1Locked =
+          lockInThread(modelLock, Collections.singletonList(ld1.getChild("LLN0")), false, release);
+      assertFalse(ld1Locked.await(200, TimeUnit.MILLISECONDS));
+    } finally {
+      modelLock.unlockForWriting(stripes);
+    }
+    try {
+      assertTrue(ld1Locked.await(5, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void exclusiveModeSerializesReaders() throws Exception {
+    BitSet stripes = modelLock.lockForReading(Collections.singletonList(ld1));
+    assertNull(stripes);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch locked;
+    try {
+      locked = lockInThread(modelLock, Collections.singletonList(ld2), false, release);
+      assertFalse(locked.await(200, TimeUnit.MILLISECONDS));
+    } finally {
+      modelLock.unlockForReading(stripes);
+    }
+    try {
+      assertTrue(locked.await(5, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void exclusiveLockWaitsForConcurrentReaders() throws Exception {
+    modelLock.setConcurrent(true);
+
+    BitSet stripes = modelLock.lockForReading(Collections.singletonList(ld2));
+    final CountDownLatch locked = new CountDownLatch(1);
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                modelLock.lockExclusively();
+                locked.countDown();
+                modelLock.unlockExclusively();
+              }
+            });
+    thread.setDaemon(true);
+    try {
+      thread.start();
+      assertFalse(locked.await(200, TimeUnit.MILLISECONDS));
+    } finally {
+      modelLock.unlockForReading(stripes);
+    }
+    assertTrue(locked.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void stripedAccessStaysConsistent() throws Exception {
+    modelLock.setConcurrent(true);
+
+    // a value of each logical device that is only accessed while holding the model lock
+    final int[] values = new int[2];
+    final int numIterations = 2000;
+    final AtomicInteger numInconsistentReads = new AtomicInteger();
+    final List<ModelNode> bothInOrder = Arrays.asList(ld1, ld2);
+    final List<ModelNode> bothReversed = Arrays.asList(ld2.getChild("LLN0"), ld1);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      // the writers pass the logical devices in different orders
+      final List<ModelNode> writtenNodes = i % 2 == 0 ? bothInOrder : bothReversed;
+      threads.add(
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int j = 0; j < numIterations; j++) {
+                    BitSet stripes = modelLock.lockForWriting(writtenNodes);
+                    try {
+                      values[0]++;
+                      Thread.yield();
+                      values[1]++;
+                    } finally {
+                      modelLock.unlockForWriting(stripes);
+                    }
+                  }
+                }
+              }));
+      threads.add(
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int j = 0; j < numIterations; j++) {
+                    BitSet stripes = modelLock.lockForReading(bothReversed);
+                    try {
+                      if (values[0] != values[1]) {
+                        numInconsistentReads.incrementAndGet();
+                      }
+                    } finally {
+                      modelLock.unlockForReading(stripes);
+                    }
+                  }
+                }
+              }));
+    }
+    // operations other than value access lock the whole model in between
+    threads.add(
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                for (int j = 0; j < numIterations / 10; j++) {
+                  modelLock.lockExclusively();
+                  try {
+                    if (values[0] != values[1]) {
+                      numInconsistentReads.incrementAndGet();
+                    }
+                  } finally {
+                    modelLock.unlockExclusively();
+                  }
+                  Thread.yield();
+                }
+              }
+            }));
+
+    for (Thread thread : threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join(30000);
+      assertFalse(thread.isAlive(), "deadlock");
+    }
+
+    assertEquals(0, numInconsistentReads.get());
+    assertEquals(4 * numIterations, values[0]);
+    assertEquals(4 * numIterations, values[1]);
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.beanit.asn1bean.ber.types.string.BerVisibleString;
+import com.beanit.iec61850bean.internal.BerBoolean;
+import com.beanit.iec61850bean.internal.mms.asn1.AccessResult;
+import com.beanit.iec61850bean.internal.mms.asn1.Data;
+import com.beanit.iec61850bean.internal.mms.asn1.DataAccessError;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.Test;
+
+public class RcbTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+
+  private static AccessResult visibleString(int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, 'x');
+    Data data = new Data();
+    data.setVisibleString(new BerVisibleString(new String(chars)));
+    AccessResult accessResult = new AccessResult();
+    accessResult.setSuccess(data);
+    return accessResult;
+  }
+
+  private static BasicDataAttribute getBda(ServerModel serverModel, String reference) {
+    return (BasicDataAttribute) serverModel.findModelNode("ied1lDevice1/" + reference, Fc.MX);
+  }
+
+  private static byte getFirstByte(AccessResult accessResult) {
+    return accessResult.getSuccess().getBitString().value[0];
+  }
+
+  /**
+   * Reports a data change, a quality change and a data update to the URCB monitoring the given
+   * members and returns the values and reasons for inclusion of the resulting report.
+   */
+  private static List<AccessResult> reportChanges(ServerModel serverModel, String... members) {
+    List<FcModelNode> dataSetMembers = new ArrayList<>();
+    for (String member : members) {
+      dataSetMembers.add((FcModelNode) serverModel.findModelNode("ied1lDevice1/" + member, Fc.MX));
+    }
+    Urcb urcb = serverModel.getUrcb("ied1lDevice1/LLN0.urcb101");
+    urcb.dataSet = new DataSet("ied1lDevice1/LLN0.overlapping", dataSetMembers);
+    // no report is triggered by the timer while the test runs
+    urcb.getBufTm().setValue(3_600_000L);
+    urcb.getIntgPd().setValue(0L);
+
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    List<AccessResult> contents = new ArrayList<>();
+    synchronized (urcb) {
+      urcb.startMonitoring(timer);
+      try {
+        urcb.report(getBda(serverModel, "MMXU1.W.phsA.cVal.mag.f"), true, false, false);
+        urcb.report(getBda(serverModel, "MMXU1.W.phsB.q"), false, true, false);
+        urcb.report(getBda(serverModel, "MMXU1.TotW.t"), false, false, true);
+        // not part of the data set
+        urcb.report(
+            (BasicDataAttribute) serverModel.findModelNode("ied1lDevice1/MMXU1.Beh.stVal", Fc.ST),
+            true,
+            false,
+            false);
+
+        List<AccessResult> reasons = new ArrayList<>();
+        urcb.addReportContents(false, false, contents, reasons);
+        contents.addAll(reasons);
+
+        // the changes have been reported
+        List<AccessResult> nextContents = new ArrayList<>();
+        urcb.addReportContents(false, false, nextContents, null);
+        assertEquals(1, nextContents.size());
+        assertEquals(0, getFirstByte(nextContents.get(0)));
+      } finally {
+        urcb.stopMonitoring();
+        timer.shutdownNow();
+      }
+    }
+    return contents;
+  }
+
+  @Test
+  public void changesAreReportedForTheInnermostMember() throws Exception {
+    ServerModel serverModel = SclParser.parse(ICD_FILE).get(0);
+
+    List<AccessResult> contents =
+        reportChanges(serverModel, "MMXU1.W", "MMXU1.TotW", "MMXU1.W.phsA.cVal.mag.f");
+
+    // the inclusion bit string, the values and the reasons of all three members
+    assertEquals(7, contents.size());
+    assertEquals((byte) 0xe0, getFirstByte(contents.get(0)));
+    assertEquals(0x20, getFirstByte(contents.get(4)));
+    assertEquals(0x10, getFirstByte(contents.get(5)));
+    assertEquals(0x40, getFirstByte(contents.get(6)));
+
+    // the innermost member wins regardless of the order of the members
+    contents = reportChanges(serverModel, "MMXU1.W.phsA.cVal.mag.f", "MMXU1.TotW", "MMXU1.W");
+
+    assertEquals(7, contents.size());
+    assertEquals((byte) 0xe0, getFirstByte(contents.get(0)));
+    assertEquals(0x40, getFirstByte(contents.get(4)));
+    assertEquals(0x10, getFirstByte(contents.get(5)));
+    assertEquals(0x20, getFirstByte(contents.get(6)));
+  }
+
+  @Test
+  public void splitEncodedHandlesMultiByteLengths() throws Exception {
+    List<AccessResult> accessResults = new ArrayList<>();
+    // the lengths are encoded in one, two and three bytes
+    accessResults.add(visibleString(10));
+    accessResults.add(visibleString(200));
+    accessResults.add(visibleString(300));
+
+    Data bool = new Data();
+    bool.setBool(new BerBoolean(true));
+    AccessResult accessResult = new AccessResult();
+    accessResult.setSuccess(bool);
+    accessResults.add(accessResult);
+
+    // a constructed value whose contents have multi-byte lengths themselves
+    Data.Structure structure = new Data.Structure();
+    for (int i = 0; i < 3; i++) {
+      structure.getData().add(visibleString(150).getSuccess());
+    }
+    Data data = new Data();
+    data.setStructure(structure);
+    accessResult = new AccessResult();
+    accessResult.setSuccess(data);
+    accessResults.add(accessResult);
+
+    accessResult = new AccessResult();
+    accessResult.setFailure(new DataAccessError(10));
+    accessResults.add(accessResult);
+
+    List<byte[]> codes = Rcb.encodeEach(accessResults);
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    for (byte[] code : codes) {
+      concatenated.write(code);
+    }
+
+    List<byte[]> splitCodes = Rcb.splitEncoded(concatenated.toByteArray());
+
+    assertEquals(codes.size(), splitCodes.size());
+    for (int i = 0; i < codes.size(); i++) {
+      assertTrue(Arrays.equals(codes.get(i), splitCodes.get(i)), "access result " + i);
+    }
+  }
+}
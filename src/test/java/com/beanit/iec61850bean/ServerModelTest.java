@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ServerModelTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  private static final String LD_NAME = "ied1lDevice1";
+
+  private ServerModel serverModel;
+
+  private void addDataSet(String name) {
+    FcModelNode member =
+        (FcModelNode) serverModel.findModelNode(LD_NAME + "/MMXU1.TotW", Fc.MX).copy();
+    serverModel.addDataSet(new DataSet(LD_NAME + "/" + name, Collections.singletonList(member)));
+  }
+
+  private List<String> getDataSetNames(String continueAfter) {
+    return new ArrayList<>(serverModel.getDataSetNames(LD_NAME, continueAfter));
+  }
+
+  @BeforeEach
+  public void parseModel() throws Exception {
+    serverModel = SclParser.parse(ICD_FILE).get(0);
+  }
+
+  @Test
+  public void dataSetNamesAreListedInModelOrder() {
+    assertEquals(Arrays.asList("LLN0$dataset1", "LLN0$dataset2"), getDataSetNames(null));
+
+    // the names of added data sets follow the existing ones although they sort before them
+    addDataSet("LLN0.b");
+    addDataSet("LLN0.a");
+
+    assertEquals(
+        Arrays.asList("LLN0$dataset1", "LLN0$dataset2", "LLN0$b", "LLN0$a"),
+        getDataSetNames(null));
+    assertEquals(Arrays.asList("LLN0$b", "LLN0$a"), getDataSetNames("LLN0$dataset2"));
+    assertEquals(Collections.singletonList("LLN0$a"), getDataSetNames("LLN0$b"));
+    assertTrue(getDataSetNames("LLN0$a").isEmpty());
+    assertTrue(serverModel.getDataSetNames("ied1lDevice2", null).isEmpty());
+  }
+
+  @Test
+  public void removedDataSetNamesAreNotListed() {
+    addDataSet("LLN0.b");
+    addDataSet("LLN0.a");
+
+    serverModel.removeDataSet(LD_NAME + "/LLN0.b");
+
+    assertEquals(Arrays.asList("LLN0$dataset1", "LLN0$dataset2", "LLN0$a"), getDataSetNames(null));
+    // a page cannot continue after a name that no longer exists
+    assertTrue(getDataSetNames("LLN0$b").isEmpty());
+
+    // a data set that is added again is listed last
+    addDataSet("LLN0.b");
+    assertEquals(
+        Arrays.asList("LLN0$dataset1", "LLN0$dataset2", "LLN0$a", "LLN0$b"),
+        getDataSetNames(null));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TimerWheelTest {
+
+  // the tolerance for the execution of a task after its deadline
+  private static final long TOLERANCE_MILLIS = 100;
+
+  private TimerWheel timer;
+
+  private static Runnable countDown(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    };
+  }
+
+  @BeforeEach
+  public void createTimer() {
+    timer = new TimerWheel("iec61850bean-test-timer", 1, TimeUnit.MILLISECONDS, 512);
+  }
+
+  @AfterEach
+  public void shutdownTimer() {
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void cancelledTasksDoNotAccumulate() throws Exception {
+    final AtomicInteger numExecutions = new AtomicInteger(0);
+    Runnable task =
+        new Runnable() {
+          @Override
+          public void run() {
+            numExecutions.incrementAndGet();
+          }
+        };
+    for (int i = 0; i < 10_000; i++) {
+      ScheduledFuture<?> future = timer.schedule(task, 50 + i % 1000, TimeUnit.MILLISECONDS);
+      assertEquals(1, timer.getNumPendingTasks());
+      assertTrue(future.cancel(false));
+      assertEquals(0, timer.getNumPendingTasks());
+    }
+
+    Thread.sleep(1100);
+    assertEquals(0, numExecutions.get());
+    assertEquals(0, timer.getNumPendingTasks());
+  }
+
+  @Test
+  public void delaysLongerThanTheWheelFireAfterTheirRounds() throws Exception {
+    // 600 and 1300 ticks need one and two full rounds of the 512 buckets
+    long[] delays = {600, 1300};
+    CountDownLatch[] latches = new CountDownLatch[delays.length];
+    long start = System.nanoTime();
+    for (int i = 0; i < delays.length; i++) {
+      latches[i] = new CountDownLatch(1);
+      timer.schedule(countDown(latches[i]), delays[i], TimeUnit.MILLISECONDS);
+    }
+    assertEquals(delays.length, timer.getNumPendingTasks());
+
+    for (int i = 0; i < delays.length; i++) {
+      assertTrue(latches[i].await(delays[i] + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue(elapsedMillis >= delays[i], "fired after " + elapsedMillis + " ms");
+      assertTrue(
+          elapsedMillis < delays[i] + TOLERANCE_MILLIS, "fired after " + elapsedMillis + " ms");
+    }
+    assertEquals(0, timer.getNumPendingTasks());
+  }
+
+  @Test
+  public void fixedRateTasksAreRescheduled() throws Exception {
+    final int numExecutions = 10;
+    final long period = 20;
+    final CountDownLatch executed = new CountDownLatch(numExecutions);
+    final AtomicLong lastExecution = new AtomicLong();
+    long start = System.nanoTime();
+    ScheduledFuture<?> future =
+        timer.scheduleAtFixedRate(
+            new Runnable() {
+              @Override
+              public void run() {
+                lastExecution.set(System.nanoTime());
+                executed.countDown();
+              }
+            },
+            period,
+            period,
+            TimeUnit.MILLISECONDS);
+
+    assertTrue(executed.await(numExecutions * period + TOLERANCE_MILLIS, TimeUnit.MILLISECONDS));
+    // the executions keep their rate instead of drifting by the delay of each execution
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(lastExecution.get() - start);
+    assertTrue(elapsedMillis >= numExecutions * period, "executed after " + elapsedMillis + " ms");
+    assertTrue(
+        elapsedMillis < numExecutions * period + TOLERANCE_MILLIS,
+        "executed after " + elapsedMillis + " ms");
+    assertFalse(future.isDone());
+
+    assertTrue(future.cancel(false));
+    // the task may be running, in which case it is not scheduled again
+    Thread.sleep(2 * period);
+    assertEquals(0, timer.getNumPendingTasks());
+    long cancelledExecution = lastExecution.get();
+    Thread.sleep(3 * period);
+    assertEquals(cancelledExecution, lastExecution.get());
+  }
+}
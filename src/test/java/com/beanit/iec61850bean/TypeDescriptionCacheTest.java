@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.beanit.asn1bean.ber.ReverseByteArrayOutputStream;
+import com.beanit.iec61850bean.internal.mms.asn1.TypeDescription;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TypeDescriptionCacheTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  private static final int PORT = 54328;
+
+  private static byte[] encode(TypeDescription typeDescription) throws Exception {
+    ReverseByteArrayOutputStream reverseOS = new ReverseByteArrayOutputStream(256, true);
+    typeDescription.encode(reverseOS);
+    return reverseOS.getArray();
+  }
+
+  @Test
+  public void cachedTypeDescriptionsEncodeLikeBuiltOnes() throws Exception {
+    ServerModel serverModel = SclParser.parse(ICD_FILE).get(0);
+    TypeDescriptionCache cache = new TypeDescriptionCache();
+
+    for (ModelNode ld : serverModel) {
+      for (ModelNode ln : ld) {
+        for (ModelNode dataObject : ln) {
+          // the item ID of the data object in MMS, such as MMXU1$MX$TotW
+          String itemId =
+              ln.getName() + "$" + ((FcModelNode) dataObject).getFc() + "$" + dataObject.getName();
+          assertNull(cache.get(ld.getName(), itemId));
+
+          TypeDescription typeDescription = dataObject.getMmsTypeSpec();
+          cache.put(ld.getName(), itemId, typeDescription);
+
+          assertTrue(
+              Arrays.equals(encode(typeDescription), encode(cache.get(ld.getName(), itemId))),
+              itemId);
+        }
+      }
+    }
+    assertEquals(cache.getHits(), cache.getMisses());
+  }
+
+  @Test
+  public void modelIsRetrievedAgainFromTheCache() throws Exception {
+    ServerSap serverSap = new ServerSap(PORT, 0, null, SclParser.parse(ICD_FILE).get(0), null);
+    serverSap.startListening(
+        new ServerEventListener() {
+          @Override
+          public List<ServiceError> write(List<BasicDataAttribute> bdas) {
+            return null;
+          }
+
+          @Override
+          public void serverStoppedListening(ServerSap serverSap) {}
+        });
+    try {
+      InetAddress address = InetAddress.getByName("127.0.0.1");
+      ClientAssociation association = new ClientSap().associate(address, PORT, null, null);
+      ServerModel retrievedModel;
+      try {
+        retrievedModel = association.retrieveModel();
+      } finally {
+        association.close();
+      }
+      long misses = serverSap.getTypeDescriptionCacheMisses();
+      assertTrue(misses > 0);
+      assertEquals(0, serverSap.getTypeDescriptionCacheHits());
+
+      // every type description requested by the second client is taken from the cache
+      association = new ClientSap().associate(address, PORT, null, null);
+      try {
+        ServerModel modelFromCache = association.retrieveModel();
+        assertEquals(retrievedModel.toString(), modelFromCache.toString());
+        assertEquals(
+            retrievedModel.getBasicDataAttributes().size(),
+            modelFromCache.getBasicDataAttributes().size());
+        // the type descriptions are decoded into the same types
+        association.getDataValues(
+            (FcModelNode) modelFromCache.findModelNode("ied1lDevice1/MMXU1.TotW", Fc.MX));
+      } finally {
+        association.close();
+      }
+      assertEquals(misses, serverSap.getTypeDescriptionCacheMisses());
+      assertEquals(misses, serverSap.getTypeDescriptionCacheHits());
+    } finally {
+      serverSap.stop();
+    }
+  }
+}
@@ -18,6 +18,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.beanit.iec61850bean.BasicDataAttribute;
@@ -37,6 +38,7 @@ import com.beanit.iec61850bean.DataSet;
 import com.beanit.iec61850bean.Fc;
 import com.beanit.iec61850bean.FcModelNode;
 import com.beanit.iec61850bean.ModelNode;
+import com.beanit.iec61850bean.ObjectReference;
 import com.beanit.iec61850bean.Report;
 import com.beanit.iec61850bean.SclParseException;
 import com.beanit.iec61850bean.SclParser;
@@ -45,18 +47,34 @@ import com.beanit.iec61850bean.ServerModel;
 import com.beanit.iec61850bean.ServerSap;
 import com.beanit.iec61850bean.ServiceError;
 import com.beanit.iec61850bean.Urcb;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
 
 public class ClientServerITest extends Thread implements ServerEventListener, ClientEventListener {
 
   private static final long MEGABYTE = 1024L * 1024L;
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  private static final String VENDOR_REFERENCE = "ied1lDevice1/LLN0.NamPlt.vendor";
+  private static final int PROXY_PORT = 54327;
   // Get the Java runtime
   public static Runtime runtime = Runtime.getRuntime();
   private static int numReports = 0;
@@ -69,6 +87,8 @@ public class ClientServerITest extends Thread implements ServerEventListener, Cl
   ClientAssociation clientAssociation = null;
   ClientAssociation clientAssociation2 = null;
   ServerModel serversServerModel = null;
+  // writes are blocked by the server event listener until the latch is counted down
+  volatile CountDownLatch blockedWrites = null;
 
   private static void getDataRecursive(ModelNode modelNode, ClientAssociation clientAssociation)
       throws ServiceError, IOException {
@@ -422,6 +442,413 @@ public class ClientServerITest extends Thread implements ServerEventListener, Cl
     serverSap.stop();
   }
 
+  @Test
+  public void testOutstandingRequests() throws Exception {
+    testOutstandingRequests(false, 0);
+  }
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+    testOutstandingRequests(true, 0);
+  }
+
+  @Test
+  public void testPipelinedRequestsWithNonBlockingIo() throws Exception {
+    testOutstandingRequests(true, 2);
+  }
+
+  @Test
+  public void testPipelinedRequestsAreBoundedByMaxServOutstanding() throws Exception {
+    final AtomicInteger numRunning = new AtomicInteger();
+    final AtomicInteger maxNumRunning = new AtomicInteger();
+    final ExecutorService requestExecutor = Executors.newCachedThreadPool();
+    serverSap = new ServerSap(port, 0, null, SclParser.parse(ICD_FILE).get(0), null);
+    serverSap.setRequestPipelining(true);
+    serverSap.setProposedMaxServOutstandingCalling(3);
+    serverSap.setRequestExecutor(
+        new Executor() {
+          @Override
+          public void execute(final Runnable command) {
+            requestExecutor.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    int running = numRunning.incrementAndGet();
+                    int maxRunning;
+                    do {
+                      maxRunning = maxNumRunning.get();
+                    } while (running > maxRunning
+                        && !maxNumRunning.compareAndSet(maxRunning, running));
+                    try {
+                      // so that the requests that are handled concurrently overlap
+                      Thread.sleep(20);
+                      command.run();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    } finally {
+                      numRunning.decrementAndGet();
+                    }
+                  }
+                });
+          }
+        });
+    serverSap.startListening(this);
+    try {
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel serverModel = serverSap.getModelCopy();
+      String vendor =
+          ((BdaVisibleString) serverModel.findModelNode(VENDOR_REFERENCE, Fc.DC))
+              .getStringValue();
+
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      List<BdaVisibleString> readVendors = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        BdaVisibleString readVendor =
+            (BdaVisibleString) serverModel.copy().findModelNode(VENDOR_REFERENCE, Fc.DC);
+        readVendor.setValue("");
+        readVendors.add(readVendor);
+        futures.add(clientAssociation.getDataValuesAsync(readVendor));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .get(10, TimeUnit.SECONDS);
+
+      for (BdaVisibleString readVendor : readVendors) {
+        assertEquals(vendor, readVendor.getStringValue());
+      }
+      assertTrue(maxNumRunning.get() > 1, "the reads were not handled concurrently");
+      assertTrue(maxNumRunning.get() <= 3, "more requests than negotiated were handled");
+    } finally {
+      clientAssociation.close();
+      serverSap.stop();
+      requestExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Sends writes of a data attribute, each followed by reads of it, without waiting for the
+   * responses. The server may handle the reads concurrently but must not reorder them with the
+   * writes.
+   */
+  private void testOutstandingRequests(boolean requestPipelining, int numIoThreads)
+      throws Exception {
+    startServer(requestPipelining, numIoThreads);
+    try {
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel serverModel = clientAssociation.retrieveModel();
+      BdaVisibleString vendor =
+          (BdaVisibleString) serverModel.findModelNode(VENDOR_REFERENCE, Fc.DC);
+
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      List<BdaVisibleString> readVendors = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        vendor.setValue("vendor" + i);
+        futures.add(clientAssociation.setDataValuesAsync(vendor));
+        for (int j = 0; j < 3; j++) {
+          BdaVisibleString readVendor =
+              (BdaVisibleString) serverModel.copy().findModelNode(VENDOR_REFERENCE, Fc.DC);
+          readVendors.add(readVendor);
+          futures.add(clientAssociation.getDataValuesAsync(readVendor));
+        }
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .get(10, TimeUnit.SECONDS);
+
+      for (int i = 0; i < readVendors.size(); i++) {
+        assertEquals("vendor" + (i / 3), readVendors.get(i).getStringValue());
+      }
+    } finally {
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testResponseTimeout() throws Exception {
+    startServer(false, 0);
+    blockedWrites = new CountDownLatch(1);
+    try {
+      clientSap.setProposedMaxServOutstandingCalling(1);
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel serverModel = clientAssociation.retrieveModel();
+      BdaVisibleString vendor =
+          (BdaVisibleString) serverModel.findModelNode(VENDOR_REFERENCE, Fc.DC);
+      BdaVisibleString readVendor =
+          (BdaVisibleString) serverModel.copy().findModelNode(VENDOR_REFERENCE, Fc.DC);
+
+      vendor.setValue("timed out");
+      clientAssociation.setResponseTimeout(200);
+      final CompletableFuture<Void> write = clientAssociation.setDataValuesAsync(vendor);
+      clientAssociation.setResponseTimeout(10000);
+      // queued because only one request may be outstanding
+      CompletableFuture<Void> read = clientAssociation.getDataValuesAsync(readVendor);
+
+      ExecutionException e =
+          assertThrows(
+              ExecutionException.class,
+              new Executable() {
+                @Override
+                public void execute() throws Throwable {
+                  write.get(5, TimeUnit.SECONDS);
+                }
+              });
+      assertEquals(ServiceError.TIMEOUT, ((ServiceError) e.getCause()).getErrorCode());
+
+      // the late response to the write is discarded and lets the queued read be sent
+      blockedWrites.countDown();
+      read.get(5, TimeUnit.SECONDS);
+      assertEquals("timed out", readVendor.getStringValue());
+
+      readVendor.setValue("");
+      clientAssociation.getDataValues(readVendor);
+      assertEquals("timed out", readVendor.getStringValue());
+    } finally {
+      blockedWrites.countDown();
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testLostResponse() throws Exception {
+    startServer(false, 0);
+    ResponseDroppingProxy proxy = new ResponseDroppingProxy(PROXY_PORT, port);
+    try {
+      clientSap.setProposedMaxServOutstandingCalling(1);
+      clientAssociation =
+          clientSap.associate(InetAddress.getByName(host), PROXY_PORT, null, null);
+      BdaVisibleString vendor =
+          (BdaVisibleString) serverSap.getModelCopy().findModelNode(VENDOR_REFERENCE, Fc.DC);
+      String vendorValue = vendor.getStringValue();
+
+      // the server answers the read, but the response never reaches the client
+      proxy.dropNextResponse = true;
+      clientAssociation.setResponseTimeout(200);
+      try {
+        clientAssociation.getDataValues(vendor);
+        throw new AssertionError("the read did not time out");
+      } catch (ServiceError e) {
+        assertEquals(ServiceError.TIMEOUT, e.getErrorCode());
+      }
+
+      // the only outstanding place is freed after the grace period for late responses
+      clientAssociation.setResponseTimeout(5000);
+      vendor.setValue("");
+      clientAssociation.getDataValues(vendor);
+      assertEquals(vendorValue, vendor.getStringValue());
+    } finally {
+      clientAssociation.close();
+      proxy.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testBulkReadSpanningSeveralPdus() throws Exception {
+    startServer(false, 0);
+    try {
+      // the FCDOs of the sample model do not fit into a single read response of this size
+      clientSap.setMaxMmsPduSize(2000);
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel clientModel = serverSap.getModelCopy();
+
+      ServerModel updateModel = serverSap.getModelCopy();
+      List<BasicDataAttribute> updatedBdas = new ArrayList<>();
+      for (String phase : new String[] {"phsA", "phsB", "phsC"}) {
+        BdaFloat32 mag =
+            (BdaFloat32)
+                updateModel.findModelNode("ied1lDevice1/MMXU1.W." + phase + ".cVal.mag.f", Fc.MX);
+        mag.setFloat(updatedBdas.size() + 10.0f);
+        updatedBdas.add(mag);
+      }
+      serverSap.setValues(updatedBdas);
+
+      List<FcModelNode> readNodes = new ArrayList<>();
+      for (ModelNode logicalDevice : clientModel) {
+        for (ModelNode logicalNode : logicalDevice) {
+          for (ModelNode dataObject : logicalNode) {
+            FcModelNode fcdo = (FcModelNode) dataObject;
+            if (fcdo.getFc() != Fc.CO && fcdo.getFc() != Fc.SE) {
+              readNodes.add(fcdo);
+            }
+          }
+        }
+      }
+      int numFcdos = readNodes.size();
+      FcModelNode missingNode =
+          new BdaVisibleString(
+              new ObjectReference("ied1lDevice1/LLN0.NamPlt.missing"),
+              Fc.DC,
+              null,
+              255,
+              false,
+              false);
+      readNodes.add(numFcdos / 2, missingNode);
+      readNodes.add(missingNode);
+
+      List<ServiceError> serviceErrors = clientAssociation.getDataValues(readNodes);
+
+      assertEquals(readNodes.size(), serviceErrors.size());
+      for (int i = 0; i < readNodes.size(); i++) {
+        if (i == numFcdos / 2 || i == numFcdos + 1) {
+          assertEquals(ServiceError.INSTANCE_NOT_AVAILABLE, serviceErrors.get(i).getErrorCode());
+        } else {
+          assertNull(serviceErrors.get(i));
+        }
+      }
+      for (BasicDataAttribute bda : updatedBdas) {
+        BdaFloat32 readMag =
+            (BdaFloat32) clientModel.findModelNode(bda.getReference(), bda.getFc());
+        assertEquals(((BdaFloat32) bda).getFloat(), readMag.getFloat());
+      }
+    } finally {
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testBulkWriteSpanningSeveralPdus() throws Exception {
+    startServer(false, 0);
+    try {
+      // only a few variables fit into a single write request of this size
+      clientSap.setMaxMmsPduSize(256);
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel clientModel = serverSap.getModelCopy();
+
+      List<FcModelNode> writeNodes = new ArrayList<>();
+      for (BasicDataAttribute bda : clientModel.getBasicDataAttributes()) {
+        if (bda.getFc() == Fc.DC && bda instanceof BdaVisibleString) {
+          ((BdaVisibleString) bda).setValue("bulk" + writeNodes.size());
+          writeNodes.add(bda);
+        }
+      }
+      int numWritable = writeNodes.size();
+      BdaFloat32 measurement =
+          (BdaFloat32) clientModel.findModelNode("ied1lDevice1/MMXU1.W.phsA.cVal.mag.f", Fc.MX);
+      measurement.setFloat(10.0f);
+      writeNodes.add(numWritable / 2, measurement);
+      BdaVisibleString missingNode =
+          new BdaVisibleString(
+              new ObjectReference("ied1lDevice1/LLN0.NamPlt.missing"),
+              Fc.DC,
+              null,
+              255,
+              false,
+              false);
+      missingNode.setValue("missing");
+      writeNodes.add(missingNode);
+
+      List<ServiceError> serviceErrors = clientAssociation.setDataValues(writeNodes);
+
+      assertEquals(writeNodes.size(), serviceErrors.size());
+      ServerModel writtenModel = serverSap.getModelCopy();
+      for (int i = 0; i < writeNodes.size(); i++) {
+        if (i == numWritable / 2) {
+          assertEquals(ServiceError.ACCESS_VIOLATION, serviceErrors.get(i).getErrorCode());
+        } else if (i == numWritable + 1) {
+          assertEquals(ServiceError.INSTANCE_NOT_AVAILABLE, serviceErrors.get(i).getErrorCode());
+        } else {
+          assertNull(serviceErrors.get(i));
+          FcModelNode writeNode = writeNodes.get(i);
+          BdaVisibleString writtenNode =
+              (BdaVisibleString)
+                  writtenModel.findModelNode(writeNode.getReference(), writeNode.getFc());
+          assertEquals(
+              ((BdaVisibleString) writeNode).getStringValue(), writtenNode.getStringValue());
+        }
+      }
+      BdaFloat32 writtenMeasurement =
+          (BdaFloat32) writtenModel.findModelNode(measurement.getReference(), Fc.MX);
+      assertFalse(writtenMeasurement.getFloat() == 10.0f);
+    } finally {
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testRetrieveModel() throws Exception {
+    startServer(false, 0);
+    ClientAssociation sequentialAssociation = null;
+    try {
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel retrievedModel = clientAssociation.retrieveModel();
+
+      // with a single outstanding request the model is retrieved one request after the other
+      ClientSap sequentialClientSap = new ClientSap();
+      sequentialClientSap.setProposedMaxServOutstandingCalling(1);
+      sequentialAssociation =
+          sequentialClientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel sequentiallyRetrievedModel = sequentialAssociation.retrieveModel();
+
+      assertEquals(sequentiallyRetrievedModel.toString(), retrievedModel.toString());
+      assertEquals(describeModel(serverSap.getModelCopy()), describeModel(retrievedModel));
+    } finally {
+      if (sequentialAssociation != null) {
+        sequentialAssociation.close();
+      }
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  @Test
+  public void testRetrieveModelWithoutDataSets() throws Exception {
+    startServer(false, 0);
+    try {
+      clientAssociation = clientSap.associate(InetAddress.getByName(host), port, null, null);
+      ServerModel retrievedModel = clientAssociation.retrieveModel(false);
+      assertTrue(retrievedModel.getDataSets().isEmpty());
+
+      DataSet dataSet = clientAssociation.retrieveDataSet("ied1lDevice1/LLN0.dataset1");
+
+      assertNotNull(dataSet);
+      assertTrue(dataSet == retrievedModel.getDataSet("ied1lDevice1/LLN0.dataset1"));
+      DataSet serverDataSet = serverSap.getModelCopy().getDataSet("ied1lDevice1/LLN0.dataset1");
+      assertEquals(serverDataSet.getMembers().size(), dataSet.getMembers().size());
+      for (int i = 0; i < dataSet.getMembers().size(); i++) {
+        FcModelNode member = dataSet.getMember(i);
+        assertEquals(
+            serverDataSet.getMember(i).getReference().toString(), member.getReference().toString());
+        assertEquals(serverDataSet.getMember(i).getFc(), member.getFc());
+        // the members are the nodes of the retrieved model
+        assertTrue(member == retrievedModel.findModelNode(member.getReference(), member.getFc()));
+      }
+      assertTrue(dataSet == clientAssociation.retrieveDataSet("ied1lDevice1/LLN0.dataset1"));
+    } finally {
+      clientAssociation.close();
+      serverSap.stop();
+    }
+  }
+
+  /**
+   * Describes the basic data attributes and the data sets of a model independent of the order of
+   * the nodes and of whether sub data objects are represented as constructed data attributes.
+   */
+  private static List<String> describeModel(ServerModel serverModel) {
+    List<String> description = new ArrayList<>();
+    for (BasicDataAttribute bda : serverModel.getBasicDataAttributes()) {
+      description.add(bda.getReference() + "[" + bda.getFc() + "] " + bda.getBasicType());
+    }
+    for (DataSet dataSet : serverModel.getDataSets()) {
+      StringBuilder sb = new StringBuilder(dataSet.getReferenceStr()).append(':');
+      for (FcModelNode member : dataSet) {
+        sb.append(' ').append(member.getReference()).append('[').append(member.getFc()).append(']');
+      }
+      description.add(sb.toString());
+    }
+    Collections.sort(description);
+    return description;
+  }
+
+  private void startServer(boolean requestPipelining, int numIoThreads)
+      throws SclParseException, IOException {
+    serverSap = new ServerSap(port, 0, null, SclParser.parse(ICD_FILE).get(0), null);
+    serverSap.setRequestPipelining(requestPipelining);
+    serverSap.setNumIoThreads(numIoThreads);
+    serverSap.startListening(this);
+  }
+
   private void getAllBdas(ServerModel serverModel) throws ServiceError, IOException {
 
     for (ModelNode ld : serverModel) {
@@ -448,6 +875,14 @@ public class ClientServerITest extends Thread implements ServerEventListener, Cl
   @Override
   public List<ServiceError> write(List<BasicDataAttribute> bdas) {
     System.out.println("DataSource: got write request");
+    CountDownLatch blockedWrites = this.blockedWrites;
+    if (blockedWrites != null) {
+      try {
+        blockedWrites.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     return null;
   }
 
@@ -539,4 +974,70 @@ public class ClientServerITest extends Thread implements ServerEventListener, Cl
     }
     numAssociationClosed++;
   }
+
+  /**
+   * Forwards the TPKTs of a single connection between a client and the server and drops a response
+   * of the server on request.
+   */
+  private static class ResponseDroppingProxy {
+
+    private final ServerSocket serverSocket;
+    private volatile Socket clientSocket = null;
+    private volatile Socket serverConnection = null;
+    volatile boolean dropNextResponse = false;
+
+    ResponseDroppingProxy(int proxyPort, final int serverPort) throws IOException {
+      serverSocket = new ServerSocket(proxyPort);
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            clientSocket = serverSocket.accept();
+            serverConnection = new Socket("127.0.0.1", serverPort);
+            forward(clientSocket, serverConnection, false);
+            forward(serverConnection, clientSocket, true);
+          } catch (IOException e) {
+            // the proxy was closed
+          }
+        }
+      }.start();
+    }
+
+    private void forward(final Socket from, final Socket to, final boolean responses) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            DataInputStream is = new DataInputStream(from.getInputStream());
+            OutputStream os = to.getOutputStream();
+            while (true) {
+              byte[] tpkt = new byte[4];
+              is.readFully(tpkt);
+              // the length of the TPKT includes its four byte header
+              tpkt = Arrays.copyOf(tpkt, ((tpkt[2] & 0xff) << 8) | (tpkt[3] & 0xff));
+              is.readFully(tpkt, 4, tpkt.length - 4);
+              if (responses && dropNextResponse) {
+                dropNextResponse = false;
+              } else {
+                os.write(tpkt);
+                os.flush();
+              }
+            }
+          } catch (IOException e) {
+            // one of the connections was closed
+          }
+        }
+      }.start();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      if (clientSocket != null) {
+        clientSocket.close();
+      }
+      if (serverConnection != null) {
+        serverConnection.close();
+      }
+    }
+  }
 }
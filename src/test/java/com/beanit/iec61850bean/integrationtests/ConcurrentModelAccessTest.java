@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 The IEC61850bean Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.beanit.iec61850bean.integrationtests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.beanit.iec61850bean.BasicDataAttribute;
+import com.beanit.iec61850bean.BdaFloat32;
+import com.beanit.iec61850bean.ClientAssociation;
+import com.beanit.iec61850bean.ClientSap;
+import com.beanit.iec61850bean.Fc;
+import com.beanit.iec61850bean.FcModelNode;
+import com.beanit.iec61850bean.SclParser;
+import com.beanit.iec61850bean.ServerEventListener;
+import com.beanit.iec61850bean.ServerModel;
+import com.beanit.iec61850bean.ServerSap;
+import com.beanit.iec61850bean.ServiceError;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reads values with several client associations in parallel while the application updates them
+ * through ServerSap.setValues, once with the default exclusive model access and once with the
+ * concurrent model access mode.
+ */
+public class ConcurrentModelAccessTest {
+
+  private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
+  private static final String PHS_A_REFERENCE = "ied1lDevice1/MMXU1.W.phsA.cVal.mag.f";
+  private static final String PHS_B_REFERENCE = "ied1lDevice1/MMXU1.W.phsB.cVal.mag.f";
+  private static final String READ_REFERENCE = "ied1lDevice1/MMXU1.W";
+  private static final int PORT = 54325;
+  private static final int NUM_CLIENTS = 4;
+  private static final int NUM_READS = 200;
+
+  private ServerSap serverSap;
+  private final List<ClientAssociation> associations = new ArrayList<>();
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void createServer() throws Exception {
+    serverSap = new ServerSap(PORT, 0, null, SclParser.parse(ICD_FILE).get(0), null);
+    executor = Executors.newFixedThreadPool(NUM_CLIENTS + 1);
+  }
+
+  @AfterEach
+  public void stopServer() {
+    for (ClientAssociation association : associations) {
+      association.close();
+    }
+    associations.clear();
+    executor.shutdownNow();
+    serverSap.stop();
+  }
+
+  @Test
+  public void concurrentReadsAreConsistent() throws Exception {
+    serverSap.setConcurrentModelAccess(true);
+    readWhileUpdating();
+  }
+
+  @Test
+  public void exclusiveReadsAreConsistent() throws Exception {
+    readWhileUpdating();
+  }
+
+  /**
+   * Updates phsA and phsB with the same value in every setValues call. A read that saw only one of
+   * the two updates would return different values.
+   */
+  private void readWhileUpdating() throws Exception {
+    serverSap.startListening(
+        new ServerEventListener() {
+          @Override
+          public List<ServiceError> write(List<BasicDataAttribute> bdas) {
+            return null;
+          }
+
+          @Override
+          public void serverStoppedListening(ServerSap serverSap) {}
+        });
+
+    ServerModel updateModel = serverSap.getModelCopy();
+    final BdaFloat32 phsA = (BdaFloat32) updateModel.findModelNode(PHS_A_REFERENCE, Fc.MX);
+    final BdaFloat32 phsB = (BdaFloat32) updateModel.findModelNode(PHS_B_REFERENCE, Fc.MX);
+    final List<BasicDataAttribute> updatedBdas = Arrays.<BasicDataAttribute>asList(phsA, phsB);
+
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    Future<Integer> updater =
+        executor.submit(
+            new Callable<Integer>() {
+              @Override
+              public Integer call() {
+                int numUpdates = 0;
+                while (!stop.get()) {
+                  phsA.setFloat((float) numUpdates);
+                  phsB.setFloat((float) numUpdates);
+                  serverSap.setValues(updatedBdas);
+                  numUpdates++;
+                }
+                return numUpdates;
+              }
+            });
+
+    List<Future<Void>> readers = new ArrayList<>(NUM_CLIENTS);
+    for (int i = 0; i < NUM_CLIENTS; i++) {
+      final ClientAssociation association =
+          new ClientSap().associate(InetAddress.getByName("127.0.0.1"), PORT, null, null);
+      associations.add(association);
+      ServerModel clientModel = association.retrieveModel();
+      final FcModelNode readNode = (FcModelNode) clientModel.findModelNode(READ_REFERENCE, Fc.MX);
+      final BdaFloat32 readPhsA = (BdaFloat32) clientModel.findModelNode(PHS_A_REFERENCE, Fc.MX);
+      final BdaFloat32 readPhsB = (BdaFloat32) clientModel.findModelNode(PHS_B_REFERENCE, Fc.MX);
+      readers.add(
+          executor.submit(
+              new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                  for (int j = 0; j < NUM_READS; j++) {
+                    association.getDataValues(readNode);
+                    assertEquals(readPhsA.getFloat(), readPhsB.getFloat());
+                  }
+                  return null;
+                }
+              }));
+    }
+
+    try {
+      for (Future<Void> reader : readers) {
+        reader.get();
+      }
+    } finally {
+      stop.set(true);
+    }
+    assertTrue(updater.get() > 0);
+  }
+}
@@ -14,11 +14,14 @@
 package com.beanit.iec61850bean.integrationtests;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.beanit.iec61850bean.BasicDataAttribute;
 import com.beanit.iec61850bean.BdaFloat32;
+import com.beanit.iec61850bean.Brcb;
 import com.beanit.iec61850bean.ClientAssociation;
 import com.beanit.iec61850bean.ClientEventListener;
 import com.beanit.iec61850bean.ClientSap;
@@ -36,6 +39,7 @@ import com.beanit.iec61850bean.Urcb;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -50,11 +54,14 @@ public class ReportingTest implements ClientEventListener {
   private static final int PORT = 54321;
   private static final String ICD_FILE = "src/test/resources/iec61850bean-sample01.icd";
   private static final String URCB1_REFERENCE = "ied1lDevice1/LLN0.urcb101";
+  private static final String BRCB_REFERENCE = "ied1lDevice1/LLN0.brcb1";
+  private static final String SECOND_DATASET_REFERENCE = "ied1lDevice1/LLN0$dataset2";
   ClientAssociation clientAssociation;
   private ServerSap serverSap;
   private ServerModel serverModel;
   private ServerModel clientModel;
   private int reportCounter = 0;
+  private final List<Report> reports = new ArrayList<>();
 
   @BeforeEach
   public void startServerAndClient() throws SclParseException, IOException, ServiceError {
@@ -170,6 +177,223 @@ public class ReportingTest implements ClientEventListener {
     assertEquals(1, this.reportCounter);
   }
 
+  @Test
+  public void brcbAssignsConsecutiveEntryIds() throws Exception {
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    assertNotNull(brcb);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+
+    for (int i = 1; i <= 3; i++) {
+      changeServerValue(i);
+      awaitReports(i);
+    }
+
+    List<Report> reports = getReports();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1, toLong(reports.get(i).getEntryId().getValue()));
+      assertEquals(i, (int) reports.get(i).getSqNum());
+      assertFalse(reports.get(i).getBufOvfl());
+    }
+    this.clientAssociation.getRcbValues(brcb);
+    assertEquals(3, toLong(brcb.getEntryId().getValue()));
+  }
+
+  @Test
+  public void brcbResyncsToWrittenEntryId() throws Exception {
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+    for (int i = 1; i <= 3; i++) {
+      changeServerValue(i);
+      awaitReports(i);
+    }
+    this.clientAssociation.disableReporting(brcb);
+
+    // the entries after EntryID 1 are sent again
+    assertNull(writeEntryId(brcb, 1));
+    this.clientAssociation.enableReporting(brcb);
+    List<Report> reports = awaitReports(5);
+    assertEquals(2, toLong(reports.get(3).getEntryId().getValue()));
+    assertEquals(3, toLong(reports.get(4).getEntryId().getValue()));
+    this.clientAssociation.disableReporting(brcb);
+
+    // zero resyncs to the oldest buffered entry
+    assertNull(writeEntryId(brcb, 0));
+    this.clientAssociation.enableReporting(brcb);
+    reports = awaitReports(8);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1, toLong(reports.get(5 + i).getEntryId().getValue()));
+    }
+    this.clientAssociation.disableReporting(brcb);
+
+    ServiceError serviceError = writeEntryId(brcb, 99);
+    assertNotNull(serviceError);
+    assertEquals(ServiceError.PARAMETER_VALUE_INCONSISTENT, serviceError.getErrorCode());
+  }
+
+  @Test
+  public void brcbPurgeBufDiscardsEntries() throws Exception {
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+    changeServerValue(1);
+    awaitReports(1);
+    this.clientAssociation.disableReporting(brcb);
+    // buffered but not sent
+    changeServerValue(2);
+    Thread.sleep(200);
+
+    brcb.getPurgeBuf().setValue(true);
+    List<ServiceError> serviceErrors =
+        this.clientAssociation.setRcbValues(
+            brcb, false, false, false, false, false, false, true, false);
+    assertNull(serviceErrors.get(0));
+    this.clientAssociation.enableReporting(brcb);
+    Thread.sleep(500);
+    assertEquals(1, getReports().size());
+
+    // the EntryIDs continue after the discarded entries
+    changeServerValue(3);
+    List<Report> reports = awaitReports(2);
+    assertEquals(3, toLong(reports.get(1).getEntryId().getValue()));
+  }
+
+  @Test
+  public void brcbSetsBufOvflAfterEntriesWereDiscarded() throws Exception {
+    // only a few entries fit into the buffer
+    this.serverSap.setBrcbBufferSize(50);
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+    this.clientAssociation.disableReporting(brcb);
+
+    int numChanges = 10;
+    for (int i = 1; i <= numChanges; i++) {
+      changeServerValue(i);
+      Thread.sleep(50);
+    }
+    this.clientAssociation.enableReporting(brcb);
+    Thread.sleep(500);
+
+    List<Report> reports = getReports();
+    assertTrue(reports.size() > 1 && reports.size() < numChanges);
+    for (int i = 0; i < reports.size(); i++) {
+      Report report = reports.get(i);
+      assertEquals(i == 0, (boolean) report.getBufOvfl());
+      assertEquals(numChanges - reports.size() + 1 + i, toLong(report.getEntryId().getValue()));
+    }
+  }
+
+  @Test
+  public void brcbBuffersAfterAssociationIsLost() throws Exception {
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+    changeServerValue(1);
+    awaitReports(1);
+
+    this.clientAssociation.close();
+    Thread.sleep(200);
+    changeServerValue(2);
+    Thread.sleep(50);
+    changeServerValue(3);
+    Thread.sleep(50);
+
+    startClient();
+    brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    this.clientAssociation.enableReporting(brcb);
+    List<Report> reports = awaitReports(3);
+    assertEquals(2, toLong(reports.get(1).getEntryId().getValue()));
+    assertEquals(3, toLong(reports.get(2).getEntryId().getValue()));
+    assertFalse(reports.get(1).getBufOvfl());
+  }
+
+  @Test
+  public void brcbConfRevIsIncrementedWhenDataSetChanges() throws Exception {
+    Brcb brcb = this.clientModel.getBrcb(BRCB_REFERENCE);
+    this.clientAssociation.getRcbValues(brcb);
+    assertEquals(1, brcb.getConfRev().getValue());
+
+    assertNull(
+        this.clientAssociation
+            .setRcbValues(brcb, false, true, false, false, false, false, false, false)
+            .get(0));
+    this.clientAssociation.getRcbValues(brcb);
+    assertEquals(1, brcb.getConfRev().getValue());
+
+    brcb.getDatSet().setValue(SECOND_DATASET_REFERENCE);
+    assertNull(
+        this.clientAssociation
+            .setRcbValues(brcb, false, true, false, false, false, false, false, false)
+            .get(0));
+    this.clientAssociation.getRcbValues(brcb);
+    assertEquals(2, brcb.getConfRev().getValue());
+  }
+
+  @Test
+  public void segmentedReportIsReassembled() throws Exception {
+    // the report of all MX and ST attributes does not fit into a single PDU
+    List<FcModelNode> dataSetMembers = new ArrayList<>();
+    for (BasicDataAttribute bda : this.clientModel.getBasicDataAttributes()) {
+      if (bda.getFc() == Fc.MX || bda.getFc() == Fc.ST) {
+        dataSetMembers.add(bda);
+      }
+    }
+    assertTrue(dataSetMembers.size() > 20);
+    this.clientAssociation.createDataSet(
+        new DataSet(CREATED_DATASET_REFERENCE, dataSetMembers));
+    changeServerValue(3);
+
+    ClientSap clientSap = new ClientSap();
+    clientSap.setMaxMmsPduSize(200);
+    ClientAssociation smallPduAssociation =
+        clientSap.associate(InetAddress.getByName("localhost"), PORT, "", this);
+    try {
+      ServerModel model = this.serverSap.getModelCopy();
+      smallPduAssociation.setServerModel(model);
+      Urcb urcb = model.getUrcb(URCB1_REFERENCE);
+      smallPduAssociation.getRcbValues(urcb);
+      smallPduAssociation.reserveUrcb(urcb);
+      urcb.getDatSet().setValue(CREATED_DATASET_REFERENCE);
+      assertNull(
+          smallPduAssociation
+              .setRcbValues(urcb, false, true, false, false, false, false, false, false)
+              .get(0));
+      smallPduAssociation.enableReporting(urcb);
+
+      smallPduAssociation.startGi(urcb);
+      awaitReports(1);
+      smallPduAssociation.startGi(urcb);
+      List<Report> reports = awaitReports(2);
+
+      for (int i = 0; i < 2; i++) {
+        Report report = reports.get(i);
+        assertEquals(i, (int) report.getSqNum());
+        // the segments are delivered as a single report
+        assertNull(report.getSubSqNum());
+        assertFalse(report.isMoreSegmentsFollow());
+        assertEquals(dataSetMembers.size(), report.getValues().size());
+        for (int j = 0; j < dataSetMembers.size(); j++) {
+          assertTrue(report.getInclusionBitString()[j]);
+          assertEquals(
+              dataSetMembers.get(j).getReference().toString(),
+              report.getValues().get(j).getReference().toString());
+        }
+        BdaFloat32 mag =
+            (BdaFloat32)
+                report.getValues().get(indexOf(dataSetMembers, CHANGING_SERVER_DA_REFERENCE_1));
+        assertEquals(3.0f, (float) mag.getFloat());
+      }
+      // the association was not dropped because of a report that is too large
+      assertTrue(smallPduAssociation.isOpen());
+      assertEquals(2, getReports().size());
+    } finally {
+      smallPduAssociation.close();
+    }
+  }
+
   @AfterEach
   public void disconnectAndStopServer() throws Exception {
     if (this.serverSap != null) {
@@ -180,11 +404,68 @@ public class ReportingTest implements ClientEventListener {
   @Override
   public void associationClosed(IOException arg0) {}
 
+  private static long toLong(byte[] entryId) {
+    long id = 0;
+    for (byte b : entryId) {
+      id = (id << 8) | (b & 0xff);
+    }
+    return id;
+  }
+
+  private static int indexOf(List<FcModelNode> nodes, String reference) {
+    for (int i = 0; i < nodes.size(); i++) {
+      if (nodes.get(i).getReference().toString().equals(reference)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(reference);
+  }
+
+  private static byte[] toEntryId(long id) {
+    byte[] entryId = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      entryId[i] = (byte) id;
+      id >>>= 8;
+    }
+    return entryId;
+  }
+
+  private ServiceError writeEntryId(Brcb brcb, long id) throws IOException {
+    brcb.getEntryId().setValue(toEntryId(id));
+    return this.clientAssociation
+        .setRcbValues(brcb, false, false, false, false, false, false, false, true)
+        .get(0);
+  }
+
+  private void changeServerValue(float value) {
+    BdaFloat32 mag =
+        (BdaFloat32) this.serverModel.findModelNode(CHANGING_SERVER_DA_REFERENCE_1, Fc.MX);
+    mag.setFloat(value);
+    this.serverSap.setValues(Collections.<BasicDataAttribute>singletonList(mag));
+  }
+
+  private synchronized List<Report> getReports() {
+    return new ArrayList<>(this.reports);
+  }
+
+  /** Waits until the given number of reports has been received in total. */
+  private synchronized List<Report> awaitReports(int numReports) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (this.reports.size() < numReports) {
+      long timeout = deadline - System.currentTimeMillis();
+      assertTrue(timeout > 0, "received " + this.reports.size() + " of " + numReports + " reports");
+      wait(timeout);
+    }
+    return new ArrayList<>(this.reports);
+  }
+
   @Override
   public void newReport(Report arg0) {
     System.out.println("got a report.");
     synchronized (this) {
       this.reportCounter++;
+      this.reports.add(arg0);
+      notifyAll();
     }
   }
 }
@@ -13,19 +13,26 @@
  */
 package com.beanit.jositransport;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.Test;
 
 public class ClientServerITest {
 
+  private static final int NUM_SENDERS = 4;
+  private static final int NUM_TSDUS_PER_SENDER = 25;
+
   public static String getByteArrayString(byte[] byteArray) {
     StringBuilder builder = new StringBuilder();
     int l = 1;
@@ -49,10 +56,116 @@ public class ClientServerITest {
 
   @Test
   public void testClientServerCom() throws IOException, TimeoutException {
+    testClientServerCom(18982, 0);
+  }
 
-    int port = 18982;
+  @Test
+  public void testNonBlockingClientServerCom() throws IOException, TimeoutException {
+    testClientServerCom(18983, 2);
+  }
+
+  @Test
+  public void testConcurrentSegmentedTsdus() throws Exception {
+    testConcurrentSegmentedTsdus(18984, 0);
+  }
+
+  @Test
+  public void testNonBlockingConcurrentSegmentedTsdus() throws Exception {
+    testConcurrentSegmentedTsdus(18985, 2);
+  }
+
+  /** Returns a TSDU whose first two bytes identify its sender and number. */
+  private static byte[] createTsdu(int sender, int number) {
+    byte[] tsdu = new byte[2 + ((sender * NUM_TSDUS_PER_SENDER + number) * 37) % 1500];
+    for (int i = 0; i < tsdu.length; i++) {
+      tsdu[i] = (byte) (sender * 31 + number * 7 + i);
+    }
+    tsdu[0] = (byte) sender;
+    tsdu[1] = (byte) number;
+    return tsdu;
+  }
+
+  /**
+   * Splits the TSDU into a heap buffer that does not start at the beginning of its array, an empty
+   * buffer and a direct buffer.
+   */
+  private static ByteBuffer[] createTsduSegments(byte[] tsdu) {
+    int firstLength = tsdu.length / 3;
+    byte[] array = new byte[firstLength + 5];
+    System.arraycopy(tsdu, 0, array, 3, firstLength);
+    ByteBuffer direct = ByteBuffer.allocateDirect(tsdu.length - firstLength);
+    direct.put(tsdu, firstLength, tsdu.length - firstLength);
+    direct.flip();
+    return new ByteBuffer[] {
+      ByteBuffer.wrap(array, 3, firstLength), ByteBuffer.allocate(0), direct
+    };
+  }
+
+  private void testConcurrentSegmentedTsdus(int port, int numIoThreads) throws Exception {
+
+    ServerTSap serverTSAP = new ServerTSap(port, new EchoServer());
+    serverTSAP.setNumIoThreads(numIoThreads);
+    serverTSAP.startListening();
+
+    ClientTSap tSAP = new ClientTSap();
+    // most TSDUs span several TPDUs of 128 bytes
+    tSAP.setMaxTPDUSizeParam(7);
+    tSAP.setNumIoThreads(numIoThreads);
+    final TConnection tConnection = tSAP.connectTo(InetAddress.getByName("127.0.0.1"), port);
+    tConnection.setMessageTimeout(5000);
+
+    try {
+      List<Thread> senders = new ArrayList<>();
+      final List<Exception> sendExceptions = new ArrayList<>();
+      for (int i = 0; i < NUM_SENDERS; i++) {
+        final int sender = i;
+        Thread thread =
+            new Thread() {
+              @Override
+              public void run() {
+                try {
+                  for (int number = 0; number < NUM_TSDUS_PER_SENDER; number++) {
+                    tConnection.send(createTsduSegments(createTsdu(sender, number)));
+                  }
+                } catch (IOException e) {
+                  synchronized (sendExceptions) {
+                    sendExceptions.add(e);
+                  }
+                }
+              }
+            };
+        senders.add(thread);
+        thread.start();
+      }
+
+      // the TSDUs of concurrent senders must not be interleaved
+      ByteBufferPool bufferPool = new ByteBufferPool(1);
+      Set<Integer> receivedTsdus = new HashSet<>();
+      for (int i = 0; i < NUM_SENDERS * NUM_TSDUS_PER_SENDER; i++) {
+        ByteBuffer tSduBuffer = tConnection.receive(bufferPool, 2048);
+        byte[] tsdu = new byte[tSduBuffer.remaining()];
+        tSduBuffer.get(tsdu);
+        bufferPool.release(tSduBuffer);
+        assertTrue(tsdu.length >= 2);
+        assertTrue(Arrays.equals(createTsdu(tsdu[0], tsdu[1]), tsdu), "TSDU " + i);
+        assertTrue(receivedTsdus.add(tsdu[0] * NUM_TSDUS_PER_SENDER + tsdu[1]));
+      }
+
+      for (Thread sender : senders) {
+        sender.join();
+      }
+      assertEquals(0, sendExceptions.size());
+    } finally {
+      tConnection.disconnect();
+      serverTSAP.stopListening();
+    }
+  }
+
+  private void testClientServerCom(int port, int numIoThreads)
+      throws IOException, TimeoutException {
 
     ServerTSap serverTSAP = new ServerTSap(port, new SampleServer());
+    serverTSAP.setNumIoThreads(numIoThreads);
 
     serverTSAP.startListening();
 
@@ -60,6 +173,7 @@ public class ClientServerITest {
 
     ClientTSap tSAP = new ClientTSap();
     tSAP.setMaxTPDUSizeParam(7);
+    tSAP.setNumIoThreads(numIoThreads);
     TConnection tConnection;
 
     tConnection = tSAP.connectTo(address, port);
@@ -399,6 +513,36 @@ public class ClientServerITest {
     return C;
   }
 
+  /** Sends every received TSDU back until the connection is closed. */
+  public static class EchoServer implements TConnectionListener {
+
+    private final ByteBufferPool bufferPool = new ByteBufferPool(1);
+
+    @Override
+    public void connectionIndication(TConnection tConnection) {
+      tConnection.setMessageTimeout(0);
+      try {
+        while (true) {
+          ByteBuffer tSduBuffer = tConnection.receive(bufferPool, 2048);
+          try {
+            tConnection.send(new ByteBuffer[] {tSduBuffer});
+          } finally {
+            bufferPool.release(tSduBuffer);
+          }
+        }
+      } catch (EOFException e) {
+        // the client disconnected
+      } catch (IOException | TimeoutException e) {
+        System.err.println("Caught exception echoing data:" + e.getMessage());
+      } finally {
+        tConnection.close();
+      }
+    }
+
+    @Override
+    public void serverStoppedListeningIndication(IOException e) {}
+  }
+
   public static class SampleServer implements TConnectionListener {
 
     @Override